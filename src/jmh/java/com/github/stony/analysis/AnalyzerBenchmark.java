@@ -0,0 +1,97 @@
+package com.github.stony.analysis;
+
+import com.github.stony.memory.ArrayMemory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Static analysis of a synthetic version 8 story, on a single thread and on the common fork/join pool. Every routine
+ * loops over calls to two others, routine i calling 2i + 1 and 2i + 2 modulo the routine count, so the call graph is
+ * discovered in waves doubling in size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnalyzerBenchmark {
+    /* Bytes taken by a routine, a multiple of the version 8 packing factor */
+    private static final int ROUTINE_SIZE = 24;
+    private static final int FIRST_ROUTINE = 0x100;
+
+    @Param({"1024", "16384"})
+    public int routineCount;
+
+    /**
+     * Pool parallelism, 0 for the common pool.
+     */
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private StoryAnalyzer analyzer;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setUp() {
+        analyzer = new StoryAnalyzer(new ArrayMemory(story(routineCount)));
+        pool = parallelism == 0 ? ForkJoinPool.commonPool() : new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public StoryAnalysis analyze() {
+        return analyzer.analyze(pool, new int[0]);
+    }
+
+    private static byte[] story(int routineCount) {
+        final byte[] story = new byte[FIRST_ROUTINE + routineCount * ROUTINE_SIZE];
+        story[0x00] = 8;
+        putWord(story, 0x04, 0x40); /* high memory base */
+        putWord(story, 0x06, 0x40); /* initial program counter */
+        putWord(story, 0x0e, 0x40); /* static memory base */
+
+        /* main: call_vs routine 0 -> sp; quit */
+        int address = 0x40;
+        address = putCall(story, address, 0);
+        story[address] = (byte) 0xba;
+
+        for (int i = 0; i < routineCount; i++) {
+            final int routine = FIRST_ROUTINE + i * ROUTINE_SIZE;
+            story[routine] = 1; /* one local */
+            /* inc_chk L00 #10 ?rtrue */
+            story[routine + 1] = 0x05;
+            story[routine + 2] = 0x01;
+            story[routine + 3] = 0x0a;
+            story[routine + 4] = (byte) 0xc1;
+            address = putCall(story, routine + 5, (2 * i + 1) % routineCount);
+            address = putCall(story, address, (2 * i + 2) % routineCount);
+            /* jump back to inc_chk */
+            story[address] = (byte) 0x8c;
+            putWord(story, address + 1, (routine + 1) - (address + 3) + 2);
+        }
+        return story;
+    }
+
+    /* call_vs with a large constant routine, storing to the stack */
+    private static int putCall(byte[] story, int address, int routineIndex) {
+        story[address] = (byte) 0xe0;
+        story[address + 1] = 0x3f;
+        putWord(story, address + 2, (FIRST_ROUTINE + routineIndex * ROUTINE_SIZE) / 8);
+        story[address + 4] = 0x00;
+        return address + 5;
+    }
+
+    private static void putWord(byte[] story, int address, int value) {
+        story[address] = (byte) (value >> 8);
+        story[address + 1] = (byte) value;
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A story calling an arithmetic routine with nested loops, interpreted and compiled. The instruction cache is enabled
+ * in both cases.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompilerBenchmark {
+    private static final int SLICE = 100000;
+
+    @Param({"false", "true"})
+    public boolean compiler;
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/compiler/arithmetic.z3"));
+        interpreter.setInstructionCacheEnabled(true);
+        interpreter.setCompilerEnabled(compiler);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SLICE)
+    public ExecutionStatus run() {
+        return interpreter.run(SLICE);
+    }
+}
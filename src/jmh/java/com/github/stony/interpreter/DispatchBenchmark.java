@@ -0,0 +1,34 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode and dispatch loop: one executeInstruction() call per operation, on a story which never quits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DispatchBenchmark {
+    @Param({"false", "true"})
+    public boolean instructionCache;
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/spin.z3"));
+        interpreter.setInstructionCacheEnabled(instructionCache);
+    }
+
+    @Benchmark
+    public int executeInstruction() {
+        interpreter.executeInstruction();
+        return interpreter.pc;
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Specialized and generic engines on the same workload: slices of a story which never quits, mixing arithmetic,
+ * branches and routine calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EngineBenchmark {
+    private static final int SLICE = 10000;
+
+    @Param({"false", "true"})
+    public boolean specialized;
+
+    @Param({"false", "true"})
+    public boolean instructionCache;
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/spin.z3"));
+        interpreter.setSpecializedEngineEnabled(specialized);
+        interpreter.setInstructionCacheEnabled(instructionCache);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SLICE)
+    public ExecutionStatus run() {
+        return interpreter.run(SLICE);
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Each default fused pattern, in a story looping over it, with and without fusion. The instruction cache is enabled in
+ * both cases, fusion needs it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FusionBenchmark {
+    private static final int SLICE = 10000;
+
+    @Param({"push_add_store", "inc_chk_jump", "je_rtrue"})
+    public String pattern;
+
+    @Param({"false", "true"})
+    public boolean fusion;
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/fusion/" + pattern + ".z3"));
+        interpreter.setInstructionCacheEnabled(true);
+        interpreter.setFusionSet(fusion ? FusionSet.defaults() : null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SLICE)
+    public ExecutionStatus run() {
+        return interpreter.run(SLICE);
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.StoryImage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first instruction of a 512 kb story (the largest a version 8 story can be), read onto the heap or mapped,
+ * and the cost of each backend once running: the story's code is read from the heap or from the mapped file.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    private static final int STORY_SIZE = 512 * 1024;
+
+    @Param({"array", "mapped"})
+    public String backend;
+
+    private Path file;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("story", ".z3");
+        file.toFile().deleteOnExit();
+        /* padded high memory, never read: the heap path still reads all of it */
+        Files.write(file, Arrays.copyOf(Stories.read("/stories/spin.z3"), STORY_SIZE));
+        interpreter = load();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    private Interpreter load() throws IOException {
+        return backend.equals("mapped") ? Stories.interpreter(StoryImage.map(file))
+                : Stories.interpreter(Files.readAllBytes(file));
+    }
+
+    @Benchmark
+    public int firstInstruction() throws IOException {
+        final Interpreter interpreter = load();
+        interpreter.executeInstruction();
+        return interpreter.pc;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    public int executeInstruction() {
+        interpreter.executeInstruction();
+        return interpreter.pc;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.MemoryBackend;
+import com.github.stony.memory.StoryImage;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode and dispatch loop with the dynamic memory on the heap or off it, and the cost of creating a session with
+ * each backend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MemoryBackendBenchmark {
+    @Param({"HEAP", "OFF_HEAP"})
+    public MemoryBackend backend;
+
+    private StoryImage storyImage;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        storyImage = new StoryImage(Stories.read("/stories/spin.z3"));
+        interpreter = createSession();
+    }
+
+    @Benchmark
+    public int executeInstruction() {
+        interpreter.executeInstruction();
+        return interpreter.pc;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Interpreter createSession() {
+        return new Interpreter(storyImage, backend, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+    }
+}
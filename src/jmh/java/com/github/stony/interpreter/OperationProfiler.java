@@ -0,0 +1,54 @@
+package com.github.stony.interpreter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Profiles a corpus of stories and prints the most frequent pairs and triples of operations, the candidates for
+ * {@link FusionSet}. Run with the benchmark classpath:
+ * <pre>
+ * java com.github.stony.interpreter.OperationProfiler [instructions per story] story...
+ * </pre>
+ * Stories are run without input: each one is profiled until it quits, waits for input or the instruction count is
+ * reached. Without story arguments, the benchmark stories are profiled.
+ */
+public final class OperationProfiler {
+    private static final int DEFAULT_INSTRUCTIONS = 1000000;
+    private static final int REPORTED = 10;
+
+    /* Prevents instantiation */
+    private OperationProfiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int first = 0;
+        int instructions = DEFAULT_INSTRUCTIONS;
+        if (args.length > 0 && args[0].matches("\\d+")) {
+            instructions = Integer.parseInt(args[0]);
+            first = 1;
+        }
+
+        final OperationProfile profile = new OperationProfile();
+        if (first == args.length) {
+            for (String story : new String[]{"/stories/spin.z3", "/stories/print.z3"}) {
+                profile(Stories.read(story), instructions, profile);
+            }
+        } else {
+            for (int i = first; i < args.length; i++) {
+                profile(Files.readAllBytes(Paths.get(args[i])), instructions, profile);
+            }
+        }
+        System.out.print(profile.describe(REPORTED));
+    }
+
+    private static void profile(byte[] fileData, int instructions, OperationProfile profile) {
+        final Interpreter interpreter = Stories.interpreter(fileData);
+        interpreter.setOperationProfile(profile);
+        final ExecutionStatus status = interpreter.run(instructions);
+        if (status == ExecutionStatus.ERROR) {
+            System.err.println("Story failed: " + interpreter.getError());
+        }
+        profile.endSequence();
+    }
+}
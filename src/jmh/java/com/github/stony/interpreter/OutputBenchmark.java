@@ -0,0 +1,66 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output path: each operation prints a number and a line break. The output stream counts the write calls reaching it,
+ * which stand for system calls when the caller's stream is a file or a socket. Run with "-prof gc" for allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputBenchmark {
+    /**
+     * Write calls, reported by JMH per operation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Writes {
+        public long writes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            writes = 0;
+        }
+    }
+
+    private Interpreter interpreter;
+    private CountingOutputStream outputStream;
+
+    @Setup
+    public void setUp() throws IOException {
+        outputStream = new CountingOutputStream();
+        interpreter = new Interpreter(Stories.read("/stories/print.z3"), new ByteArrayInputStream(new byte[0]),
+                outputStream);
+    }
+
+    @Benchmark
+    public ExecutionStatus printNumberAndNewLine(Writes writes) {
+        final long before = outputStream.writes;
+        final ExecutionStatus status = interpreter.run(4);
+        writes.writes += outputStream.writes - before;
+        return status;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long writes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the execution profiler in the dispatch loop: none when disabled, sampling one instruction in 64 otherwise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ProfilerBenchmark {
+    @Param({"false", "true"})
+    public boolean profiler;
+
+    private Interpreter interpreter;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/spin.z3"));
+        interpreter.setInstructionCacheEnabled(true);
+        if (profiler) {
+            interpreter.setProfiler(new ExecutionProfiler());
+        }
+    }
+
+    @Benchmark
+    public int executeInstruction() {
+        interpreter.executeInstruction();
+        return interpreter.pc;
+    }
+
+    @Benchmark
+    public ExecutionStatus run() {
+        return interpreter.run(1000);
+    }
+}
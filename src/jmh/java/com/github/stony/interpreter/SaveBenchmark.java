@@ -0,0 +1,76 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and restoring a story with 60 kilobytes of dynamic memory, a given percentage of it changed: Quetzal files
+ * with compressed memory against a naive copy of the whole dynamic memory. The sizes are printed once per fork.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SaveBenchmark {
+    private static final int DYNAMIC_SIZE = 0xf000;
+
+    @Param({"1", "10"})
+    public int changedPercent;
+
+    private Interpreter interpreter;
+    private ByteBuffer file;
+    private ByteBuffer dump;
+
+    @Setup
+    public void setUp() throws IOException {
+        /* the arithmetic story, with the static memory moved up to enlarge the dynamic memory */
+        final byte[] story = Stories.read("/stories/compiler/arithmetic.z3");
+        final byte[] fileData = new byte[DYNAMIC_SIZE + 0x1000];
+        System.arraycopy(story, 0, fileData, 0, story.length);
+        fileData[0x0e] = (byte) (DYNAMIC_SIZE >> 8);
+        fileData[0x0f] = (byte) DYNAMIC_SIZE;
+        interpreter = Stories.interpreter(fileData);
+        interpreter.run(1000); /* a few frames deep */
+
+        final Random random = new Random(42);
+        for (int i = 0; i < (DYNAMIC_SIZE - story.length) * changedPercent / 100; i++) {
+            interpreter.memory.writeByte(story.length + random.nextInt(DYNAMIC_SIZE - story.length),
+                    1 + random.nextInt(255));
+        }
+
+        final ByteBuffer saved = interpreter.save();
+        file = ByteBuffer.allocate(saved.remaining()).put(saved);
+        file.flip();
+        dump = ByteBuffer.allocate(DYNAMIC_SIZE);
+        System.out.println("Quetzal file: " + file.remaining() + " bytes, full dump: " + DYNAMIC_SIZE + " bytes");
+    }
+
+    @Benchmark
+    public ByteBuffer save() {
+        return interpreter.save();
+    }
+
+    @Benchmark
+    public void restore() throws IOException {
+        interpreter.restore(file);
+    }
+
+    @Benchmark
+    public ByteBuffer saveFullDump() {
+        dump.clear();
+        interpreter.memory.readBytes(0, dump, DYNAMIC_SIZE);
+        return dump;
+    }
+
+    @Benchmark
+    public void restoreFullDump() {
+        dump.clear();
+        interpreter.memory.writeBytes(0, dump, DYNAMIC_SIZE);
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.StoryImage;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * Loads story files for the benchmarks.
+ */
+final class Stories {
+    /* Prevents instantiation */
+    private Stories() {
+    }
+
+    /**
+     * Returns the content of a story resource file.
+     *
+     * @param filePath path to the resource file.
+     * @return content of the story file.
+     * @throws IOException when the file doesn't exist or can't be read.
+     */
+    @SuppressWarnings("TryFinallyCanBeTryWithResources")
+    static byte[] read(String filePath) throws IOException {
+        final URL url = Stories.class.getResource(filePath);
+        if (url == null) {
+            throw new FileNotFoundException("Invalid file path: " + filePath);
+        }
+
+        final RandomAccessFile randomAccessFile;
+        try {
+            randomAccessFile = new RandomAccessFile(new File(url.toURI()), "r");
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid file path: " + filePath, e);
+        }
+        try {
+            final byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Constructs an interpreter which reads nothing and discards its output.
+     *
+     * @param fileData story file data, used directly (not copied).
+     * @return the interpreter.
+     */
+    static Interpreter interpreter(byte[] fileData) {
+        return new Interpreter(fileData, new ByteArrayInputStream(new byte[0]), new NullOutputStream());
+    }
+
+    /**
+     * Constructs an interpreter for a story image which reads nothing and discards its output.
+     *
+     * @param storyImage story image.
+     * @return the interpreter.
+     */
+    static Interpreter interpreter(StoryImage storyImage) {
+        return new Interpreter(storyImage, new ByteArrayInputStream(new byte[0]), new NullOutputStream());
+    }
+
+    /**
+     * Discards everything, so the benchmarks measure the interpreter and not the output.
+     */
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
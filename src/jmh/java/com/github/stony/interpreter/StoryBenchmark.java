@@ -0,0 +1,48 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end runs of the test stories: construction of the interpreter and execution until quit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StoryBenchmark {
+    @Param({
+            "/stories/arithmetic/add.z3",
+            "/stories/arithmetic/div.z3",
+            "/stories/bitwise/or.z3",
+            "/stories/variable/store.z3",
+            "/stories/branch/loop.z3",
+            "/stories/call/fib.z3",
+            "/stories/call/calls.z5"
+    })
+    public String story;
+
+    @Param({"false", "true"})
+    public boolean instructionCache;
+
+    private byte[] fileData;
+
+    @Setup
+    public void setUp() throws IOException {
+        fileData = Stories.read(story);
+    }
+
+    @Benchmark
+    public int run() {
+        final Interpreter interpreter = Stories.interpreter(fileData.clone());
+        interpreter.setInstructionCacheEnabled(instructionCache);
+        while (!interpreter.isFinished()) {
+            interpreter.executeInstruction();
+        }
+        return interpreter.pc;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of trace recording in the dispatch loop: without a recorder, recording without checkpoints, and with a
+ * checkpoint every million instructions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TraceBenchmark {
+    /**
+     * Number of instructions between two checkpoints, 0 for none; -1 for no recorder.
+     */
+    @Param({"-1", "0", "1000000"})
+    public int checkpointInterval;
+
+    private Interpreter interpreter;
+    private Path trace;
+    private TraceRecorder recorder;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/spin.z3"));
+        interpreter.setInstructionCacheEnabled(true);
+        if (checkpointInterval >= 0) {
+            trace = Files.createTempFile("stony", ".trace");
+            recorder = TraceRecorder.create(trace, checkpointInterval);
+            interpreter.setTraceRecorder(recorder);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (recorder != null) {
+            recorder.close();
+            Files.delete(trace);
+        }
+    }
+
+    @Benchmark
+    public int executeInstruction() {
+        interpreter.executeInstruction();
+        return interpreter.pc;
+    }
+
+    @Benchmark
+    public ExecutionStatus run() {
+        return interpreter.run(1000);
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.stony.interpreter;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Variable load and store, for the stack (0), a local (1) and a global (0x10).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VariableBenchmark {
+    @Param({"0", "1", "16"})
+    public int variable;
+
+    private Interpreter interpreter;
+    private int value;
+
+    @Setup
+    public void setUp() throws IOException {
+        interpreter = Stories.interpreter(Stories.read("/stories/spin.z3"));
+        interpreter.callStack.enter(0, -1, 0, 1, 0); /* a routine with one local */
+    }
+
+    /**
+     * Stores then loads the variable, so the stack stays balanced.
+     */
+    @Benchmark
+    public int storeAndLoad() {
+        interpreter.storeVariable(variable, ++value);
+        return interpreter.loadVariable(variable);
+    }
+}
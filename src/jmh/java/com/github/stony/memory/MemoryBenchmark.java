@@ -0,0 +1,75 @@
+package com.github.stony.memory;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Raw memory reads and writes, and snapshots after a write, with the memory on the heap or off it. Addresses walk the
+ * whole memory so the accesses can't be hoisted. A full copy of the memory is the baseline of the snapshots.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MemoryBenchmark {
+    private static final int SIZE = 64 * 1024;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public MemoryBackend backend;
+
+    private byte[] raw;
+    private Memory memory;
+    private int address;
+
+    @Setup
+    public void setUp() {
+        raw = new byte[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            raw[i] = (byte) (i * 31);
+        }
+        memory = backend == MemoryBackend.HEAP ? new ArrayMemory(raw) : new DirectMemory(ByteBuffer.wrap(raw), SIZE);
+    }
+
+    @Benchmark
+    public int readByte() {
+        address = (address + 1) & (SIZE - 1);
+        return memory.readByte(address);
+    }
+
+    @Benchmark
+    public int readWord() {
+        address = (address + 2) & (SIZE - 2);
+        return memory.readWord(address);
+    }
+
+    @Benchmark
+    public int readSignedWord() {
+        address = (address + 2) & (SIZE - 2);
+        return memory.readSignedWord(address);
+    }
+
+    @Benchmark
+    public void writeWord() {
+        address = (address + 2) & (SIZE - 2);
+        memory.writeWord(address, address);
+    }
+
+    @Benchmark
+    public MemorySnapshot snapshot() {
+        address = (address + 2) & (SIZE - 2);
+        memory.writeWord(address, address);
+        return memory.snapshot();
+    }
+
+    @Benchmark
+    public byte[] fullCopy() {
+        address = (address + 2) & (SIZE - 2);
+        memory.writeWord(address, address);
+        return Arrays.copyOf(raw, SIZE);
+    }
+}
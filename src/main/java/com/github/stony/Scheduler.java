@@ -0,0 +1,175 @@
+package com.github.stony;
+
+import com.github.stony.interpreter.ExecutionStatus;
+import com.github.stony.interpreter.Interpreter;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many interpreters over a fixed number of worker threads.
+ * <p>
+ * Interpreters run in slices: a slice ends when its instruction or time budget is used up, and the interpreter goes to
+ * the back of a single FIFO queue. Every scheduled interpreter thus gets one slice per round, and a story which never
+ * waits for input or quits only ever holds one worker for one slice at a time.
+ * <p>
+ * When an interpreter finishes, fails or waits for input, it leaves the scheduler and its listener is called. An
+ * interpreter waiting for input is submitted again once the input is available.
+ */
+public final class Scheduler {
+    /**
+     * Default number of instructions per slice.
+     */
+    public static final int DEFAULT_SLICE_INSTRUCTIONS = 100000;
+
+    /**
+     * Default slice duration, in nanoseconds.
+     */
+    public static final long DEFAULT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Called on a worker thread when an interpreter leaves the scheduler.
+     */
+    public interface Listener {
+        /**
+         * Called when an interpreter stopped running.
+         *
+         * @param interpreter the interpreter.
+         * @param status {@link ExecutionStatus#FINISHED}, {@link ExecutionStatus#AWAITING_INPUT},
+         *               {@link ExecutionStatus#ERROR}, or {@link ExecutionStatus#BUDGET_EXHAUSTED} when the scheduler
+         *               was shut down before the interpreter stopped.
+         */
+        void stopped(Interpreter interpreter, ExecutionStatus status);
+    }
+
+    private final ExecutorService executor;
+    private final int sliceInstructions;
+    private final long sliceNanos;
+    private final Set<Interpreter> scheduled =
+            Collections.newSetFromMap(new ConcurrentHashMap<Interpreter, Boolean>());
+
+    /**
+     * Constructs a scheduler with the default slice budgets.
+     * @param threads number of worker threads.
+     */
+    public Scheduler(int threads) {
+        this(threads, DEFAULT_SLICE_INSTRUCTIONS, DEFAULT_SLICE_NANOS);
+    }
+
+    /**
+     * Constructs a scheduler.
+     *
+     * @param threads number of worker threads.
+     * @param sliceInstructions maximum number of instructions per slice.
+     * @param sliceNanos maximum slice duration in nanoseconds, 0 for no time budget.
+     */
+    public Scheduler(int threads, int sliceInstructions, long sliceNanos) {
+        if (threads <= 0 || sliceInstructions <= 0 || sliceNanos < 0) {
+            throw new IllegalArgumentException("Invalid scheduler parameters: " + threads + " threads, "
+                    + sliceInstructions + " instructions, " + sliceNanos + " ns.");
+        }
+        this.sliceInstructions = sliceInstructions;
+        this.sliceNanos = sliceNanos;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new WorkerThreadFactory());
+    }
+
+    /**
+     * Schedules an interpreter, which runs until it stops.
+     *
+     * @param interpreter interpreter to be run.
+     * @param listener listener called when the interpreter stops.
+     * @throws IllegalStateException when the interpreter is already scheduled.
+     * @throws RejectedExecutionException when the scheduler was shut down.
+     */
+    public void submit(Interpreter interpreter, Listener listener) {
+        if (!scheduled.add(interpreter)) {
+            throw new IllegalStateException("Interpreter already scheduled.");
+        }
+        try {
+            executor.execute(new Slice(interpreter, listener));
+        } catch (RejectedExecutionException e) {
+            scheduled.remove(interpreter);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of interpreters submitted which haven't stopped yet.
+     * @return the scheduled interpreter count.
+     */
+    public int getScheduledCount() {
+        return scheduled.size();
+    }
+
+    /**
+     * Stops accepting interpreters. Interpreters already scheduled stop at the end of their current slice.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the worker threads to end after {@link #shutdown()}.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit unit of the timeout.
+     * @return true if the workers ended, false if the timeout elapsed.
+     * @throws InterruptedException when interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * One slice of an interpreter. The same instance is queued again until the interpreter stops.
+     */
+    private final class Slice implements Runnable {
+        private final Interpreter interpreter;
+        private final Listener listener;
+
+        Slice(Interpreter interpreter, Listener listener) {
+            this.interpreter = interpreter;
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            final ExecutionStatus status = interpreter.run(sliceInstructions, sliceNanos);
+            if (status == ExecutionStatus.BUDGET_EXHAUSTED && !executor.isShutdown()) {
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    /* shut down in the meantime */
+                }
+            }
+            /* removed first, so that the listener can submit the interpreter again */
+            scheduled.remove(interpreter);
+            listener.stopped(interpreter, status);
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private static final AtomicInteger schedulerCount = new AtomicInteger();
+
+        private final int schedulerNumber = schedulerCount.incrementAndGet();
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable,
+                    "stony-scheduler-" + schedulerNumber + "-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.stony;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs every session on its own virtual thread. An alternative to {@link Scheduler} for hosts which provide blocking
+ * input streams: a session blocked on {@link Stony#run()} parks its virtual thread and holds no platform thread.
+ * <p>
+ * The executor owns the sessions submitted to it: {@link #close()} waits for all of them to end, so that no session
+ * outlives it. Each session's output stream is flushed when the session ends, whether it finished or failed.
+ * <p>
+ * The interpreter itself never synchronizes, so sessions don't pin their carrier threads. Streams which block inside a
+ * synchronized method (for example {@link java.io.PipedInputStream}) do, and should be avoided.
+ */
+public final class SessionExecutor implements AutoCloseable {
+    private final ExecutorService executor;
+    private final AtomicInteger activeCount = new AtomicInteger();
+
+    /**
+     * Constructs an executor whose virtual threads are named "stony-session-" followed by a counter.
+     */
+    public SessionExecutor() {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("stony-session-", 1).factory());
+    }
+
+    /**
+     * Runs a session on a new virtual thread, until the story finishes or its input stream ends.
+     *
+     * @param stony session, with its input and output streams set.
+     * @return the session's future, which completes with the exception which stopped the story, if any.
+     * @throws java.util.concurrent.RejectedExecutionException when the executor is closed.
+     */
+    public Future<Void> submit(final Stony stony) {
+        activeCount.incrementAndGet();
+        try {
+            return executor.submit(() -> {
+                try {
+                    stony.run();
+                } finally {
+                    activeCount.decrementAndGet();
+                    flush(stony.getOutputStream());
+                }
+                return null;
+            });
+        } catch (RuntimeException e) {
+            activeCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of sessions submitted which haven't ended yet.
+     * @return the active session count.
+     */
+    public int getActiveCount() {
+        return activeCount.get();
+    }
+
+    /**
+     * Stops accepting sessions and waits for the running ones to end.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private static void flush(OutputStream outputStream) throws IOException {
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+    }
+}
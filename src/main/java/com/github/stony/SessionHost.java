@@ -0,0 +1,155 @@
+package com.github.stony;
+
+import com.github.stony.interpreter.ExecutionStatus;
+import com.github.stony.interpreter.Interpreter;
+import com.github.stony.interpreter.UndoBudget;
+import com.github.stony.memory.MemoryBackend;
+import com.github.stony.memory.StoryImage;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts many concurrent sessions (one interpreter per player) of the same story.
+ * <p>
+ * The story image is shared by every session, each session only owns a copy of the dynamic memory. Sessions are
+ * identified by a number returned on creation. The host is thread safe, but a single session must not be run by two
+ * threads at the same time.
+ * <p>
+ * The undo levels of all sessions are counted in a single {@link UndoBudget}, unlimited until its limit is set.
+ */
+public final class SessionHost {
+    private final StoryImage storyImage;
+    private final MemoryBackend memoryBackend;
+    private final ConcurrentMap<Long, Interpreter> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextSessionId = new AtomicLong(1);
+    private final UndoBudget undoBudget = new UndoBudget(Long.MAX_VALUE);
+
+    /**
+     * Constructs a host for a story, whose sessions hold their dynamic memory on the heap.
+     * @param storyImage story shared by every session.
+     */
+    public SessionHost(StoryImage storyImage) {
+        this(storyImage, MemoryBackend.HEAP);
+    }
+
+    /**
+     * Constructs a host for a story.
+     *
+     * @param storyImage story shared by every session.
+     * @param memoryBackend where each session holds its dynamic memory.
+     */
+    public SessionHost(StoryImage storyImage, MemoryBackend memoryBackend) {
+        this.storyImage = storyImage;
+        this.memoryBackend = memoryBackend;
+    }
+
+    public StoryImage getStoryImage() {
+        return storyImage;
+    }
+
+    public MemoryBackend getMemoryBackend() {
+        return memoryBackend;
+    }
+
+    /**
+     * Returns the budget shared by the undo levels of all sessions, to set its limit or read the bytes used.
+     * @return the undo budget.
+     */
+    public UndoBudget getUndoBudget() {
+        return undoBudget;
+    }
+
+    /**
+     * Creates a session, starting at the beginning of the story.
+     *
+     * @param inputStream session input stream.
+     * @param outputStream session output stream.
+     * @return the session id.
+     */
+    public long create(InputStream inputStream, OutputStream outputStream) {
+        final long sessionId = nextSessionId.getAndIncrement();
+        final Interpreter interpreter = new Interpreter(storyImage, memoryBackend, inputStream, outputStream);
+        interpreter.setUndoBudget(undoBudget);
+        sessions.put(sessionId, interpreter);
+        return sessionId;
+    }
+
+    /**
+     * Returns the interpreter of a session.
+     *
+     * @param sessionId session id.
+     * @return the session's interpreter.
+     * @throws IllegalArgumentException when the session doesn't exist.
+     */
+    public Interpreter get(long sessionId) {
+        final Interpreter interpreter = sessions.get(sessionId);
+        if (interpreter == null) {
+            throw new IllegalArgumentException("Unknown session: " + sessionId);
+        }
+        return interpreter;
+    }
+
+    /**
+     * Runs a session until the story finishes, fails or waits for input.
+     *
+     * @param sessionId session id.
+     * @return why the session stopped.
+     */
+    public ExecutionStatus run(long sessionId) {
+        final Interpreter interpreter = get(sessionId);
+        ExecutionStatus status;
+        do {
+            status = interpreter.run(Integer.MAX_VALUE);
+        } while (status == ExecutionStatus.BUDGET_EXHAUSTED);
+        return status;
+    }
+
+    /**
+     * Runs a session until the story finishes, fails or the instruction budget is used up. To run many sessions
+     * fairly over a few threads, use a {@link Scheduler}.
+     *
+     * @param sessionId session id.
+     * @param maxInstructions maximum number of instructions to execute.
+     * @return why the session stopped.
+     */
+    public ExecutionStatus run(long sessionId, int maxInstructions) {
+        return get(sessionId).run(maxInstructions);
+    }
+
+    /**
+     * Provides the input a session waits for. The session continues on the next run.
+     *
+     * @param sessionId session id.
+     * @param input line or character, see {@link Interpreter#resume(String)}.
+     */
+    public void resume(long sessionId, String input) {
+        get(sessionId).resume(input);
+    }
+
+    /**
+     * Disposes of a session. Its id becomes invalid, and its undo levels are released from the budget.
+     *
+     * @param sessionId session id.
+     * @return true if the session existed.
+     */
+    public boolean dispose(long sessionId) {
+        final Interpreter interpreter = sessions.remove(sessionId);
+        if (interpreter == null) {
+            return false;
+        }
+        interpreter.clearUndo();
+        return true;
+    }
+
+    /**
+     * Returns the number of sessions created and not disposed of.
+     * @return the session count.
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+}
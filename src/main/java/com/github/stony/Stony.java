@@ -1,14 +1,33 @@
 package com.github.stony;
 
+import com.github.stony.interpreter.ExecutionStatus;
+import com.github.stony.interpreter.InputRequest;
 import com.github.stony.interpreter.Interpreter;
+import com.github.stony.memory.StoryImage;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Runs a story.
+ * <p>
+ * {@link #run()} blocks, reading the player's input from the input stream. Hosts which can't afford a blocked thread per
+ * player use {@link #start()} instead: it returns when the story waits for input, and {@link #resume(String)} continues
+ * it, possibly on another thread. To run many blocking sessions, each on its own virtual thread, see
+ * {@link SessionExecutor}.
+ * <p>
+ * A story read into a byte array is run in place. To avoid reading a large story onto the heap, map it instead:
+ * {@code new Stony(StoryImage.map(path))}.
+ */
 public class Stony {
     private Interpreter interpreter;
 
     private byte[] fileData;
+    private StoryImage storyImage;
     private InputStream inputStream;
     private OutputStream outputStream;
 
@@ -16,6 +35,14 @@ public class Stony {
         this.fileData = fileData;
     }
 
+    /**
+     * Constructs a runner for a story image, possibly mapped from a file, see {@link StoryImage#map(java.nio.file.Path)}.
+     * @param storyImage story image.
+     */
+    public Stony(StoryImage storyImage) {
+        this.storyImage = storyImage;
+    }
+
     public InputStream getInputStream() {
         return inputStream;
     }
@@ -32,7 +59,38 @@ public class Stony {
         this.outputStream = outputStream;
     }
 
-    public void run() {
+    /**
+     * Runs the story until it finishes or the input stream ends. Input is read as UTF-8 lines, or single characters
+     * when the story reads characters.
+     *
+     * @throws IOException when reading the input stream failed.
+     * @throws RuntimeException when an instruction failed.
+     */
+    public void run() throws IOException {
+        ExecutionStatus status = start();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+        while (status == ExecutionStatus.AWAITING_INPUT) {
+            final String input;
+            if (interpreter.getInputRequest().getType() == InputRequest.Type.CHARACTER) {
+                final int c = reader.read();
+                input = c < 0 ? null : c == '\n' ? "" : String.valueOf((char) c);
+            } else {
+                input = reader.readLine();
+            }
+            if (input == null) {
+                return;
+            }
+            status = resume(input);
+        }
+    }
+
+    /**
+     * Starts the story and runs it until it finishes or waits for input. The input stream is not used.
+     *
+     * @return {@link ExecutionStatus#FINISHED} or {@link ExecutionStatus#AWAITING_INPUT}.
+     * @throws RuntimeException when an instruction failed.
+     */
+    public ExecutionStatus start() {
         if (inputStream == null) {
             inputStream = System.in;
         }
@@ -40,9 +98,43 @@ public class Stony {
             outputStream = System.out;
         }
 
-        interpreter = new Interpreter(fileData, inputStream, outputStream);
-        while (!interpreter.isFinished()) {
-            interpreter.executeInstruction();
+        interpreter = storyImage != null ? new Interpreter(storyImage, inputStream, outputStream)
+                : new Interpreter(fileData, inputStream, outputStream);
+        return runUntilStopped();
+    }
+
+    /**
+     * Provides the input the story waits for and runs it until it finishes or waits for input again.
+     *
+     * @param input line or character, see {@link Interpreter#resume(String)}.
+     * @return {@link ExecutionStatus#FINISHED} or {@link ExecutionStatus#AWAITING_INPUT}.
+     * @throws IllegalStateException when the story wasn't started or doesn't wait for input.
+     * @throws RuntimeException when an instruction failed.
+     */
+    public ExecutionStatus resume(String input) {
+        if (interpreter == null) {
+            throw new IllegalStateException("The story wasn't started.");
+        }
+        interpreter.resume(input);
+        return runUntilStopped();
+    }
+
+    /**
+     * Returns the input the story waits for.
+     * @return the input request, or null if the story doesn't wait for input.
+     */
+    public InputRequest getInputRequest() {
+        return interpreter == null ? null : interpreter.getInputRequest();
+    }
+
+    private ExecutionStatus runUntilStopped() {
+        ExecutionStatus status;
+        do {
+            status = interpreter.run(Integer.MAX_VALUE);
+        } while (status == ExecutionStatus.BUDGET_EXHAUSTED);
+        if (status == ExecutionStatus.ERROR) {
+            throw interpreter.getError();
         }
+        return status;
     }
 }
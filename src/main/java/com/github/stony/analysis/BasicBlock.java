@@ -0,0 +1,62 @@
+package com.github.stony.analysis;
+
+import java.util.List;
+
+/**
+ * A straight sequence of instructions of a routine: only the first one is the target of a jump or branch, only the last
+ * one jumps, branches or leaves the routine. Calls don't end blocks. Immutable.
+ */
+public final class BasicBlock {
+    private final List<Instruction> instructions;
+    private final int[] successors;
+
+    BasicBlock(List<Instruction> instructions, int[] successors) {
+        this.instructions = instructions;
+        this.successors = successors;
+    }
+
+    /**
+     * Returns the address of the first instruction.
+     * @return the start address.
+     */
+    public int getStartAddress() {
+        return instructions.get(0).getAddress();
+    }
+
+    /**
+     * Returns the address following the last instruction.
+     * @return the end address, exclusive.
+     */
+    public int getEndAddress() {
+        return instructions.get(instructions.size() - 1).getNextAddress();
+    }
+
+    /**
+     * Returns the instructions, in address order.
+     * @return an unmodifiable list.
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Returns the blocks which can follow this one.
+     * @return the start addresses of the successors, in ascending order; empty if the block leaves the routine.
+     */
+    public int[] getSuccessors() {
+        return successors.clone();
+    }
+
+    /**
+     * Tells if the block can jump backwards, to itself or an earlier block: the end of a loop.
+     * @return true for a loop.
+     */
+    public boolean isLoopEnd() {
+        for (int successor : successors) {
+            if (successor <= getStartAddress()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.stony.analysis;
+
+import com.github.stony.interpreter.DecodedInstruction;
+import com.github.stony.interpreter.InstructionDecoder;
+
+/**
+ * An instruction found by the {@link StoryAnalyzer}. Immutable.
+ */
+public final class Instruction {
+    /**
+     * Branch target of a branch which returns false instead of jumping.
+     */
+    public static final int RETURN_FALSE = -2;
+
+    /**
+     * Branch target of a branch which returns true instead of jumping.
+     */
+    public static final int RETURN_TRUE = -3;
+
+    private final int address;
+    private final int nextAddress;
+    private final DecodedInstruction decoded;
+    private final int target;
+    private final int callTarget;
+
+    Instruction(int address, int nextAddress, DecodedInstruction decoded, int target, int callTarget) {
+        this.address = address;
+        this.nextAddress = nextAddress;
+        this.decoded = decoded;
+        this.target = target;
+        this.callTarget = callTarget;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the address following the instruction, and the text of print and print_ret.
+     * @return the address of the next instruction.
+     */
+    public int getNextAddress() {
+        return nextAddress;
+    }
+
+    /**
+     * Returns the operation, see {@link InstructionDecoder}.
+     * @return the operation identifier.
+     */
+    public int getOperation() {
+        return decoded.getOperation();
+    }
+
+    /**
+     * Returns the operation name, for example 2OP:0x14 for add.
+     * @return the name.
+     */
+    public String getName() {
+        return InstructionDecoder.operationName(decoded.getOperation());
+    }
+
+    /**
+     * Returns the decoded operands, store variable and branch.
+     * @return the decoded instruction.
+     */
+    public DecodedInstruction getDecoded() {
+        return decoded;
+    }
+
+    /**
+     * Returns where a jump or a taken branch goes.
+     * @return the target address, {@link #RETURN_FALSE} or {@link #RETURN_TRUE}; -1 for other instructions.
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns the routine called by a call instruction with a constant routine.
+     * @return the byte address of the routine, -1 if the instruction isn't such a call.
+     */
+    public int getCallTarget() {
+        return callTarget;
+    }
+
+    /**
+     * Tells if the instruction is a call whose routine is a variable, unknown before running.
+     * @return true for indirect calls.
+     */
+    public boolean isIndirectCall() {
+        return InstructionDecoder.isCall(decoded.getOperation()) && decoded.getOperandCount() > 0
+                && decoded.getOperandType(0) == InstructionDecoder.VARIABLE;
+    }
+
+    /**
+     * Tells if the next instruction can't follow this one: jumps, returns, quit, restart and throw.
+     * @return true if the flow doesn't fall through.
+     */
+    public boolean isTerminal() {
+        return InstructionDecoder.isJump(decoded.getOperation())
+                || InstructionDecoder.isTerminal(decoded.getOperation());
+    }
+
+    /**
+     * Disassembles the instruction: address, operation, operands (#constants, sp, Lnn locals, Gnn globals), store
+     * variable after -> and branch after ? (~ when branching on false).
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append(String.format("%05x: %s", address, getName()));
+        for (int i = 0; i < decoded.getOperandCount(); i++) {
+            builder.append(' ');
+            if (decoded.getOperandType(i) == InstructionDecoder.VARIABLE) {
+                appendVariable(builder, decoded.getOperandValue(i));
+            } else {
+                builder.append('#').append(Integer.toHexString(decoded.getOperandValue(i)));
+            }
+        }
+        if (InstructionDecoder.isJump(decoded.getOperation()) && target >= 0) {
+            builder.append(String.format(" (%05x)", target));
+        }
+        if (decoded.getStore() >= 0) {
+            builder.append(" -> ");
+            appendVariable(builder, decoded.getStore());
+        }
+        if (target != -1 && !InstructionDecoder.isJump(decoded.getOperation())) {
+            builder.append(decoded.isBranchOnTrue() ? " ?" : " ?~");
+            if (target == RETURN_FALSE) {
+                builder.append("rfalse");
+            } else if (target == RETURN_TRUE) {
+                builder.append("rtrue");
+            } else {
+                builder.append(String.format("%05x", target));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void appendVariable(StringBuilder builder, int variable) {
+        if (variable == 0) {
+            builder.append("sp");
+        } else if (variable < 0x10) {
+            builder.append(String.format("L%02x", variable - 1));
+        } else {
+            builder.append(String.format("G%02x", variable - 0x10));
+        }
+    }
+}
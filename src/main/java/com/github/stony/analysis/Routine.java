@@ -0,0 +1,113 @@
+package com.github.stony.analysis;
+
+import java.util.List;
+
+/**
+ * A routine found by the {@link StoryAnalyzer}, with the instructions reachable from its first one. Immutable.
+ */
+public final class Routine {
+    private final int address;
+    private final boolean main;
+    private final int localCount;
+    private final List<Instruction> instructions;
+    private final List<BasicBlock> basicBlocks;
+    private final int[] callees;
+    private final boolean complete;
+
+    Routine(int address, boolean main, int localCount, List<Instruction> instructions, List<BasicBlock> basicBlocks,
+            int[] callees, boolean complete) {
+        this.address = address;
+        this.main = main;
+        this.localCount = localCount;
+        this.instructions = instructions;
+        this.basicBlocks = basicBlocks;
+        this.callees = callees;
+        this.complete = complete;
+    }
+
+    /**
+     * Returns the address of the routine: the header for a called routine, the first instruction for the main routine.
+     * @return the byte address.
+     */
+    public int getAddress() {
+        return address;
+    }
+
+    /**
+     * Tells if this is the code run at the start, from the initial program counter. It has no header.
+     * @return true for the main routine.
+     */
+    public boolean isMain() {
+        return main;
+    }
+
+    public int getLocalCount() {
+        return localCount;
+    }
+
+    /**
+     * Returns the reachable instructions.
+     * @return an unmodifiable list, in address order.
+     */
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Returns the basic blocks, the first one starting at the first instruction.
+     * @return an unmodifiable list, in address order.
+     */
+    public List<BasicBlock> getBasicBlocks() {
+        return basicBlocks;
+    }
+
+    /**
+     * Returns the routines called with a constant address.
+     * @return the byte addresses of the routines, in ascending order.
+     */
+    public int[] getCallees() {
+        return callees.clone();
+    }
+
+    /**
+     * Tells if the routine calls routines whose address is only known when running, such as object properties.
+     * @return true if an indirect call was found.
+     */
+    public boolean hasIndirectCalls() {
+        for (Instruction instruction : instructions) {
+            if (instruction.isIndirectCall()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells if the routine has a loop: a jump or branch backwards.
+     * @return true if a basic block jumps backwards.
+     */
+    public boolean hasLoops() {
+        for (BasicBlock block : basicBlocks) {
+            if (block.isLoopEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells if every reachable instruction was decoded. Paths reaching an invalid instruction, an address outside of the
+     * story or a jump whose target is a variable stop there.
+     *
+     * @return true if no path was cut.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %05x (%d locals, %d instructions, %d blocks)", main ? "main" : "routine", address,
+                localCount, instructions.size(), basicBlocks.size());
+    }
+}
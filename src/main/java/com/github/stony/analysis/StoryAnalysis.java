@@ -0,0 +1,194 @@
+package com.github.stony.analysis;
+
+import com.github.stony.interpreter.InstructionDecoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+/**
+ * What a {@link StoryAnalyzer} found: the routines, the call graph and the operation histogram. Immutable.
+ */
+public final class StoryAnalysis {
+    private final Routine mainRoutine;
+    private final SortedMap<Integer, Routine> routines;
+    private final List<Routine> routineList;
+    private final Map<Integer, int[]> callers = new HashMap<Integer, int[]>();
+    private final Map<Integer, Integer> callSiteCounts = new HashMap<Integer, Integer>();
+    private final int[] operationCounts = new int[InstructionDecoder.OPERATION_COUNT];
+    private final int instructionCount;
+
+    StoryAnalysis(Routine mainRoutine, SortedMap<Integer, Routine> routines) {
+        this.mainRoutine = mainRoutine;
+        this.routines = routines;
+        this.routineList = Collections.unmodifiableList(new ArrayList<Routine>(routines.values()));
+
+        final Map<Integer, TreeSet<Integer>> callerSets = new HashMap<Integer, TreeSet<Integer>>();
+        int count = 0;
+        for (Routine routine : routineList) {
+            for (Instruction instruction : routine.getInstructions()) {
+                operationCounts[instruction.getOperation()]++;
+                final int callee = instruction.getCallTarget();
+                if (callee >= 0) {
+                    callSiteCounts.merge(callee, 1, Integer::sum);
+                    callerSets.computeIfAbsent(callee, k -> new TreeSet<Integer>()).add(routine.getAddress());
+                }
+            }
+            count += routine.getInstructions().size();
+        }
+        for (Map.Entry<Integer, TreeSet<Integer>> entry : callerSets.entrySet()) {
+            callers.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        instructionCount = count;
+    }
+
+    /**
+     * Returns the code run at the start, from the initial program counter.
+     * @return the main routine.
+     */
+    public Routine getMainRoutine() {
+        return mainRoutine;
+    }
+
+    /**
+     * Returns every routine found, the main routine included.
+     * @return an unmodifiable list, in address order.
+     */
+    public List<Routine> getRoutines() {
+        return routineList;
+    }
+
+    /**
+     * Returns the routine at an address.
+     * @param address byte address of the routine.
+     * @return the routine, or null if none was found there.
+     */
+    public Routine getRoutine(int address) {
+        return routines.get(address);
+    }
+
+    /**
+     * Returns the routines calling a routine with a constant address: the reverse of {@link Routine#getCallees()}.
+     * @param address byte address of the called routine.
+     * @return the addresses of the callers, in ascending order.
+     */
+    public int[] getCallers(int address) {
+        final int[] addresses = callers.get(address);
+        return addresses != null ? addresses.clone() : new int[0];
+    }
+
+    /**
+     * Returns the number of instructions found, in every routine.
+     * @return the instruction count.
+     */
+    public int getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Returns the number of instructions of an operation.
+     * @param operation operation identifier, see {@link InstructionDecoder}.
+     * @return the instruction count.
+     */
+    public int getOperationCount(int operation) {
+        return operationCounts[operation];
+    }
+
+    /**
+     * Returns the static opcode histogram: the number of instructions of each operation found.
+     * @return the counts by operation name, such as 2OP:0x14, most frequent first.
+     */
+    public Map<String, Integer> getOperationHistogram() {
+        final List<Integer> operations = new ArrayList<Integer>();
+        for (int operation = 0; operation < operationCounts.length; operation++) {
+            if (operationCounts[operation] > 0) {
+                operations.add(operation);
+            }
+        }
+        operations.sort(Comparator.comparingInt((Integer operation) -> operationCounts[operation]).reversed());
+        final Map<String, Integer> histogram = new LinkedHashMap<String, Integer>();
+        for (int operation : operations) {
+            histogram.put(InstructionDecoder.operationName(operation), operationCounts[operation]);
+        }
+        return Collections.unmodifiableMap(histogram);
+    }
+
+    /**
+     * Returns the addresses of every instruction found, to decode them ahead of execution, see
+     * {@link com.github.stony.interpreter.Interpreter#warmUp(int[])}.
+     *
+     * @return the instruction addresses, in ascending order.
+     */
+    public int[] getInstructionAddresses() {
+        final int[] addresses = new int[instructionCount];
+        int i = 0;
+        for (Routine routine : routineList) {
+            for (Instruction instruction : routine.getInstructions()) {
+                addresses[i++] = instruction.getAddress();
+            }
+        }
+        Arrays.sort(addresses);
+        return addresses;
+    }
+
+    /**
+     * Returns the routines most likely hot, to compile them ahead of their calls, see
+     * {@link com.github.stony.interpreter.Interpreter#precompile(int[])}: routines with loops first, then the most
+     * called ones, by number of call sites. The main routine has no header and is left out.
+     *
+     * @param max maximum number of routines.
+     * @return the byte addresses of the routines, hottest first.
+     */
+    public int[] getHotRoutines(int max) {
+        final List<Routine> candidates = new ArrayList<Routine>();
+        for (Routine routine : routineList) {
+            if (!routine.isMain() && !routine.getInstructions().isEmpty()) {
+                candidates.add(routine);
+            }
+        }
+        candidates.sort(Comparator.comparing((Routine routine) -> !routine.hasLoops())
+                .thenComparing(routine -> -callSiteCounts.getOrDefault(routine.getAddress(), 0))
+                .thenComparingInt(Routine::getAddress));
+        final int[] addresses = new int[Math.min(max, candidates.size())];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = candidates.get(i).getAddress();
+        }
+        return addresses;
+    }
+
+    /**
+     * Writes the disassembly of every routine: a line per routine and per instruction, and an empty line between basic
+     * blocks.
+     *
+     * @param out destination.
+     * @throws IOException when the destination fails.
+     */
+    public void disassemble(Appendable out) throws IOException {
+        for (Routine routine : routineList) {
+            out.append(routine.toString()).append('\n');
+            for (BasicBlock block : routine.getBasicBlocks()) {
+                for (Instruction instruction : block.getInstructions()) {
+                    out.append("    ").append(instruction.toString()).append('\n');
+                }
+                out.append('\n');
+            }
+        }
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        final int[] array = new int[set.size()];
+        int i = 0;
+        for (int value : set) {
+            array[i++] = value;
+        }
+        return array;
+    }
+}
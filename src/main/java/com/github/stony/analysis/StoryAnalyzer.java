@@ -0,0 +1,304 @@
+package com.github.stony.analysis;
+
+import com.github.stony.interpreter.DecodedInstruction;
+import com.github.stony.interpreter.InstructionDecoder;
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+import com.github.stony.memory.StoryImage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the routines of a story without running it, and decodes them with the tables of the interpreter, see
+ * {@link InstructionDecoder}.
+ * <p>
+ * Routines are discovered from the initial program counter, then from the calls with a constant routine address, in
+ * waves: each wave analyzes the routines called by the previous one and not seen yet, split over a fork/join pool.
+ * Within a routine, the instructions reachable from the first one are decoded, following branches and jumps. Routines
+ * only called indirectly, through variables such as object properties, are not found: pass them as extra roots, for
+ * example the hot routines of an {@link com.github.stony.interpreter.ExecutionProfiler}.
+ * <p>
+ * The memory is only read, so an analyzer can run alongside interpreters of the same story image.
+ */
+public final class StoryAnalyzer {
+    /* Number of routines a task analyzes without splitting them further */
+    private static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private final Memory memory;
+    private final Header header;
+    private final InstructionDecoder decoder;
+
+    /**
+     * Constructs an analyzer of a story image.
+     * @param storyImage story image.
+     */
+    public StoryAnalyzer(StoryImage storyImage) {
+        this(storyImage.newMemory(), storyImage.getHeader());
+    }
+
+    /**
+     * Constructs an analyzer of a story memory, which the analysis reads: it must not change meanwhile.
+     * @param memory story memory.
+     */
+    public StoryAnalyzer(Memory memory) {
+        this(memory, new Header(memory));
+    }
+
+    private StoryAnalyzer(Memory memory, Header header) {
+        this.memory = memory;
+        this.header = header;
+        this.decoder = new InstructionDecoder(memory, header);
+    }
+
+    /**
+     * Analyzes the story on the common fork/join pool.
+     * @return the analysis.
+     */
+    public StoryAnalysis analyze() {
+        return analyze(ForkJoinPool.commonPool(), new int[0]);
+    }
+
+    /**
+     * Analyzes the story.
+     *
+     * @param pool pool running the analysis.
+     * @param routineAddresses byte addresses of routines to analyze along with those found from the initial program
+     *                         counter, such as routines called indirectly.
+     * @return the analysis.
+     */
+    public StoryAnalysis analyze(ForkJoinPool pool, int[] routineAddresses) {
+        final TreeMap<Integer, Routine> routines = new TreeMap<Integer, Routine>();
+        final Routine main = analyzeRoutine(header.getProgramCounterInitialValue(), true);
+        routines.put(main.getAddress(), main);
+
+        final Set<Integer> seen = new HashSet<Integer>();
+        final TreeSet<Integer> wave = new TreeSet<Integer>();
+        for (int address : main.getCallees()) {
+            wave.add(address);
+        }
+        for (int address : routineAddresses) {
+            wave.add(address);
+        }
+        while (!wave.isEmpty()) {
+            seen.addAll(wave);
+            final int[] addresses = new int[wave.size()];
+            int i = 0;
+            for (int address : wave) {
+                addresses[i++] = address;
+            }
+            final Routine[] results = new Routine[addresses.length];
+            pool.invoke(new AnalysisTask(addresses, results, 0, addresses.length));
+
+            wave.clear();
+            for (Routine routine : results) {
+                routines.put(routine.getAddress(), routine);
+                for (int callee : routine.getCallees()) {
+                    if (!seen.contains(callee)) {
+                        wave.add(callee);
+                    }
+                }
+            }
+        }
+        return new StoryAnalysis(main, routines);
+    }
+
+    /**
+     * Analyzes a range of the routines of a wave, splitting it in halves down to a few routines.
+     */
+    private final class AnalysisTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] addresses;
+        /* routines are not serializable, and the task never leaves its pool */
+        private final transient Routine[] results;
+        private final int from;
+        private final int to;
+
+        AnalysisTask(int[] addresses, Routine[] results, int from, int to) {
+            this.addresses = addresses;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SEQUENTIAL_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = analyzeRoutine(addresses[i], false);
+                }
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new AnalysisTask(addresses, results, from, middle),
+                        new AnalysisTask(addresses, results, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Decodes the instructions of a routine reachable from its first one, and splits them in basic blocks.
+     *
+     * @param address routine header, or first instruction of the main routine.
+     * @param main whether this is the main routine, which has no header.
+     * @return the routine.
+     */
+    private Routine analyzeRoutine(int address, boolean main) {
+        int localCount = 0;
+        int startAddress = address;
+        if (!main) {
+            if (address < 0 || address >= memory.getSize() || memory.readByte(address) > 15) {
+                return new Routine(address, false, 0, Collections.<Instruction>emptyList(),
+                        Collections.<BasicBlock>emptyList(), new int[0], false);
+            }
+            localCount = memory.readByte(address);
+            startAddress = decoder.firstInstructionAddress(address);
+        }
+
+        final TreeMap<Integer, Instruction> found = new TreeMap<Integer, Instruction>();
+        final TreeSet<Integer> leaders = new TreeSet<Integer>();
+        final TreeSet<Integer> callees = new TreeSet<Integer>();
+        final ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+        boolean complete = true;
+        leaders.add(startAddress);
+        pending.add(startAddress);
+        while (!pending.isEmpty()) {
+            final int instructionAddress = pending.poll();
+            if (found.containsKey(instructionAddress)) {
+                continue;
+            }
+            final Instruction instruction = decode(instructionAddress);
+            if (instruction == null) {
+                complete = false;
+                continue;
+            }
+            found.put(instructionAddress, instruction);
+            if (instruction.getCallTarget() >= 0) {
+                callees.add(instruction.getCallTarget());
+            }
+
+            final int operation = instruction.getOperation();
+            final int target = instruction.getTarget();
+            if (decoder.isBranch(operation)) {
+                leaders.add(instruction.getNextAddress());
+                pending.add(instruction.getNextAddress());
+                if (target >= 0) {
+                    leaders.add(target);
+                    pending.add(target);
+                }
+            } else if (InstructionDecoder.isJump(operation)) {
+                if (target >= 0) {
+                    leaders.add(target);
+                    pending.add(target);
+                } else {
+                    complete = false; /* computed jump */
+                }
+            } else if (!instruction.isTerminal()) {
+                pending.add(instruction.getNextAddress());
+            }
+        }
+
+        final List<Instruction> instructions = Collections.unmodifiableList(
+                new ArrayList<Instruction>(found.values()));
+        final int[] calleeAddresses = new int[callees.size()];
+        int i = 0;
+        for (int callee : callees) {
+            calleeAddresses[i++] = callee;
+        }
+        return new Routine(address, main, localCount, instructions, basicBlocks(instructions, found, leaders),
+                calleeAddresses, complete);
+    }
+
+    /**
+     * Splits instructions in basic blocks: a block ends before a leader, a gap, and after a branch or a terminal
+     * instruction.
+     */
+    private List<BasicBlock> basicBlocks(List<Instruction> instructions, TreeMap<Integer, Instruction> found,
+                                         Set<Integer> leaders) {
+        final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+        int start = 0;
+        while (start < instructions.size()) {
+            int end = start;
+            while (true) {
+                final Instruction last = instructions.get(end);
+                if (last.isTerminal() || decoder.isBranch(last.getOperation()) || end + 1 == instructions.size()) {
+                    break;
+                }
+                final int next = instructions.get(end + 1).getAddress();
+                if (next != last.getNextAddress() || leaders.contains(next)) {
+                    break;
+                }
+                end++;
+            }
+
+            final Instruction last = instructions.get(end);
+            final TreeSet<Integer> successors = new TreeSet<Integer>();
+            if (!last.isTerminal()) {
+                successors.add(last.getNextAddress());
+            }
+            if (last.getTarget() >= 0) {
+                successors.add(last.getTarget());
+            }
+            successors.retainAll(found.keySet());
+            final int[] successorAddresses = new int[successors.size()];
+            int i = 0;
+            for (int successor : successors) {
+                successorAddresses[i++] = successor;
+            }
+            blocks.add(new BasicBlock(instructions.subList(start, end + 1), successorAddresses));
+            start = end + 1;
+        }
+        return Collections.unmodifiableList(blocks);
+    }
+
+    /**
+     * Decodes an instruction.
+     * @return the instruction, or null if it's invalid or lies outside of the story.
+     */
+    private Instruction decode(int address) {
+        if (address < 0 || address >= memory.getSize()) {
+            return null;
+        }
+        final DecodedInstruction decoded;
+        final int nextAddress;
+        try {
+            decoded = decoder.decode(address);
+            nextAddress = decoder.nextAddress(address, decoded);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (nextAddress > memory.getSize()) {
+            return null;
+        }
+
+        final int operation = decoded.getOperation();
+        int target = -1;
+        if (decoder.isBranch(operation)) {
+            if (decoded.getBranchOffset() == 0) {
+                target = Instruction.RETURN_FALSE;
+            } else if (decoded.getBranchOffset() == 1) {
+                target = Instruction.RETURN_TRUE;
+            } else {
+                target = InstructionDecoder.targetAddress(address, decoded);
+            }
+        } else if (InstructionDecoder.isJump(operation) && decoded.getOperandCount() > 0
+                && decoded.getOperandType(0) != InstructionDecoder.VARIABLE) {
+            target = InstructionDecoder.targetAddress(address, decoded);
+        }
+
+        int callTarget = -1;
+        if (InstructionDecoder.isCall(operation) && decoded.getOperandCount() > 0
+                && decoded.getOperandType(0) != InstructionDecoder.VARIABLE && decoded.getOperandValue(0) != 0) {
+            callTarget = decoder.unpackRoutineAddress(decoded.getOperandValue(0));
+        }
+        return new Instruction(address, nextAddress, decoded, target, callTarget);
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.stony.interpreter;
+
+/**
+ * Routine call frames, stored one after the other in a single {@link Stack}. Calling and returning never allocate
+ * once the stack has grown to the deepest recursion level of the story.
+ * <p>
+ * Frame layout, starting at the frame pointer:<br>
+ *   return pc, store variable (-1 to discard the result), argument count and local count, evaluation stack base,
+ *   previous frame pointer, local variables.
+ * <p>
+ * The main routine has no frame: it has no locals and can't return.
+ */
+final class CallStack {
+    /**
+     * Default depth limit, in ints. A frame takes from 5 to 20 ints.
+     */
+    static final int DEFAULT_LIMIT = 64 * 1024;
+
+    private static final int RETURN_PC = 0;
+    private static final int STORE_VARIABLE = 1;
+    private static final int COUNTS = 2;
+    private static final int STACK_BASE = 3;
+    private static final int PREVIOUS_FRAME = 4;
+    private static final int LOCALS = 5;
+
+    private final Stack frames;
+
+    /* Index of the current frame, -1 in the main routine */
+    private int framePointer = -1;
+    private int depth;
+
+    CallStack() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * Constructs an empty call stack.
+     *
+     * @param limit maximum number of ints used by all frames.
+     */
+    CallStack(int limit) {
+        this.frames = new Stack(limit);
+    }
+
+    /**
+     * Enters a routine. Its local variables are initialized to zero.
+     *
+     * @param returnPc address of the instruction following the call.
+     * @param storeVariable variable which receives the return value, -1 to discard it.
+     * @param argumentCount number of arguments passed to the routine.
+     * @param localCount number of local variables (0 to 15).
+     * @param stackBase evaluation stack size when the routine is entered.
+     */
+    void enter(int returnPc, int storeVariable, int argumentCount, int localCount, int stackBase) {
+        final int newFramePointer = frames.size();
+        frames.push(returnPc);
+        frames.push(storeVariable);
+        frames.push((argumentCount << 4) | localCount);
+        frames.push(stackBase);
+        frames.push(framePointer);
+        for (int i = 0; i < localCount; i++) {
+            frames.push(0);
+        }
+        framePointer = newFramePointer;
+        depth++;
+    }
+
+    /**
+     * Leaves the current routine, making the caller's frame current again.
+     */
+    void leave() {
+        checkFrame();
+        final int previousFramePointer = frames.get(framePointer + PREVIOUS_FRAME);
+        frames.truncate(framePointer);
+        framePointer = previousFramePointer;
+        depth--;
+    }
+
+    int getReturnPc() {
+        checkFrame();
+        return frames.get(framePointer + RETURN_PC);
+    }
+
+    int getStoreVariable() {
+        checkFrame();
+        return frames.get(framePointer + STORE_VARIABLE);
+    }
+
+    int getArgumentCount() {
+        return framePointer < 0 ? 0 : frames.get(framePointer + COUNTS) >> 4;
+    }
+
+    int getLocalCount() {
+        return framePointer < 0 ? 0 : frames.get(framePointer + COUNTS) & 0x0f;
+    }
+
+    /**
+     * Returns the evaluation stack size when the current routine was entered. Values below it belong to the callers.
+     *
+     * @return the evaluation stack base.
+     */
+    int getStackBase() {
+        return framePointer < 0 ? 0 : frames.get(framePointer + STACK_BASE);
+    }
+
+    /**
+     * Returns the number of routines entered and not returned from.
+     *
+     * @return call depth, 0 in the main routine.
+     */
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Reads a local variable of the current routine.
+     *
+     * @param local local variable number (1 to 15).
+     * @return the local variable value.
+     */
+    int getLocal(int local) {
+        checkLocal(local);
+        return frames.get(framePointer + LOCALS + local - 1);
+    }
+
+    /**
+     * Writes a local variable of the current routine.
+     *
+     * @param local local variable number (1 to 15).
+     * @param value new value.
+     */
+    void setLocal(int local, int value) {
+        checkLocal(local);
+        frames.set(framePointer + LOCALS + local - 1, value);
+    }
+
+    /**
+     * Returns the frame pointers of the routines entered, outermost first, to read their frames with the methods taking
+     * a frame pointer.
+     *
+     * @return the frame pointers, as many as the call depth.
+     */
+    int[] getFramePointers() {
+        final int[] framePointers = new int[depth];
+        int framePointer = this.framePointer;
+        for (int i = depth - 1; i >= 0; i--) {
+            framePointers[i] = framePointer;
+            framePointer = frames.get(framePointer + PREVIOUS_FRAME);
+        }
+        return framePointers;
+    }
+
+    int getReturnPc(int framePointer) {
+        return frames.get(framePointer + RETURN_PC);
+    }
+
+    int getStoreVariable(int framePointer) {
+        return frames.get(framePointer + STORE_VARIABLE);
+    }
+
+    int getArgumentCount(int framePointer) {
+        return frames.get(framePointer + COUNTS) >> 4;
+    }
+
+    int getLocalCount(int framePointer) {
+        return frames.get(framePointer + COUNTS) & 0x0f;
+    }
+
+    int getStackBase(int framePointer) {
+        return frames.get(framePointer + STACK_BASE);
+    }
+
+    int getLocal(int framePointer, int local) {
+        return frames.get(framePointer + LOCALS + local - 1);
+    }
+
+    /**
+     * Returns the number of ints a frame with local variables takes.
+     *
+     * @param localCount number of local variables.
+     * @return the frame size, in ints.
+     */
+    static int frameSize(int localCount) {
+        return LOCALS + localCount;
+    }
+
+    /**
+     * Returns the maximum number of ints used by all frames.
+     * @return the depth limit, in ints.
+     */
+    int getLimit() {
+        return frames.getLimit();
+    }
+
+    /**
+     * Copies the frames, see {@link #load(int[])}.
+     *
+     * @return the frames, outermost first.
+     */
+    int[] toArray() {
+        return frames.toArray();
+    }
+
+    /**
+     * Replaces the frames by frames copied with {@link #toArray()}.
+     *
+     * @param frames frames, outermost first.
+     */
+    void load(int[] frames) {
+        int framePointer = -1;
+        int depth = 0;
+        for (int i = 0; i < frames.length; i += LOCALS + (frames[i + COUNTS] & 0x0f)) {
+            framePointer = i;
+            depth++;
+        }
+        this.frames.load(frames);
+        this.framePointer = framePointer;
+        this.depth = depth;
+    }
+
+    /**
+     * Leaves every routine, back to the main routine.
+     */
+    void clear() {
+        frames.truncate(0);
+        framePointer = -1;
+        depth = 0;
+    }
+
+    private void checkLocal(int local) {
+        if (local > getLocalCount()) {
+            throw new RuntimeException("Invalid local variable " + local + ", the routine has " + getLocalCount()
+                    + " local variables.");
+        }
+    }
+
+    private void checkFrame() {
+        if (framePointer < 0) {
+            throw new RuntimeException("Can't return from the main routine.");
+        }
+    }
+}
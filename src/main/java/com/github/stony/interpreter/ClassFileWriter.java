@@ -0,0 +1,425 @@
+package com.github.stony.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal class file writer for the routines compiled by {@link RoutineCompiler}: a constant pool, methods and their
+ * code, with labels, forward jumps and catch-all exception handlers.
+ * <p>
+ * Classes are written in version 49 (Java 5), which the JVM verifies by type inference: no stack map frames are needed,
+ * which keeps the writer small. Jump offsets are 16 bits, so a method can't exceed 32 kilobytes of code.
+ */
+final class ClassFileWriter {
+    /* Opcodes used by the compiler */
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int ILOAD = 0x15;
+    static final int ALOAD = 0x19;
+    static final int ISTORE = 0x36;
+    static final int ASTORE = 0x3a;
+    static final int DUP = 0x59;
+    static final int IADD = 0x60;
+    static final int ISUB = 0x64;
+    static final int IMUL = 0x68;
+    static final int IAND = 0x7e;
+    static final int IOR = 0x80;
+    static final int IINC = 0x84;
+    static final int I2S = 0x93;
+    static final int IFEQ = 0x99;
+    static final int IF_ICMPEQ = 0x9f;
+    static final int IF_ICMPLT = 0xa1;
+    static final int IF_ICMPGT = 0xa3;
+    static final int GOTO = 0xa7;
+    static final int TABLESWITCH = 0xaa;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ATHROW = 0xbf;
+    static final int POP = 0x57;
+
+    private static final int CLASS_VERSION = 49;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    private final Map<String, Integer> constantIndexes = new HashMap<String, Integer>();
+    private int constantCount = 1;
+
+    private final String className;
+    private final String superClassName;
+    private final List<byte[]> methods = new ArrayList<byte[]>();
+
+    /**
+     * Constructs a writer for a final class.
+     *
+     * @param className internal name of the class, for example {@code com/github/stony/interpreter/Foo}.
+     * @param superClassName internal name of the super class.
+     */
+    ClassFileWriter(String className, String superClassName) {
+        this.className = className;
+        this.superClassName = superClassName;
+    }
+
+    /**
+     * Adds a method.
+     *
+     * @param name method name.
+     * @param descriptor method descriptor.
+     * @param code method code, complete.
+     * @param maxStack maximum depth of the operand stack.
+     * @param maxLocals number of local variables, including the parameters.
+     */
+    void addMethod(String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        final byte[] bytecode = code.toByteArray();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream method = new DataOutputStream(bytes);
+        try {
+            method.writeShort(ACC_PUBLIC);
+            method.writeShort(utf8(name));
+            method.writeShort(utf8(descriptor));
+            method.writeShort(1); /* attributes: Code */
+            method.writeShort(utf8("Code"));
+            method.writeInt(12 + bytecode.length + 8 * code.handlerCount());
+            method.writeShort(maxStack);
+            method.writeShort(maxLocals);
+            method.writeInt(bytecode.length);
+            method.write(bytecode);
+            code.writeExceptionTable(method);
+            method.writeShort(0); /* code attributes */
+        } catch (IOException e) {
+            throw new IllegalStateException(e); /* not thrown by byte array streams */
+        }
+        methods.add(bytes.toByteArray());
+    }
+
+    /**
+     * Returns the class file.
+     * @return the class file bytes.
+     */
+    byte[] toByteArray() {
+        final int thisClass = classConstant(className);
+        final int superClass = classConstant(superClassName);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream classFile = new DataOutputStream(bytes);
+        try {
+            classFile.writeInt(0xcafebabe);
+            classFile.writeShort(0);
+            classFile.writeShort(CLASS_VERSION);
+            classFile.writeShort(constantCount);
+            classFile.write(constantPool.toByteArray());
+            classFile.writeShort(ACC_FINAL | ACC_SUPER);
+            classFile.writeShort(thisClass);
+            classFile.writeShort(superClass);
+            classFile.writeShort(0); /* interfaces */
+            classFile.writeShort(0); /* fields */
+            classFile.writeShort(methods.size());
+            for (byte[] method : methods) {
+                classFile.write(method);
+            }
+            classFile.writeShort(0); /* attributes */
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    int utf8(String value) {
+        final String key = "U" + value;
+        Integer index = constantIndexes.get(key);
+        if (index == null) {
+            try {
+                constants.writeByte(1);
+                constants.writeUTF(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = addConstant(key, 1);
+        }
+        return index;
+    }
+
+    int integerConstant(int value) {
+        final String key = "I" + value;
+        Integer index = constantIndexes.get(key);
+        if (index == null) {
+            try {
+                constants.writeByte(3);
+                constants.writeInt(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = addConstant(key, 1);
+        }
+        return index;
+    }
+
+    int classConstant(String internalName) {
+        return reference("C" + internalName, 7, utf8(internalName), -1);
+    }
+
+    int fieldConstant(String owner, String name, String descriptor) {
+        return reference("F" + owner + "." + name + ":" + descriptor, 9, classConstant(owner),
+                nameAndType(name, descriptor));
+    }
+
+    int methodConstant(String owner, String name, String descriptor) {
+        return reference("M" + owner + "." + name + descriptor, 10, classConstant(owner),
+                nameAndType(name, descriptor));
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return reference("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    /**
+     * Adds a constant made of one or two constant pool indexes, unless it already exists.
+     */
+    private int reference(String key, int tag, int first, int second) {
+        Integer index = constantIndexes.get(key);
+        if (index == null) {
+            try {
+                constants.writeByte(tag);
+                constants.writeShort(first);
+                if (second >= 0) {
+                    constants.writeShort(second);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = addConstant(key, 1);
+        }
+        return index;
+    }
+
+    private int addConstant(String key, int slots) {
+        final int index = constantCount;
+        constantCount += slots;
+        if (constantCount > 0xffff) {
+            throw new IllegalStateException("Constant pool overflow.");
+        }
+        constantIndexes.put(key, index);
+        return index;
+    }
+
+    /**
+     * Code of a method. Labels are numbers, created with {@link #newLabel()} and placed with {@link #mark(int)}; jumps
+     * to labels are resolved by {@link #toByteArray()}.
+     */
+    static final class Code {
+        private final ClassFileWriter classFile;
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        private int[] labels = new int[16];
+        private int labelCount;
+
+        /* Unresolved jumps: position of the opcode, position of the offset, label and offset size (2 or 4) */
+        private int[] fixups = new int[64];
+        private int fixupCount;
+
+        /* Exception handlers catching everything: start label, end label (exclusive) and handler label */
+        private int[] handlers = new int[3];
+        private int handlerCount;
+
+        Code(ClassFileWriter classFile) {
+            this.classFile = classFile;
+        }
+
+        int newLabel() {
+            if (labelCount == labels.length) {
+                labels = Arrays.copyOf(labels, labels.length * 2);
+            }
+            labels[labelCount] = -1;
+            return labelCount++;
+        }
+
+        void mark(int label) {
+            labels[label] = size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(classFile.integerConstant(value));
+            }
+        }
+
+        void load(int local) {
+            u1(ILOAD);
+            u1(local);
+        }
+
+        void loadReference(int local) {
+            u1(ALOAD);
+            u1(local);
+        }
+
+        void store(int local) {
+            u1(ISTORE);
+            u1(local);
+        }
+
+        void storeReference(int local) {
+            u1(ASTORE);
+            u1(local);
+        }
+
+        void increment(int local, int delta) {
+            u1(IINC);
+            u1(local);
+            u1(delta);
+        }
+
+        void field(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(classFile.fieldConstant(owner, name, descriptor));
+        }
+
+        void invoke(int opcode, String owner, String name, String descriptor) {
+            u1(opcode);
+            u2(classFile.methodConstant(owner, name, descriptor));
+        }
+
+        /**
+         * Writes a jump (goto or conditional) to a label.
+         */
+        void jump(int opcode, int label) {
+            addFixup(size, size + 1, label, 2);
+            u1(opcode);
+            u2(0);
+        }
+
+        /**
+         * Writes a tableswitch over 0 to labels.length - 1.
+         */
+        void tableSwitch(int defaultLabel, int[] targets) {
+            final int opcodePosition = size;
+            u1(TABLESWITCH);
+            while (size % 4 != 0) {
+                u1(0);
+            }
+            addFixup(opcodePosition, size, defaultLabel, 4);
+            u4(0);
+            u4(0);
+            u4(targets.length - 1);
+            for (int target : targets) {
+                addFixup(opcodePosition, size, target, 4);
+                u4(0);
+            }
+        }
+
+        /**
+         * Adds a handler of any exception thrown between two labels. The handler is entered with the exception alone on
+         * the JVM stack.
+         */
+        void addHandler(int startLabel, int endLabel, int handlerLabel) {
+            if (3 * (handlerCount + 1) > handlers.length) {
+                handlers = Arrays.copyOf(handlers, handlers.length * 2);
+            }
+            handlers[3 * handlerCount] = startLabel;
+            handlers[3 * handlerCount + 1] = endLabel;
+            handlers[3 * handlerCount + 2] = handlerLabel;
+            handlerCount++;
+        }
+
+        int handlerCount() {
+            return handlerCount;
+        }
+
+        void writeExceptionTable(DataOutputStream out) throws IOException {
+            out.writeShort(handlerCount);
+            for (int i = 0; i < 3 * handlerCount; i++) {
+                final int position = labels[handlers[i]];
+                if (position < 0) {
+                    throw new IllegalStateException("Unplaced label: " + handlers[i]);
+                }
+                out.writeShort(position);
+                if (i % 3 == 2) {
+                    out.writeShort(0); /* catch type: any */
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            for (int i = 0; i < fixupCount; i += 4) {
+                final int target = labels[fixups[i + 2]];
+                if (target < 0) {
+                    throw new IllegalStateException("Unplaced label: " + fixups[i + 2]);
+                }
+                final int offset = target - fixups[i];
+                final int position = fixups[i + 1];
+                if (fixups[i + 3] == 2) {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Jump offset out of range: " + offset);
+                    }
+                    bytes[position] = (byte) (offset >> 8);
+                    bytes[position + 1] = (byte) offset;
+                } else {
+                    bytes[position] = (byte) (offset >> 24);
+                    bytes[position + 1] = (byte) (offset >> 16);
+                    bytes[position + 2] = (byte) (offset >> 8);
+                    bytes[position + 3] = (byte) offset;
+                }
+            }
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void addFixup(int opcodePosition, int offsetPosition, int label, int offsetSize) {
+            if (fixupCount + 4 > fixups.length) {
+                fixups = Arrays.copyOf(fixups, fixups.length * 2);
+            }
+            fixups[fixupCount++] = opcodePosition;
+            fixups[fixupCount++] = offsetPosition;
+            fixups[fixupCount++] = label;
+            fixups[fixupCount++] = offsetSize;
+        }
+
+        private void u1(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+    }
+}
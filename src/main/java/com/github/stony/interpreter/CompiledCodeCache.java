@@ -0,0 +1,236 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Memory;
+import com.github.stony.memory.WriteListener;
+
+import java.util.Arrays;
+
+/**
+ * Tiered execution: counts routine calls and compiles the routines called more often than a threshold, see
+ * {@link RoutineCompiler}. The interpreter stays the first tier and runs everything the compiled code doesn't support.
+ * <p>
+ * Only routines of high memory are compiled. The cache listens to memory writes like {@link InstructionCache} does,
+ * and drops the compiled routines overlapping a written range: they are compiled again if still called often. A
+ * routine which can't be compiled is not tried again.
+ */
+final class CompiledCodeCache implements WriteListener {
+    /**
+     * Default number of calls before a routine is compiled.
+     */
+    static final int DEFAULT_THRESHOLD = 200;
+
+    private static final int NOT_COMPILABLE = -1;
+
+    private final RoutineCompiler compiler;
+    private final int baseAddress;
+    private final int threshold;
+
+    /* Routines by address, open addressing: call counts (NOT_COMPILABLE once failed) and compiled code */
+    private int[] keys = newKeys(256);
+    private int[] callCounts = new int[256];
+    private CompiledRoutine[] routines = new CompiledRoutine[256];
+    private int size;
+
+    /* Entries of the compiled routines by address, rebuilt when routines are added or dropped */
+    private int[] entryKeys = newKeys(16);
+    private CompiledRoutine[] entryRoutines = new CompiledRoutine[16];
+
+    private int compiledCount;
+
+    /**
+     * Constructs an empty cache. The caller is responsible for forwarding memory writes from the base address on.
+     *
+     * @param memory memory holding the routines.
+     * @param dispatchTable dispatch table of the story's version.
+     * @param version story version.
+     * @param baseAddress lowest address of compiled routines, usually the high memory base address.
+     * @param threshold number of calls before a routine is compiled, at least 1.
+     */
+    CompiledCodeCache(Memory memory, DispatchTable dispatchTable, int version, int baseAddress, int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Compilation threshold must be positive: " + threshold);
+        }
+        this.compiler = new RoutineCompiler(memory, dispatchTable, version);
+        this.baseAddress = baseAddress;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Counts a call to a routine, compiling it once it reaches the threshold.
+     *
+     * @param address byte address of the routine header.
+     * @return the compiled routine, or null if it isn't compiled.
+     */
+    CompiledRoutine called(int address) {
+        if (address < baseAddress) {
+            return null;
+        }
+        final int slot = slot(address);
+        final CompiledRoutine routine = routines[slot];
+        if (routine != null) {
+            return routine;
+        }
+        final int count = callCounts[slot];
+        if (count == NOT_COMPILABLE) {
+            return null;
+        }
+        if (count + 1 < threshold) {
+            callCounts[slot] = count + 1;
+            return null;
+        }
+        return compile(slot, address);
+    }
+
+    /**
+     * Compiles a routine ahead of its calls, whatever its call count.
+     *
+     * @param address byte address of the routine header.
+     * @return true if the routine is compiled, now or earlier.
+     */
+    boolean precompile(int address) {
+        if (address < baseAddress) {
+            return false;
+        }
+        final int slot = slot(address);
+        if (routines[slot] != null) {
+            return true;
+        }
+        return callCounts[slot] != NOT_COMPILABLE && compile(slot, address) != null;
+    }
+
+    /**
+     * Returns the compiled routine which can be entered at the address, after a backward jump to it.
+     *
+     * @param address address of an instruction.
+     * @return the compiled routine, or null.
+     */
+    CompiledRoutine entryAt(int address) {
+        final int mask = entryKeys.length - 1;
+        int slot = hash(address, mask);
+        while (entryKeys[slot] >= 0) {
+            if (entryKeys[slot] == address) {
+                return entryRoutines[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of routines currently compiled.
+     * @return the number of compiled routines.
+     */
+    int getCompiledCount() {
+        return compiledCount;
+    }
+
+    @Override
+    public void memoryWritten(int address, int length) {
+        boolean dropped = false;
+        for (int slot = 0; slot < routines.length; slot++) {
+            final CompiledRoutine routine = routines[slot];
+            if (routine != null && routine.getStartAddress() < address + length
+                    && address < routine.getEndAddress()) {
+                routines[slot] = null;
+                callCounts[slot] = 0;
+                compiledCount--;
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            rebuildEntries();
+        }
+    }
+
+    private void rebuildEntries() {
+        int entryCount = 0;
+        for (CompiledRoutine routine : routines) {
+            if (routine != null) {
+                entryCount += routine.getEntryAddresses().length;
+            }
+        }
+        int capacity = 16;
+        while (capacity < 2 * entryCount) {
+            capacity *= 2;
+        }
+        entryKeys = newKeys(capacity);
+        entryRoutines = new CompiledRoutine[capacity];
+        final int mask = capacity - 1;
+        for (CompiledRoutine routine : routines) {
+            if (routine == null) {
+                continue;
+            }
+            final int[] entries = routine.getEntryAddresses();
+            for (int i = 0; i < entries.length; i++) { /* the first instruction may be a loop header too */
+                int slot = hash(entries[i], mask);
+                while (entryKeys[slot] >= 0 && entryKeys[slot] != entries[i]) {
+                    slot = (slot + 1) & mask;
+                }
+                entryKeys[slot] = entries[i];
+                entryRoutines[slot] = routine;
+            }
+        }
+    }
+
+    /* Slot of a routine, added if new */
+    private int slot(int address) {
+        int slot = find(address);
+        if (keys[slot] < 0) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                slot = find(address);
+            }
+            keys[slot] = address;
+            size++;
+        }
+        return slot;
+    }
+
+    private CompiledRoutine compile(int slot, int address) {
+        final CompiledRoutine compiled = compiler.compile(address);
+        if (compiled == null) {
+            callCounts[slot] = NOT_COMPILABLE;
+            return null;
+        }
+        routines[slot] = compiled;
+        compiledCount++;
+        rebuildEntries();
+        return compiled;
+    }
+
+    private int find(int address) {
+        final int mask = keys.length - 1;
+        int slot = hash(address, mask);
+        while (keys[slot] >= 0 && keys[slot] != address) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final int[] oldCounts = callCounts;
+        final CompiledRoutine[] oldRoutines = routines;
+        keys = newKeys(oldKeys.length * 2);
+        callCounts = new int[oldKeys.length * 2];
+        routines = new CompiledRoutine[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] >= 0) {
+                final int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                callCounts[slot] = oldCounts[i];
+                routines[slot] = oldRoutines[i];
+            }
+        }
+    }
+
+    private static int hash(int address, int mask) {
+        return (address * 0x9e3779b9) >>> Integer.numberOfLeadingZeros(mask);
+    }
+
+    private static int[] newKeys(int capacity) {
+        final int[] keys = new int[capacity];
+        Arrays.fill(keys, -1);
+        return keys;
+    }
+}
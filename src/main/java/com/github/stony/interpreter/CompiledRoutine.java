@@ -0,0 +1,117 @@
+package com.github.stony.interpreter;
+
+/**
+ * A Z-machine routine translated to JVM bytecode by {@link RoutineCompiler}. Each compiled routine is a hidden class
+ * extending this one.
+ * <p>
+ * Compiled code runs in the routine's frame, entered by the call instruction as usual: local variables are loaded from
+ * the frame into JVM locals, and written back when the code deoptimizes. The code is entered either at the routine's
+ * first instruction (entry 0) or at a loop header (on-stack replacement), and leaves in one of two ways:
+ * <ul>
+ *     <li>by returning: {@link #execute(Interpreter, int)} returns the routine's return value, and the caller leaves
+ *     the frame;</li>
+ *     <li>by deoptimizing: the locals are written back, {@link Interpreter#pc} points to the instruction to be
+ *     interpreted next and {@link Interpreter#deoptimized} is set. Compiled code deoptimizes before any instruction it
+ *     doesn't support, and at loop headers once the instruction budget is used up.</li>
+ * </ul>
+ * The number of instructions executed is added to {@link Interpreter#compiledExecuted} either way. An instruction
+ * throwing an exception deoptimizes to itself before the exception propagates: the failing instruction is then counted,
+ * in place of the instruction which entered the compiled code, since the interpreter leaves a failed step uncounted.
+ */
+abstract class CompiledRoutine {
+    /* Set by the compiler once the class is defined */
+    int address;
+    int localCount;
+    int startAddress;
+    int endAddress;
+    int[] entryAddresses;
+
+    /**
+     * Executes the routine from an entry.
+     *
+     * @param interpreter interpreter whose current frame is the routine's.
+     * @param entry entry index, see {@link #getEntryAddresses()}.
+     * @return the return value; meaningless if the code deoptimized.
+     */
+    abstract int execute(Interpreter interpreter, int entry);
+
+    /**
+     * Returns the address of the routine header.
+     * @return the routine address.
+     */
+    int getAddress() {
+        return address;
+    }
+
+    int getLocalCount() {
+        return localCount;
+    }
+
+    /**
+     * Returns the first address of the compiled instructions.
+     * @return the lowest instruction address.
+     */
+    int getStartAddress() {
+        return startAddress;
+    }
+
+    /**
+     * Returns the address following the compiled instructions. Writes between the start and end addresses invalidate
+     * the compiled code.
+     * @return the end address, exclusive.
+     */
+    int getEndAddress() {
+        return endAddress;
+    }
+
+    /**
+     * Returns the addresses the code can be entered at: the routine's first instruction, then its loop headers.
+     * @return the entry addresses, indexed by entry.
+     */
+    int[] getEntryAddresses() {
+        return entryAddresses;
+    }
+
+    /**
+     * Returns the entry at an address.
+     *
+     * @param address instruction address.
+     * @return the entry index, -1 if the code can't be entered there.
+     */
+    int getEntry(int address) {
+        for (int i = 0; i < entryAddresses.length; i++) {
+            if (entryAddresses[i] == address) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Divides as the div instruction does.
+     *
+     * @param a dividend.
+     * @param b divisor.
+     * @return the quotient.
+     */
+    static int divide(int a, int b) {
+        if (b == 0) {
+            throw new RuntimeException("Division by zero when executing div instruction.");
+        }
+        return ((short) a) / ((short) b);
+    }
+
+    /**
+     * Computes the remainder as the mod instruction does.
+     *
+     * @param a dividend.
+     * @param b divisor.
+     * @return the remainder.
+     */
+    static int remainder(int a, int b) {
+        if (b == 0) {
+            throw new RuntimeException("Division by zero when executing div instruction.");
+        }
+        return ((short) a) % ((short) b);
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.stony.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Counts keyed by sparse non-negative integers: open addressing table of primitive keys, -1 marking empty slots.
+ * Not thread safe.
+ */
+final class CountTable {
+    private int[] keys;
+    private long[] counts;
+    private int size;
+
+    /**
+     * Constructs an empty table.
+     * @param capacity initial capacity, a power of two.
+     */
+    CountTable(int capacity) {
+        keys = newKeys(capacity);
+        counts = new long[capacity];
+    }
+
+    /**
+     * Adds to the count of a key.
+     *
+     * @param key key, at least 0.
+     * @param count count to add.
+     */
+    void add(int key, long count) {
+        int slot = find(key);
+        if (keys[slot] < 0) {
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                slot = find(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        counts[slot] += count;
+    }
+
+    /**
+     * Returns the count of a key.
+     * @param key key.
+     * @return the count, 0 if the key was never added.
+     */
+    long get(int key) {
+        final int slot = find(key);
+        return keys[slot] < 0 ? 0 : counts[slot];
+    }
+
+    /**
+     * Returns the number of keys.
+     * @return the key count.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the keys of the highest counts.
+     *
+     * @param max maximum number of keys.
+     * @return the keys, highest count first.
+     */
+    int[] top(int max) {
+        return top(counts, keys, max);
+    }
+
+    /**
+     * Removes every key.
+     */
+    void clear() {
+        Arrays.fill(keys, -1);
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /**
+     * Selects the keys of the highest non-zero counts. Tables are small enough for repeated linear scans.
+     *
+     * @param counts counts, indexed by key unless keys is given.
+     * @param keys keys of the counts at the same index, -1 for none, or null.
+     * @param max maximum number of keys.
+     * @return the keys, highest count first.
+     */
+    static int[] top(long[] counts, int[] keys, int max) {
+        final int[] selected = new int[max];
+        final boolean[] taken = new boolean[counts.length];
+        int size = 0;
+        while (size < max) {
+            int best = -1;
+            for (int i = 0; i < counts.length; i++) {
+                if (!taken[i] && counts[i] > 0 && (keys == null || keys[i] >= 0)
+                        && (best < 0 || counts[i] > counts[best])) {
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+            taken[best] = true;
+            selected[size++] = keys == null ? best : keys[best];
+        }
+        return Arrays.copyOf(selected, size);
+    }
+
+    private int find(int key) {
+        final int mask = keys.length - 1;
+        int slot = (key * 0x9e3779b9) >>> Integer.numberOfLeadingZeros(mask);
+        while (keys[slot] >= 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        final int[] oldKeys = keys;
+        final long[] oldCounts = counts;
+        keys = newKeys(oldKeys.length * 2);
+        counts = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] >= 0) {
+                final int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static int[] newKeys(int capacity) {
+        final int[] keys = new int[capacity];
+        Arrays.fill(keys, -1);
+        return keys;
+    }
+}
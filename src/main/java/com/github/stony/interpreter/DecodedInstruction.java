@@ -0,0 +1,125 @@
+package com.github.stony.interpreter;
+
+/**
+ * An instruction decoded by {@link DispatchTable#decode}. Variable operands hold the variable number, the value is only
+ * loaded when the instruction is executed, so a decoded instruction can be executed any number of times.
+ * <p>
+ * Read-only outside of this package, see {@link InstructionDecoder}.
+ */
+public final class DecodedInstruction {
+    /**
+     * Operation identifier, see {@link DispatchTable}.
+     */
+    int operation;
+
+    /**
+     * Number of operands (0 to 8).
+     */
+    int operandCount;
+
+    /**
+     * Operand types (large constant, small constant or variable).
+     */
+    final int[] operandTypes = new int[8];
+
+    /**
+     * Operand values. Constants for constant operands, variable numbers for variable operands.
+     */
+    final int[] operandValues = new int[8];
+
+    /**
+     * Variable which receives the result, -1 if the instruction doesn't store.
+     */
+    int store;
+
+    /**
+     * Whether the branch is taken when the condition is true. Only valid for branch instructions.
+     */
+    boolean branchOnTrue;
+
+    /**
+     * Branch offset: 0 returns false, 1 returns true, anything else is relative to the next instruction + 2.
+     * Only valid for branch instructions.
+     */
+    int branchOffset;
+
+    /**
+     * Instruction length in bytes (the next instruction is at address + length).
+     */
+    int length;
+
+    /**
+     * Following instruction, executed in the same dispatch when this one falls through, null if the pair isn't fused.
+     * Only set on instructions held by an {@link InstructionCache}.
+     */
+    DecodedInstruction next;
+
+    /**
+     * Whether {@link #next} has been resolved.
+     */
+    boolean linked;
+
+    DecodedInstruction() {
+    }
+
+    /**
+     * Returns the operation: the operand form combined with the opcode, see {@link InstructionDecoder}.
+     * @return the operation identifier.
+     */
+    public int getOperation() {
+        return operation;
+    }
+
+    public int getOperandCount() {
+        return operandCount;
+    }
+
+    /**
+     * Returns the type of an operand.
+     *
+     * @param index operand index, below the operand count.
+     * @return {@link InstructionDecoder#LARGE_CONSTANT}, {@link InstructionDecoder#SMALL_CONSTANT} or
+     *         {@link InstructionDecoder#VARIABLE}.
+     */
+    public int getOperandType(int index) {
+        return operandTypes[index];
+    }
+
+    /**
+     * Returns the value of an operand.
+     *
+     * @param index operand index, below the operand count.
+     * @return the constant, or the variable number of a variable operand.
+     */
+    public int getOperandValue(int index) {
+        return operandValues[index];
+    }
+
+    /**
+     * Returns the variable which receives the result.
+     * @return the variable number, -1 if the instruction doesn't store.
+     */
+    public int getStore() {
+        return store;
+    }
+
+    public boolean isBranchOnTrue() {
+        return branchOnTrue;
+    }
+
+    /**
+     * Returns the branch offset, only valid for branch instructions.
+     * @return 0 to return false, 1 to return true, otherwise the offset from the next instruction + 2.
+     */
+    public int getBranchOffset() {
+        return branchOffset;
+    }
+
+    /**
+     * Returns the instruction length, without the text following print and print_ret.
+     * @return the length in bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,350 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Memory;
+
+/**
+ * Precomputed decoding information for every possible first byte of an instruction.
+ * <p>
+ * Decoding an instruction is reduced to two table lookups indexed by the first byte: the operand types and the
+ * operation. Two more lookups indexed by the operation tell whether a store variable and a branch follow the operands.
+ * Tables depend only on the story version (0xbe starts an extended instruction from version 5 onwards, store and branch
+ * opcodes change between versions), so one instance per version is built when the class is loaded and shared by every
+ * interpreter.
+ * <p>
+ * Operations are identified by the form's operation base ({@link #ZERO_OP}, {@link #ONE_OP}, {@link #TWO_OP},
+ * {@link #VAR} or {@link #EXT}) combined with the opcode from {@link Opcodes}. For example, add is
+ * {@code TWO_OP | Opcodes.ADD}. The identifiers are dense, so a switch over them compiles to a jump table.
+ */
+final class DispatchTable {
+    /* Operation bases, one per operand count */
+    static final int ZERO_OP = 0x00;
+    static final int ONE_OP = 0x20;
+    static final int TWO_OP = 0x40;
+    static final int VAR = 0x60;
+    static final int EXT = 0x80;
+
+    /* Opcodes whose meaning changed in a later version get an operation of their own */
+    static final int CALL_1N = 0xa0; /* 1OP 0x0f from version 5, not before */
+
+    /** Number of distinct operation identifiers. */
+    static final int OPERATION_COUNT = 0xa1;
+
+    /* Operand types, as encoded in the operand types byte */
+    static final int LARGE_CONSTANT = 0x00;
+    static final int SMALL_CONSTANT = 0x01;
+    static final int VARIABLE = 0x02;
+    static final int OMITTED = 0x03;
+
+    /**
+     * Marks an instruction whose operand types are encoded in the byte (or bytes) following the opcode.
+     */
+    static final int READ_TYPES = -1;
+
+    /**
+     * Marks an instruction whose operation is encoded in the byte following 0xbe.
+     */
+    static final int READ_EXTENDED = -1;
+
+    private static final DispatchTable[] TABLES = new DispatchTable[9];
+
+    static {
+        for (int version = 1; version <= 8; version++) {
+            TABLES[version] = new DispatchTable(version);
+        }
+    }
+
+    /**
+     * Operand types for each first byte, in the same format as the operand types byte. {@link #READ_TYPES} when the
+     * types must be read from the instruction.
+     */
+    final int[] operandTypes = new int[256];
+
+    /**
+     * Operation for each first byte. {@link #READ_EXTENDED} for extended instructions.
+     */
+    final int[] operations = new int[256];
+
+    /**
+     * Whether the operation is followed by a store variable byte, indexed by operation.
+     */
+    final boolean[] stores = new boolean[OPERATION_COUNT];
+
+    /**
+     * Whether the operation is followed by branch data, indexed by operation.
+     */
+    final boolean[] branches = new boolean[OPERATION_COUNT];
+
+    /**
+     * Returns the dispatch table for the story version.
+     *
+     * @param version story version (1 to 8).
+     * @return the shared dispatch table.
+     */
+    static DispatchTable forVersion(int version) {
+        if (version < 1 || version > 8) {
+            throw new RuntimeException("Unknown version: " + version);
+        }
+        return TABLES[version];
+    }
+
+    private DispatchTable(int version) {
+        for (int firstByte = 0x00; firstByte <= 0xff; firstByte++) {
+            if (firstByte <= 0x7f) {
+                /* long form: bit 6 is the first operand type, bit 5 the second (0 = small constant, 1 = variable) */
+                final int firstOperandType = (firstByte & 0x40) == 0 ? SMALL_CONSTANT : VARIABLE;
+                final int secondOperandType = (firstByte & 0x20) == 0 ? SMALL_CONSTANT : VARIABLE;
+                operandTypes[firstByte] = (firstOperandType << 6) | (secondOperandType << 4) | 0x0f;
+                operations[firstByte] = TWO_OP | (firstByte & 0x1f);
+            } else if (firstByte == 0xbe && version >= 5) {
+                operandTypes[firstByte] = READ_TYPES;
+                operations[firstByte] = READ_EXTENDED;
+            } else if (firstByte <= 0xbf) {
+                /* short form: bits 4 and 5 are the operand type, omitted means 0OP */
+                final int operandType = (firstByte >> 4) & 0x03;
+                operandTypes[firstByte] = (operandType << 6) | 0x3f;
+                operations[firstByte] = (operandType == OMITTED ? ZERO_OP : ONE_OP) | (firstByte & 0x0f);
+                if (version >= 5 && operations[firstByte] == (ONE_OP | Opcodes.NOT_1OP)) {
+                    operations[firstByte] = CALL_1N;
+                }
+            } else if (firstByte <= 0xdf) {
+                operandTypes[firstByte] = READ_TYPES;
+                operations[firstByte] = TWO_OP | (firstByte & 0x1f);
+            } else {
+                operandTypes[firstByte] = READ_TYPES;
+                operations[firstByte] = VAR | (firstByte & 0x1f);
+            }
+        }
+
+        initializeStores(version);
+        initializeBranches(version);
+    }
+
+    private void initializeStores(int version) {
+        set(stores, ONE_OP, Opcodes.GET_SIBLING, Opcodes.GET_CHILD, Opcodes.GET_PARENT, Opcodes.GET_PROP_LEN,
+                Opcodes.LOAD);
+        set(stores, TWO_OP, Opcodes.OR, Opcodes.AND, Opcodes.LOADW, Opcodes.LOADB, Opcodes.GET_PROP,
+                Opcodes.GET_PROP_ADDR, Opcodes.GET_NEXT_PROP, Opcodes.ADD, Opcodes.SUB, Opcodes.MUL, Opcodes.DIV,
+                Opcodes.MOD);
+        set(stores, VAR, Opcodes.CALL, Opcodes.RANDOM);
+
+        if (version == 4) {
+            set(stores, ZERO_OP, Opcodes.SAVE, Opcodes.RESTORE);
+        }
+        if (version >= 4) {
+            set(stores, ONE_OP, Opcodes.CALL_1S);
+            set(stores, TWO_OP, Opcodes.CALL_2S);
+            set(stores, VAR, Opcodes.CALL_VS2, Opcodes.READ_CHAR, Opcodes.SCAN_TABLE);
+        }
+        if (version <= 4) {
+            set(stores, ONE_OP, Opcodes.NOT_1OP); /* call_1n from version 5 */
+        } else {
+            set(stores, ZERO_OP, Opcodes.POP); /* catch */
+            set(stores, VAR, Opcodes.SREAD, Opcodes.VAR__NOT);
+            set(stores, EXT, Opcodes.EXT__SAVE, Opcodes.EXT__RESTORE, Opcodes.LOG_SHIFT, Opcodes.ART_SHIFT,
+                    Opcodes.SET_FONT, Opcodes.SAVE_UNDO, Opcodes.RESTORE_UNDO, Opcodes.CHECK_UNICODE);
+        }
+        if (version == 6) {
+            set(stores, VAR, Opcodes.PULL);
+            set(stores, EXT, Opcodes.GET_WIND_PROP, Opcodes.BUFFER_SCREEN);
+        }
+    }
+
+    private void initializeBranches(int version) {
+        set(branches, ZERO_OP, Opcodes.VERIFY, Opcodes.PIRACY);
+        set(branches, ONE_OP, Opcodes.JZ, Opcodes.GET_SIBLING, Opcodes.GET_CHILD);
+        set(branches, TWO_OP, Opcodes.JE, Opcodes.JL, Opcodes.JG, Opcodes.DEC_CHK, Opcodes.INC_CHK, Opcodes.JIN,
+                Opcodes.TEST, Opcodes.TEST_ATTR);
+
+        if (version <= 3) {
+            set(branches, ZERO_OP, Opcodes.SAVE, Opcodes.RESTORE);
+        }
+        if (version >= 4) {
+            set(branches, VAR, Opcodes.SCAN_TABLE);
+        }
+        if (version >= 5) {
+            set(branches, VAR, Opcodes.CHECK_ARG_COUNT);
+        }
+        if (version == 6) {
+            set(branches, EXT, Opcodes.PICTURE_DATA, Opcodes.PUSH_STACK, Opcodes.MAKE_MENU);
+        }
+    }
+
+    private static void set(boolean[] table, int base, int... opcodes) {
+        for (int opcode : opcodes) {
+            table[base | opcode] = true;
+        }
+    }
+
+    /**
+     * Decodes the instruction at the address, without loading variable operands. Text following print and print_ret
+     * is not part of the decoded instruction.
+     *
+     * @param memory memory holding the instruction.
+     * @param address address of the first byte of the instruction.
+     * @param decoded decoded instruction to be filled.
+     */
+    void decode(Memory memory, int address, DecodedInstruction decoded) {
+        final int firstByte = memory.readByte(address);
+        int types = operandTypes[firstByte];
+        int operation = operations[firstByte];
+        int offset = 1;
+
+        if (operation == READ_EXTENDED) {
+            final int opcode = memory.readByte(address + 1);
+            operation = extendedOperation(opcode);
+            offset = 2;
+            if (operation < 0) {
+                throw new RuntimeException("Unknown EXT opcode: " + opcode);
+            }
+        }
+
+        decoded.operation = operation;
+        decoded.operandCount = 0;
+        if (types == READ_TYPES) {
+            types = memory.readByte(address + offset);
+            if (hasDoubleOperandTypes(operation)) {
+                final int moreTypes = memory.readByte(address + offset + 1);
+                offset = decodeOperands(memory, address, offset + 2, types, decoded);
+                if (decoded.operandCount == 4) {
+                    offset = decodeOperands(memory, address, offset, moreTypes, decoded);
+                }
+            } else {
+                offset = decodeOperands(memory, address, offset + 1, types, decoded);
+            }
+        } else {
+            offset = decodeOperands(memory, address, offset, types, decoded);
+        }
+
+        if (stores[operation]) {
+            decoded.store = memory.readByte(address + offset);
+            offset += 1;
+        } else {
+            decoded.store = -1;
+        }
+
+        if (branches[operation]) {
+            /* bit 7: branch on true, bit 6: single byte offset (0 to 63), otherwise 14 bits signed offset */
+            final int branchByte = memory.readByte(address + offset);
+            decoded.branchOnTrue = (branchByte & 0x80) != 0;
+            if ((branchByte & 0x40) != 0) {
+                decoded.branchOffset = branchByte & 0x3f;
+                offset += 1;
+            } else {
+                decoded.branchOffset = (((branchByte & 0x3f) << 8) | memory.readByte(address + offset + 1)) << 18 >> 18;
+                offset += 2;
+            }
+        }
+
+        decoded.length = offset;
+    }
+
+    /**
+     * Decodes up to four operands described by an operand types byte, stopping at the first omitted operand.
+     *
+     * @return offset of the first byte after the operands.
+     */
+    private static int decodeOperands(Memory memory, int address, int offset, int types, DecodedInstruction decoded) {
+        for (int shift = 6; shift >= 0; shift -= 2) {
+            final int operandType = (types >> shift) & 0x03;
+            if (operandType == OMITTED) {
+                break;
+            }
+
+            decoded.operandTypes[decoded.operandCount] = operandType;
+            if (operandType == LARGE_CONSTANT) {
+                decoded.operandValues[decoded.operandCount] = memory.readWord(address + offset);
+                offset += 2;
+            } else {
+                decoded.operandValues[decoded.operandCount] = memory.readByte(address + offset);
+                offset += 1;
+            }
+            decoded.operandCount++;
+        }
+        return offset;
+    }
+
+    /**
+     * Returns the operation for an extended opcode (the byte following 0xbe).
+     *
+     * @param opcode extended opcode.
+     * @return the operation, or -1 if the opcode is outside of the known extended range.
+     */
+    static int extendedOperation(int opcode) {
+        return opcode <= 0x1f ? EXT | opcode : -1;
+    }
+
+    /**
+     * Returns a human readable name for an operation: the form name and the opcode, for example 2OP:0x14 for add.
+     *
+     * @param operation operation identifier.
+     * @return the operation name.
+     */
+    static String operationName(int operation) {
+        return String.format("%s:0x%02x", formName(operation), opcode(operation));
+    }
+
+    /**
+     * Returns the opcode of an operation, within its form.
+     *
+     * @param operation operation identifier.
+     * @return the opcode.
+     */
+    static int opcode(int operation) {
+        return operation == CALL_1N ? Opcodes.NOT_1OP : operation & 0x1f;
+    }
+
+    /**
+     * Returns a human readable form name for an operation, used in error messages.
+     *
+     * @param operation operation identifier.
+     * @return 0OP, 1OP, 2OP, VAR or EXT.
+     */
+    static String formName(int operation) {
+        switch (operation & ~0x1f) {
+            case ZERO_OP:
+                return "0OP";
+            case ONE_OP:
+            case CALL_1N:
+                return "1OP";
+            case TWO_OP:
+                return "2OP";
+            case VAR:
+                return "VAR";
+            default:
+                return "EXT";
+        }
+    }
+
+    /**
+     * Returns whether the operation takes a second operand types byte (call_vs2 and call_vn2).
+     *
+     * @param operation operation identifier.
+     * @return true if the operation can take up to eight operands.
+     */
+    static boolean hasDoubleOperandTypes(int operation) {
+        return operation == (VAR | Opcodes.CALL_VS2) || operation == (VAR | Opcodes.CALL_VN2);
+    }
+
+    /**
+     * Returns whether the operation calls a routine, whose packed address is the first operand. The call operations
+     * of later versions reuse opcodes which are no calls in earlier versions.
+     *
+     * @param operation operation identifier.
+     * @return true for the call operations of any version.
+     */
+    static boolean isCall(int operation) {
+        switch (operation) {
+            case ONE_OP | Opcodes.CALL_1S:
+            case CALL_1N:
+            case TWO_OP | Opcodes.CALL_2S:
+            case TWO_OP | Opcodes.CALL_2N:
+            case VAR | Opcodes.CALL:
+            case VAR | Opcodes.CALL_VS2:
+            case VAR | Opcodes.CALL_VN:
+            case VAR | Opcodes.CALL_VN2:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+
+/**
+ * Version dependent parts of the execution: instruction decoding and packed address unpacking.
+ * <p>
+ * The common families get an engine of their own, whose dispatch table and packed address shift are static constants:
+ * versions 1 to 3, version 5 and version 8. Compiled for a single story, their code has no version test nor field load
+ * left. Versions 4, 6 and 7 use the generic engine, which reads the same values from fields set from the header.
+ * <p>
+ * Engines hold no state of their own and are shared: one instance per family, plus a generic engine per story.
+ */
+abstract class Engine {
+    private static final Engine VERSION_3 = new Version3();
+    private static final Engine VERSION_5 = new Version5();
+    private static final Engine VERSION_8 = new Version8();
+
+    /**
+     * Returns the specialized engine of the story's version family, or a generic engine if there is none.
+     *
+     * @param header story header.
+     * @return the engine.
+     */
+    static Engine forHeader(Header header) {
+        switch (header.getVersionNumber()) {
+            case 1:
+            case 2:
+            case 3:
+                return VERSION_3;
+            case 5:
+                return VERSION_5;
+            case 8:
+                return VERSION_8;
+            default:
+                return generic(header);
+        }
+    }
+
+    /**
+     * Returns an engine which works for every version, reading the version dependent values from fields.
+     *
+     * @param header story header.
+     * @return the generic engine.
+     */
+    static Engine generic(Header header) {
+        return new Generic(header);
+    }
+
+    /**
+     * Returns the dispatch table the engine decodes with.
+     * @return the dispatch table.
+     */
+    abstract DispatchTable getDispatchTable();
+
+    /**
+     * Decodes the instruction at the address, see {@link DispatchTable#decode(Memory, int, DecodedInstruction)}.
+     *
+     * @param memory memory holding the instruction.
+     * @param address address of the first byte of the instruction.
+     * @param decoded decoded instruction to be filled.
+     */
+    abstract void decode(Memory memory, int address, DecodedInstruction decoded);
+
+    /**
+     * Converts a packed address to a byte address. Valid for routine calls.
+     * @param packedAddress packed address.
+     * @return byte address converted from packed address.
+     */
+    abstract int unpackRoutineAddress(int packedAddress);
+
+    /**
+     * Converts a packed address to a byte address. Valid for print_paddr.
+     * @param packedAddress packed address.
+     * @return byte address converted from packed address.
+     */
+    abstract int unpackStringAddress(int packedAddress);
+
+    /**
+     * Returns the packed address multiplier of a version.
+     * @param version story version.
+     * @return 2, 4 or 8.
+     */
+    static int packedAddressMultiplier(int version) {
+        if (version > 0 && version <= 3) {
+            return 2;
+        } else if (version >= 4 && version <= 7) {
+            return 4;
+        } else if (version == 8) {
+            return 8;
+        } else {
+            throw new RuntimeException("Unknown version: " + version);
+        }
+    }
+
+    /**
+     * Versions 1 to 3: their dispatch tables are identical, packed addresses are multiplied by 2.
+     */
+    private static final class Version3 extends Engine {
+        private static final DispatchTable DISPATCH_TABLE = DispatchTable.forVersion(3);
+
+        @Override
+        DispatchTable getDispatchTable() {
+            return DISPATCH_TABLE;
+        }
+
+        @Override
+        void decode(Memory memory, int address, DecodedInstruction decoded) {
+            DISPATCH_TABLE.decode(memory, address, decoded);
+        }
+
+        @Override
+        int unpackRoutineAddress(int packedAddress) {
+            return packedAddress << 1;
+        }
+
+        @Override
+        int unpackStringAddress(int packedAddress) {
+            return packedAddress << 1;
+        }
+    }
+
+    /**
+     * Version 5: packed addresses are multiplied by 4.
+     */
+    private static final class Version5 extends Engine {
+        private static final DispatchTable DISPATCH_TABLE = DispatchTable.forVersion(5);
+
+        @Override
+        DispatchTable getDispatchTable() {
+            return DISPATCH_TABLE;
+        }
+
+        @Override
+        void decode(Memory memory, int address, DecodedInstruction decoded) {
+            DISPATCH_TABLE.decode(memory, address, decoded);
+        }
+
+        @Override
+        int unpackRoutineAddress(int packedAddress) {
+            return packedAddress << 2;
+        }
+
+        @Override
+        int unpackStringAddress(int packedAddress) {
+            return packedAddress << 2;
+        }
+    }
+
+    /**
+     * Version 8: the version 5 instruction set, packed addresses are multiplied by 8.
+     */
+    private static final class Version8 extends Engine {
+        private static final DispatchTable DISPATCH_TABLE = DispatchTable.forVersion(8);
+
+        @Override
+        DispatchTable getDispatchTable() {
+            return DISPATCH_TABLE;
+        }
+
+        @Override
+        void decode(Memory memory, int address, DecodedInstruction decoded) {
+            DISPATCH_TABLE.decode(memory, address, decoded);
+        }
+
+        @Override
+        int unpackRoutineAddress(int packedAddress) {
+            return packedAddress << 3;
+        }
+
+        @Override
+        int unpackStringAddress(int packedAddress) {
+            return packedAddress << 3;
+        }
+    }
+
+    /**
+     * Any version, including 6 and 7 whose packed addresses have offsets.
+     */
+    private static final class Generic extends Engine {
+        private final DispatchTable dispatchTable;
+        private final int packedAddressMultiplier;
+        private final int routinesOffset;
+        private final int staticStringsOffset;
+
+        Generic(Header header) {
+            final int version = header.getVersionNumber();
+            this.dispatchTable = DispatchTable.forVersion(version);
+            this.packedAddressMultiplier = packedAddressMultiplier(version);
+            /* versions 6 and 7 add an offset, given divided by 8 */
+            this.routinesOffset = version == 6 || version == 7 ? 8 * header.getRoutinesOffset() : 0;
+            this.staticStringsOffset = version == 6 || version == 7 ? 8 * header.getStaticStringsOffset() : 0;
+        }
+
+        @Override
+        DispatchTable getDispatchTable() {
+            return dispatchTable;
+        }
+
+        @Override
+        void decode(Memory memory, int address, DecodedInstruction decoded) {
+            dispatchTable.decode(memory, address, decoded);
+        }
+
+        @Override
+        int unpackRoutineAddress(int packedAddress) {
+            return packedAddressMultiplier * packedAddress + routinesOffset;
+        }
+
+        @Override
+        int unpackStringAddress(int packedAddress) {
+            return packedAddressMultiplier * packedAddress + staticStringsOffset;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.github.stony.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Profiles what a story spends its time on: executions per operation, the hottest instructions and routines, and the
+ * time per operation. Set on an interpreter with {@link Interpreter#setProfiler(ExecutionProfiler)}.
+ * <p>
+ * Time is sampled: one instruction out of the sample interval is timed, and the time of an operation is estimated
+ * from the average of its samples. Routines are counted when a call instruction enters them. Compiled routines run
+ * uninstrumented, their time goes to the instruction which entered them: disable the compiler for a complete profile.
+ * <p>
+ * Results are read with {@link #snapshot(int)}, or sent to Java Flight Recorder with {@link #commitEvents(int)}. A
+ * profiler can be fed by several interpreters in turn, to profile a corpus of stories, but it is not thread safe: read
+ * it from the thread running the interpreter, or between runs.
+ */
+public final class ExecutionProfiler {
+    /**
+     * Default number of instructions per timed instruction.
+     */
+    public static final int DEFAULT_SAMPLE_INTERVAL = 64;
+
+    private static final int N = DispatchTable.OPERATION_COUNT;
+
+    private final int sampleInterval;
+    private final long[] operationCounts = new long[N];
+    private final long[] sampledNanos = new long[N];
+    private final long[] sampleCounts = new long[N];
+    private final CountTable instructionCounts = new CountTable(1024);
+    private final CountTable routineCounts = new CountTable(256);
+
+    /* Instructions left before the next sample, and the clock when the current instruction is timed */
+    private int untilSample;
+    private boolean sampling;
+    private long sampleStart;
+
+    /**
+     * Constructs a profiler timing one instruction out of {@link #DEFAULT_SAMPLE_INTERVAL}.
+     */
+    public ExecutionProfiler() {
+        this(DEFAULT_SAMPLE_INTERVAL);
+    }
+
+    /**
+     * Constructs a profiler.
+     * @param sampleInterval number of instructions per timed instruction, 1 to time them all.
+     */
+    public ExecutionProfiler(int sampleInterval) {
+        if (sampleInterval < 1) {
+            throw new IllegalArgumentException("Invalid sample interval: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        this.untilSample = sampleInterval;
+    }
+
+    public int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Records an instruction about to be executed, and starts timing it if it's sampled.
+     *
+     * @param operation operation identifier, see {@link DispatchTable}.
+     * @param address address of the instruction.
+     */
+    void enter(int operation, int address) {
+        operationCounts[operation]++;
+        instructionCounts.add(address, 1);
+        if (--untilSample == 0) {
+            untilSample = sampleInterval;
+            sampling = true;
+            sampleStart = System.nanoTime();
+        } else {
+            /* an instruction which threw never exited */
+            sampling = false;
+        }
+    }
+
+    /**
+     * Records the end of the instruction entered last.
+     * @param operation operation identifier.
+     */
+    void exit(int operation) {
+        if (sampling) {
+            sampledNanos[operation] += System.nanoTime() - sampleStart;
+            sampleCounts[operation]++;
+            sampling = false;
+        }
+    }
+
+    /**
+     * Records a routine entered by a call instruction.
+     * @param address byte address of the routine.
+     */
+    void routineEntered(int address) {
+        routineCounts.add(address, 1);
+    }
+
+    /**
+     * Takes a snapshot of the profile: every executed operation, and the hottest instructions and routines.
+     *
+     * @param max maximum number of instructions, and of routines.
+     * @return the snapshot.
+     */
+    public ProfileSnapshot snapshot(int max) {
+        final int[] operations = CountTable.top(operationCounts, null, N);
+        final ProfileSnapshot.OperationStats[] operationStats = new ProfileSnapshot.OperationStats[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            final int operation = operations[i];
+            operationStats[i] = new ProfileSnapshot.OperationStats(DispatchTable.formName(operation),
+                    DispatchTable.opcode(operation), operationCounts[operation], sampleCounts[operation],
+                    sampledNanos[operation]);
+        }
+        return new ProfileSnapshot(operationStats, addressCounts(instructionCounts, max),
+                addressCounts(routineCounts, max));
+    }
+
+    /**
+     * Commits the profile to Java Flight Recorder, when recording: an event per executed operation, and per hot
+     * instruction and routine. Counts are totals since the profiler started or was reset.
+     *
+     * @param max maximum number of instruction events, and of routine events.
+     */
+    public void commitEvents(int max) {
+        ProfilerEvents.commit(snapshot(max));
+    }
+
+    /**
+     * Forgets everything recorded.
+     */
+    public void reset() {
+        Arrays.fill(operationCounts, 0);
+        Arrays.fill(sampledNanos, 0);
+        Arrays.fill(sampleCounts, 0);
+        instructionCounts.clear();
+        routineCounts.clear();
+        untilSample = sampleInterval;
+        sampling = false;
+    }
+
+    private static ProfileSnapshot.AddressCount[] addressCounts(CountTable table, int max) {
+        final int[] addresses = table.top(max);
+        final ProfileSnapshot.AddressCount[] counts = new ProfileSnapshot.AddressCount[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            counts[i] = new ProfileSnapshot.AddressCount(addresses[i], table.get(addresses[i]));
+        }
+        return counts;
+    }
+}
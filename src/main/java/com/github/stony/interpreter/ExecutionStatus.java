@@ -0,0 +1,23 @@
+package com.github.stony.interpreter;
+
+/**
+ * Why {@link Interpreter#run(int)} returned.
+ */
+public enum ExecutionStatus {
+    /**
+     * The story quit.
+     */
+    FINISHED,
+    /**
+     * The instruction or time budget was used up, the story can be run again.
+     */
+    BUDGET_EXHAUSTED,
+    /**
+     * The story waits for input which isn't available yet.
+     */
+    AWAITING_INPUT,
+    /**
+     * An instruction failed. The story can't be run again, see {@link Interpreter#getError()}.
+     */
+    ERROR
+}
@@ -0,0 +1,86 @@
+package com.github.stony.interpreter;
+
+/**
+ * Pairs of operations executed as superinstructions: when the first instruction of a fused pair falls through, the
+ * second one is executed in the same dispatch, straight from the first one's cache entry. The run loop's checks and the
+ * instruction cache lookup are done once per superinstruction instead of once per instruction. Chained pairs make
+ * triples: at most {@link #MAX_FUSED_INSTRUCTIONS} instructions are executed per dispatch.
+ * <p>
+ * Fusion needs the instruction cache, see {@link Interpreter#setFusionSet(FusionSet)}. A set is immutable and can be
+ * shared by any number of interpreters.
+ */
+public final class FusionSet {
+    /**
+     * Maximum number of instructions executed in a single dispatch.
+     */
+    public static final int MAX_FUSED_INSTRUCTIONS = 3;
+
+    private static final int N = DispatchTable.OPERATION_COUNT;
+
+    private final boolean[] pairs = new boolean[N * N];
+    private final int size;
+
+    private FusionSet(int[] pairKeys) {
+        int count = 0;
+        for (int key : pairKeys) {
+            if (!pairs[key]) {
+                pairs[key] = true;
+                count++;
+            }
+        }
+        this.size = count;
+    }
+
+    /**
+     * Returns the sequences most frequent in stories compiled by Inform: load or push followed by add and store,
+     * inc_chk followed by jump, and je followed by rtrue.
+     *
+     * @return the default fusion set.
+     */
+    public static FusionSet defaults() {
+        return new FusionSet(new int[]{
+                key(DispatchTable.ONE_OP | Opcodes.LOAD, DispatchTable.TWO_OP | Opcodes.ADD),
+                key(DispatchTable.VAR | Opcodes.PUSH, DispatchTable.TWO_OP | Opcodes.ADD),
+                key(DispatchTable.TWO_OP | Opcodes.ADD, DispatchTable.TWO_OP | Opcodes.STORE),
+                key(DispatchTable.TWO_OP | Opcodes.INC_CHK, DispatchTable.ONE_OP | Opcodes.JUMP),
+                key(DispatchTable.TWO_OP | Opcodes.JE, DispatchTable.ZERO_OP | Opcodes.RTRUE)
+        });
+    }
+
+    /**
+     * Returns the pairs and triples most frequent in a profile. A triple is fused as its two pairs.
+     *
+     * @param profile profile of one or more stories.
+     * @param maxPairs number of most frequent pairs to fuse.
+     * @param maxTriples number of most frequent triples to fuse.
+     * @return the fusion set.
+     */
+    public static FusionSet fromProfile(OperationProfile profile, int maxPairs, int maxTriples) {
+        final int[] topPairs = profile.topPairs(maxPairs);
+        final int[] topTriples = profile.topTriples(maxTriples);
+        final int[] keys = new int[topPairs.length + 2 * topTriples.length];
+        System.arraycopy(topPairs, 0, keys, 0, topPairs.length);
+        for (int i = 0; i < topTriples.length; i++) {
+            final int triple = topTriples[i];
+            keys[topPairs.length + 2 * i] = triple / N; /* first and second */
+            keys[topPairs.length + 2 * i + 1] = triple % (N * N); /* second and third */
+        }
+        return new FusionSet(keys);
+    }
+
+    /**
+     * Returns the number of fused pairs.
+     * @return the number of pairs.
+     */
+    public int size() {
+        return size;
+    }
+
+    boolean contains(int first, int second) {
+        return pairs[key(first, second)];
+    }
+
+    private static int key(int first, int second) {
+        return first * N + second;
+    }
+}
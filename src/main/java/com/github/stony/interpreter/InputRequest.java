@@ -0,0 +1,82 @@
+package com.github.stony.interpreter;
+
+/**
+ * Input the story is waiting for, returned by {@link Interpreter#getInputRequest()} when
+ * {@link Interpreter#run(int)} stops with {@link ExecutionStatus#AWAITING_INPUT}. The story continues when the host
+ * calls {@link Interpreter#resume(String)}.
+ */
+public final class InputRequest {
+    /**
+     * Kind of input.
+     */
+    public enum Type {
+        /**
+         * A line of text (sread, aread).
+         */
+        LINE,
+        /**
+         * A single key press (read_char).
+         */
+        CHARACTER
+    }
+
+    private final Type type;
+    private final int textBufferAddress;
+    private final int parseBufferAddress;
+    private final int maxLength;
+    private final int timeout;
+    private final int routine;
+
+    InputRequest(Type type, int textBufferAddress, int parseBufferAddress, int maxLength, int timeout, int routine) {
+        this.type = type;
+        this.textBufferAddress = textBufferAddress;
+        this.parseBufferAddress = parseBufferAddress;
+        this.maxLength = maxLength;
+        this.timeout = timeout;
+        this.routine = routine;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the address of the text buffer receiving the line.
+     * @return the text buffer address, 0 for character input.
+     */
+    public int getTextBufferAddress() {
+        return textBufferAddress;
+    }
+
+    /**
+     * Returns the address of the parse buffer receiving the words of the line.
+     * @return the parse buffer address, 0 when the story doesn't want the line parsed.
+     */
+    public int getParseBufferAddress() {
+        return parseBufferAddress;
+    }
+
+    /**
+     * Returns the maximum number of characters the story accepts. Longer input is truncated.
+     * @return the maximum input length, 1 for character input.
+     */
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    /**
+     * Returns after how long the story wants its timeout routine called. Version 4 and above.
+     * @return the timeout in tenths of a second, 0 for no timeout.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the packed address of the routine to call on timeout.
+     * @return the timeout routine, 0 if none.
+     */
+    public int getRoutine() {
+        return routine;
+    }
+}
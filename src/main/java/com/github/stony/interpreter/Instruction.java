@@ -1,8 +1,11 @@
 package com.github.stony.interpreter;
 
-import java.io.IOException;
+import com.github.stony.memory.Memory;
+import com.github.stony.output.Output;
 
 public final class Instruction {
+    private static final int ZSCII_NEWLINE = 13;
+
     private final Interpreter interpreter;
 
     public Instruction(Interpreter interpreter) {
@@ -17,10 +20,9 @@ public final class Instruction {
      * @param b second operand.
      */
     public void add(int a, int b) {
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = a + b;
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -31,10 +33,9 @@ public final class Instruction {
      * @param b second operand.
      */
     public void sub(int a, int b) {
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = a - b;
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -45,10 +46,9 @@ public final class Instruction {
      * @param b second operand.
      */
     public void mul(int a, int b) {
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = ((short) a) * ((short) b); /* interpret a and b as signed 16 bits integers */
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -63,10 +63,9 @@ public final class Instruction {
             throw new RuntimeException("Division by zero when executing div instruction.");
         }
 
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = ((short) a) / ((short) b); /* interpret a and b as signed 16 bits integers */
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -81,10 +80,9 @@ public final class Instruction {
             throw new RuntimeException("Division by zero when executing div instruction.");
         }
 
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = ((short) a) % ((short) b); /* interpret a and b as signed 16 bits integers */
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -95,10 +93,9 @@ public final class Instruction {
      * @param b second operand.
      */
     public void or(int a, int b) {
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = a | b;
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -109,10 +106,9 @@ public final class Instruction {
      * @param b second operand.
      */
     public void and(int a, int b) {
-        final int storeVariable = interpreter.memory.readByte(interpreter.pc + interpreter.pcOffset);
         final int result = a & b;
-        interpreter.storeVariable(storeVariable, result);
-        interpreter.pc += interpreter.pcOffset + 1;
+        interpreter.storeVariable(interpreter.store, result);
+        interpreter.pc += interpreter.pcOffset;
     }
 
     /**
@@ -123,76 +119,768 @@ public final class Instruction {
      * @param value value to be stored.
      */
     public void store(int variable, int value) {
-        interpreter.storeVariable(variable, value);
+        interpreter.storeVariableIndirect(variable, value);
         interpreter.pc += interpreter.pcOffset;
     }
 
     /**
-     * Prints the number stored in the [variable] variable to the output stream.
-     * [opcode] [operand_types] [variable]
+     * Prints a signed number to the output stream.<br>
+     * [opcode] [operand_types] [value]
+     *
+     * @param value number to be printed.
+     */
+    public void print_num(int value) {
+        interpreter.output.printNumber((short) value); /* interpret the value as a signed 16 bits integer */
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Prints a ZSCII character.<br>
+     * [opcode] [operand_types] [character]
+     *
+     * @param zscii ZSCII character.
+     */
+    public void print_char(int zscii) {
+        interpreter.output.print(zscii);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Prints the string which follows the instruction.<br>
+     * [opcode] [string]
+     */
+    public void print() {
+        final int stringAddress = interpreter.pc + interpreter.pcOffset;
+        interpreter.pc = stringAddress + interpreter.stringDecoder.print(stringAddress, interpreter.output);
+    }
+
+    /**
+     * Prints the string which follows the instruction, then a line break, and returns true.<br>
+     * [opcode] [string]
      */
-    public void print_num(int variable) {
-        final int num = interpreter.loadVariable(variable);
-        try {
-            interpreter.outputStream.write(String.valueOf(num).getBytes());
-        } catch (IOException e) {
-            throw new RuntimeException("Error while writing to output stream.", e);
+    public void print_ret() {
+        interpreter.stringDecoder.print(interpreter.pc + interpreter.pcOffset, interpreter.output);
+        interpreter.output.newLine();
+        returnFromRoutine(1);
+    }
+
+    /**
+     * Prints the string at a byte address.<br>
+     * [opcode] [address]
+     *
+     * @param address byte address of the string.
+     */
+    public void print_addr(int address) {
+        interpreter.stringDecoder.print(address, interpreter.output);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Prints the string at a packed address.<br>
+     * [opcode] [packed_address]
+     *
+     * @param packedAddress packed address of the string.
+     */
+    public void print_paddr(int packedAddress) {
+        interpreter.stringDecoder.print(interpreter.packedAddressToByteAddressPrintAddr(packedAddress),
+                interpreter.output);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Prints the short name of an object.<br>
+     * [opcode] [object]
+     *
+     * @param object object number.
+     */
+    public void print_obj(int object) {
+        final int address = interpreter.objectTable.getShortNameAddress(object);
+        if (address != 0) {
+            interpreter.stringDecoder.print(address, interpreter.output);
         }
         interpreter.pc += interpreter.pcOffset;
     }
 
+    /**
+     * Stores the object's parent.<br>
+     * [opcode] [object] [store]
+     *
+     * @param object object number.
+     */
+    public void get_parent(int object) {
+        interpreter.storeVariable(interpreter.store, interpreter.objectTable.getParent(object));
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Stores the object's next sibling, and jumps if there is one.<br>
+     * [opcode] [object] [store] [branch]
+     *
+     * @param object object number.
+     */
+    public void get_sibling(int object) {
+        final int sibling = interpreter.objectTable.getSibling(object);
+        interpreter.storeVariable(interpreter.store, sibling);
+        branch(sibling != 0);
+    }
+
+    /**
+     * Stores the object's first child, and jumps if there is one.<br>
+     * [opcode] [object] [store] [branch]
+     *
+     * @param object object number.
+     */
+    public void get_child(int object) {
+        final int child = interpreter.objectTable.getChild(object);
+        interpreter.storeVariable(interpreter.store, child);
+        branch(child != 0);
+    }
+
+    /**
+     * Jumps if a is a child of b.<br>
+     * [opcode] [a] [b] [branch]
+     *
+     * @param a object number.
+     * @param b parent object number.
+     */
+    public void jin(int a, int b) {
+        branch(interpreter.objectTable.getParent(a) == b);
+    }
+
+    /**
+     * Moves an object to become the first child of the destination.<br>
+     * [opcode] [object] [destination]
+     *
+     * @param object object number.
+     * @param destination destination object number.
+     */
+    public void insert_obj(int object, int destination) {
+        interpreter.objectTable.insert(object, destination);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Detaches an object from its parent.<br>
+     * [opcode] [object]
+     *
+     * @param object object number.
+     */
+    public void remove_obj(int object) {
+        interpreter.objectTable.remove(object);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Jumps if the object has the attribute.<br>
+     * [opcode] [object] [attribute] [branch]
+     *
+     * @param object object number.
+     * @param attribute attribute number.
+     */
+    public void test_attr(int object, int attribute) {
+        branch(interpreter.objectTable.hasAttribute(object, attribute));
+    }
+
+    /**
+     * Sets an attribute.<br>
+     * [opcode] [object] [attribute]
+     *
+     * @param object object number.
+     * @param attribute attribute number.
+     */
+    public void set_attr(int object, int attribute) {
+        interpreter.objectTable.setAttribute(object, attribute, true);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Clears an attribute.<br>
+     * [opcode] [object] [attribute]
+     *
+     * @param object object number.
+     * @param attribute attribute number.
+     */
+    public void clear_attr(int object, int attribute) {
+        interpreter.objectTable.setAttribute(object, attribute, false);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Stores a property's value, or its default value if the object doesn't have it.<br>
+     * [opcode] [object] [property] [store]
+     *
+     * @param object object number.
+     * @param property property number.
+     */
+    public void get_prop(int object, int property) {
+        interpreter.storeVariable(interpreter.store, interpreter.objectTable.getProperty(object, property));
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Stores the address of a property's data, 0 if the object doesn't have it.<br>
+     * [opcode] [object] [property] [store]
+     *
+     * @param object object number.
+     * @param property property number.
+     */
+    public void get_prop_addr(int object, int property) {
+        interpreter.storeVariable(interpreter.store, interpreter.objectTable.getPropertyAddress(object, property));
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Stores the length of a property's data.<br>
+     * [opcode] [address] [store]
+     *
+     * @param address address of the data, as stored by get_prop_addr.
+     */
+    public void get_prop_len(int address) {
+        interpreter.storeVariable(interpreter.store, interpreter.objectTable.getPropertyLength(address));
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Stores the number of the property following another, 0 after the last one.<br>
+     * [opcode] [object] [property] [store]
+     *
+     * @param object object number.
+     * @param property property number, 0 for the first property.
+     */
+    public void get_next_prop(int object, int property) {
+        interpreter.storeVariable(interpreter.store, interpreter.objectTable.getNextProperty(object, property));
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Writes a property's value. The object must have the property.<br>
+     * [opcode] [operand_types] [object] [property] [value]
+     *
+     * @param object object number.
+     * @param property property number.
+     * @param value new value.
+     */
+    public void put_prop(int object, int property, int value) {
+        interpreter.objectTable.putProperty(object, property, value);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
     /**
      * Prints a line break to the output stream.
      */
     public void new_line() {
-        final String newLine = "\n"; /* currently, it's "\n" -- should it be platform dependent? */
-        try {
-            interpreter.outputStream.write(newLine.getBytes());
-        } catch (IOException e) {
-            throw new RuntimeException("Error while writing to output stream.", e);
+        interpreter.output.newLine();
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Selects (positive number) or deselects (negative number) an output stream. Selecting stream 3 redirects the
+     * output to a table in memory.<br>
+     * [opcode] [operand_types] [number] ([table])
+     *
+     * @param operands stream number and, for stream 3, table address.
+     * @param operandCount number of operands (1 to 3).
+     */
+    public void output_stream(int[] operands, int operandCount) {
+        final int number = (short) operands[0];
+        final Output output = interpreter.output;
+        if (number == Output.MEMORY) {
+            if (operandCount < 2) {
+                throw new RuntimeException("Output stream 3 selected without a table.");
+            }
+            output.selectMemory(operands[1]);
+        } else if (number > 0) {
+            output.select(number);
+        } else if (number < 0) {
+            output.deselect(-number);
+        }
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Reads a line of input into a text buffer (sread up to version 4, aread from version 5). The interpreter suspends
+     * until the host provides the line, see {@link #completeInput(InputRequest, String, int)}.<br>
+     * [opcode] [operand_types] [text] [parse] ([time] [routine]) ([store])
+     *
+     * @param operands text buffer address, parse buffer address, timeout and timeout routine.
+     * @param operandCount number of operands (1 to 4).
+     */
+    public void sread(int[] operands, int operandCount) {
+        final int textBufferAddress = operands[0];
+        final int parseBufferAddress = operandCount > 1 ? operands[1] : 0;
+        int maxLength = interpreter.memory.readByte(textBufferAddress);
+        if (interpreter.version <= 4) {
+            maxLength--; /* up to version 4, byte 0 counts the terminating zero */
+        }
+        interpreter.suspend(new InputRequest(InputRequest.Type.LINE, textBufferAddress, parseBufferAddress, maxLength,
+                operandCount > 2 ? operands[2] : 0, operandCount > 3 ? operands[3] : 0));
+    }
+
+    /**
+     * Reads a single character. The interpreter suspends until the host provides it, see
+     * {@link #completeInput(InputRequest, String, int)}.<br>
+     * [opcode] [operand_types] [1] ([time] [routine]) [store]
+     *
+     * @param operands 1, timeout and timeout routine.
+     * @param operandCount number of operands (1 to 3).
+     */
+    public void read_char(int[] operands, int operandCount) {
+        interpreter.suspend(new InputRequest(InputRequest.Type.CHARACTER, 0, 0, 1,
+                operandCount > 1 ? operands[1] : 0, operandCount > 2 ? operands[2] : 0));
+    }
+
+    /**
+     * Completes a suspended sread, aread or read_char with the input provided by the host. Lines are written in lower
+     * case to the text buffer, truncated to the buffer size, and tokenized into the parse buffer if there is one.
+     * Characters outside of printable ASCII are replaced by '?'.
+     *
+     * @param request input request of the suspended instruction.
+     * @param input line, or character in its first position; no characters stands for the return key.
+     * @param store store variable of the suspended instruction, -1 if none.
+     */
+    void completeInput(InputRequest request, String input, int store) {
+        final Memory memory = interpreter.memory;
+        final int result;
+        if (request.getType() == InputRequest.Type.CHARACTER) {
+            result = input.isEmpty() ? ZSCII_NEWLINE : toZscii(input.charAt(0));
+        } else {
+            final int address = request.getTextBufferAddress();
+            if (interpreter.version <= 4) {
+                final int length = Math.min(input.length(), request.getMaxLength());
+                for (int i = 0; i < length; i++) {
+                    memory.writeByte(address + 1 + i, toZscii(input.charAt(i)));
+                }
+                memory.writeByte(address + 1 + length, 0);
+            } else {
+                /* from version 5, byte 1 holds the number of characters already in the buffer, which are kept */
+                final int existing = memory.readByte(address + 1);
+                final int length = Math.min(input.length(), Math.max(request.getMaxLength() - existing, 0));
+                for (int i = 0; i < length; i++) {
+                    memory.writeByte(address + 2 + existing + i, toZscii(input.charAt(i)));
+                }
+                memory.writeByte(address + 1, existing + length);
+            }
+            if (request.getParseBufferAddress() != 0) {
+                interpreter.tokenizer.tokenize(address, request.getParseBufferAddress(), 0, false);
+            }
+            result = ZSCII_NEWLINE; /* the terminating character */
+        }
+        if (store >= 0) {
+            interpreter.storeVariable(store, result);
+        }
+    }
+
+    /**
+     * Tokenizes a text buffer into a parse buffer, as sread does.<br>
+     * [opcode] [operand_types] [text] [parse] ([dictionary] [flag])
+     *
+     * @param operands text buffer, parse buffer, dictionary (0 for the story's) and flag, non-zero to leave the blocks
+     *                 of unknown words untouched.
+     * @param operandCount number of operands (2 to 4).
+     */
+    public void tokenise(int[] operands, int operandCount) {
+        interpreter.tokenizer.tokenize(operands[0], operands[1], operandCount > 2 ? operands[2] : 0,
+                operandCount > 3 && operands[3] != 0);
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Converts an input character to ZSCII.
+     *
+     * @param c input character.
+     * @return the lower case ZSCII character, 13 for line breaks and '?' for characters without equivalent.
+     */
+    private static int toZscii(char c) {
+        if (c == '\n' || c == '\r') {
+            return ZSCII_NEWLINE;
+        }
+        final char lowerCase = Character.toLowerCase(c);
+        return lowerCase >= 32 && lowerCase <= 126 ? lowerCase : '?';
+    }
+
+    /**
+     * Saves the game to the host's {@link SaveStorage}: branches on success up to version 3, then stores 1 on success
+     * and 0 on failure. Restoring the file resumes after this instruction as if it had returned 2.<br>
+     * [opcode] ([operand_types] [table] [bytes] [name] [prompt]) ([store]) ([branch])
+     * <p>
+     * Saving part of the memory (version 5 with operands) is not supported and fails.
+     *
+     * @param operands table, number of bytes, name and prompt of a partial save.
+     * @param operandCount number of operands, 0 for a full save.
+     */
+    public void save(int[] operands, int operandCount) {
+        final boolean saved = operandCount == 0 && interpreter.saveToStorage(resultAddress());
+        saveResult(saved);
+    }
+
+    /**
+     * Restores a game from the host's {@link SaveStorage} and continues after the save instruction which wrote it, or
+     * at the next instruction of a file saved by the host. On failure, branches on false up to version 3, then stores
+     * 0.<br>
+     * [opcode] ([operand_types] [table] [bytes] [name] [prompt]) ([store]) ([branch])
+     * <p>
+     * Restoring part of the memory (version 5 with operands) is not supported and fails.
+     *
+     * @param operands table, number of bytes, name and prompt of a partial restore.
+     * @param operandCount number of operands, 0 for a full restore.
+     */
+    public void restore(int[] operands, int operandCount) {
+        if (operandCount != 0 || !interpreter.restoreFromStorage()) {
+            saveResult(false);
+        }
+    }
+
+    /**
+     * Saves the state in the undo levels. Stores 1 on success, 0 if the level doesn't fit in the undo limits and -1 if
+     * undo is disabled. Restoring the level resumes after this instruction as if it had returned 2.<br>
+     * [opcode] [operand_types] [store]
+     */
+    public void save_undo() {
+        final int result;
+        if (interpreter.undoRing.getDepth() == 0) {
+            result = -1;
+        } else {
+            final UndoRing.Level level = new UndoRing.Level(interpreter.memory.snapshot(),
+                    interpreter.stack.toArray(), interpreter.callStack.toArray(), resultAddress());
+            result = interpreter.undoRing.push(level) ? 1 : 0;
         }
+        interpreter.storeVariable(interpreter.store, result);
         interpreter.pc += interpreter.pcOffset;
     }
 
     /**
-     * Pops the last item from the stack.
+     * Restores the newest undo level and continues after the save_undo which saved it, removing the level. Stores 0
+     * if there's no level.<br>
+     * [opcode] [operand_types] [store]
+     */
+    public void restore_undo() {
+        final UndoRing.Level level = interpreter.undoRing.pop();
+        if (level == null) {
+            interpreter.storeVariable(interpreter.store, 0);
+            interpreter.pc += interpreter.pcOffset;
+            return;
+        }
+        final int previousFlags2 = interpreter.dynamicHeader.getFlags2();
+        interpreter.memory.restore(level.memory);
+        interpreter.dynamicHeader.reapply(previousFlags2);
+        interpreter.objectTable.invalidate(0, interpreter.header.getStaticMemoryBaseAddress());
+        interpreter.stack.load(level.stack);
+        interpreter.callStack.load(level.frames);
+        completeRestore(level.resultAddress);
+    }
+
+    /**
+     * Returns the address of the current instruction's branch (up to version 3) or store byte, the program counter
+     * saved files record.
+     *
+     * @return the address of the first branch byte or the store byte.
+     */
+    private int resultAddress() {
+        return interpreter.version <= 3 ? interpreter.pc + 1 : interpreter.pc + interpreter.pcOffset - 1;
+    }
+
+    /**
+     * Finishes a save or a failed restore: branches up to version 3, then stores 1 or 0.
+     *
+     * @param success outcome of the instruction.
+     */
+    private void saveResult(boolean success) {
+        if (interpreter.version <= 3) {
+            branch(success);
+        } else {
+            interpreter.storeVariable(interpreter.store, success ? 1 : 0);
+            interpreter.pc += interpreter.pcOffset;
+        }
+    }
+
+    /**
+     * Finishes a restore as the save instruction which wrote the file: its branch is taken up to version 3, then 2 is
+     * stored in its store variable.
+     *
+     * @param address address of the save instruction's branch or store byte.
+     */
+    void completeRestore(int address) {
+        final Memory memory = interpreter.memory;
+        if (interpreter.version <= 3) {
+            final int first = memory.readByte(address);
+            final int offset = (first & 0x40) != 0 ? first & 0x3f
+                    : ((first & 0x3f) << 8 | memory.readByte(address + 1)) << 18 >> 18;
+            interpreter.pc = address - 1; /* 0OP: the save opcode is a single byte */
+            interpreter.pcOffset = (first & 0x40) != 0 ? 2 : 3;
+            interpreter.branchOnTrue = (first & 0x80) != 0;
+            interpreter.branchOffset = offset;
+            branch(true);
+        } else {
+            interpreter.pc = address + 1;
+            interpreter.storeVariable(memory.readByte(address), 2);
+        }
+    }
+
+    /**
+     * Pops the last item from the current routine's stack.
      */
     public void pop() {
-        interpreter.stack.pop();
+        interpreter.loadVariable(0); /* rejects the values of the calling routines */
         interpreter.pc += interpreter.pcOffset;
     }
 
 
     /**
-     * 2OP - long, small constant, small constant
-     * [opcode] [variable address] [constant] [offset]
-     * Increments the variable pointed by variable address. If the new value is greater than constant, branch to offset.
+     * Pushes the value onto the stack.<br>
+     * [opcode] [operand_types] [value]
+     *
+     * @param value value to be pushed.
      */
-    public void inc_chk() {
-        final int globalVariables = interpreter.header.getGlobalVariablesTableAddress();
-        final int variableAddress = interpreter.memory.readByte(interpreter.pc + 1);
-        int variableValue = interpreter.memory.readByte(globalVariables + variableAddress);
-        final int constantValue = interpreter.memory.readByte(interpreter.pc + 2);
-        final int branchAddress = interpreter.memory.readByte(interpreter.pc + 3);
+    public void push(int value) {
+        interpreter.stack.push(value);
+        interpreter.pc += interpreter.pcOffset;
+    }
 
-        /* Increment and store the variable */
-        variableValue++;
-        interpreter.memory.writeByte(variableAddress, variableValue);
+    /**
+     * Pops a value from the stack and stores it into the variable.<br>
+     * [opcode] [operand_types] [variable]
+     *
+     * @param variable variable number.
+     */
+    public void pull(int variable) {
+        interpreter.storeVariableIndirect(variable, interpreter.loadVariable(0));
+        interpreter.pc += interpreter.pcOffset;
+    }
+
+    /**
+     * Jumps if a is zero.<br>
+     * [opcode] [a] [branch]
+     *
+     * @param a operand.
+     */
+    public void jz(int a) {
+        branch((short) a == 0);
+    }
 
-        if (variableValue > constantValue) {
-            /* branch */
-            interpreter.pc += branchAddress;
+    /**
+     * Jumps if a is equal to any of the other operands.<br>
+     * [opcode] [operand_types] [a] [b] ([c] [d]) [branch]
+     *
+     * @param operands operands.
+     * @param operandCount number of operands (2 to 4).
+     */
+    public void je(int[] operands, int operandCount) {
+        final short a = (short) operands[0];
+        boolean equal = false;
+        for (int i = 1; i < operandCount && !equal; i++) {
+            equal = a == (short) operands[i];
+        }
+        branch(equal);
+    }
+
+    /**
+     * Jumps if a is less than b, as signed 16 bits integers.<br>
+     * [opcode] [a] [b] [branch]
+     *
+     * @param a first operand.
+     * @param b second operand.
+     */
+    public void jl(int a, int b) {
+        branch((short) a < (short) b);
+    }
+
+    /**
+     * Jumps if a is greater than b, as signed 16 bits integers.<br>
+     * [opcode] [a] [b] [branch]
+     *
+     * @param a first operand.
+     * @param b second operand.
+     */
+    public void jg(int a, int b) {
+        branch((short) a > (short) b);
+    }
+
+    /**
+     * Decrements the variable and jumps if its new value is less than the constant.<br>
+     * [opcode] [variable] [constant] [branch]
+     *
+     * @param variable variable number.
+     * @param constant value compared against.
+     */
+    public void dec_chk(int variable, int constant) {
+        final short value = (short) (interpreter.loadVariableIndirect(variable) - 1);
+        interpreter.storeVariableIndirect(variable, value);
+        branch(value < (short) constant);
+    }
+
+    /**
+     * Increments the variable and jumps if its new value is greater than the constant.<br>
+     * [opcode] [variable] [constant] [branch]
+     *
+     * @param variable variable number.
+     * @param constant value compared against.
+     */
+    public void inc_chk(int variable, int constant) {
+        final short value = (short) (interpreter.loadVariableIndirect(variable) + 1);
+        interpreter.storeVariableIndirect(variable, value);
+        branch(value > (short) constant);
+    }
+
+    /**
+     * Jumps unconditionally, relative to the next instruction.<br>
+     * [opcode] [offset]
+     *
+     * @param offset signed offset.
+     */
+    public void jump(int offset) {
+        final int delta = interpreter.pcOffset + (short) offset - 2;
+        interpreter.pc += delta;
+        if (delta <= 0 && interpreter.codeCache != null) {
+            jumpedBackward();
+        }
+    }
+
+    /**
+     * Finishes a branch instruction: jumps to the decoded branch target if the condition matches the branch polarity,
+     * otherwise continues to the next instruction.
+     *
+     * @param condition instruction's condition.
+     */
+    private void branch(boolean condition) {
+        if (condition != interpreter.branchOnTrue) {
+            interpreter.pc += interpreter.pcOffset;
+        } else if (interpreter.branchOffset == 0 || interpreter.branchOffset == 1) {
+            returnFromRoutine(interpreter.branchOffset); /* 0 returns false, 1 returns true */
         } else {
-            interpreter.pc += 4;
+            final int delta = interpreter.pcOffset + interpreter.branchOffset - 2;
+            interpreter.pc += delta;
+            if (delta <= 0 && interpreter.codeCache != null) {
+                jumpedBackward();
+            }
+        }
+    }
+
+    /**
+     * Enters the compiled code at a loop header just jumped to, if its routine is compiled and is the current one.
+     */
+    private void jumpedBackward() {
+        final CompiledRoutine routine = interpreter.codeCache.entryAt(interpreter.pc);
+        final CallStack callStack = interpreter.callStack;
+        if (routine != null && callStack.getDepth() > 0 && callStack.getLocalCount() == routine.getLocalCount()) {
+            executeCompiled(routine, routine.getEntry(interpreter.pc));
+        }
+    }
+
+    /**
+     * Runs compiled code in the current frame. Returns from the routine if the code returned, otherwise the code
+     * deoptimized and the interpreter continues from the program counter.
+     *
+     * @param routine compiled routine.
+     * @param entry entry index.
+     */
+    private void executeCompiled(CompiledRoutine routine, int entry) {
+        interpreter.deoptimized = false;
+        final int value = routine.execute(interpreter, entry);
+        if (!interpreter.deoptimized) {
+            returnFromRoutine(value);
         }
     }
 
-    public void call() {
-        final int operandTypes = interpreter.memory.readByte(interpreter.pc + 1);
-        final int routineAddress;
-        final int a, b, c; /* three arguments */
+    /**
+     * Calls a routine, for every call opcode (call_1s, call_1n, call_2s, call_2n, call_vs, call_vn, call_vs2 and
+     * call_vn2). The n variants are decoded without store variable, so their result is discarded on return.<br>
+     * [opcode] ([operand_types]) [routine] [arguments...] ([store])
+     * <p>
+     * Calling the packed address 0 does nothing and returns false. A routine header declaring more than 15 local
+     * variables is rejected.
+     *
+     * @param operands packed routine address followed by the arguments.
+     * @param operandCount number of operands (1 to 8).
+     */
+    public void call(int[] operands, int operandCount) {
+        final int returnPc = interpreter.pc + interpreter.pcOffset;
+        if (operands[0] == 0) {
+            if (interpreter.store >= 0) {
+                interpreter.storeVariable(interpreter.store, 0);
+            }
+            interpreter.pc = returnPc;
+            return;
+        }
+
+        final int routineAddress = interpreter.packedAddressToByteAddressRoutine(operands[0]);
+        int address = routineAddress;
+        final int localCount = interpreter.memory.readByte(address++);
+        if (localCount > 15) {
+            throw new RuntimeException("Invalid routine at " + routineAddress + ": " + localCount
+                    + " local variables.");
+        }
+        final boolean initialValues = interpreter.version <= 4;
+        final CallStack callStack = interpreter.callStack;
 
-        routineAddress = interpreter.packedAddressToByteAddressRoutine(interpreter.memory.readWord(interpreter.pc + 2));
-        interpreter.pc = routineAddress;
+        callStack.enter(returnPc, interpreter.store, operandCount - 1, localCount, interpreter.stack.size());
+        for (int local = 1; local <= localCount; local++) {
+            int value = 0;
+            if (initialValues) {
+                value = interpreter.memory.readWord(address);
+                address += 2;
+            }
+            if (local < operandCount) {
+                value = operands[local]; /* arguments replace the initial values */
+            }
+            callStack.setLocal(local, value);
+        }
+        interpreter.pc = address;
+
+        if (interpreter.codeCache != null) {
+            final CompiledRoutine routine = interpreter.codeCache.called(routineAddress);
+            if (routine != null) {
+                executeCompiled(routine, 0);
+            }
+        }
+    }
+
+    /**
+     * Returns from the current routine.<br>
+     * [opcode] [value]
+     *
+     * @param value return value.
+     */
+    public void ret(int value) {
+        returnFromRoutine(value);
+    }
+
+    /**
+     * Returns true (1) from the current routine.
+     */
+    public void rtrue() {
+        returnFromRoutine(1);
+    }
+
+    /**
+     * Returns false (0) from the current routine.
+     */
+    public void rfalse() {
+        returnFromRoutine(0);
+    }
+
+    /**
+     * Pops the stack and returns the popped value from the current routine.
+     */
+    public void ret_popped() {
+        returnFromRoutine(interpreter.loadVariable(0));
+    }
+
+    /**
+     * Leaves the current routine: discards its stack values and frame, resumes the caller and stores the value in the
+     * caller's store variable, if any.
+     *
+     * @param value return value.
+     */
+    private void returnFromRoutine(int value) {
+        final CallStack callStack = interpreter.callStack;
+        final int returnPc = callStack.getReturnPc();
+        final int storeVariable = callStack.getStoreVariable();
+
+        interpreter.stack.truncate(callStack.getStackBase());
+        callStack.leave();
+        interpreter.pc = returnPc;
+        if (storeVariable >= 0) {
+            interpreter.storeVariable(storeVariable, value);
+        }
     }
 }
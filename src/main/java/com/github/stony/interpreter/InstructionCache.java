@@ -0,0 +1,145 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Memory;
+import com.github.stony.memory.WriteListener;
+
+/**
+ * Decoded instructions of high memory, keyed by address.
+ * <p>
+ * High memory holds the code and can't be written by a story, so an instruction decoded once stays valid. Entries are
+ * decoded lazily, the first time the program counter reaches them. As a safety net, the cache listens to memory writes
+ * and drops every entry overlapping a written range. Instructions outside of high memory are decoded every time.
+ * <p>
+ * Cached instructions can be linked to the instruction following them, to be executed as a superinstruction, see
+ * {@link FusionSet}. Links are resolved lazily too, and all of them are dropped whenever an entry is.
+ */
+final class InstructionCache implements WriteListener {
+    /**
+     * Longest possible instruction: opcode, extended opcode or second types byte, types byte, eight large constants,
+     * store variable and two branch bytes.
+     */
+    static final int MAX_INSTRUCTION_LENGTH = 23;
+
+    private final Memory memory;
+    private final DispatchTable dispatchTable;
+    private final int baseAddress;
+    private final DecodedInstruction[] entries;
+
+    /* Used for addresses outside of the cached range */
+    private final DecodedInstruction uncached = new DecodedInstruction();
+
+    /**
+     * Constructs an empty cache for the memory from baseAddress to the end of the memory and starts listening to writes
+     * in that range.
+     *
+     * @param memory memory holding the instructions.
+     * @param dispatchTable dispatch table used to decode the instructions.
+     * @param baseAddress first cached address, usually the high memory base address.
+     */
+    InstructionCache(Memory memory, DispatchTable dispatchTable, int baseAddress) {
+        this.memory = memory;
+        this.dispatchTable = dispatchTable;
+        this.baseAddress = baseAddress;
+        this.entries = new DecodedInstruction[Math.max(0, memory.getSize() - baseAddress)];
+        memory.setWriteListener(baseAddress, this);
+    }
+
+    /**
+     * Returns the decoded instruction at the address, decoding it if necessary. The returned instance must not be
+     * modified.
+     *
+     * @param address instruction address.
+     * @return the decoded instruction.
+     */
+    DecodedInstruction get(int address) {
+        final int index = address - baseAddress;
+        if (index < 0 || index >= entries.length) {
+            dispatchTable.decode(memory, address, uncached);
+            return uncached;
+        }
+
+        DecodedInstruction decoded = entries[index];
+        if (decoded == null) {
+            decoded = new DecodedInstruction();
+            dispatchTable.decode(memory, address, decoded);
+            entries[index] = decoded;
+        }
+        return decoded;
+    }
+
+    /**
+     * Returns whether the instruction at the address is cached.
+     *
+     * @param address instruction address.
+     * @return true if cached.
+     */
+    boolean contains(int address) {
+        final int index = address - baseAddress;
+        return index >= 0 && index < entries.length && entries[index] != null;
+    }
+
+    /**
+     * Returns the instruction fused with a cached instruction: the one following it, if the pair of operations is in the
+     * fusion set. Only called once the first instruction fell through, so the following one is about to be executed
+     * anyway and decoding it is safe.
+     *
+     * @param address address of the first instruction.
+     * @param decoded first instruction, as returned by {@link #get(int)}.
+     * @param fusionSet pairs of operations to be fused.
+     * @return the following instruction, or null if the pair isn't fused or the first instruction isn't cached.
+     */
+    DecodedInstruction next(int address, DecodedInstruction decoded, FusionSet fusionSet) {
+        if (decoded.linked) {
+            return decoded.next;
+        }
+        final int index = address - baseAddress;
+        if (index < 0 || index >= entries.length || entries[index] != decoded) {
+            return null;
+        }
+        final int nextAddress = address + decoded.length;
+        if (nextAddress - baseAddress < entries.length) {
+            final DecodedInstruction next = get(nextAddress);
+            if (fusionSet.contains(decoded.operation, next.operation)) {
+                decoded.next = next;
+            }
+        }
+        decoded.linked = true;
+        return decoded.next;
+    }
+
+    /**
+     * Drops every link between instructions, for example when the fusion set changes.
+     */
+    void unlink() {
+        for (DecodedInstruction decoded : entries) {
+            if (decoded != null) {
+                decoded.next = null;
+                decoded.linked = false;
+            }
+        }
+    }
+
+    /**
+     * Stops listening to memory writes. The cache must not be used afterwards.
+     */
+    void detach() {
+        memory.setWriteListener(0, null);
+    }
+
+    @Override
+    public void memoryWritten(int address, int length) {
+        final int first = Math.max(0, address - baseAddress - MAX_INSTRUCTION_LENGTH + 1);
+        final int end = Math.min(entries.length, address - baseAddress + length);
+        boolean dropped = false;
+        for (int index = first; index < end; index++) {
+            final DecodedInstruction decoded = entries[index];
+            if (decoded != null && index + decoded.length > address - baseAddress) {
+                entries[index] = null;
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            unlink(); /* another instruction may be linked to a dropped one */
+        }
+    }
+}
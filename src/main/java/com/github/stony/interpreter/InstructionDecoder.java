@@ -0,0 +1,193 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+
+/**
+ * Decodes instructions with the dispatch tables of the interpreter, for tools which read the code without running it,
+ * such as the static analyzer of {@code com.github.stony.analysis}.
+ * <p>
+ * Operations are identified as in the interpreter: the operand form ({@link #ZERO_OP}, {@link #ONE_OP},
+ * {@link #TWO_OP}, {@link #VAR} or {@link #EXT}) combined with the opcode from {@link Opcodes}. Thread safe: the tables
+ * are shared and immutable, and every decoding fills a new instance.
+ */
+public final class InstructionDecoder {
+    /* Operand forms */
+    public static final int ZERO_OP = DispatchTable.ZERO_OP;
+    public static final int ONE_OP = DispatchTable.ONE_OP;
+    public static final int TWO_OP = DispatchTable.TWO_OP;
+    public static final int VAR = DispatchTable.VAR;
+    public static final int EXT = DispatchTable.EXT;
+
+    /* Operand types */
+    public static final int LARGE_CONSTANT = DispatchTable.LARGE_CONSTANT;
+    public static final int SMALL_CONSTANT = DispatchTable.SMALL_CONSTANT;
+    public static final int VARIABLE = DispatchTable.VARIABLE;
+
+    /**
+     * Number of distinct operation identifiers: operations range from 0 to OPERATION_COUNT - 1.
+     */
+    public static final int OPERATION_COUNT = DispatchTable.OPERATION_COUNT;
+
+    private final Memory memory;
+    private final Engine engine;
+    private final DispatchTable dispatchTable;
+    private final int version;
+
+    /**
+     * Constructs a decoder for a story.
+     *
+     * @param memory story memory.
+     * @param header story header.
+     */
+    public InstructionDecoder(Memory memory, Header header) {
+        this.memory = memory;
+        this.engine = Engine.forHeader(header);
+        this.dispatchTable = engine.getDispatchTable();
+        this.version = header.getVersionNumber();
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Decodes the instruction at an address.
+     *
+     * @param address address of the first byte of the instruction.
+     * @return the decoded instruction.
+     * @throws RuntimeException when the instruction is invalid or lies outside of the memory.
+     */
+    public DecodedInstruction decode(int address) {
+        final DecodedInstruction decoded = new DecodedInstruction();
+        engine.decode(memory, address, decoded);
+        return decoded;
+    }
+
+    /**
+     * Returns the address of the instruction following another one, after the text of print and print_ret.
+     *
+     * @param address address of the instruction.
+     * @param decoded the instruction.
+     * @return the address of the next instruction.
+     */
+    public int nextAddress(int address, DecodedInstruction decoded) {
+        final int next = address + decoded.length;
+        if (!hasText(decoded.operation)) {
+            return next;
+        }
+        /* the last word of a string has its top bit set */
+        int textAddress = next;
+        while ((memory.readWord(textAddress) & 0x8000) == 0) {
+            textAddress += 2;
+        }
+        return textAddress + 2;
+    }
+
+    /**
+     * Returns the address reached by a jump, or by a taken branch which doesn't return.
+     *
+     * @param address address of the instruction.
+     * @param decoded the jump or branch instruction.
+     * @return the target address.
+     */
+    public static int targetAddress(int address, DecodedInstruction decoded) {
+        if (decoded.operation == (ONE_OP | Opcodes.JUMP)) {
+            return address + decoded.length + (short) decoded.operandValues[0] - 2;
+        }
+        return address + decoded.length + decoded.branchOffset - 2;
+    }
+
+    /**
+     * Converts a packed routine address to a byte address.
+     * @param packedAddress packed address.
+     * @return the byte address of the routine header.
+     */
+    public int unpackRoutineAddress(int packedAddress) {
+        return engine.unpackRoutineAddress(packedAddress);
+    }
+
+    /**
+     * Returns the address of the first instruction of a routine: after the local variable count, and up to version 4
+     * after the initial values of the locals.
+     *
+     * @param routineAddress byte address of the routine header.
+     * @return the address of the first instruction.
+     */
+    public int firstInstructionAddress(int routineAddress) {
+        final int localCount = memory.readByte(routineAddress);
+        return routineAddress + 1 + (version <= 4 ? 2 * localCount : 0);
+    }
+
+    /**
+     * Tells if an operation is followed by branch data in this version.
+     * @param operation operation identifier.
+     * @return true for branch instructions.
+     */
+    public boolean isBranch(int operation) {
+        return dispatchTable.branches[operation];
+    }
+
+    /**
+     * Tells if an operation stores a result in this version.
+     * @param operation operation identifier.
+     * @return true for store instructions.
+     */
+    public boolean isStore(int operation) {
+        return dispatchTable.stores[operation];
+    }
+
+    /**
+     * Tells if an operation calls a routine, whose packed address is the first operand.
+     * @param operation operation identifier.
+     * @return true for the call instructions.
+     */
+    public static boolean isCall(int operation) {
+        return DispatchTable.isCall(operation);
+    }
+
+    public static boolean isJump(int operation) {
+        return operation == (ONE_OP | Opcodes.JUMP);
+    }
+
+    /**
+     * Tells if an operation never continues with the next instruction of the routine: returns, quit, restart and throw.
+     * Jumps continue at their target.
+     *
+     * @param operation operation identifier.
+     * @return true if the routine ends there.
+     */
+    public static boolean isTerminal(int operation) {
+        switch (operation) {
+            case ZERO_OP | Opcodes.RTRUE:
+            case ZERO_OP | Opcodes.RFALSE:
+            case ZERO_OP | Opcodes.PRINT_RET:
+            case ZERO_OP | Opcodes.RESTART:
+            case ZERO_OP | Opcodes.RET_POPPED:
+            case ZERO_OP | Opcodes.QUIT:
+            case ONE_OP | Opcodes.RET:
+            case TWO_OP | Opcodes.THROW:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Tells if an operation is followed by text: print and print_ret.
+     * @param operation operation identifier.
+     * @return true if text follows the instruction.
+     */
+    public static boolean hasText(int operation) {
+        return operation == (ZERO_OP | Opcodes.PRINT) || operation == (ZERO_OP | Opcodes.PRINT_RET);
+    }
+
+    /**
+     * Returns a human readable name for an operation: the form name and the opcode, for example 2OP:0x14 for add.
+     * @param operation operation identifier.
+     * @return the operation name.
+     */
+    public static String operationName(int operation) {
+        return DispatchTable.operationName(operation);
+    }
+}
@@ -1,219 +1,1168 @@
 package com.github.stony.interpreter;
 
+import com.github.stony.memory.ArrayMemory;
+import com.github.stony.memory.Dictionary;
+import com.github.stony.memory.DynamicHeader;
 import com.github.stony.memory.Memory;
+import com.github.stony.memory.MemoryBackend;
+import com.github.stony.memory.ObjectTable;
 import com.github.stony.memory.Header;
+import com.github.stony.memory.StoryImage;
+import com.github.stony.output.Output;
+import com.github.stony.text.Tokenizer;
+import com.github.stony.text.ZStringDecoder;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.EmptyStackException;
+import java.util.zip.CRC32;
 
 public final class Interpreter {
+    /**
+     * Number of instructions between two clock reads when running with a time budget. Must be a power of two.
+     */
+    public static final int TIME_CHECK_INTERVAL = 1024;
+
     final Memory memory;
     final Header header;
+    final DynamicHeader dynamicHeader;
+    final Output output;
+    final ZStringDecoder stringDecoder;
+    final Tokenizer tokenizer;
+    final ObjectTable objectTable;
     final InputStream inputStream;
     final OutputStream outputStream;
-    final Stack<Integer> stack;
+    final Stack stack;
+    final CallStack callStack;
     final private Instruction instruction;
+    private Engine engine;
     private boolean finished;
+    private RuntimeException error;
+
+    /* Input the story waits for, null while running. The input instruction completes on resume */
+    private InputRequest inputRequest;
+    private int resumePc;
+    private int resumeStore;
+
+    /* Decoded instructions, either from the cache or decoded every time into the same instance */
+    InstructionCache instructionCache;
+    final private DecodedInstruction decoded = new DecodedInstruction();
+
+    /* Superinstructions, only with the instruction cache, and the profiles of executed operations */
+    private FusionSet fusionSet;
+    /* Instructions of a fused group completed before one of them failed */
+    private int fusedExecuted;
+    private OperationProfile operationProfile;
+    private ExecutionProfiler profiler;
+    /* Whether either profile is set, updated by their setters so that stepping tests a single field */
+    private boolean instrumented;
+
+    /* Instructions executed since the start, and the trace recorder with the instruction count of its next checkpoint */
+    private long instructionCount;
+    private TraceRecorder traceRecorder;
+    private long nextCheckpoint = Long.MAX_VALUE;
 
-    /* Program counter offset */
+    /* Compiled routines, and the state shared with the compiled code, see CompiledRoutine */
+    CompiledCodeCache codeCache;
+    private int compilationThreshold = CompiledCodeCache.DEFAULT_THRESHOLD;
+    int compiledBudget;
+    int compiledExecuted;
+    boolean deoptimized;
+
+    /* Save files: the storage of the save and restore instructions, and the buffer reused by every save */
+    private SaveStorage saveStorage;
+    private Quetzal quetzal;
+
+    /* Levels of save_undo */
+    final UndoRing undoRing = new UndoRing();
+
+    /* Current instruction: operand values, store variable and branch */
+    final int[] operands = new int[8];
+    int operandCount;
+    int store;
+    boolean branchOnTrue;
+    int branchOffset;
+
+    /* Program counter offset, the length of the current instruction */
     int pcOffset;
 
     /* Program counter */
     int pc;
 
+    /* Precomputed from the header */
+    final int version;
+    final int globalVariablesTableAddress;
+
+    /**
+     * Constructs an interpreter which runs directly in the file data array: the story writes into its dynamic memory.
+     *
+     * @param fileData story file data.
+     * @param inputStream input stream.
+     * @param outputStream output stream.
+     */
     public Interpreter(byte[] fileData, InputStream inputStream, OutputStream outputStream) {
-        this.memory = new Memory(fileData);
-        this.header = new Header(memory);
+        this(ArrayMemory.inPlace(fileData), inputStream, outputStream);
+        memory.keepInitialState(header.getStaticMemoryBaseAddress()); /* save files hold the changes since then */
+    }
+
+    /**
+     * Constructs an interpreter for a shared story image. The interpreter gets its own copy of the dynamic memory.
+     *
+     * @param storyImage story image, possibly shared with other interpreters.
+     * @param inputStream input stream.
+     * @param outputStream output stream.
+     */
+    public Interpreter(StoryImage storyImage, InputStream inputStream, OutputStream outputStream) {
+        this(storyImage, MemoryBackend.HEAP, inputStream, outputStream);
+    }
+
+    /**
+     * Constructs an interpreter for a shared story image, with its copy of the dynamic memory held by a backend.
+     *
+     * @param storyImage story image, possibly shared with other interpreters.
+     * @param memoryBackend where the dynamic memory is held.
+     * @param inputStream input stream.
+     * @param outputStream output stream.
+     */
+    public Interpreter(StoryImage storyImage, MemoryBackend memoryBackend, InputStream inputStream,
+                       OutputStream outputStream) {
+        this(storyImage.newMemory(memoryBackend), storyImage.getHeader(), storyImage.getDictionary(), inputStream,
+                outputStream);
+    }
+
+    private Interpreter(Memory memory, InputStream inputStream, OutputStream outputStream) {
+        this(memory, new Header(memory), inputStream, outputStream);
+    }
+
+    private Interpreter(Memory memory, Header header, InputStream inputStream, OutputStream outputStream) {
+        this(memory, header, StoryImage.dictionary(memory, header), inputStream, outputStream);
+    }
+
+    private Interpreter(Memory memory, Header header, Dictionary dictionary, InputStream inputStream,
+                        OutputStream outputStream) {
+        this.memory = memory;
+        this.header = header;
+        this.dynamicHeader = new DynamicHeader(memory, header);
+        this.output = new Output(memory, dynamicHeader, outputStream);
+        this.stringDecoder = new ZStringDecoder(memory, header);
+        this.tokenizer = new Tokenizer(memory, header, dictionary);
+        this.objectTable = new ObjectTable(memory, header);
+        this.version = header.getVersionNumber();
+        this.globalVariablesTableAddress = header.getGlobalVariablesTableAddress();
         this.inputStream = inputStream;
         this.outputStream = outputStream;
-        this.stack = new Stack<>();
+        this.stack = new Stack();
+        this.callStack = new CallStack();
         this.instruction = new Instruction(this);
+        this.engine = Engine.forHeader(header);
         this.finished = false;
         this.pc = this.header.getProgramCounterInitialValue();
     }
 
+    /**
+     * Executes the instruction at the program counter. With the compiler enabled, a call or a backward jump may run
+     * compiled code, up to the next backward jump.
+     *
+     * @throws IllegalStateException when the story waits for input.
+     */
     public void executeInstruction() {
-        decodeInstruction();
+        if (inputRequest != null) {
+            throw new IllegalStateException("The story is waiting for input.");
+        }
+        compiledBudget = 0;
+        compiledExecuted = 0;
+        try {
+            if (instrumented) {
+                instrumentedStep();
+            } else {
+                step();
+            }
+        } catch (RuntimeException e) {
+            instructionCount += compiledExecuted; /* run before compiled code failed, see CompiledRoutine */
+            if (traceRecorder != null) {
+                traceRecorder.failure(instructionCount, pc, e);
+            }
+            throw e;
+        }
+        instructionCount += 1 + compiledExecuted;
+        if (instructionCount >= nextCheckpoint) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Executes the instruction at the program counter, see {@link #executeInstruction()}.
+     */
+    private void step() {
+        final DecodedInstruction decoded = decode();
+        loadOperands(decoded);
+        execute(decoded.operation);
+    }
+
+    /**
+     * Executes the instruction at the program counter and feeds the profiles. Kept apart from {@link #step()}, so that
+     * the dispatch loop doesn't test for profiles when there are none.
+     */
+    private void instrumentedStep() {
+        final DecodedInstruction decoded = decode();
+        final int operation = decoded.operation;
+        final int address = pc;
+        final int fallThrough = address + decoded.length;
+        loadOperands(decoded);
+        final int routine = operands[0];
+        if (profiler != null) {
+            profiler.enter(operation, address);
+        }
+        execute(operation);
+        if (profiler != null) {
+            profiler.exit(operation);
+            if (routine != 0 && DispatchTable.isCall(operation)) {
+                profiler.routineEntered(engine.unpackRoutineAddress(routine));
+            }
+        }
+        if (operationProfile != null) {
+            operationProfile.record(operation, pc == fallThrough);
+        }
+    }
+
+    private DecodedInstruction decode() {
+        if (instructionCache != null) {
+            return instructionCache.get(pc);
+        }
+        engine.decode(memory, pc, decoded);
+        return decoded;
+    }
+
+    /**
+     * Executes the instruction at the program counter, and the instructions fused with it as long as they fall through.
+     * When one of them throws, the number of instructions completed before it is left in {@link #fusedExecuted}.
+     *
+     * @param maxInstructions maximum number of instructions to execute, at least 1.
+     * @return the number of executed instructions.
+     */
+    private int executeFused(int maxInstructions) {
+        final int limit = Math.min(maxInstructions, FusionSet.MAX_FUSED_INSTRUCTIONS);
+        DecodedInstruction decoded = instructionCache.get(pc);
+        int executed = 0;
+        try {
+            while (true) {
+                final int address = pc;
+                final int fallThrough = address + decoded.length;
+                loadOperands(decoded);
+                execute(decoded.operation);
+                if (++executed == limit || pc != fallThrough) {
+                    return executed;
+                }
+                decoded = decoded.linked ? decoded.next : instructionCache.next(address, decoded, fusionSet);
+                if (decoded == null) {
+                    return executed;
+                }
+            }
+        } catch (RuntimeException e) {
+            fusedExecuted = executed;
+            throw e;
+        }
+    }
+
+    /**
+     * Executes instructions until the story finishes, fails or the instruction budget is used up.
+     *
+     * @param maxInstructions maximum number of instructions to execute.
+     * @return why the interpreter stopped.
+     */
+    public ExecutionStatus run(int maxInstructions) {
+        return run(maxInstructions, 0);
+    }
+
+    /**
+     * Executes instructions until the story finishes, fails or the instruction or time budget is used up. The time is
+     * only checked every {@link #TIME_CHECK_INTERVAL} instructions, so the budget may be exceeded slightly.
+     * <p>
+     * Exceptions thrown by instructions are not propagated: the interpreter stops for good and returns
+     * {@link ExecutionStatus#ERROR}.
+     *
+     * @param maxInstructions maximum number of instructions to execute.
+     * @param maxNanos maximum running time in nanoseconds, 0 for no time budget.
+     * @return why the interpreter stopped.
+     */
+    public ExecutionStatus run(int maxInstructions, long maxNanos) {
+        if (error != null) {
+            return ExecutionStatus.ERROR;
+        }
+        final long deadline = maxNanos > 0 ? System.nanoTime() + maxNanos : 0;
+        final boolean instrumented = this.instrumented;
+        final boolean fused = fusionSet != null && instructionCache != null && !instrumented && codeCache == null;
+        final long start = instructionCount;
+        long executed = 0;
+        try {
+            long nextTimeCheck = TIME_CHECK_INTERVAL - 1;
+            /* the budget, or less up to the next checkpoint */
+            long limit = Math.min(maxInstructions, nextCheckpoint - start);
+            while (true) {
+                if (executed >= limit) {
+                    if (limit == maxInstructions) {
+                        break;
+                    }
+                    instructionCount = start + executed;
+                    checkpoint();
+                    limit = Math.min(maxInstructions, nextCheckpoint - start);
+                    continue;
+                }
+                if (finished) {
+                    return ExecutionStatus.FINISHED;
+                }
+                if (inputRequest != null) {
+                    return ExecutionStatus.AWAITING_INPUT;
+                }
+                if (deadline != 0 && executed >= nextTimeCheck) {
+                    nextTimeCheck = executed + TIME_CHECK_INTERVAL;
+                    if (System.nanoTime() - deadline >= 0) {
+                        return ExecutionStatus.BUDGET_EXHAUSTED;
+                    }
+                }
+                if (codeCache != null) {
+                    /* compiled code may run many instructions, up to the remaining budget */
+                    final long remaining = deadline != 0 ? Math.min(limit, nextTimeCheck + 1) - executed
+                            : limit - executed;
+                    compiledBudget = (int) remaining - 1;
+                    compiledExecuted = 0;
+                    if (instrumented) {
+                        instrumentedStep();
+                    } else {
+                        step();
+                    }
+                    executed += 1 + compiledExecuted;
+                } else if (fused) {
+                    executed += executeFused((int) (limit - executed));
+                } else if (instrumented) {
+                    instrumentedStep();
+                    executed++;
+                } else {
+                    step();
+                    executed++;
+                }
+            }
+        } catch (RuntimeException e) {
+            if (codeCache != null) {
+                executed += compiledExecuted; /* run before compiled code failed, see CompiledRoutine */
+            }
+            executed += fusedExecuted;
+            fusedExecuted = 0;
+            error = e;
+            if (traceRecorder != null) {
+                traceRecorder.failure(start + executed, pc, e);
+            }
+            flushAfterError();
+            return ExecutionStatus.ERROR;
+        } finally {
+            instructionCount = start + executed;
+        }
+        if (finished) {
+            return ExecutionStatus.FINISHED;
+        }
+        return inputRequest != null ? ExecutionStatus.AWAITING_INPUT : ExecutionStatus.BUDGET_EXHAUSTED;
+    }
+
+    /**
+     * Returns the input the story waits for. Once suspended, the interpreter holds no thread: it can be resumed later
+     * from any thread, see {@link #resume(String)}.
+     *
+     * @return the input request, or null if the story doesn't wait for input.
+     */
+    public InputRequest getInputRequest() {
+        return inputRequest;
+    }
+
+    public boolean isAwaitingInput() {
+        return inputRequest != null;
+    }
+
+    /**
+     * Provides the input the story waits for and completes the input instruction. The story continues on the next
+     * {@link #run(int)}.
+     *
+     * @param input line without the line break, or for character input a string holding the character (empty for the
+     *              return key).
+     * @throws IllegalStateException when the story doesn't wait for input.
+     */
+    public void resume(String input) {
+        if (inputRequest == null) {
+            throw new IllegalStateException("The story is not waiting for input.");
+        }
+        if (traceRecorder != null) {
+            traceRecorder.input(instructionCount, input);
+        }
+        final InputRequest request = inputRequest;
+        inputRequest = null;
+        pc = resumePc;
+        if (request.getType() == InputRequest.Type.LINE) {
+            output.printInput(input);
+        }
+        instruction.completeInput(request, input, resumeStore);
+    }
+
+    /**
+     * Suspends the story until {@link #resume(String)} is called. Called by the input instructions instead of
+     * advancing the program counter.
+     *
+     * @param request input the story waits for.
+     */
+    void suspend(InputRequest request) {
+        inputRequest = request;
+        resumePc = pc + pcOffset;
+        resumeStore = store;
+        output.flush(); /* the player must see the prompt */
+    }
+
+    /**
+     * Writes what the story printed before failing, if the output streams still work.
+     */
+    private void flushAfterError() {
+        try {
+            output.flush();
+        } catch (RuntimeException e) {
+            error.addSuppressed(e);
+        }
     }
 
     public boolean isFinished() {
         return finished;
     }
 
-    private void decodeInstruction() {
-        final int firstByte = memory.readByte(pc);
-
-        if (firstByte >= 0x00 && firstByte <= 0x1f) {
-            //System.out.println("2OP - long, small constant, small constant");
-            executeTwoOpSmallSmall();
-        } else if (firstByte >= 0x20 && firstByte <= 0x3f) {
-            //System.out.println("2OP - long, small constant, variable");
-            executeTwoOpSmallVariable();
-        } else if (firstByte >= 0x40 && firstByte <= 0x5f) {
-            //System.out.println("2OP - long, variable, small constant");
-            executeTwoOpVariableSmall();
-        } else if (firstByte >= 0x60 && firstByte <= 0x7f) {
-            //System.out.println("2OP - long, variable, variable");
-            executeTwoOpVariableVariable();
-        } else if (firstByte >= 0x80 && firstByte <= 0x8f) {
-            System.out.println("1OP - short, large constant");
-        } else if (firstByte >= 0x90 && firstByte <= 0x9f) {
-            System.out.println("1OP - short, small constant");
-        } else if (firstByte >= 0xa0 && firstByte <= 0xaf) {
-            System.out.println("1OP - short, variable");
-        } else if (firstByte == 0xbe) {
-            if (header.getVersionNumber() < 5) {
-                // long
-            } else {
-                // extended
+    /**
+     * Returns the exception which stopped {@link #run(int, long)}.
+     * @return the exception, or null if no instruction failed.
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * Enables or disables the decoded instruction cache for high memory. Disabled by default.
+     *
+     * @param enabled true to cache decoded instructions.
+     */
+    public void setInstructionCacheEnabled(boolean enabled) {
+        if (enabled && instructionCache == null) {
+            instructionCache = new InstructionCache(memory, engine.getDispatchTable(),
+                    header.getHighMemoryBaseAddress());
+        } else if (!enabled && instructionCache != null) {
+            instructionCache.detach();
+            instructionCache = null;
+        }
+        updateWriteListener();
+    }
+
+    public boolean isInstructionCacheEnabled() {
+        return instructionCache != null;
+    }
+
+    /**
+     * Sets the pairs of operations executed as superinstructions by {@link #run(int, long)}. Fusion only applies while
+     * the instruction cache is enabled and no operation profile is set.
+     *
+     * @param fusionSet fused pairs, null to disable fusion (the default).
+     */
+    public void setFusionSet(FusionSet fusionSet) {
+        this.fusionSet = fusionSet;
+        if (instructionCache != null) {
+            instructionCache.unlink();
+        }
+    }
+
+    public FusionSet getFusionSet() {
+        return fusionSet;
+    }
+
+    /**
+     * Sets the profile recording every executed operation. Profiling disables fusion, so that the profile sees the
+     * instructions one by one.
+     *
+     * @param operationProfile profile to be fed, null to stop profiling.
+     */
+    public void setOperationProfile(OperationProfile operationProfile) {
+        this.operationProfile = operationProfile;
+        instrumented = operationProfile != null || profiler != null;
+    }
+
+    /**
+     * Sets the profiler of executions, instructions, routines and time per operation. Like the operation profile,
+     * profiling disables fusion; compiled routines run uninstrumented. Without a profiler, the dispatch loop runs
+     * without instrumentation.
+     *
+     * @param profiler profiler to be fed, null to stop profiling (the default).
+     */
+    public void setProfiler(ExecutionProfiler profiler) {
+        this.profiler = profiler;
+        instrumented = operationProfile != null || profiler != null;
+    }
+
+    public ExecutionProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Sets the recorder of the input, checkpoints and failure of this interpreter, see {@link TraceReplayer}. Without a
+     * recorder, the only cost is the instruction count.
+     *
+     * @param traceRecorder recorder, unused so far; null to stop recording (the default).
+     * @throws IllegalStateException when the interpreter has already run: traces start at the first instruction.
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        if (traceRecorder != null) {
+            if (instructionCount != 0) {
+                throw new IllegalStateException("Traces start at the first instruction.");
+            }
+            traceRecorder.start(this);
+        }
+        this.traceRecorder = traceRecorder;
+        nextCheckpoint = traceRecorder != null && traceRecorder.getCheckpointInterval() > 0
+                ? traceRecorder.getCheckpointInterval() : Long.MAX_VALUE;
+    }
+
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+
+    /**
+     * Returns the number of instructions executed since the story started, including those of compiled routines.
+     * Restoring a game doesn't change it.
+     *
+     * @return the instruction count.
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Records a checkpoint of the trace at the current instruction count.
+     */
+    private void checkpoint() {
+        traceRecorder.checkpoint(instructionCount, pc, stateChecksum());
+        nextCheckpoint = instructionCount + traceRecorder.getCheckpointInterval();
+    }
+
+    /**
+     * Computes a checksum of the state: the dynamic memory, the stacks and the program counter.
+     * @return the CRC-32 of the state.
+     */
+    int stateChecksum() {
+        final int dynamicSize = header.getStaticMemoryBaseAddress();
+        final int[] frames = callStack.toArray();
+        final ByteBuffer buffer = ByteBuffer.allocate(dynamicSize + 4 * (stack.size() + frames.length + 1));
+        memory.readBytes(0, buffer, dynamicSize);
+        for (int i = 0; i < stack.size(); i++) {
+            buffer.putInt(stack.get(i));
+        }
+        for (int frame : frames) {
+            buffer.putInt(frame);
+        }
+        buffer.putInt(pc);
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Enables or disables tiered execution: routines called more often than the compilation threshold are compiled to
+     * JVM bytecode, and run as compiled code until they reach an instruction only the interpreter supports. Disabled by
+     * default. While enabled, fusion doesn't apply.
+     *
+     * @param enabled true to compile hot routines.
+     */
+    public void setCompilerEnabled(boolean enabled) {
+        if (enabled && codeCache == null) {
+            codeCache = new CompiledCodeCache(memory, engine.getDispatchTable(), version,
+                    header.getHighMemoryBaseAddress(), compilationThreshold);
+        } else if (!enabled) {
+            codeCache = null;
+        }
+        updateWriteListener();
+    }
+
+    public boolean isCompilerEnabled() {
+        return codeCache != null;
+    }
+
+    /**
+     * Sets the number of calls after which a routine is compiled. Compiled routines are dropped when the threshold
+     * changes.
+     *
+     * @param threshold number of calls, at least 1.
+     */
+    public void setCompilationThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Compilation threshold must be positive: " + threshold);
+        }
+        compilationThreshold = threshold;
+        if (codeCache != null) {
+            codeCache = null;
+            setCompilerEnabled(true);
+        }
+    }
+
+    public int getCompilationThreshold() {
+        return compilationThreshold;
+    }
+
+    /**
+     * Returns the number of routines currently compiled.
+     * @return the number of compiled routines, 0 when the compiler is disabled.
+     */
+    public int getCompiledRoutineCount() {
+        return codeCache != null ? codeCache.getCompiledCount() : 0;
+    }
+
+    /**
+     * Compiles routines ahead of their calls, such as the hot routines found by the static analyzer, so that they run
+     * compiled from their first call. Routines outside of high memory, or which can't be compiled, are skipped.
+     *
+     * @param routineAddresses byte addresses of the routine headers.
+     * @return the number of routines compiled, now or earlier.
+     * @throws IllegalStateException when the compiler is disabled.
+     */
+    public int precompile(int[] routineAddresses) {
+        if (codeCache == null) {
+            throw new IllegalStateException("The compiler is disabled.");
+        }
+        int compiled = 0;
+        for (int address : routineAddresses) {
+            if (address < memory.getSize() && codeCache.precompile(address)) {
+                compiled++;
             }
-        } else if (firstByte >= 0xb0 && firstByte <= 0xbf) {
-            //System.out.println("0OP - short");
-            executeZeroOpShort();
-        } else if (firstByte >= 0xc0 && firstByte <= 0xdf) {
-            //System.out.println("2OP - variable");
-            executeTwoOpVariable();
-        } else if (firstByte >= 0xe0 && firstByte <= 0xff) {
-            // VAR - variable
-            //System.out.println("VAR - variable");
-            executeVariable();
-        }
-    }
-
-    private void executeZeroOpShort() {
-        final int opcode = memory.readByte(pc) & 0x0f;
-
-        pcOffset = 1;
-        if (opcode == Opcodes.NEW_LINE) {
-            instruction.new_line();
-        } else if (opcode == Opcodes.POP) {
-            instruction.pop();
-        } else if (opcode == Opcodes.QUIT) {
-            finished = true;
+        }
+        return compiled;
+    }
+
+    /**
+     * Decodes instructions into the instruction cache ahead of their execution, such as the instructions found by the
+     * static analyzer. Addresses outside of high memory, or which don't hold a valid instruction, are skipped.
+     *
+     * @param instructionAddresses addresses of the instructions.
+     * @return the number of instructions held by the cache.
+     * @throws IllegalStateException when the instruction cache is disabled.
+     */
+    public int warmUp(int[] instructionAddresses) {
+        if (instructionCache == null) {
+            throw new IllegalStateException("The instruction cache is disabled.");
+        }
+        int cached = 0;
+        for (int address : instructionAddresses) {
+            if (address >= header.getHighMemoryBaseAddress() && address < memory.getSize()) {
+                try {
+                    instructionCache.get(address);
+                    cached++;
+                } catch (RuntimeException e) {
+                    /* not an instruction: decoded, and rejected, when executed */
+                }
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Forwards high memory writes to the instruction cache and the compiled code cache, whichever are enabled. The
+     * memory has a single write listener.
+     */
+    private void updateWriteListener() {
+        final InstructionCache instructionCache = this.instructionCache;
+        final CompiledCodeCache codeCache = this.codeCache;
+        final int baseAddress = header.getHighMemoryBaseAddress();
+        if (instructionCache != null && codeCache != null) {
+            memory.setWriteListener(baseAddress, (address, length) -> {
+                instructionCache.memoryWritten(address, length);
+                codeCache.memoryWritten(address, length);
+            });
+        } else if (instructionCache != null) {
+            memory.setWriteListener(baseAddress, instructionCache);
+        } else if (codeCache != null) {
+            memory.setWriteListener(baseAddress, codeCache);
         } else {
-            throw new RuntimeException("Unknown 0OP opcode: " + opcode);
+            memory.setWriteListener(0, null);
         }
     }
 
-    private void executeVariable() {
-        final int opcode = memory.readByte(pc) & 0x1f;
-        //final int operandTypes = memory.readByte(pc + 1);
+    /**
+     * Sets where the save and restore instructions write and read save files.
+     *
+     * @param saveStorage storage, null to make the instructions fail (the default).
+     */
+    public void setSaveStorage(SaveStorage saveStorage) {
+        this.saveStorage = saveStorage;
+    }
+
+    public SaveStorage getSaveStorage() {
+        return saveStorage;
+    }
 
-        if (opcode == Opcodes.PRINT_NUM) {
-            final int variable = memory.readByte(pc + 2);
-            pcOffset = 3;
-            instruction.print_num(variable);
+    /**
+     * Saves the state of the story at the program counter, in the Quetzal format. Meant for the host, between runs: a
+     * story waiting for input executes its input instruction again once restored, and suspends. As no save instruction
+     * is involved, the file records the next instruction to execute, see {@link Quetzal}: other interpreters can't
+     * resume it, but the restore instruction can.
+     *
+     * @return a read-only view of the save file, valid until the next save or restore.
+     */
+    public ByteBuffer save() {
+        return quetzal().save(pc, true).asReadOnlyBuffer();
+    }
+
+    /**
+     * Saves the state of the story at the program counter to a channel, see {@link #save()}.
+     *
+     * @param channel destination, left open.
+     * @throws IOException when the channel fails.
+     */
+    public void save(WritableByteChannel channel) throws IOException {
+        Quetzal.write(channel, quetzal().save(pc, true));
+    }
+
+    /**
+     * Restores a state saved by {@link #save()}, or by the save instruction of any interpreter running the same story:
+     * that instruction then completes as if it had succeeded. The story continues on the next {@link #run(int)}, even
+     * if it had finished or failed. On failure nothing changes.
+     *
+     * @param file save file, from the position to the limit.
+     * @throws IOException when the file is invalid or was saved by another story.
+     */
+    public void restore(ByteBuffer file) throws IOException {
+        final int address = quetzal().restore(file);
+        inputRequest = null;
+        finished = false;
+        error = null;
+        resumeRestored(address);
+    }
+
+    /**
+     * Restores a state from a channel, see {@link #restore(ByteBuffer)}.
+     *
+     * @param channel source, left open.
+     * @throws IOException when the channel fails, the file is invalid or was saved by another story.
+     */
+    public void restore(ReadableByteChannel channel) throws IOException {
+        restore(quetzal().read(channel));
+    }
+
+    /**
+     * Writes a save file to the save storage, for the save instruction.
+     *
+     * @param resultAddress address recorded as program counter: the branch or store byte of the save instruction.
+     * @return true if the file was written, false if there's no storage or the save was cancelled or failed.
+     */
+    boolean saveToStorage(int resultAddress) {
+        if (saveStorage == null) {
+            return false;
+        }
+        try (WritableByteChannel channel = saveStorage.openSave()) {
+            if (channel == null) {
+                return false;
+            }
+            Quetzal.write(channel, quetzal().save(resultAddress, false));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Restores a save file from the save storage and resumes where it was saved, for the restore instruction.
+     *
+     * @return true if the file was restored, false if there's no storage or the restore was cancelled or failed.
+     */
+    boolean restoreFromStorage() {
+        if (saveStorage == null) {
+            return false;
+        }
+        final int address;
+        try (ReadableByteChannel channel = saveStorage.openRestore()) {
+            if (channel == null) {
+                return false;
+            }
+            address = quetzal().restore(quetzal().read(channel));
+        } catch (IOException e) {
+            return false;
+        }
+        resumeRestored(address);
+        return true;
+    }
+
+    /**
+     * Continues from the program counter of a restored file: at the next instruction for a file saved between
+     * instructions, otherwise by finishing the save instruction.
+     */
+    private void resumeRestored(int address) {
+        if (quetzal.isNextInstruction()) {
+            pc = address;
         } else {
-            throw new RuntimeException("Unknown VAR opcode: " + opcode);
+            instruction.completeRestore(address);
+        }
+    }
+
+    private Quetzal quetzal() {
+        if (quetzal == null) {
+            quetzal = new Quetzal(this);
         }
+        return quetzal;
+    }
+
+    /**
+     * Sets the maximum number of levels saved by save_undo, the oldest being evicted first.
+     * {@link UndoRing#DEFAULT_DEPTH} by default.
+     *
+     * @param depth maximum number of levels, 0 to make save_undo report undo as unavailable.
+     */
+    public void setUndoDepth(int depth) {
+        undoRing.setDepth(depth);
     }
 
-    /* Methods for two operands */
-    private void executeTwoOpSmallSmall() {
-        final int op1 = memory.readByte(pc + 1);
-        final int op2 = memory.readByte(pc + 2);
-        pcOffset = 3;
-        executeTwoOp(op1, op2);
+    public int getUndoDepth() {
+        return undoRing.getDepth();
     }
 
-    private void executeTwoOpVariableVariable() {
-        final int op1 = loadVariable(memory.readByte(pc + 1));
-        final int op2 = loadVariable(memory.readByte(pc + 2));
-        pcOffset = 3;
-        executeTwoOp(op1, op2);
+    /**
+     * Sets the maximum estimated heap retained by the undo levels, the oldest being evicted first. A level which
+     * doesn't fit alone isn't saved. {@link UndoRing#DEFAULT_LIMIT} by default.
+     *
+     * @param limit maximum size in bytes.
+     */
+    public void setUndoLimit(long limit) {
+        undoRing.setLimit(limit);
     }
 
-    private void executeTwoOpSmallVariable() {
-        final int op1 = memory.readByte(pc + 1);
-        final int op2 = loadVariable(memory.readByte(pc + 2));
-        pcOffset = 3;
-        executeTwoOp(op1, op2);
+    public long getUndoLimit() {
+        return undoRing.getLimit();
     }
 
-    private void executeTwoOpVariableSmall() {
-        final int op1 = loadVariable(memory.readByte(pc + 1));
-        final int op2 = memory.readByte(pc + 2);
-        pcOffset = 3;
-        executeTwoOp(op1, op2);
+    /**
+     * Sets the budget the undo levels are counted in, on top of the interpreter's own limit.
+     *
+     * @param budget budget shared with other interpreters, null for none (the default).
+     */
+    public void setUndoBudget(UndoBudget budget) {
+        undoRing.setBudget(budget);
     }
 
-    private void executeTwoOpVariable() {
-        final int operandTypes = memory.readByte(pc + 1);
-        final int firstOperandType = operandTypes >> 6;
-        final int secondOperandType = (operandTypes >> 4) & 0x03;
-        final int op1;
-        final int op2;
+    public UndoBudget getUndoBudget() {
+        return undoRing.getBudget();
+    }
 
-        pcOffset = 2;
-        op1 = readVariableOperand(firstOperandType);
-        op2 = readVariableOperand(secondOperandType);
+    /**
+     * Returns the number of levels restore_undo can go back.
+     * @return the level count.
+     */
+    public int getUndoLevelCount() {
+        return undoRing.getCount();
+    }
+
+    /**
+     * Returns the estimated heap retained by the undo levels.
+     * @return the size in bytes.
+     */
+    public long getUndoSize() {
+        return undoRing.getSize();
+    }
+
+    /**
+     * Returns the estimated heap retained by an undo level alone: the memory pages written since the previous level,
+     * the stack and the call frames.
+     *
+     * @param level level, 0 for the newest.
+     * @return the size in bytes.
+     */
+    public long getUndoLevelSize(int level) {
+        return undoRing.getLevelSize(level);
+    }
 
-        executeTwoOp(op1, op2);
+    /**
+     * Removes every undo level, releasing their size from the budget.
+     */
+    public void clearUndo() {
+        undoRing.clear();
     }
 
-    private int readVariableOperand(int operandType) {
-        int op;
-        switch (operandType) {
-            case 0x00:
-                op = memory.readWord(pc + pcOffset);
-                pcOffset += 2;
+    /**
+     * Selects the engine specialized for the story's version family (versions 1 to 3, 5 and 8) or the generic engine.
+     * Enabled by default; versions without a specialized engine always use the generic one. The instruction cache and
+     * the compiled routines are dropped, to be decoded again with the selected engine.
+     *
+     * @param enabled true to use the specialized engine.
+     */
+    public void setSpecializedEngineEnabled(boolean enabled) {
+        engine = enabled ? Engine.forHeader(header) : Engine.generic(header);
+        /* cached and compiled instructions were decoded with the previous engine's tables */
+        if (instructionCache != null) {
+            setInstructionCacheEnabled(false);
+            setInstructionCacheEnabled(true);
+        }
+        if (codeCache != null) {
+            codeCache = null;
+            setCompilerEnabled(true);
+        }
+    }
+
+    /**
+     * Sets the maximum number of values the stack can hold. Exceeding it stops the story with an exception.
+     *
+     * @param limit stack depth limit, at least the current stack size.
+     */
+    public void setStackLimit(int limit) {
+        stack.setLimit(limit);
+    }
+
+    public int getStackLimit() {
+        return stack.getLimit();
+    }
+
+    /**
+     * Sets the operands, store variable, branch and program counter offset from a decoded instruction. Variable operands
+     * are loaded, in order.
+     *
+     * @param decoded decoded instruction.
+     */
+    private void loadOperands(DecodedInstruction decoded) {
+        final int count = decoded.operandCount;
+        for (int i = 0; i < count; i++) {
+            final int value = decoded.operandValues[i];
+            operands[i] = decoded.operandTypes[i] == DispatchTable.VARIABLE ? loadVariable(value) : value;
+        }
+        operandCount = count;
+        store = decoded.store;
+        branchOnTrue = decoded.branchOnTrue;
+        branchOffset = decoded.branchOffset;
+        pcOffset = decoded.length;
+    }
+
+    /**
+     * Executes a decoded operation.
+     *
+     * @param operation operation identifier, see {@link DispatchTable}.
+     */
+    private void execute(int operation) {
+        switch (operation) {
+            /* 0OP */
+            case DispatchTable.ZERO_OP | Opcodes.RTRUE:
+                instruction.rtrue();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.RFALSE:
+                instruction.rfalse();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.PRINT:
+                instruction.print();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.PRINT_RET:
+                instruction.print_ret();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.RET_POPPED:
+                instruction.ret_popped();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.POP:
+                instruction.pop();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.SAVE:
+                if (version >= 5) { /* extended from version 5 */
+                    throw new RuntimeException("Unknown 0OP opcode: " + Opcodes.SAVE);
+                }
+                instruction.save(operands, 0);
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.RESTORE:
+                if (version >= 5) { /* extended from version 5 */
+                    throw new RuntimeException("Unknown 0OP opcode: " + Opcodes.RESTORE);
+                }
+                instruction.restore(operands, 0);
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.QUIT:
+                finished = true;
+                output.flush();
+                break;
+            case DispatchTable.ZERO_OP | Opcodes.NEW_LINE:
+                instruction.new_line();
+                break;
+
+            /* 1OP */
+            case DispatchTable.ONE_OP | Opcodes.JZ:
+                instruction.jz(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.CALL_1S:
+            case DispatchTable.CALL_1N:
+                instruction.call(operands, operandCount);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.GET_SIBLING:
+                instruction.get_sibling(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.GET_CHILD:
+                instruction.get_child(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.GET_PARENT:
+                instruction.get_parent(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.GET_PROP_LEN:
+                instruction.get_prop_len(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.PRINT_ADDR:
+                instruction.print_addr(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.REMOVE_OBJ:
+                instruction.remove_obj(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.PRINT_OBJ:
+                instruction.print_obj(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.RET:
+                instruction.ret(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.JUMP:
+                instruction.jump(operands[0]);
+                break;
+            case DispatchTable.ONE_OP | Opcodes.PRINT_PADDR:
+                instruction.print_paddr(operands[0]);
+                break;
+
+            /* 2OP */
+            case DispatchTable.TWO_OP | Opcodes.JE:
+                instruction.je(operands, operandCount);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.JL:
+                instruction.jl(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.JG:
+                instruction.jg(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.DEC_CHK:
+                instruction.dec_chk(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.INC_CHK:
+                instruction.inc_chk(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.JIN:
+                instruction.jin(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.OR:
+                instruction.or(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.AND:
+                instruction.and(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.TEST_ATTR:
+                instruction.test_attr(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.SET_ATTR:
+                instruction.set_attr(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.CLEAR_ATTR:
+                instruction.clear_attr(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.STORE:
+                instruction.store(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.INSERT_OBJ:
+                instruction.insert_obj(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.GET_PROP:
+                instruction.get_prop(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.GET_PROP_ADDR:
+                instruction.get_prop_addr(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.GET_NEXT_PROP:
+                instruction.get_next_prop(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.ADD:
+                instruction.add(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.SUB:
+                instruction.sub(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.MUL:
+                instruction.mul(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.DIV:
+                instruction.div(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.MOD:
+                instruction.mod(operands[0], operands[1]);
+                break;
+            case DispatchTable.TWO_OP | Opcodes.CALL_2S:
+            case DispatchTable.TWO_OP | Opcodes.CALL_2N:
+                instruction.call(operands, operandCount);
+                break;
+
+            /* VAR */
+            case DispatchTable.VAR | Opcodes.CALL:
+            case DispatchTable.VAR | Opcodes.CALL_VS2:
+            case DispatchTable.VAR | Opcodes.CALL_VN:
+            case DispatchTable.VAR | Opcodes.CALL_VN2:
+                instruction.call(operands, operandCount);
+                break;
+            case DispatchTable.VAR | Opcodes.PUT_PROP:
+                instruction.put_prop(operands[0], operands[1], operands[2]);
+                break;
+            case DispatchTable.VAR | Opcodes.SREAD:
+                instruction.sread(operands, operandCount);
+                break;
+            case DispatchTable.VAR | Opcodes.PRINT_CHAR:
+                instruction.print_char(operands[0]);
+                break;
+            case DispatchTable.VAR | Opcodes.PRINT_NUM:
+                instruction.print_num(operands[0]);
+                break;
+            case DispatchTable.VAR | Opcodes.PUSH:
+                instruction.push(operands[0]);
+                break;
+            case DispatchTable.VAR | Opcodes.PULL:
+                instruction.pull(operands[0]);
+                break;
+            case DispatchTable.VAR | Opcodes.OUTPUT_STREAM:
+                instruction.output_stream(operands, operandCount);
+                break;
+            case DispatchTable.VAR | Opcodes.TOKENISE:
+                instruction.tokenise(operands, operandCount);
+                break;
+            case DispatchTable.VAR | Opcodes.READ_CHAR:
+                instruction.read_char(operands, operandCount);
+                break;
+
+            /* EXT */
+            case DispatchTable.EXT | Opcodes.EXT__SAVE:
+                instruction.save(operands, operandCount);
+                break;
+            case DispatchTable.EXT | Opcodes.EXT__RESTORE:
+                instruction.restore(operands, operandCount);
                 break;
-            case 0x01:
-                op = memory.readByte(pc + pcOffset);
-                pcOffset += 1;
+            case DispatchTable.EXT | Opcodes.SAVE_UNDO:
+                instruction.save_undo();
                 break;
-            case 0x02:
-                op = loadVariable(memory.readByte(pc + pcOffset));
-                pcOffset += 1;
+            case DispatchTable.EXT | Opcodes.RESTORE_UNDO:
+                instruction.restore_undo();
                 break;
-            case 0x03:
+
             default:
-                op = -1;
-        }
-        return op;
-    }
-
-    private void executeTwoOp(int op1, int op2) {
-        final int opcode = memory.readByte(pc) & 0x1f;
-
-        if (opcode == Opcodes.ADD) {
-            instruction.add(op1, op2);
-        } else if (opcode == Opcodes.SUB) {
-            instruction.sub(op1, op2);
-        } else if (opcode == Opcodes.MUL) {
-            instruction.mul(op1, op2);
-        } else if (opcode == Opcodes.DIV) {
-            instruction.div(op1, op2);
-        } else if (opcode == Opcodes.MOD) {
-            instruction.mod(op1, op2);
-        } else if (opcode == Opcodes.OR) {
-            instruction.or(op1, op2);
-        } else if (opcode == Opcodes.AND) {
-            instruction.and(op1, op2);
-        } else if (opcode == Opcodes.STORE) {
-            instruction.store(op1, op2);
-        } else {
-            throw new RuntimeException("Unknown 2OP opcode: " + opcode);
+                throw new RuntimeException("Unknown " + DispatchTable.formName(operation) + " opcode: "
+                        + (operation & 0x1f));
         }
     }
 
     /**
      * Stores the value in a variable. Supports stack (0), local (0x01-0x0f) and global (0x10-0ff) variables.
-     * Variables are stored as word values.
+     * Variables are stored as unsigned word values: the value is truncated to 16 bits. Storing in the stack pushes the
+     * value.
      *
      * @param variableNumber variable number.
      * @param value variable's new value.
      */
     void storeVariable(int variableNumber, int value) {
+        value &= 0xffff;
         if (variableNumber == 0x00) {
             stack.push(value);
         } else if (variableNumber < 0x10) {
-            throw new UnsupportedOperationException("Local variables are not supported at the moment.");
+            callStack.setLocal(variableNumber, value);
         } else if (variableNumber <= 0xff) {
             variableNumber -= 0x10; /* adjust the offset to be in the range 0..f5, which can be summed directly */
             variableNumber *= 2; /* variables are words, not bytes. multiply by two to get the correct address. */
-            memory.writeWord(header.getGlobalVariablesTableAddress() + variableNumber, value);
+            memory.writeWord(globalVariablesTableAddress + variableNumber, value);
         } else {
             throw new RuntimeException("Invalid variable " + variableNumber);
         }
@@ -221,36 +1170,66 @@ public final class Interpreter {
 
     /**
      * Reads the value of a variable. Supports stack (0), local (0x01-0x0f) or global (0x10-0xff).
-     * Variables are read as word values.
+     * Variables are read as unsigned word values, from 0 to 0xffff: the signed instructions convert them. Reading the
+     * stack pops the value.
      *
      * @param variable variable number.
      * @return the variable's value.
      */
     int loadVariable(int variable) {
         if (variable == 0x00) {
-            return stack.peek();
+            if (stack.size() <= callStack.getStackBase()) {
+                throw new EmptyStackException(); /* values below the base belong to the calling routines */
+            }
+            return stack.pop();
         } else if (variable < 0x10) {
-            throw new UnsupportedOperationException("Local variables are not supported at the moment.");
+            return callStack.getLocal(variable);
         } else if (variable <= 0xff) {
             variable -= 0x10; /* adjust the offset to be in the range 0..f5, which can be summed directly */
             variable *= 2; /* variables are words, not bytes. multiply by two to get the correct address. */
-            return memory.readSignedWord(header.getGlobalVariablesTableAddress() + variable);
+            return memory.readWord(globalVariablesTableAddress + variable);
         } else {
             throw new RuntimeException("Invalid variable " + variable);
         }
     }
 
+    /**
+     * Stores the value in a variable referenced indirectly, by instructions which take a variable number as operand
+     * (store, inc_chk, ...). The stack is written in place instead of pushed.
+     *
+     * @param variable variable number.
+     * @param value variable's new value.
+     */
+    void storeVariableIndirect(int variable, int value) {
+        if (variable == 0x00) {
+            stack.replace(value & 0xffff);
+        } else {
+            storeVariable(variable, value);
+        }
+    }
+
+    /**
+     * Reads a variable referenced indirectly, by instructions which take a variable number as operand (load, inc_chk,
+     * ...). The stack is read in place instead of popped.
+     *
+     * @param variable variable number.
+     * @return the variable's value.
+     */
+    int loadVariableIndirect(int variable) {
+        if (variable == 0x00) {
+            return stack.peek();
+        } else {
+            return loadVariable(variable);
+        }
+    }
+
     /**
      * Converts a packed address to a byte address. Valid for routine calls.
      * @param packedAddress packed address.
      * @return byte address converted from packed address.
      */
     int packedAddressToByteAddressRoutine(int packedAddress) {
-        if (header.getVersionNumber() == 6 || header.getVersionNumber() == 7) {
-            return packedAddressToByteAddress(packedAddress) + 8 * header.getRoutinesOffset();
-        } else {
-            return packedAddressToByteAddress(packedAddress);
-        }
+        return engine.unpackRoutineAddress(packedAddress);
     }
 
     /**
@@ -259,27 +1238,31 @@ public final class Interpreter {
      * @return byte address converted from packed address.
      */
     int packedAddressToByteAddressPrintAddr(int packedAddress) {
-        if (header.getVersionNumber() == 6 || header.getVersionNumber() == 7) {
-            return packedAddressToByteAddress(packedAddress) + 8 * header.getStaticStringsOffset();
-        } else {
-            return packedAddressToByteAddress(packedAddress);
-        }
+        return engine.unpackStringAddress(packedAddress);
     }
 
-    private int packedAddressToByteAddress(int packedAddress) {
-        final byte version = header.getVersionNumber();
-        final int multiplier;
-        if (version > 0 && version <= 3) {
-            multiplier = 2;
-        } else if (version >= 4 && version <= 7) {
-            multiplier = 4;
-        } else if (version == 8) {
-            multiplier = 8;
-        } else {
-            throw new RuntimeException("Unknown version: " + version);
-        }
+    /**
+     * Returns the header fields which may change at runtime (flags, screen size).
+     * @return the dynamic header.
+     */
+    public DynamicHeader getDynamicHeader() {
+        return dynamicHeader;
+    }
 
-        return multiplier * packedAddress;
+    /**
+     * Returns the output streams, to set the transcript and command script streams or flush the output.
+     * @return the output streams.
+     */
+    public Output getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the string decoder, whose cache statistics tell how text heavy the story is.
+     * @return the string decoder.
+     */
+    public ZStringDecoder getStringDecoder() {
+        return stringDecoder;
     }
 
     public InputStream getInputStream() {
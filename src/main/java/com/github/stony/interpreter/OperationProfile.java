@@ -0,0 +1,110 @@
+package com.github.stony.interpreter;
+
+/**
+ * Counts executed operations, and the pairs and triples of operations executed in sequence, to find which ones are
+ * worth fusing, see {@link FusionSet#fromProfile(OperationProfile, int, int)}.
+ * <p>
+ * Only sequences where each instruction fell through to the next one are counted: an instruction which jumps, calls
+ * or returns ends the sequence. A profile can be fed by several interpreters in turn, to profile a corpus of stories,
+ * but it is not thread safe.
+ */
+public final class OperationProfile {
+    private static final int N = DispatchTable.OPERATION_COUNT;
+
+    private final long[] operationCounts = new long[N];
+    private final long[] pairCounts = new long[N * N];
+
+    /* Triples are sparse, keyed by (first * N + second) * N + third */
+    private final CountTable tripleCounts = new CountTable(1024);
+
+    /* Previous operations of the current sequence, -1 when the sequence was broken */
+    private int previous = -1;
+    private int beforePrevious = -1;
+
+    /**
+     * Records an executed operation.
+     *
+     * @param operation operation identifier, see {@link DispatchTable}.
+     * @param fellThrough whether the instruction continued to the following one.
+     */
+    void record(int operation, boolean fellThrough) {
+        operationCounts[operation]++;
+        if (previous >= 0) {
+            pairCounts[previous * N + operation]++;
+            if (beforePrevious >= 0) {
+                tripleCounts.add((beforePrevious * N + previous) * N + operation, 1);
+            }
+        }
+        if (fellThrough) {
+            beforePrevious = previous;
+            previous = operation;
+        } else {
+            beforePrevious = -1;
+            previous = -1;
+        }
+    }
+
+    /**
+     * Ends the current sequence, before feeding the profile with another interpreter.
+     */
+    public void endSequence() {
+        previous = -1;
+        beforePrevious = -1;
+    }
+
+    long getCount(int operation) {
+        return operationCounts[operation];
+    }
+
+    long getPairCount(int first, int second) {
+        return pairCounts[first * N + second];
+    }
+
+    long getTripleCount(int first, int second, int third) {
+        return tripleCounts.get((first * N + second) * N + third);
+    }
+
+    /**
+     * Returns the most frequent pairs.
+     *
+     * @param max maximum number of pairs.
+     * @return pair keys (first * {@link DispatchTable#OPERATION_COUNT} + second), most frequent first.
+     */
+    int[] topPairs(int max) {
+        return CountTable.top(pairCounts, null, max);
+    }
+
+    /**
+     * Returns the most frequent triples.
+     *
+     * @param max maximum number of triples.
+     * @return triple keys ((first * {@link DispatchTable#OPERATION_COUNT} + second) * OPERATION_COUNT + third), most
+     * frequent first.
+     */
+    int[] topTriples(int max) {
+        return tripleCounts.top(max);
+    }
+
+    /**
+     * Describes the most frequent pairs and triples, one per line with their count, for example
+     * {@code 2OP:0x14 2OP:0x0d 12345}.
+     *
+     * @param max maximum number of pairs, and of triples.
+     * @return the description.
+     */
+    public String describe(int max) {
+        final StringBuilder description = new StringBuilder();
+        for (int key : topPairs(max)) {
+            description.append(DispatchTable.operationName(key / N)).append(' ')
+                    .append(DispatchTable.operationName(key % N)).append(' ')
+                    .append(pairCounts[key]).append('\n');
+        }
+        for (int key : topTriples(max)) {
+            description.append(DispatchTable.operationName(key / N / N)).append(' ')
+                    .append(DispatchTable.operationName(key / N % N)).append(' ')
+                    .append(DispatchTable.operationName(key % N)).append(' ')
+                    .append(getTripleCount(key / N / N, key / N % N, key % N)).append('\n');
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.stony.interpreter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The state of an {@link ExecutionProfiler} at a point in time. Immutable.
+ */
+public final class ProfileSnapshot {
+    /**
+     * Executions and sampled time of an operation.
+     */
+    public static final class OperationStats {
+        private final String form;
+        private final int opcode;
+        private final long count;
+        private final long sampleCount;
+        private final long sampledNanos;
+
+        OperationStats(String form, int opcode, long count, long sampleCount, long sampledNanos) {
+            this.form = form;
+            this.opcode = opcode;
+            this.count = count;
+            this.sampleCount = sampleCount;
+            this.sampledNanos = sampledNanos;
+        }
+
+        /**
+         * Returns the operation name: the form and the opcode, for example 2OP:0x14 for add.
+         * @return the name.
+         */
+        public String getName() {
+            return String.format("%s:0x%02x", form, opcode);
+        }
+
+        /**
+         * Returns the operand form.
+         * @return 0OP, 1OP, 2OP, VAR or EXT.
+         */
+        public String getForm() {
+            return form;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        /**
+         * Returns the number of executions.
+         * @return the execution count.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of timed executions.
+         * @return the sample count.
+         */
+        public long getSampleCount() {
+            return sampleCount;
+        }
+
+        /**
+         * Returns the time of the timed executions.
+         * @return the time in nanoseconds.
+         */
+        public long getSampledNanos() {
+            return sampledNanos;
+        }
+
+        /**
+         * Returns the estimated time of all executions: the average of the samples times the execution count.
+         * @return the time in nanoseconds, 0 if the operation was never timed.
+         */
+        public long getEstimatedNanos() {
+            return sampleCount == 0 ? 0 : (long) ((double) sampledNanos / sampleCount * count);
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " " + count + " " + getEstimatedNanos() + "ns";
+        }
+    }
+
+    /**
+     * Execution count of an address: an instruction or a routine.
+     */
+    public static final class AddressCount {
+        private final int address;
+        private final long count;
+
+        AddressCount(int address, long count) {
+            this.address = address;
+            this.count = count;
+        }
+
+        public int getAddress() {
+            return address;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("0x%05x %d", address, count);
+        }
+    }
+
+    private final List<OperationStats> operations;
+    private final List<AddressCount> instructions;
+    private final List<AddressCount> routines;
+
+    ProfileSnapshot(OperationStats[] operations, AddressCount[] instructions, AddressCount[] routines) {
+        this.operations = Collections.unmodifiableList(Arrays.asList(operations));
+        this.instructions = Collections.unmodifiableList(Arrays.asList(instructions));
+        this.routines = Collections.unmodifiableList(Arrays.asList(routines));
+    }
+
+    /**
+     * Returns the number of executed instructions.
+     * @return the instruction count.
+     */
+    public long getInstructionCount() {
+        long count = 0;
+        for (OperationStats operation : operations) {
+            count += operation.count;
+        }
+        return count;
+    }
+
+    /**
+     * Returns every executed operation.
+     * @return the operations, most executed first.
+     */
+    public List<OperationStats> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Returns the most executed instructions.
+     * @return the instruction addresses and counts, most executed first.
+     */
+    public List<AddressCount> getHotInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Returns the most called routines.
+     * @return the routine addresses and call counts, most called first.
+     */
+    public List<AddressCount> getHotRoutines() {
+        return routines;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.stony.interpreter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder events of {@link ExecutionProfiler}. Events are only built while a recording enables them.
+ */
+final class ProfilerEvents {
+    /* Prevents instantiation */
+    private ProfilerEvents() {
+    }
+
+    @Name("com.github.stony.Operation")
+    @Label("Z-machine Operation")
+    @Description("Executions of an operation and their estimated time, since the profiler started")
+    @Category({"Stony", "Profiler"})
+    @StackTrace(false)
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Executions")
+        long count;
+
+        @Label("Estimated Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long estimatedTime;
+    }
+
+    @Name("com.github.stony.HotInstruction")
+    @Label("Hot Z-machine Instruction")
+    @Description("Executions of one of the most executed instructions, since the profiler started")
+    @Category({"Stony", "Profiler"})
+    @StackTrace(false)
+    static final class InstructionEvent extends Event {
+        @Label("Address")
+        int address;
+
+        @Label("Executions")
+        long count;
+    }
+
+    @Name("com.github.stony.HotRoutine")
+    @Label("Hot Z-machine Routine")
+    @Description("Calls of one of the most called routines, since the profiler started")
+    @Category({"Stony", "Profiler"})
+    @StackTrace(false)
+    static final class RoutineEvent extends Event {
+        @Label("Address")
+        int address;
+
+        @Label("Calls")
+        long count;
+    }
+
+    /**
+     * Commits the events of a profile snapshot, those enabled by the recordings.
+     * @param snapshot profile snapshot.
+     */
+    static void commit(ProfileSnapshot snapshot) {
+        for (ProfileSnapshot.OperationStats operation : snapshot.getOperations()) {
+            final OperationEvent event = new OperationEvent();
+            if (!event.shouldCommit()) {
+                break;
+            }
+            event.operation = operation.getName();
+            event.count = operation.getCount();
+            event.estimatedTime = operation.getEstimatedNanos();
+            event.commit();
+        }
+        for (ProfileSnapshot.AddressCount instruction : snapshot.getHotInstructions()) {
+            final InstructionEvent event = new InstructionEvent();
+            if (!event.shouldCommit()) {
+                break;
+            }
+            event.address = instruction.getAddress();
+            event.count = instruction.getCount();
+            event.commit();
+        }
+        for (ProfileSnapshot.AddressCount routine : snapshot.getHotRoutines()) {
+            final RoutineEvent event = new RoutineEvent();
+            if (!event.shouldCommit()) {
+                break;
+            }
+            event.address = routine.getAddress();
+            event.count = routine.getCount();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Memory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Quetzal save files: an IFF form of type IFZS holding the story identification and program counter (IFhd chunk), the
+ * changes of the dynamic memory since the start of the story (CMem chunk, see {@link Memory#writeChanges}) and the
+ * call frames with their evaluation stacks (Stks chunk).
+ * <p>
+ * As Quetzal requires, the program counter is the address of the save instruction's branch byte (up to version 3) or
+ * store byte, and restoring finishes that instruction. Files saved by the host between instructions record the next
+ * instruction to execute instead, flagged by an empty Stny chunk: they resume at that instruction.
+ * <p>
+ * Saving writes straight from the memory and the stacks into a buffer reused from one save to the next: once the
+ * buffer has grown, saving allocates nothing but the frame pointer array. Restoring checks the whole file before
+ * changing anything, then decodes the memory in place. Uncompressed memory (UMem chunk) is read too, other chunks are
+ * skipped.
+ * <p>
+ * Values are saved as 16 bits words and restored as unsigned values, the way variables are read.
+ */
+final class Quetzal {
+    private static final int FORM = 0x464f524d;
+    private static final int IFZS = 0x49465a53;
+    private static final int IFHD = 0x49466864;
+    private static final int CMEM = 0x434d656d;
+    private static final int UMEM = 0x554d656d;
+    private static final int STKS = 0x53746b73;
+    private static final int STNY = 0x53746e79;
+
+    private static final int IFHD_LENGTH = 13;
+    private static final int RELEASE_ADDRESS = 0x02;
+    private static final int SERIAL_ADDRESS = 0x12;
+    private static final int SERIAL_LENGTH = 6;
+    private static final int CHECKSUM_ADDRESS = 0x1c;
+
+    /* Frame header: return pc (3 bytes), flags, store variable, arguments and evaluation stack size (2 bytes) */
+    private static final int FRAME_HEADER_LENGTH = 8;
+    private static final int DISCARD_RESULT = 0x10;
+
+    /**
+     * Largest accepted save file, a generous bound for 512 kilobytes stories.
+     */
+    private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+    private final Interpreter interpreter;
+    private ByteBuffer buffer = ByteBuffer.allocate(4096);
+    private boolean nextInstruction;
+
+    Quetzal(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    /**
+     * Writes the state of the interpreter.
+     *
+     * @param pc program counter recorded in the file.
+     * @param nextInstruction true if the program counter is the next instruction to execute, false if it is the
+     *                        address of a save instruction's branch or store byte.
+     * @return the buffer holding the file, from position 0 to the limit. Reused by the next save or read.
+     */
+    ByteBuffer save(int pc, boolean nextInstruction) {
+        final Memory memory = interpreter.memory;
+        final Stack stack = interpreter.stack;
+        final CallStack callStack = interpreter.callStack;
+        final int dynamicSize = interpreter.header.getStaticMemoryBaseAddress();
+        final int[] framePointers = callStack.getFramePointers();
+        ensureCapacity(12 + 8 + IFHD_LENGTH + 1 + 8 + Memory.maxChangesLength(dynamicSize) + 1 + 8
+                + (framePointers.length + 1) * FRAME_HEADER_LENGTH + framePointers.length * 2 * 15 + stack.size() * 2);
+
+        buffer.clear();
+        buffer.putInt(FORM);
+        buffer.putInt(0); /* length, once known */
+        buffer.putInt(IFZS);
+
+        int start = beginChunk(IFHD);
+        buffer.putShort((short) memory.readWord(RELEASE_ADDRESS));
+        memory.readBytes(SERIAL_ADDRESS, buffer, SERIAL_LENGTH);
+        buffer.putShort((short) memory.readWord(CHECKSUM_ADDRESS));
+        putAddress(pc);
+        endChunk(start);
+        if (nextInstruction) {
+            endChunk(beginChunk(STNY));
+        }
+
+        start = beginChunk(CMEM);
+        buffer.position(memory.writeChanges(dynamicSize, buffer.array(), buffer.position()));
+        endChunk(start);
+
+        start = beginChunk(STKS);
+        /* the main routine has no frame: a dummy frame holds its evaluation stack */
+        final int mainStackSize = framePointers.length > 0 ? callStack.getStackBase(framePointers[0]) : stack.size();
+        putAddress(0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.put((byte) 0);
+        buffer.putShort((short) mainStackSize);
+        putStack(stack, 0, mainStackSize);
+        for (int i = 0; i < framePointers.length; i++) {
+            final int framePointer = framePointers[i];
+            final int localCount = callStack.getLocalCount(framePointer);
+            final int storeVariable = callStack.getStoreVariable(framePointer);
+            final int stackBase = callStack.getStackBase(framePointer);
+            final int stackEnd = i + 1 < framePointers.length ? callStack.getStackBase(framePointers[i + 1])
+                    : stack.size();
+            putAddress(callStack.getReturnPc(framePointer));
+            buffer.put((byte) (storeVariable < 0 ? localCount | DISCARD_RESULT : localCount));
+            buffer.put((byte) Math.max(storeVariable, 0));
+            buffer.put((byte) ((1 << callStack.getArgumentCount(framePointer)) - 1));
+            buffer.putShort((short) (stackEnd - stackBase));
+            for (int local = 1; local <= localCount; local++) {
+                buffer.putShort((short) callStack.getLocal(framePointer, local));
+            }
+            putStack(stack, stackBase, stackEnd);
+        }
+        endChunk(start);
+
+        buffer.putInt(4, buffer.position() - 8);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads a save file, up to the end of its form, into the buffer.
+     *
+     * @param channel channel positioned at the start of the file.
+     * @return the buffer holding the file, from position 0 to the limit. Reused by the next save or read.
+     * @throws IOException when the channel fails or the file isn't an IFF form.
+     */
+    ByteBuffer read(ReadableByteChannel channel) throws IOException {
+        buffer.clear();
+        buffer.limit(8);
+        readFully(channel);
+        final int length = buffer.getInt(4);
+        if (buffer.getInt(0) != FORM || length < 4 || length > MAX_LENGTH) {
+            throw new IOException("Not a save file.");
+        }
+        ensureCapacity(length + 8);
+        buffer.limit(length + 8);
+        readFully(channel);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes a file to a channel.
+     *
+     * @param channel destination.
+     * @param file file, from the position to the limit.
+     * @throws IOException when the channel fails.
+     */
+    static void write(WritableByteChannel channel, ByteBuffer file) throws IOException {
+        while (file.hasRemaining()) {
+            channel.write(file);
+        }
+    }
+
+    /**
+     * Restores the state saved in a file. The file is checked first: on failure nothing has changed.
+     *
+     * @param file file, from the position to the limit.
+     * @return the program counter recorded in the file, see {@link #isNextInstruction()}.
+     * @throws IOException when the file is invalid, or was saved by another story.
+     */
+    int restore(ByteBuffer file) throws IOException {
+        final ByteBuffer data = file.hasArray() ? file.slice() : copy(file);
+        if (data.remaining() < 12 || data.getInt(0) != FORM || data.getInt(8) != IFZS) {
+            throw new IOException("Not a Quetzal save file.");
+        }
+        final int end = Math.min(data.limit(), data.getInt(4) + 8);
+
+        /* find the chunks */
+        int header = -1;
+        int memoryChunk = -1;
+        int memoryType = 0;
+        int stacks = -1;
+        boolean next = false;
+        int position = 12;
+        while (position + 8 <= end) {
+            final int id = data.getInt(position);
+            final int length = data.getInt(position + 4);
+            if (length < 0 || position + 8 + length > end) {
+                throw new IOException("Truncated chunk.");
+            }
+            if (id == IFHD) {
+                header = position;
+            } else if ((id == CMEM || id == UMEM) && memoryChunk < 0) {
+                memoryChunk = position;
+                memoryType = id;
+            } else if (id == STKS) {
+                stacks = position;
+            } else if (id == STNY) {
+                next = true;
+            }
+            position += 8 + length + (length & 1);
+        }
+        if (header < 0 || memoryChunk < 0 || stacks < 0) {
+            throw new IOException("Missing chunk: the file needs IFhd, CMem or UMem, and Stks.");
+        }
+
+        final Memory memory = interpreter.memory;
+        final int dynamicSize = interpreter.header.getStaticMemoryBaseAddress();
+        checkStory(data, header, memory);
+        final int pc = getAddress(data, header + 8 + 10);
+        final int stacksEnd = stacks + 8 + data.getInt(stacks + 4);
+        checkStacks(data, stacks + 8, stacksEnd);
+        final int memoryLength = data.getInt(memoryChunk + 4);
+        if (memoryType == UMEM && memoryLength != dynamicSize) {
+            throw new IOException("Uncompressed memory size doesn't match the story: " + memoryLength);
+        }
+
+        /* the file is valid: replace the memory, then the stacks */
+        final int previousFlags2 = interpreter.dynamicHeader.getFlags2();
+        if (memoryType == CMEM) {
+            try {
+                memory.readChanges(data.array(), data.arrayOffset() + memoryChunk + 8, memoryLength, dynamicSize);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Invalid memory changes.", e);
+            }
+        } else {
+            memory.writeBytes(0, data.position(memoryChunk + 8), dynamicSize);
+        }
+        interpreter.dynamicHeader.reapply(previousFlags2);
+        interpreter.objectTable.invalidate(0, dynamicSize);
+        restoreStacks(data, stacks + 8, stacksEnd);
+        nextInstruction = next;
+        return pc;
+    }
+
+    /**
+     * Returns whether the last restored file was saved between instructions.
+     *
+     * @return true if its program counter is the next instruction to execute, false if it is the address of a save
+     * instruction's branch or store byte.
+     */
+    boolean isNextInstruction() {
+        return nextInstruction;
+    }
+
+    private void checkStory(ByteBuffer data, int header, Memory memory) throws IOException {
+        if (data.getInt(header + 4) < IFHD_LENGTH) {
+            throw new IOException("Truncated IFhd chunk.");
+        }
+        final int start = header + 8;
+        boolean matches = (data.getShort(start) & 0xffff) == memory.readWord(RELEASE_ADDRESS)
+                && (data.getShort(start + 8) & 0xffff) == memory.readWord(CHECKSUM_ADDRESS);
+        for (int i = 0; i < SERIAL_LENGTH && matches; i++) {
+            matches = (data.get(start + 2 + i) & 0xff) == memory.readByte(SERIAL_ADDRESS + i);
+        }
+        if (!matches) {
+            throw new IOException("The file was saved by another story.");
+        }
+    }
+
+    /**
+     * Checks the frames fit in the chunk and the stacks: the first frame is the main routine's, without locals.
+     */
+    private void checkStacks(ByteBuffer data, int position, int end) throws IOException {
+        int values = 0;
+        int frameInts = 0;
+        boolean first = true;
+        while (position < end) {
+            if (position + FRAME_HEADER_LENGTH > end) {
+                throw new IOException("Truncated frame.");
+            }
+            final int localCount = data.get(position + 3) & 0x0f;
+            if (first && localCount != 0) {
+                throw new IOException("The main routine can't have local variables.");
+            }
+            if (!first) {
+                frameInts += CallStack.frameSize(localCount);
+            }
+            final int stackSize = data.getShort(position + 6) & 0xffff;
+            position += FRAME_HEADER_LENGTH + 2 * (localCount + stackSize);
+            values += stackSize;
+            first = false;
+        }
+        if (position != end || first) {
+            throw new IOException("Truncated frame.");
+        }
+        if (values > interpreter.stack.getLimit()) {
+            throw new IOException("The saved stack exceeds the stack limit.");
+        }
+        if (frameInts > interpreter.callStack.getLimit()) {
+            throw new IOException("The saved frames exceed the call stack limit.");
+        }
+    }
+
+    private void restoreStacks(ByteBuffer data, int position, int end) {
+        final Stack stack = interpreter.stack;
+        final CallStack callStack = interpreter.callStack;
+        stack.truncate(0);
+        callStack.clear();
+        boolean first = true;
+        while (position < end) {
+            final int flags = data.get(position + 3);
+            final int localCount = flags & 0x0f;
+            final int stackSize = data.getShort(position + 6) & 0xffff;
+            if (!first) {
+                final int storeVariable = (flags & DISCARD_RESULT) != 0 ? -1 : data.get(position + 4) & 0xff;
+                final int argumentCount = Integer.bitCount(data.get(position + 5) & 0x7f);
+                callStack.enter(getAddress(data, position), storeVariable, argumentCount, localCount, stack.size());
+            }
+            position += FRAME_HEADER_LENGTH;
+            for (int local = 1; local <= localCount; local++) {
+                callStack.setLocal(local, data.getShort(position) & 0xffff);
+                position += 2;
+            }
+            for (int i = 0; i < stackSize; i++) {
+                stack.push(data.getShort(position) & 0xffff);
+                position += 2;
+            }
+            first = false;
+        }
+    }
+
+    /**
+     * Copies a file held by a direct or read-only buffer into the buffer, to decode it from an array.
+     */
+    private ByteBuffer copy(ByteBuffer file) {
+        buffer.clear();
+        ensureCapacity(file.remaining());
+        buffer.put(file.duplicate());
+        buffer.flip();
+        return buffer.slice();
+    }
+
+    private void putStack(Stack stack, int from, int to) {
+        for (int i = from; i < to; i++) {
+            buffer.putShort((short) stack.get(i));
+        }
+    }
+
+    private int beginChunk(int id) {
+        buffer.putInt(id);
+        buffer.putInt(0);
+        return buffer.position();
+    }
+
+    private void endChunk(int start) {
+        final int length = buffer.position() - start;
+        buffer.putInt(start - 4, length);
+        if ((length & 1) != 0) {
+            buffer.put((byte) 0); /* chunks are padded to an even length */
+        }
+    }
+
+    private void putAddress(int address) {
+        buffer.put((byte) (address >> 16));
+        buffer.putShort((short) address);
+    }
+
+    private static int getAddress(ByteBuffer data, int position) {
+        return (data.get(position) & 0xff) << 16 | (data.getShort(position + 1) & 0xffff);
+    }
+
+    private void readFully(ReadableByteChannel channel) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated save file.");
+            }
+        }
+    }
+
+    /**
+     * Grows the buffer, keeping its content up to the position.
+     */
+    private void ensureCapacity(int capacity) {
+        if (buffer.capacity() < capacity) {
+            final ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+}
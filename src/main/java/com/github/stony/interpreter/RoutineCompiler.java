@@ -0,0 +1,723 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static com.github.stony.interpreter.ClassFileWriter.*;
+
+/**
+ * Translates Z-machine routines to JVM bytecode, see {@link CompiledRoutine}.
+ * <p>
+ * The instructions reachable from the routine's first one are decoded, following branches and jumps. Each supported
+ * instruction becomes straight JVM code: local variables are JVM locals, branches and jumps are JVM jumps, and no
+ * instruction is decoded, dispatched or counted by the run loop any more. Loads and stores of the stack and global
+ * variables go through the interpreter, so they behave exactly as when interpreted.
+ * <p>
+ * Supported instructions are the arithmetic, bitwise, comparison and jump instructions, store, inc_chk, dec_chk, push,
+ * pull, pop and the returns. Anything else (calls, printing, objects, input...) is left to the interpreter: the
+ * compiled code deoptimizes right before it. So does any instruction the interpreter would reject, such as a local
+ * variable the routine doesn't have, so that the interpreter reports the error.
+ * <p>
+ * Backward jumps check the instruction budget given by {@link Interpreter#compiledBudget}, and deoptimize to their
+ * target once it is used up: the run loop's instruction and time budgets still hold, and a story can't hang the
+ * interpreter in compiled code. Their targets are entries of the compiled code, where the interpreter can jump back in.
+ * <p>
+ * Instructions may still throw, like a division by zero or a pop from an empty stack: an exception handler then
+ * deoptimizes to the failing instruction before rethrowing, so that the error is reported as when interpreted.
+ */
+final class RoutineCompiler {
+    /**
+     * Maximum number of instructions compiled per routine. Larger routines are compiled up to the limit, the code
+     * deoptimizes beyond.
+     */
+    static final int MAX_INSTRUCTIONS = 1000;
+
+    private static final String INTERPRETER_CLASS = "com/github/stony/interpreter/Interpreter";
+    private static final String ROUTINE_CLASS = "com/github/stony/interpreter/CompiledRoutine";
+    private static final String CALL_STACK_CLASS = "com/github/stony/interpreter/CallStack";
+    private static final String STACK_CLASS = "com/github/stony/interpreter/Stack";
+
+    /* JVM local variables of the compiled method: this, the interpreter and the entry are the parameters */
+    private static final int INTERPRETER = 1;
+    private static final int ENTRY = 2;
+    private static final int COUNT = 3; /* instructions executed */
+    private static final int BUDGET = 4; /* instructions allowed before backward jumps deoptimize */
+    private static final int RESULT = 5;
+    private static final int OPERANDS = 6; /* 8 operand values */
+    private static final int LOCALS = 14; /* Z-machine local variable n is at LOCALS + n - 1 */
+    private static final int ADDRESS = LOCALS + 15; /* address of the current instruction */
+    private static final int EXCEPTION = ADDRESS + 1;
+    private static final int MAX_LOCALS = EXCEPTION + 1;
+    private static final int MAX_STACK = 8;
+
+    private final Memory memory;
+    private final DispatchTable dispatchTable;
+    private final int version;
+
+    /**
+     * Constructs a compiler for a story.
+     *
+     * @param memory memory holding the routines.
+     * @param dispatchTable dispatch table of the story's version.
+     * @param version story version.
+     */
+    RoutineCompiler(Memory memory, DispatchTable dispatchTable, int version) {
+        this.memory = memory;
+        this.dispatchTable = dispatchTable;
+        this.version = version;
+    }
+
+    /**
+     * Compiles a routine.
+     *
+     * @param address byte address of the routine header.
+     * @return the compiled routine, or null if its first instruction isn't supported.
+     */
+    CompiledRoutine compile(int address) {
+        final int localCount = memory.readByte(address);
+        if (localCount > 15) {
+            return null;
+        }
+        final int startAddress = address + 1 + (version <= 4 ? 2 * localCount : 0);
+        final Translation translation = new Translation(localCount);
+        translation.decode(startAddress);
+        if (!translation.instructions.containsKey(startAddress)) {
+            return null;
+        }
+
+        final byte[] classFile;
+        try {
+            classFile = translation.toClassFile(startAddress);
+        } catch (IllegalStateException e) {
+            return null; /* too large for 16 bits jump offsets or the constant pool */
+        }
+        final CompiledRoutine routine = define(classFile);
+        routine.address = address;
+        routine.localCount = localCount;
+        routine.startAddress = translation.instructions.firstKey();
+        routine.endAddress = translation.endAddress;
+        routine.entryAddresses = translation.entryAddresses;
+        return routine;
+    }
+
+    /**
+     * Loads a compiled routine as a hidden class of this package, and instantiates it. Hidden classes are unloaded once
+     * unreachable, with their last instance.
+     */
+    private static CompiledRoutine define(byte[] classFile) {
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (CompiledRoutine) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Can't load compiled routine.", e);
+        }
+    }
+
+    /**
+     * Returns whether the compiled code supports an instruction. Instructions whose operands the interpreter would
+     * reject are not supported, so that the interpreter rejects them.
+     */
+    private static boolean isSupported(DecodedInstruction decoded, int localCount) {
+        final int required;
+        switch (decoded.operation) {
+            case DispatchTable.ZERO_OP | Opcodes.RTRUE:
+            case DispatchTable.ZERO_OP | Opcodes.RFALSE:
+            case DispatchTable.ZERO_OP | Opcodes.RET_POPPED:
+            case DispatchTable.ZERO_OP | Opcodes.POP:
+                required = 0;
+                break;
+            case DispatchTable.ONE_OP | Opcodes.JZ:
+            case DispatchTable.ONE_OP | Opcodes.RET:
+            case DispatchTable.TWO_OP | Opcodes.JE:
+            case DispatchTable.VAR | Opcodes.PUSH:
+                required = 1;
+                break;
+            case DispatchTable.ONE_OP | Opcodes.JUMP:
+                if (decoded.operandCount < 1 || decoded.operandTypes[0] == DispatchTable.VARIABLE) {
+                    return false;
+                }
+                required = 1;
+                break;
+            case DispatchTable.VAR | Opcodes.PULL:
+                if (!isValidIndirect(decoded, localCount)) {
+                    return false;
+                }
+                required = 1;
+                break;
+            case DispatchTable.TWO_OP | Opcodes.STORE:
+            case DispatchTable.TWO_OP | Opcodes.INC_CHK:
+            case DispatchTable.TWO_OP | Opcodes.DEC_CHK:
+                if (!isValidIndirect(decoded, localCount)) {
+                    return false;
+                }
+                required = 2;
+                break;
+            case DispatchTable.TWO_OP | Opcodes.JL:
+            case DispatchTable.TWO_OP | Opcodes.JG:
+                required = 2;
+                break;
+            case DispatchTable.TWO_OP | Opcodes.OR:
+            case DispatchTable.TWO_OP | Opcodes.AND:
+            case DispatchTable.TWO_OP | Opcodes.ADD:
+            case DispatchTable.TWO_OP | Opcodes.SUB:
+            case DispatchTable.TWO_OP | Opcodes.MUL:
+            case DispatchTable.TWO_OP | Opcodes.DIV:
+            case DispatchTable.TWO_OP | Opcodes.MOD:
+                if (decoded.store < 0 || !isValidVariable(decoded.store, localCount)) {
+                    return false;
+                }
+                required = 2;
+                break;
+            default:
+                return false;
+        }
+        if (decoded.operandCount < required) {
+            return false;
+        }
+        for (int i = 0; i < decoded.operandCount; i++) {
+            if (decoded.operandTypes[i] == DispatchTable.VARIABLE
+                    && !isValidVariable(decoded.operandValues[i], localCount)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the first operand is a constant variable number, as store, inc_chk, dec_chk and pull expect.
+     */
+    private static boolean isValidIndirect(DecodedInstruction decoded, int localCount) {
+        return decoded.operandCount > 0 && decoded.operandTypes[0] != DispatchTable.VARIABLE
+                && isValidVariable(decoded.operandValues[0], localCount);
+    }
+
+    private static boolean isValidVariable(int variable, int localCount) {
+        return variable <= 0xff && (variable == 0 || variable >= 0x10 || variable <= localCount);
+    }
+
+    private static boolean isBranch(int operation) {
+        switch (operation) {
+            case DispatchTable.ONE_OP | Opcodes.JZ:
+            case DispatchTable.TWO_OP | Opcodes.JE:
+            case DispatchTable.TWO_OP | Opcodes.JL:
+            case DispatchTable.TWO_OP | Opcodes.JG:
+            case DispatchTable.TWO_OP | Opcodes.INC_CHK:
+            case DispatchTable.TWO_OP | Opcodes.DEC_CHK:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isReturn(int operation) {
+        switch (operation) {
+            case DispatchTable.ZERO_OP | Opcodes.RTRUE:
+            case DispatchTable.ZERO_OP | Opcodes.RFALSE:
+            case DispatchTable.ZERO_OP | Opcodes.RET_POPPED:
+            case DispatchTable.ONE_OP | Opcodes.RET:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Address reached by a taken branch or a jump.
+     */
+    private static int targetAddress(int address, DecodedInstruction decoded) {
+        if (decoded.operation == (DispatchTable.ONE_OP | Opcodes.JUMP)) {
+            return address + decoded.length + (short) decoded.operandValues[0] - 2;
+        }
+        return address + decoded.length + decoded.branchOffset - 2;
+    }
+
+    /**
+     * Translation of a single routine.
+     */
+    private final class Translation {
+        private final int localCount;
+
+        /* Supported instructions by address, and addresses where the code deoptimizes */
+        private final TreeMap<Integer, DecodedInstruction> instructions = new TreeMap<Integer, DecodedInstruction>();
+        private final TreeSet<Integer> deoptimizationAddresses = new TreeSet<Integer>();
+        private int endAddress;
+        private int[] entryAddresses;
+
+        /* JVM labels of the instructions and of the deoptimization stubs, by address */
+        private final Map<Integer, Integer> instructionLabels = new HashMap<Integer, Integer>();
+        private final Map<Integer, Integer> deoptimizationLabels = new HashMap<Integer, Integer>();
+        private ClassFileWriter classFile;
+        private ClassFileWriter.Code code;
+
+        Translation(int localCount) {
+            this.localCount = localCount;
+        }
+
+        /**
+         * Decodes the instructions reachable from the first one. Unsupported instructions end their path.
+         */
+        void decode(int startAddress) {
+            final ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+            pending.add(startAddress);
+            while (!pending.isEmpty()) {
+                final int address = pending.poll();
+                if (instructions.containsKey(address) || deoptimizationAddresses.contains(address)) {
+                    continue;
+                }
+                final DecodedInstruction decoded = decodeSupported(address);
+                if (decoded == null) {
+                    deoptimizationAddresses.add(address);
+                    continue;
+                }
+                instructions.put(address, decoded);
+                endAddress = Math.max(endAddress, address + decoded.length);
+
+                final int operation = decoded.operation;
+                if (isBranch(operation)) {
+                    pending.add(address + decoded.length);
+                    if (decoded.branchOffset != 0 && decoded.branchOffset != 1) {
+                        pending.add(targetAddress(address, decoded));
+                    }
+                } else if (operation == (DispatchTable.ONE_OP | Opcodes.JUMP)) {
+                    pending.add(targetAddress(address, decoded));
+                } else if (!isReturn(operation)) {
+                    pending.add(address + decoded.length);
+                }
+            }
+        }
+
+        /**
+         * Decodes a supported instruction.
+         *
+         * @return the instruction, or null if it isn't supported, can't be decoded or exceeds the limit.
+         */
+        private DecodedInstruction decodeSupported(int address) {
+            if (instructions.size() >= MAX_INSTRUCTIONS || address < 0
+                    || address + InstructionCache.MAX_INSTRUCTION_LENGTH > memory.getSize()) {
+                return null;
+            }
+            final DecodedInstruction decoded = new DecodedInstruction();
+            try {
+                dispatchTable.decode(memory, address, decoded);
+            } catch (RuntimeException e) {
+                return null; /* the interpreter will report it */
+            }
+            return isSupported(decoded, localCount) ? decoded : null;
+        }
+
+        byte[] toClassFile(int startAddress) {
+            /* loop headers, the targets of backward jumps, are entries along with the first instruction */
+            final TreeSet<Integer> loopHeaders = new TreeSet<Integer>();
+            for (Map.Entry<Integer, DecodedInstruction> entry : instructions.entrySet()) {
+                final int address = entry.getKey();
+                final DecodedInstruction decoded = entry.getValue();
+                if (hasTarget(decoded)) {
+                    final int target = targetAddress(address, decoded);
+                    if (target <= address && target != startAddress && instructions.containsKey(target)) {
+                        loopHeaders.add(target);
+                    }
+                }
+            }
+            final List<Integer> entries = new ArrayList<Integer>();
+            entries.add(startAddress);
+            entries.addAll(loopHeaders);
+            entryAddresses = new int[entries.size()];
+            for (int i = 0; i < entryAddresses.length; i++) {
+                entryAddresses[i] = entries.get(i);
+            }
+
+            classFile = new ClassFileWriter(ROUTINE_CLASS + "$" + Integer.toHexString(startAddress), ROUTINE_CLASS);
+            addConstructor();
+            code = new ClassFileWriter.Code(classFile);
+            for (int address : instructions.keySet()) {
+                instructionLabels.put(address, code.newLabel());
+            }
+            for (int address : deoptimizationAddresses) {
+                deoptimizationLabels.put(address, code.newLabel());
+            }
+
+            emitPrologue();
+            final int handlerStart = code.newLabel();
+            final int handlerEnd = code.newLabel();
+            code.mark(handlerStart);
+            for (Map.Entry<Integer, DecodedInstruction> entry : instructions.entrySet()) {
+                emitInstruction(entry.getKey(), entry.getValue());
+            }
+            for (int address : deoptimizationAddresses) {
+                code.mark(deoptimizationLabels.get(address));
+                emitDeoptimization(address);
+            }
+            code.mark(handlerEnd);
+            emitExceptionHandler();
+            code.addHandler(handlerStart, handlerEnd, handlerEnd);
+            classFile.addMethod("execute", "(L" + INTERPRETER_CLASS + ";I)I", code, MAX_STACK, MAX_LOCALS);
+            return classFile.toByteArray();
+        }
+
+        private boolean hasTarget(DecodedInstruction decoded) {
+            return decoded.operation == (DispatchTable.ONE_OP | Opcodes.JUMP)
+                    || isBranch(decoded.operation) && decoded.branchOffset != 0 && decoded.branchOffset != 1;
+        }
+
+        private void addConstructor() {
+            final ClassFileWriter.Code constructor = new ClassFileWriter.Code(classFile);
+            constructor.loadReference(0);
+            constructor.invoke(INVOKESPECIAL, ROUTINE_CLASS, "<init>", "()V");
+            constructor.op(RETURN);
+            classFile.addMethod("<init>", "()V", constructor, 1, 1);
+        }
+
+        /**
+         * Initializes the counters, loads the locals from the frame and jumps to the entry.
+         */
+        private void emitPrologue() {
+            code.pushInt(0);
+            code.store(COUNT);
+            code.loadReference(INTERPRETER);
+            code.field(GETFIELD, INTERPRETER_CLASS, "compiledBudget", "I");
+            code.loadReference(INTERPRETER);
+            code.field(GETFIELD, INTERPRETER_CLASS, "compiledExecuted", "I");
+            code.op(ISUB);
+            code.store(BUDGET);
+            for (int local = 1; local <= localCount; local++) {
+                code.loadReference(INTERPRETER);
+                code.field(GETFIELD, INTERPRETER_CLASS, "callStack", "L" + CALL_STACK_CLASS + ";");
+                code.pushInt(local);
+                code.invoke(INVOKEVIRTUAL, CALL_STACK_CLASS, "getLocal", "(I)I");
+                code.store(LOCALS + local - 1);
+            }
+            code.pushInt(0);
+            code.store(ADDRESS); /* assigned before the handler can see it */
+            final int[] targets = new int[entryAddresses.length];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = instructionLabels.get(entryAddresses[i]);
+            }
+            code.load(ENTRY);
+            code.tableSwitch(targets[0], targets);
+        }
+
+        private void emitInstruction(int address, DecodedInstruction decoded) {
+            code.mark(instructionLabels.get(address));
+            code.increment(COUNT, 1);
+            code.pushInt(address);
+            code.store(ADDRESS);
+            for (int i = 0; i < decoded.operandCount; i++) {
+                emitOperand(decoded.operandTypes[i], decoded.operandValues[i]);
+                code.store(OPERANDS + i);
+            }
+
+            final int next = address + decoded.length;
+            switch (decoded.operation) {
+                case DispatchTable.ZERO_OP | Opcodes.RTRUE:
+                    code.pushInt(1);
+                    emitReturn();
+                    return;
+                case DispatchTable.ZERO_OP | Opcodes.RFALSE:
+                    code.pushInt(0);
+                    emitReturn();
+                    return;
+                case DispatchTable.ZERO_OP | Opcodes.RET_POPPED:
+                    emitLoadVariable(0);
+                    emitReturn();
+                    return;
+                case DispatchTable.ONE_OP | Opcodes.RET:
+                    code.load(OPERANDS);
+                    emitReturn();
+                    return;
+                case DispatchTable.ZERO_OP | Opcodes.POP:
+                    emitLoadVariable(0);
+                    code.op(ClassFileWriter.POP);
+                    break;
+                case DispatchTable.VAR | Opcodes.PUSH:
+                    code.loadReference(INTERPRETER);
+                    code.field(GETFIELD, INTERPRETER_CLASS, "stack", "L" + STACK_CLASS + ";");
+                    code.load(OPERANDS);
+                    code.invoke(INVOKEVIRTUAL, STACK_CLASS, "push", "(I)V");
+                    break;
+                case DispatchTable.VAR | Opcodes.PULL:
+                    emitLoadVariable(0);
+                    code.store(RESULT);
+                    emitStoreIndirect(decoded.operandValues[0]);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.STORE:
+                    code.load(OPERANDS + 1);
+                    code.store(RESULT);
+                    emitStoreIndirect(decoded.operandValues[0]);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.OR:
+                    emitArithmetic(IOR, false, decoded.store);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.AND:
+                    emitArithmetic(IAND, false, decoded.store);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.ADD:
+                    emitArithmetic(IADD, false, decoded.store);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.SUB:
+                    emitArithmetic(ISUB, false, decoded.store);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.MUL:
+                    emitArithmetic(IMUL, true, decoded.store);
+                    break;
+                case DispatchTable.TWO_OP | Opcodes.DIV:
+                case DispatchTable.TWO_OP | Opcodes.MOD:
+                    code.load(OPERANDS);
+                    code.load(OPERANDS + 1);
+                    code.invoke(INVOKESTATIC, ROUTINE_CLASS,
+                            decoded.operation == (DispatchTable.TWO_OP | Opcodes.DIV) ? "divide" : "remainder",
+                            "(II)I");
+                    code.store(RESULT);
+                    emitStore(decoded.store);
+                    break;
+                case DispatchTable.ONE_OP | Opcodes.JUMP:
+                    emitTransfer(address, targetAddress(address, decoded));
+                    return;
+                case DispatchTable.ONE_OP | Opcodes.JZ:
+                    code.load(OPERANDS);
+                    code.op(I2S);
+                    emitBranch(address, decoded, IFEQ);
+                    return;
+                case DispatchTable.TWO_OP | Opcodes.JL:
+                    emitSignedOperands();
+                    emitBranch(address, decoded, IF_ICMPLT);
+                    return;
+                case DispatchTable.TWO_OP | Opcodes.JG:
+                    emitSignedOperands();
+                    emitBranch(address, decoded, IF_ICMPGT);
+                    return;
+                case DispatchTable.TWO_OP | Opcodes.INC_CHK:
+                case DispatchTable.TWO_OP | Opcodes.DEC_CHK:
+                    final boolean increment = decoded.operation == (DispatchTable.TWO_OP | Opcodes.INC_CHK);
+                    final int variable = decoded.operandValues[0];
+                    emitLoadIndirect(variable);
+                    code.pushInt(increment ? 1 : -1);
+                    code.op(IADD);
+                    code.op(I2S);
+                    code.store(RESULT);
+                    emitStoreIndirect(variable);
+                    code.load(RESULT);
+                    code.load(OPERANDS + 1);
+                    code.op(I2S);
+                    emitBranch(address, decoded, increment ? IF_ICMPGT : IF_ICMPLT);
+                    return;
+                case DispatchTable.TWO_OP | Opcodes.JE:
+                    emitEquals(address, decoded);
+                    return;
+                default:
+                    throw new IllegalStateException("Unsupported operation: " + decoded.operation);
+            }
+            emitTransfer(address, next);
+        }
+
+        private void emitSignedOperands() {
+            code.load(OPERANDS);
+            code.op(I2S);
+            code.load(OPERANDS + 1);
+            code.op(I2S);
+        }
+
+        private void emitArithmetic(int opcode, boolean signed, int store) {
+            code.load(OPERANDS);
+            if (signed) {
+                code.op(I2S);
+            }
+            code.load(OPERANDS + 1);
+            if (signed) {
+                code.op(I2S);
+            }
+            code.op(opcode);
+            code.store(RESULT);
+            emitStore(store);
+        }
+
+        /**
+         * Branches if a equals any of the other operands, as 16 bits values.
+         */
+        private void emitEquals(int address, DecodedInstruction decoded) {
+            final int equal = code.newLabel();
+            for (int i = 1; i < decoded.operandCount; i++) {
+                code.load(OPERANDS);
+                code.op(I2S);
+                code.load(OPERANDS + i);
+                code.op(I2S);
+                code.jump(IF_ICMPEQ, equal);
+            }
+            emitOutcome(address, decoded, false);
+            code.mark(equal);
+            emitOutcome(address, decoded, true);
+        }
+
+        /**
+         * Branches on a condition, whose operands are on the JVM stack.
+         *
+         * @param opcode JVM conditional jump taken when the condition is true.
+         */
+        private void emitBranch(int address, DecodedInstruction decoded, int opcode) {
+            final int whenTrue = code.newLabel();
+            code.jump(opcode, whenTrue);
+            emitOutcome(address, decoded, false);
+            code.mark(whenTrue);
+            emitOutcome(address, decoded, true);
+        }
+
+        /**
+         * Continues after a branch instruction, once the condition is known.
+         */
+        private void emitOutcome(int address, DecodedInstruction decoded, boolean condition) {
+            if (condition != decoded.branchOnTrue) {
+                emitTransfer(address, address + decoded.length);
+            } else if (decoded.branchOffset == 0 || decoded.branchOffset == 1) {
+                code.pushInt(decoded.branchOffset);
+                emitReturn();
+            } else {
+                emitTransfer(address, targetAddress(address, decoded));
+            }
+        }
+
+        /**
+         * Jumps to the instruction at the target, checking the budget if the jump goes backward.
+         */
+        private void emitTransfer(int address, int target) {
+            final Integer label = instructionLabels.get(target);
+            if (label == null) {
+                code.jump(GOTO, deoptimizationLabels.get(target));
+            } else if (target <= address) {
+                code.load(COUNT);
+                code.load(BUDGET);
+                code.jump(IF_ICMPLT, label);
+                emitDeoptimization(target);
+            } else {
+                code.jump(GOTO, label);
+            }
+        }
+
+        /**
+         * Returns the value on the JVM stack.
+         */
+        private void emitReturn() {
+            code.store(RESULT);
+            emitPublishCount();
+            code.load(RESULT);
+            code.op(IRETURN);
+        }
+
+        /**
+         * Writes the locals back to the frame and resumes the interpreter at the address.
+         */
+        private void emitDeoptimization(int address) {
+            code.loadReference(INTERPRETER);
+            code.pushInt(address);
+            code.field(PUTFIELD, INTERPRETER_CLASS, "pc", "I");
+            emitLeave();
+            code.pushInt(0);
+            code.op(IRETURN);
+        }
+
+        /**
+         * Deoptimizes to the instruction which threw, then rethrows, see {@link CompiledRoutine}.
+         */
+        private void emitExceptionHandler() {
+            code.storeReference(EXCEPTION);
+            code.loadReference(INTERPRETER);
+            code.load(ADDRESS);
+            code.field(PUTFIELD, INTERPRETER_CLASS, "pc", "I");
+            emitLeave();
+            code.loadReference(EXCEPTION);
+            code.op(ATHROW);
+        }
+
+        /**
+         * Writes the locals back to the frame, flags the deoptimization and publishes the count.
+         */
+        private void emitLeave() {
+            for (int local = 1; local <= localCount; local++) {
+                code.loadReference(INTERPRETER);
+                code.field(GETFIELD, INTERPRETER_CLASS, "callStack", "L" + CALL_STACK_CLASS + ";");
+                code.pushInt(local);
+                code.load(LOCALS + local - 1);
+                code.invoke(INVOKEVIRTUAL, CALL_STACK_CLASS, "setLocal", "(II)V");
+            }
+            code.loadReference(INTERPRETER);
+            code.pushInt(1);
+            code.field(PUTFIELD, INTERPRETER_CLASS, "deoptimized", "Z");
+            emitPublishCount();
+        }
+
+        private void emitPublishCount() {
+            code.loadReference(INTERPRETER);
+            code.op(DUP);
+            code.field(GETFIELD, INTERPRETER_CLASS, "compiledExecuted", "I");
+            code.load(COUNT);
+            code.op(IADD);
+            code.field(PUTFIELD, INTERPRETER_CLASS, "compiledExecuted", "I");
+        }
+
+        private void emitOperand(int type, int value) {
+            if (type == DispatchTable.VARIABLE) {
+                emitLoadVariable(value);
+            } else {
+                code.pushInt(value);
+            }
+        }
+
+        /**
+         * Loads a variable as {@link Interpreter#loadVariable(int)} does.
+         */
+        private void emitLoadVariable(int variable) {
+            if (variable > 0 && variable < 0x10) {
+                code.load(LOCALS + variable - 1);
+            } else {
+                code.loadReference(INTERPRETER);
+                code.pushInt(variable);
+                code.invoke(INVOKEVIRTUAL, INTERPRETER_CLASS, "loadVariable", "(I)I");
+            }
+        }
+
+        private void emitLoadIndirect(int variable) {
+            if (variable > 0 && variable < 0x10) {
+                code.load(LOCALS + variable - 1);
+            } else {
+                code.loadReference(INTERPRETER);
+                code.pushInt(variable);
+                code.invoke(INVOKEVIRTUAL, INTERPRETER_CLASS, "loadVariableIndirect", "(I)I");
+            }
+        }
+
+        /**
+         * Stores the result as {@link Interpreter#storeVariable(int, int)} does.
+         */
+        private void emitStore(int variable) {
+            emitStoreResult(variable, "storeVariable");
+        }
+
+        private void emitStoreIndirect(int variable) {
+            emitStoreResult(variable, "storeVariableIndirect");
+        }
+
+        private void emitStoreResult(int variable, String method) {
+            if (variable > 0 && variable < 0x10) {
+                code.load(RESULT);
+                code.pushInt(0xffff); /* variables hold unsigned words */
+                code.op(IAND);
+                code.store(LOCALS + variable - 1);
+            } else {
+                code.loadReference(INTERPRETER);
+                code.pushInt(variable);
+                code.load(RESULT);
+                code.invoke(INVOKEVIRTUAL, INTERPRETER_CLASS, method, "(II)V");
+            }
+        }
+    }
+}
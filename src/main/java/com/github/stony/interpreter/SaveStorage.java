@@ -0,0 +1,29 @@
+package com.github.stony.interpreter;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Where the save and restore instructions write and read save files, provided by the host. Files are in the Quetzal
+ * format. The interpreter closes the channels once done.
+ *
+ * @see Interpreter#setSaveStorage(SaveStorage)
+ */
+public interface SaveStorage {
+    /**
+     * Opens the channel a save file is written to, for example after asking the player for a file name.
+     *
+     * @return the channel, or null to cancel the save.
+     * @throws IOException when the channel can't be opened; the save fails.
+     */
+    WritableByteChannel openSave() throws IOException;
+
+    /**
+     * Opens the channel a save file is read from.
+     *
+     * @return the channel, or null to cancel the restore.
+     * @throws IOException when the channel can't be opened; the restore fails.
+     */
+    ReadableByteChannel openRestore() throws IOException;
+}
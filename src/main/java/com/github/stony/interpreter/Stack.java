@@ -0,0 +1,192 @@
+package com.github.stony.interpreter;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * Z-Machine stack, backed by an int array. Values are never boxed and pushing only allocates when the array grows,
+ * which stops once the deepest point of the story has been reached.
+ * <p>
+ * The stack is not synchronized, it belongs to a single interpreter.
+ */
+final class Stack {
+    /**
+     * Default depth limit, in values.
+     */
+    static final int DEFAULT_LIMIT = 16 * 1024;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private int[] values;
+    private int size;
+    private int limit;
+
+    /**
+     * Constructs an empty stack with the default depth limit.
+     */
+    Stack() {
+        this(DEFAULT_LIMIT);
+    }
+
+    /**
+     * Constructs an empty stack.
+     *
+     * @param limit maximum number of values.
+     */
+    Stack(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Stack limit must be positive: " + limit);
+        }
+        this.values = new int[Math.min(INITIAL_CAPACITY, limit)];
+        this.limit = limit;
+    }
+
+    /**
+     * Pushes a value.
+     *
+     * @param value value to be pushed.
+     * @throws RuntimeException when the depth limit is reached.
+     */
+    void push(int value) {
+        if (size == values.length) {
+            grow();
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Removes the top value.
+     *
+     * @return the removed value.
+     * @throws EmptyStackException when the stack is empty.
+     */
+    int pop() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return values[--size];
+    }
+
+    /**
+     * Returns the top value, without removing it.
+     *
+     * @return the top value.
+     * @throws EmptyStackException when the stack is empty.
+     */
+    int peek() {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        return values[size - 1];
+    }
+
+    /**
+     * Replaces the top value.
+     *
+     * @param value new top value.
+     * @throws EmptyStackException when the stack is empty.
+     */
+    void replace(int value) {
+        if (size == 0) {
+            throw new EmptyStackException();
+        }
+        values[size - 1] = value;
+    }
+
+    /**
+     * Returns the value at an index, counted from the bottom of the stack.
+     *
+     * @param index index, from 0 to size - 1.
+     * @return the value.
+     */
+    int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * Sets the value at an index, counted from the bottom of the stack.
+     *
+     * @param index index, from 0 to size - 1.
+     * @param value new value.
+     */
+    void set(int index, int value) {
+        values[index] = value;
+    }
+
+    /**
+     * Returns the number of values in the stack.
+     *
+     * @return the stack size.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes values until the stack has the given size.
+     *
+     * @param size new size, less than or equal to the current size.
+     */
+    void truncate(int size) {
+        if (size < 0 || size > this.size) {
+            throw new IllegalArgumentException("Invalid stack size: " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Copies the values, from the bottom of the stack.
+     *
+     * @return the values, as many as the stack size.
+     */
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Replaces the values by those of an array, from the bottom of the stack.
+     *
+     * @param values new values.
+     * @throws RuntimeException when the values exceed the depth limit.
+     */
+    void load(int[] values) {
+        if (values.length > limit) {
+            throw new RuntimeException("Stack overflow: the limit of " + limit + " values was reached.");
+        }
+        if (values.length > this.values.length) {
+            this.values = new int[Math.min(Math.max(values.length, this.values.length * 2), limit)];
+        }
+        System.arraycopy(values, 0, this.values, 0, values.length);
+        size = values.length;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Changes the depth limit. The limit can't be lower than the current size.
+     *
+     * @param limit maximum number of values.
+     */
+    void setLimit(int limit) {
+        if (limit < size || limit <= 0) {
+            throw new IllegalArgumentException("Invalid stack limit: " + limit);
+        }
+        this.limit = limit;
+        if (values.length > limit) {
+            final int[] newValues = new int[limit];
+            System.arraycopy(values, 0, newValues, 0, size);
+            values = newValues;
+        }
+    }
+
+    private void grow() {
+        if (values.length >= limit) {
+            throw new RuntimeException("Stack overflow: the limit of " + limit + " values was reached.");
+        }
+        final int[] newValues = new int[(int) Math.min((long) values.length * 2, limit)];
+        System.arraycopy(values, 0, newValues, 0, size);
+        values = newValues;
+    }
+}
@@ -0,0 +1,212 @@
+package com.github.stony.interpreter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records what an interpreter is given, so that {@link TraceReplayer} can reproduce the session: the input lines and
+ * characters, periodic checkpoints of the program counter and of the state, and the failure of an instruction. Set on
+ * an interpreter with {@link Interpreter#setTraceRecorder(TraceRecorder)} before its first instruction.
+ * <p>
+ * Events are positioned by instruction count and written to a buffer, varint encoded, which goes to the channel when
+ * full, when an instruction fails and on {@link #close()}. Save files read by the restore instruction and states
+ * restored by the host are not recorded: a session using them is not replayed.
+ * <p>
+ * Recording must not break the story: once the channel fails, recording stops and the error is kept, see
+ * {@link #getError()}.
+ *
+ * @see TraceReplayer for the format.
+ */
+public final class TraceRecorder implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final int checkpointInterval;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private Interpreter interpreter;
+    private long lastInstructionCount;
+    private IOException error;
+    private boolean closed;
+
+    /**
+     * Constructs a recorder writing to a channel, from its position.
+     *
+     * @param channel destination, closed with the recorder.
+     * @param checkpointInterval number of instructions between two checkpoints, 0 for none.
+     */
+    public TraceRecorder(FileChannel channel, int checkpointInterval) {
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("Invalid checkpoint interval: " + checkpointInterval);
+        }
+        this.channel = channel;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Creates a recorder writing to a file, replacing it if it exists.
+     *
+     * @param path trace file.
+     * @param checkpointInterval number of instructions between two checkpoints, 0 for none.
+     * @return the recorder.
+     * @throws IOException when the file can't be opened.
+     */
+    public static TraceRecorder create(Path path, int checkpointInterval) throws IOException {
+        return new TraceRecorder(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), checkpointInterval);
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Returns why recording stopped.
+     * @return the exception thrown by the channel, or null if recording works.
+     */
+    public IOException getError() {
+        return error;
+    }
+
+    /**
+     * Writes the trace header: the identification of the story and the checkpoint interval.
+     * @param interpreter recorded interpreter, before its first instruction.
+     */
+    void start(Interpreter interpreter) {
+        if (this.interpreter != null) {
+            throw new IllegalStateException("The recorder is already used.");
+        }
+        this.interpreter = interpreter;
+        buffer.put(TraceReplayer.MAGIC);
+        buffer.put((byte) TraceReplayer.FORMAT_VERSION);
+        buffer.put(TraceReplayer.identification(interpreter.memory));
+        putVarint(checkpointInterval);
+    }
+
+    /**
+     * Records the input given to the story.
+     *
+     * @param instructionCount instructions executed so far.
+     * @param input line or character, see {@link Interpreter#resume(String)}.
+     */
+    void input(long instructionCount, String input) {
+        final byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        beginEvent(TraceReplayer.INPUT, instructionCount, 5 + bytes.length);
+        putBytes(bytes);
+    }
+
+    /**
+     * Records a checkpoint.
+     *
+     * @param instructionCount instructions executed so far.
+     * @param pc program counter.
+     * @param checksum state checksum, see {@link Interpreter#stateChecksum()}.
+     */
+    void checkpoint(long instructionCount, int pc, int checksum) {
+        beginEvent(TraceReplayer.CHECKPOINT, instructionCount, 10);
+        putVarint(pc);
+        putVarint(checksum & 0xffffffffL);
+    }
+
+    /**
+     * Records the failure of an instruction and writes the trace to the channel.
+     *
+     * @param instructionCount instructions executed before the failing one.
+     * @param pc program counter when the instruction failed.
+     * @param exception exception thrown by the instruction.
+     */
+    void failure(long instructionCount, int pc, RuntimeException exception) {
+        final byte[] message = String.valueOf(exception).getBytes(StandardCharsets.UTF_8);
+        beginEvent(TraceReplayer.FAILURE, instructionCount, 10 + message.length);
+        putVarint(pc);
+        putBytes(message);
+        flush();
+    }
+
+    /**
+     * Records the instruction count of the interpreter, the end of the trace, and closes the channel.
+     * @throws IOException when writing or closing failed, including an earlier write.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (interpreter != null) {
+            beginEvent(TraceReplayer.END, interpreter.getInstructionCount(), 0);
+            flush();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Writes the buffered events to the channel.
+     */
+    public void flush() {
+        if (error != null) {
+            buffer.clear();
+            return;
+        }
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    /* Events: tag, instruction count since the previous event, then the data */
+    private void beginEvent(int tag, long instructionCount, int dataLength) {
+        if (buffer.remaining() < 11 + dataLength) {
+            flush();
+        }
+        buffer.put((byte) tag);
+        putVarint(instructionCount - lastInstructionCount);
+        lastInstructionCount = instructionCount;
+    }
+
+    /* Length, then the bytes; through the channel directly if larger than the buffer */
+    private void putBytes(byte[] bytes) {
+        putVarint(bytes.length);
+        if (bytes.length > buffer.remaining()) {
+            flush();
+            if (bytes.length > buffer.remaining()) {
+                if (error == null) {
+                    write(ByteBuffer.wrap(bytes));
+                }
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    private void write(ByteBuffer data) {
+        try {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    /* Unsigned LEB128: 7 bits per byte, low bits first, high bit set on every byte but the last */
+    private void putVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
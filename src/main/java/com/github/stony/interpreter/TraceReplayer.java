@@ -0,0 +1,280 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.Memory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a trace written by {@link TraceRecorder}: runs a new interpreter of the same story at full speed, gives it
+ * the recorded input as soon as it waits for it, checks the checkpoints, and stops right before the instruction which
+ * failed, if one did.
+ * <p>
+ * A trace is the magic bytes STRC, the format version, the story identification (release, serial and checksum, as in
+ * Quetzal files) and the checkpoint interval, followed by events. An event is a tag byte, the number of instructions
+ * executed since the previous event, and the data of the tag:
+ * <ul>
+ * <li>input: the line or character, as a length and UTF-8 bytes;</li>
+ * <li>checkpoint: the program counter and the state checksum;</li>
+ * <li>failure: the program counter and the exception, as a length and UTF-8 bytes;</li>
+ * <li>end: nothing, written when the recorder is closed.</li>
+ * </ul>
+ * Numbers are unsigned LEB128 varints.
+ * <p>
+ * Instruction counts depend on the execution settings: replay with the compiler enabled if and only if it was enabled
+ * while recording. The instruction cache and fusion don't change the counts.
+ */
+public final class TraceReplayer {
+    static final byte[] MAGIC = {'S', 'T', 'R', 'C'};
+    static final int FORMAT_VERSION = 1;
+
+    static final int INPUT = 1;
+    static final int CHECKPOINT = 2;
+    static final int FAILURE = 3;
+    static final int END = 4;
+
+    private static final int RELEASE_ADDRESS = 0x02;
+    private static final int SERIAL_ADDRESS = 0x12;
+    private static final int SERIAL_LENGTH = 6;
+    private static final int CHECKSUM_ADDRESS = 0x1c;
+
+    /* Recorded event, its instruction count made absolute */
+    private static final class Event {
+        final int tag;
+        final long instructionCount;
+        final int pc;
+        final long checksum;
+        final String text;
+
+        Event(int tag, long instructionCount, int pc, long checksum, String text) {
+            this.tag = tag;
+            this.instructionCount = instructionCount;
+            this.pc = pc;
+            this.checksum = checksum;
+            this.text = text;
+        }
+    }
+
+    private final byte[] identification;
+    private final int checkpointInterval;
+    private final List<Event> events = new ArrayList<>();
+    private Event failure;
+
+    /**
+     * Reads a trace. A trace cut short, by a crash of the recording process, is read up to its last complete event.
+     *
+     * @param data trace, from its position to its limit.
+     * @throws IllegalArgumentException when the data is not a trace.
+     */
+    public TraceReplayer(ByteBuffer data) {
+        final ByteBuffer in = data.slice();
+        if (in.remaining() < MAGIC.length + 1) {
+            throw new IllegalArgumentException("Not a trace.");
+        }
+        final byte[] magic = new byte[MAGIC.length];
+        in.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IllegalArgumentException("Not a trace.");
+        }
+        final int version = in.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported trace version: " + version);
+        }
+        identification = new byte[2 + SERIAL_LENGTH + 2];
+        try {
+            in.get(identification);
+            checkpointInterval = (int) getVarint(in);
+            long instructionCount = 0;
+            while (in.hasRemaining()) {
+                final int start = in.position();
+                final Event event;
+                try {
+                    final int tag = in.get();
+                    instructionCount += getVarint(in);
+                    switch (tag) {
+                        case INPUT:
+                            event = new Event(tag, instructionCount, 0, 0, getString(in));
+                            break;
+                        case CHECKPOINT:
+                            event = new Event(tag, instructionCount, (int) getVarint(in), getVarint(in), null);
+                            break;
+                        case FAILURE:
+                            event = new Event(tag, instructionCount, (int) getVarint(in), 0, getString(in));
+                            failure = event;
+                            break;
+                        case END:
+                            event = new Event(tag, instructionCount, 0, 0, null);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Invalid trace event " + tag + " at " + start);
+                    }
+                } catch (BufferUnderflowException e) {
+                    break; /* truncated event */
+                }
+                events.add(event);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated trace header.");
+        }
+    }
+
+    /**
+     * Reads a trace file.
+     *
+     * @param path trace file.
+     * @return the replayer.
+     * @throws IOException when the file can't be read.
+     * @throws IllegalArgumentException when the file is not a trace.
+     */
+    public static TraceReplayer read(Path path) throws IOException {
+        return new TraceReplayer(ByteBuffer.wrap(Files.readAllBytes(path)));
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Tells if an instruction failed while recording.
+     * @return true if the trace ends with a failure.
+     */
+    public boolean hasFailure() {
+        return failure != null;
+    }
+
+    /**
+     * Returns the position of the failing instruction.
+     * @return the number of instructions executed before it, -1 if none failed.
+     */
+    public long getFailureInstructionCount() {
+        return failure != null ? failure.instructionCount : -1;
+    }
+
+    /**
+     * Returns the program counter when the instruction failed.
+     * @return the program counter, -1 if no instruction failed.
+     */
+    public int getFailurePc() {
+        return failure != null ? failure.pc : -1;
+    }
+
+    /**
+     * Returns the exception of the failing instruction.
+     * @return the exception class and message, or null if no instruction failed.
+     */
+    public String getFailureMessage() {
+        return failure != null ? failure.text : null;
+    }
+
+    /**
+     * Replays the trace on an interpreter which hasn't run yet. The replay stops:
+     * <ul>
+     * <li>right before the failing instruction, which the next {@link Interpreter#executeInstruction()} executes,
+     * with the status {@link ExecutionStatus#BUDGET_EXHAUSTED};</li>
+     * <li>otherwise where the recording stopped, with the status at that point; or at the last recorded event if the
+     * recorder wasn't closed.</li>
+     * </ul>
+     *
+     * @param interpreter interpreter of the recorded story, with the recording settings.
+     * @return the status where the replay stopped.
+     * @throws IllegalArgumentException when the interpreter runs another story or has already run.
+     * @throws IllegalStateException when the replay diverges from the trace.
+     */
+    public ExecutionStatus replay(Interpreter interpreter) {
+        if (!Arrays.equals(identification, identification(interpreter.memory))) {
+            throw new IllegalArgumentException("The trace was recorded on another story.");
+        }
+        if (interpreter.getInstructionCount() != 0) {
+            throw new IllegalArgumentException("The interpreter has already run.");
+        }
+        ExecutionStatus status = ExecutionStatus.BUDGET_EXHAUSTED;
+        for (Event event : events) {
+            status = runTo(interpreter, event.instructionCount);
+            switch (event.tag) {
+                case INPUT:
+                    if (status != ExecutionStatus.AWAITING_INPUT) {
+                        throw diverged(interpreter, "the story doesn't wait for input");
+                    }
+                    interpreter.resume(event.text);
+                    status = ExecutionStatus.BUDGET_EXHAUSTED;
+                    break;
+                case CHECKPOINT:
+                    if (interpreter.pc != event.pc) {
+                        throw diverged(interpreter, String.format("pc 0x%05x instead of 0x%05x", interpreter.pc,
+                                event.pc));
+                    }
+                    if ((interpreter.stateChecksum() & 0xffffffffL) != event.checksum) {
+                        throw diverged(interpreter, "the state differs");
+                    }
+                    break;
+                case FAILURE:
+                    return ExecutionStatus.BUDGET_EXHAUSTED;
+                default:
+                    break;
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Returns the identification of a story, as recorded in traces.
+     * @param memory story memory.
+     * @return the release, serial and checksum bytes.
+     */
+    static byte[] identification(Memory memory) {
+        final ByteBuffer buffer = ByteBuffer.allocate(2 + SERIAL_LENGTH + 2);
+        buffer.putShort((short) memory.readWord(RELEASE_ADDRESS));
+        memory.readBytes(SERIAL_ADDRESS, buffer, SERIAL_LENGTH);
+        buffer.putShort((short) memory.readWord(CHECKSUM_ADDRESS));
+        return buffer.array();
+    }
+
+    /* Runs until the instruction count is reached, without stopping anywhere else */
+    private static ExecutionStatus runTo(Interpreter interpreter, long instructionCount) {
+        ExecutionStatus status = ExecutionStatus.BUDGET_EXHAUSTED;
+        while (interpreter.getInstructionCount() < instructionCount) {
+            status = interpreter.run((int) Math.min(instructionCount - interpreter.getInstructionCount(),
+                    Integer.MAX_VALUE));
+            if (status != ExecutionStatus.BUDGET_EXHAUSTED) {
+                break;
+            }
+        }
+        if (interpreter.getInstructionCount() != instructionCount) {
+            throw diverged(interpreter, "the story stopped: " + status);
+        }
+        if (interpreter.isFinished()) {
+            return ExecutionStatus.FINISHED;
+        }
+        return interpreter.isAwaitingInput() ? ExecutionStatus.AWAITING_INPUT : ExecutionStatus.BUDGET_EXHAUSTED;
+    }
+
+    private static IllegalStateException diverged(Interpreter interpreter, String reason) {
+        return new IllegalStateException("The replay diverged at instruction " + interpreter.getInstructionCount()
+                + ": " + reason + ".");
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            final int b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer in) {
+        final int length = (int) getVarint(in);
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.stony.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Heap budget shared by the undo levels of many interpreters, typically every session of a
+ * {@link com.github.stony.SessionHost}. Thread safe.
+ * <p>
+ * The budget is enforced when a level is saved: the saving interpreter evicts its own oldest levels until the total
+ * fits, and fails the save if even its newest level alone doesn't fit. Other interpreters are never touched, they may
+ * be running on other threads.
+ *
+ * @see Interpreter#setUndoBudget(UndoBudget)
+ */
+public final class UndoBudget {
+    private final AtomicLong usedBytes = new AtomicLong();
+    private volatile long limit;
+
+    /**
+     * Constructs a budget.
+     *
+     * @param limit maximum size in bytes of the undo levels of all interpreters.
+     */
+    public UndoBudget(long limit) {
+        setLimit(limit);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Changes the limit. Interpreters above it shrink their history on their next save.
+     *
+     * @param limit maximum size in bytes, at least 0.
+     */
+    public void setLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid undo limit: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the estimated heap used by the undo levels of all interpreters.
+     * @return the size in bytes.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    boolean isExceeded() {
+        return usedBytes.get() > limit;
+    }
+
+    void add(long bytes) {
+        usedBytes.addAndGet(bytes);
+    }
+}
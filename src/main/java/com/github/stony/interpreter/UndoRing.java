@@ -0,0 +1,220 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.MemorySnapshot;
+
+/**
+ * Undo levels saved by save_undo, newest restored first by restore_undo. The ring holds at most a number of levels
+ * and a number of bytes, and evicts the oldest levels first.
+ * <p>
+ * A level holds a {@link MemorySnapshot}, which shares the pages not written in between with the neighbouring levels,
+ * and exact copies of the evaluation stack and call frames, usually a few dozen ints. The size of a level is an
+ * estimate of the heap it alone retains: the memory pages it doesn't share with the previous level, plus the pages it
+ * inherits from evicted older levels.
+ */
+final class UndoRing {
+    /**
+     * Default maximum number of levels.
+     */
+    static final int DEFAULT_DEPTH = 8;
+
+    /**
+     * Default maximum size of the levels, in bytes.
+     */
+    static final long DEFAULT_LIMIT = 1024 * 1024;
+
+    /* Heap taken by a level besides its memory snapshot: the level and two array headers */
+    private static final int LEVEL_OVERHEAD = 32 + 2 * 16;
+
+    /**
+     * A saved state.
+     */
+    static final class Level {
+        final MemorySnapshot memory;
+        final int[] stack;
+        final int[] frames;
+        final int resultAddress;
+        long size;
+
+        Level(MemorySnapshot memory, int[] stack, int[] frames, int resultAddress) {
+            this.memory = memory;
+            this.stack = stack;
+            this.frames = frames;
+            this.resultAddress = resultAddress;
+        }
+    }
+
+    private Level[] levels = new Level[DEFAULT_DEPTH];
+    private int oldest;
+    private int count;
+    private long size;
+    private long limit = DEFAULT_LIMIT;
+    private UndoBudget budget;
+
+    /**
+     * Adds a level, evicting the oldest ones until the depth, the limit and the budget are respected.
+     *
+     * @param level level to add.
+     * @return true if the level was added, false if it doesn't fit even alone or the depth is 0.
+     */
+    boolean push(Level level) {
+        if (levels.length == 0) {
+            return false;
+        }
+        if (count == levels.length) {
+            evictOldest();
+        }
+        level.size = level.memory.getSize() + LEVEL_OVERHEAD + 4L * (level.stack.length + level.frames.length);
+        if (count > 0) {
+            level.size -= level.memory.getSharedSize(levels[(oldest + count - 1) % levels.length].memory);
+        }
+        levels[(oldest + count) % levels.length] = level;
+        count++;
+        add(level.size);
+        while (count > 1 && isExceeded()) {
+            evictOldest();
+        }
+        if (isExceeded()) {
+            pop();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the newest level.
+     *
+     * @return the newest level, null if there's none.
+     */
+    Level pop() {
+        if (count == 0) {
+            return null;
+        }
+        count--;
+        final int index = (oldest + count) % levels.length;
+        final Level level = levels[index];
+        levels[index] = null;
+        add(-level.size);
+        return level;
+    }
+
+    /**
+     * Removes every level.
+     */
+    void clear() {
+        while (count > 0) {
+            pop();
+        }
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    int getDepth() {
+        return levels.length;
+    }
+
+    /**
+     * Changes the maximum number of levels, evicting the oldest levels over it.
+     *
+     * @param depth maximum number of levels, 0 to disable undo.
+     */
+    void setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Invalid undo depth: " + depth);
+        }
+        while (count > depth) {
+            evictOldest();
+        }
+        final Level[] newLevels = new Level[depth];
+        for (int i = 0; i < count; i++) {
+            newLevels[i] = levels[(oldest + i) % levels.length];
+        }
+        levels = newLevels;
+        oldest = 0;
+    }
+
+    long getLimit() {
+        return limit;
+    }
+
+    /**
+     * Changes the maximum size of the levels. Levels over it are evicted on the next push.
+     *
+     * @param limit maximum size in bytes.
+     */
+    void setLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid undo limit: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    UndoBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Moves the size of the levels to another shared budget.
+     *
+     * @param budget new budget, null for none.
+     */
+    void setBudget(UndoBudget budget) {
+        if (this.budget != null) {
+            this.budget.add(-size);
+        }
+        this.budget = budget;
+        if (budget != null) {
+            budget.add(size);
+        }
+    }
+
+    /**
+     * Returns the estimated heap retained by the levels.
+     * @return the size in bytes.
+     */
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the estimated heap retained by a level alone.
+     *
+     * @param level level, 0 for the newest.
+     * @return the size in bytes.
+     */
+    long getLevelSize(int level) {
+        if (level < 0 || level >= count) {
+            throw new IndexOutOfBoundsException("Invalid undo level " + level + ", there are " + count);
+        }
+        return levels[(oldest + count - 1 - level) % levels.length].size;
+    }
+
+    private boolean isExceeded() {
+        return size > limit || (budget != null && budget.isExceeded());
+    }
+
+    /**
+     * Evicts the oldest level. The memory pages it shares with the next level now belong to that level.
+     */
+    private void evictOldest() {
+        final Level evicted = levels[oldest];
+        levels[oldest] = null;
+        oldest = (oldest + 1) % levels.length;
+        count--;
+        long freed = evicted.size;
+        if (count > 0) {
+            final long shared = evicted.memory.getSharedSize(levels[oldest].memory);
+            levels[oldest].size += shared;
+            freed -= shared;
+        }
+        add(-freed);
+    }
+
+    private void add(long bytes) {
+        size += bytes;
+        if (budget != null) {
+            budget.add(bytes);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.github.stony.memory;
+
+import java.util.Arrays;
+
+/**
+ * Bookkeeping of the writable part of a memory, the dynamic memory: dirty pages, snapshots and save file changes.
+ * Subclasses hold the writable memory, on the heap or off it, and implement the reads and writes; the operations here
+ * reach it in bulk through {@link #readWritable} and {@link #writeWritable}, never on the instruction path.
+ */
+abstract class AbstractMemory implements Memory {
+    static final int PAGE_SHIFT = 8;
+
+    /**
+     * Addresses below this one are read from the writable memory.
+     */
+    final int dynamicSize;
+
+    /**
+     * Writes at or above this address are rejected.
+     */
+    final int writableSize;
+
+    /**
+     * The dynamic memory in its initial state, to compute the changes against: the shared image, or a copy kept by
+     * {@link #keepInitialState(int)}. Null if the initial state isn't known.
+     */
+    private byte[] initialMemory;
+
+    /**
+     * Pages written since the last snapshot taken or restored, non-zero if written. A byte per page rather than a bit:
+     * writes mark their page with a plain store instead of a read-modify-write.
+     */
+    final byte[] dirtyPages;
+
+    /**
+     * The last snapshot taken or restored: the memory equals it, except for the dirty pages. Null before the first
+     * snapshot.
+     */
+    private MemorySnapshot baseSnapshot;
+
+    /**
+     * Writes at or above this address are reported to the write listener.
+     */
+    int watchedAddress = Integer.MAX_VALUE;
+    WriteListener writeListener;
+
+    /**
+     * Constructs a memory.
+     *
+     * @param dynamicSize addresses below it are read from the writable memory.
+     * @param writableSize addresses at or above it can't be written.
+     * @param initialMemory initial state of the writable memory, null if unknown.
+     */
+    AbstractMemory(int dynamicSize, int writableSize, byte[] initialMemory) {
+        this.dynamicSize = dynamicSize;
+        this.writableSize = writableSize;
+        this.initialMemory = initialMemory;
+        this.dirtyPages = new byte[pageCount(writableSize)];
+    }
+
+    /**
+     * Copies bytes of the writable memory to an array.
+     *
+     * @param address first address.
+     * @param out array receiving the bytes.
+     * @param offset index of the first byte written.
+     * @param length number of bytes.
+     */
+    abstract void readWritable(int address, byte[] out, int offset, int length);
+
+    /**
+     * Copies bytes from an array to the writable memory, without marking pages dirty nor notifying the listener.
+     *
+     * @param address first address.
+     * @param in array holding the bytes.
+     * @param offset index of the first byte read.
+     * @param length number of bytes.
+     */
+    abstract void writeWritable(int address, byte[] in, int offset, int length);
+
+    /**
+     * Returns the array holding the writable memory, so that bulk operations work in place.
+     * @return the array, null if the writable memory isn't held in one.
+     */
+    abstract byte[] writableArray();
+
+    @Override
+    public int getWritableSize() {
+        return writableSize;
+    }
+
+    @Override
+    public void keepInitialState(int size) {
+        if (initialMemory == null) {
+            final byte[] initial = new byte[Math.min(size, writableSize)];
+            readWritable(0, initial, 0, initial.length);
+            initialMemory = initial;
+        }
+    }
+
+    /**
+     * {@inheritDoc} Long unchanged ranges are skipped by comparing the memory with its initial state in bulk.
+     */
+    @Override
+    public int writeChanges(int length, byte[] out, int offset) {
+        final byte[] initial = initialState(length);
+        byte[] memory = writableArray();
+        if (memory == null) {
+            memory = new byte[length];
+            readWritable(0, memory, 0, length);
+        }
+        int position = offset;
+        int address = 0;
+        while (address < length) {
+            /* changes are often close to each other: short gaps are scanned inline, cheaper than a bulk comparison */
+            int changed = address;
+            final int scanEnd = Math.min(address + 64, length);
+            while (changed < scanEnd && memory[changed] == initial[changed]) {
+                changed++;
+            }
+            if (changed == scanEnd) {
+                final int mismatch = changed < length
+                        ? Arrays.mismatch(memory, changed, length, initial, changed, length) : -1;
+                if (mismatch < 0) {
+                    break; /* no more changes */
+                }
+                changed += mismatch;
+            }
+            for (int zeros = changed - address; zeros > 0; zeros -= 256) {
+                out[position++] = 0;
+                out[position++] = (byte) (Math.min(zeros, 256) - 1);
+            }
+            out[position++] = (byte) (memory[changed] ^ initial[changed]);
+            address = changed + 1;
+        }
+        return position;
+    }
+
+    @Override
+    public void readChanges(byte[] changes, int offset, int changesLength, int length) {
+        final byte[] initial = initialState(length);
+        final int end = offset + changesLength;
+        int changedLength = 0;
+        for (int i = offset; i < end; i++) {
+            if (changes[i] == 0) {
+                if (++i == end) {
+                    throw new IllegalArgumentException("Truncated run of unchanged bytes.");
+                }
+                changedLength += (changes[i] & 0xff) + 1;
+            } else {
+                changedLength++;
+            }
+        }
+        if (changedLength > length) {
+            throw new IllegalArgumentException("Changes exceed the memory length: " + changedLength + " > " + length);
+        }
+
+        final byte[] writable = writableArray();
+        final byte[] memory = writable != null ? writable : new byte[length];
+        int address = 0;
+        for (int i = offset; i < end; i++) {
+            final byte value = changes[i];
+            if (value == 0) {
+                final int run = (changes[++i] & 0xff) + 1;
+                System.arraycopy(initial, address, memory, address, run);
+                address += run;
+            } else {
+                memory[address] = (byte) (initial[address] ^ value);
+                address++;
+            }
+        }
+        System.arraycopy(initial, address, memory, address, length - address);
+        if (writable == null) {
+            writeWritable(0, memory, 0, length);
+        }
+        markDirty(0, length);
+    }
+
+    @Override
+    public MemorySnapshot snapshot() {
+        final int pageCount = pageCount(writableSize);
+        final byte[][] pages = baseSnapshot != null ? baseSnapshot.pages.clone() : new byte[pageCount][];
+        int copied = 0;
+        for (int page = 0; page < pageCount; page++) {
+            if (baseSnapshot == null || isDirty(page)) {
+                final int start = page << PAGE_SHIFT;
+                final byte[] copy = new byte[PAGE_SIZE];
+                readWritable(start, copy, 0, Math.min(PAGE_SIZE, writableSize - start));
+                pages[page] = copy;
+                copied++;
+            }
+        }
+        final MemorySnapshot snapshot = new MemorySnapshot(pages, copied);
+        baseSnapshot = snapshot;
+        Arrays.fill(dirtyPages, (byte) 0);
+        return snapshot;
+    }
+
+    @Override
+    public void restore(MemorySnapshot snapshot) {
+        final int pageCount = pageCount(writableSize);
+        if (snapshot.pages.length != pageCount) {
+            throw new IllegalArgumentException("Snapshot of " + snapshot.pages.length + " pages, the memory has "
+                    + pageCount);
+        }
+        for (int page = 0; page < pageCount; page++) {
+            if (baseSnapshot == null || isDirty(page) || baseSnapshot.pages[page] != snapshot.pages[page]) {
+                final int start = page << PAGE_SHIFT;
+                final int length = Math.min(PAGE_SIZE, writableSize - start);
+                writeWritable(start, snapshot.pages[page], 0, length);
+                if (start + length > watchedAddress) {
+                    writeListener.memoryWritten(start, length);
+                }
+            }
+        }
+        baseSnapshot = snapshot;
+        Arrays.fill(dirtyPages, (byte) 0);
+    }
+
+    @Override
+    public int getDirtyPageCount() {
+        int count = 0;
+        for (byte dirty : dirtyPages) {
+            count += dirty;
+        }
+        return count;
+    }
+
+    @Override
+    public void setWriteListener(int fromAddress, WriteListener listener) {
+        this.writeListener = listener;
+        this.watchedAddress = listener == null ? Integer.MAX_VALUE : fromAddress;
+    }
+
+    private boolean isDirty(int page) {
+        return dirtyPages[page] != 0;
+    }
+
+    /**
+     * Marks the pages of a range of the writable memory as written.
+     *
+     * @param address first address.
+     * @param length number of bytes.
+     */
+    void markDirty(int address, int length) {
+        if (length > 0) {
+            for (int page = address >>> PAGE_SHIFT; page <= (address + length - 1) >>> PAGE_SHIFT; page++) {
+                dirtyPages[page] = 1;
+            }
+        }
+    }
+
+    /**
+     * Checks the size of the dynamic memory of a story.
+     *
+     * @param dynamicSize size of the dynamic memory.
+     * @param size size of the story.
+     * @return the dynamic memory size.
+     * @throws IllegalArgumentException when the dynamic memory doesn't fit the story.
+     */
+    static int checkDynamicSize(int dynamicSize, int size) {
+        if (dynamicSize < 0 || dynamicSize > size) {
+            throw new IllegalArgumentException("Invalid dynamic memory size: " + dynamicSize);
+        }
+        return dynamicSize;
+    }
+
+    private static int pageCount(int size) {
+        return (size + PAGE_SIZE - 1) >>> PAGE_SHIFT;
+    }
+
+    private byte[] initialState(int length) {
+        if (initialMemory == null) {
+            throw new IllegalStateException("The initial state of the memory is unknown.");
+        }
+        if (length > writableSize || length > initialMemory.length) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        return initialMemory;
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.stony.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A memory held in byte arrays: the whole story in a single array, or the dynamic memory in a private array backed by
+ * a shared story image for the rest.
+ */
+public final class ArrayMemory extends HeapMemory {
+    /**
+     * Holds the memory from dynamicSize to the end. The same array as rawMemory unless backed by a shared image.
+     */
+    private final byte[] sharedMemory;
+
+    /**
+     * Constructs a memory with a capacity of 512kb.
+     */
+    public ArrayMemory() {
+        this(new byte[512 * 1024]);
+    }
+
+    /**
+     * Constructs the memory utilizing a pre-existing byte array. The whole memory is writable.
+     * @param raw byte array to be used as the basis for this memory.
+     */
+    public ArrayMemory(byte[] raw) {
+        this(raw, raw.length, raw.length, null, raw);
+    }
+
+    /**
+     * Constructs a memory backed by a shared image. The dynamic memory (below dynamicSize) is copied, the rest is read
+     * directly from the image and can't be written.
+     *
+     * @param image story image, which must not be modified afterwards.
+     * @param dynamicSize size of the dynamic memory (the static memory base address).
+     */
+    public ArrayMemory(byte[] image, int dynamicSize) {
+        this(Arrays.copyOf(image, Math.min(checkDynamicSize(dynamicSize, image.length) + 1, image.length)),
+                dynamicSize, dynamicSize, image, image);
+    }
+
+    private ArrayMemory(byte[] raw, int dynamicSize, int writableSize, byte[] initialMemory, byte[] sharedMemory) {
+        super(raw, dynamicSize, writableSize, initialMemory);
+        this.sharedMemory = sharedMemory;
+    }
+
+    /**
+     * Constructs a memory running directly in a story: writes go to the array, but only the dynamic memory, below the
+     * static memory base of the header, is writable, so that snapshots and dirty pages cover it alone.
+     *
+     * @param story story file data.
+     * @return the memory.
+     */
+    public static ArrayMemory inPlace(byte[] story) {
+        final int dynamicSize = new Header(new ArrayMemory(story, 0)).getStaticMemoryBaseAddress();
+        return new ArrayMemory(story, story.length, checkDynamicSize(dynamicSize, story.length), null, story);
+    }
+
+    @Override
+    public int readByte(int address) {
+        final byte[] bytes = address < dynamicSize ? rawMemory : sharedMemory;
+        return ((int) bytes[address]) & 0xff;
+    }
+
+    @Override
+    public int readSignedByte(int address) {
+        final byte[] bytes = address < dynamicSize ? rawMemory : sharedMemory;
+        return bytes[address];
+    }
+
+    @Override
+    public int readWord(int address) {
+        final byte[] bytes = address < dynamicSize ? rawMemory : sharedMemory;
+        return ((short) WORDS.get(bytes, address)) & 0xffff;
+    }
+
+    @Override
+    public int readSignedWord(int address) {
+        final byte[] bytes = address < dynamicSize ? rawMemory : sharedMemory;
+        return (short) WORDS.get(bytes, address);
+    }
+
+    @Override
+    public int getSize() {
+        return sharedMemory.length;
+    }
+
+    @Override
+    public void readBytes(int address, ByteBuffer out, int length) {
+        if (address + length <= dynamicSize) {
+            out.put(rawMemory, address, length);
+        } else if (address >= dynamicSize) {
+            out.put(sharedMemory, address, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) readByte(address + i));
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.github.stony.memory;
+
+/**
+ * Index of a dictionary table: word separators, and the entries keyed by their encoded text.
+ * <p>
+ * The index is built once, when constructed: looking a word up is a probe in an open addressing hash table of
+ * primitive keys instead of a search through the dictionary in memory. Keys are the encoded text (4 bytes up to version
+ * 3, 6 bytes from version 4) read as a big-endian number. The index doesn't follow later changes to the table and holds
+ * no reference to the memory, so a dictionary in static memory can be shared by every session of a story.
+ */
+public final class Dictionary {
+    private final int address;
+    private final int keyLength;
+    private final int entryCount;
+    private final boolean[] separators = new boolean[256];
+
+    /* Open addressing table, 0 marks empty slots: encoded text always has the end bit set, a key is never 0 */
+    private final long[] keys;
+    private final int[] entryAddresses;
+    private final int shift;
+
+    /**
+     * Builds the index of a dictionary table.
+     *
+     * @param memory memory holding the table.
+     * @param address address of the table.
+     * @param version story version.
+     */
+    public Dictionary(Memory memory, int address, int version) {
+        this.address = address;
+        this.keyLength = version <= 3 ? 4 : 6;
+
+        final int separatorCount = memory.readByte(address);
+        for (int i = 0; i < separatorCount; i++) {
+            separators[memory.readByte(address + 1 + i)] = true;
+        }
+        final int entryLength = memory.readByte(address + 1 + separatorCount);
+        /* a negative count marks an unsorted dictionary, which makes no difference here */
+        this.entryCount = Math.abs(memory.readSignedWord(address + 2 + separatorCount));
+        final int entriesAddress = address + 4 + separatorCount;
+
+        final int capacity = Math.max(Integer.highestOneBit(Math.max(entryCount, 1)) << 2, 16);
+        this.keys = new long[capacity];
+        this.entryAddresses = new int[capacity];
+        this.shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        for (int i = 0; i < entryCount; i++) {
+            final int entryAddress = entriesAddress + i * entryLength;
+            long key = 0;
+            for (int j = 0; j < keyLength; j++) {
+                key = (key << 8) | memory.readByte(entryAddress + j);
+            }
+            insert(key, entryAddress);
+        }
+    }
+
+    /**
+     * Looks up an encoded word.
+     *
+     * @param key encoded text, see {@link Dictionary}.
+     * @return the address of the entry, or 0 if the word isn't in the dictionary.
+     */
+    public int lookup(long key) {
+        final int mask = keys.length - 1;
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return entryAddresses[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns whether a character separates words. Separators are words themselves, unlike spaces.
+     *
+     * @param zscii ZSCII character.
+     * @return true if the character is a word separator.
+     */
+    public boolean isSeparator(int zscii) {
+        return zscii < separators.length && separators[zscii];
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    /**
+     * Returns the length of the encoded text of an entry.
+     * @return 4 up to version 3, 6 from version 4.
+     */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    private void insert(long key, int entryAddress) {
+        final int mask = keys.length - 1;
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return; /* duplicated word, the first entry wins */
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        entryAddresses[slot] = entryAddress;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9e3779b97f4a7c15L) >>> shift);
+    }
+}
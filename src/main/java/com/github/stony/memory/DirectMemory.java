@@ -0,0 +1,141 @@
+package com.github.stony.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A memory whose dynamic memory is held off the heap, in a direct buffer, and whose static and high memory are read
+ * from a story buffer: a heap image or a mapped file. Words are read and written with a single big-endian access.
+ * <p>
+ * The heap only holds the bookkeeping of the memory, so thousands of sessions don't weigh on the garbage collector. The
+ * direct buffer is freed when the memory is garbage collected; the total is limited by -XX:MaxDirectMemorySize.
+ */
+public final class DirectMemory extends AbstractMemory {
+    /**
+     * The dynamic memory, plus the first static byte so that a word read at the last dynamic address doesn't cross
+     * buffers.
+     */
+    private final ByteBuffer dynamicMemory;
+
+    /**
+     * The whole story, big endian. Read from dynamicSize to the end.
+     */
+    private final ByteBuffer image;
+
+    /**
+     * Constructs a memory backed by a story buffer. The dynamic memory (below dynamicSize) is copied off the heap, the
+     * rest is read directly from the buffer and can't be written.
+     *
+     * @param image story, from index 0; it must not be modified afterwards.
+     * @param dynamicSize size of the dynamic memory (the static memory base address).
+     */
+    public DirectMemory(ByteBuffer image, int dynamicSize) {
+        this(image, MappedMemory.initialState(image, dynamicSize), dynamicSize);
+    }
+
+    /**
+     * Constructs a memory backed by a story buffer, sharing the initial state of the dynamic memory with other
+     * memories of the same story.
+     *
+     * @param image story, from index 0.
+     * @param initialMemory initial dynamic memory, at least up to the first static byte.
+     * @param dynamicSize size of the dynamic memory.
+     */
+    DirectMemory(ByteBuffer image, byte[] initialMemory, int dynamicSize) {
+        super(checkDynamicSize(dynamicSize, image.limit()), dynamicSize, initialMemory);
+        final int length = Math.min(dynamicSize + 1, image.limit());
+        this.dynamicMemory = ByteBuffer.allocateDirect(length).put(0, initialMemory, 0, length);
+        this.image = image.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    @Override
+    public void writeByte(int address, int byteValue) {
+        if (address >= writableSize) {
+            throw new RuntimeException("Write to read-only memory at address " + address);
+        }
+        dynamicMemory.put(address, (byte) byteValue);
+        dirtyPages[address >>> PAGE_SHIFT] = 1;
+        if (address >= watchedAddress) {
+            writeListener.memoryWritten(address, 1);
+        }
+    }
+
+    @Override
+    public void writeWord(int address, int word) {
+        if (address + 1 >= writableSize) {
+            throw new RuntimeException("Write to read-only memory at address " + address);
+        }
+        dynamicMemory.putShort(address, (short) word);
+        dirtyPages[address >>> PAGE_SHIFT] = 1;
+        dirtyPages[(address + 1) >>> PAGE_SHIFT] = 1;
+        if (address + 1 >= watchedAddress) {
+            writeListener.memoryWritten(address, 2);
+        }
+    }
+
+    @Override
+    public int readByte(int address) {
+        return (address < dynamicSize ? dynamicMemory.get(address) : image.get(address)) & 0xff;
+    }
+
+    @Override
+    public int readSignedByte(int address) {
+        return address < dynamicSize ? dynamicMemory.get(address) : image.get(address);
+    }
+
+    @Override
+    public int readWord(int address) {
+        return (address < dynamicSize ? dynamicMemory.getShort(address) : image.getShort(address)) & 0xffff;
+    }
+
+    @Override
+    public int readSignedWord(int address) {
+        return address < dynamicSize ? dynamicMemory.getShort(address) : image.getShort(address);
+    }
+
+    @Override
+    public int getSize() {
+        return image.limit();
+    }
+
+    @Override
+    public void readBytes(int address, ByteBuffer out, int length) {
+        if (address + length <= dynamicSize) {
+            out.put(dynamicMemory.slice(address, length));
+        } else if (address >= dynamicSize) {
+            out.put(image.slice(address, length));
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) readByte(address + i));
+            }
+        }
+    }
+
+    @Override
+    public void writeBytes(int address, ByteBuffer in, int length) {
+        if (address + length > writableSize) {
+            throw new RuntimeException("Write to read-only memory at address " + (address + length - 1));
+        }
+        dynamicMemory.put(address, in, in.position(), length);
+        in.position(in.position() + length);
+        markDirty(address, length);
+        if (address + length > watchedAddress) {
+            writeListener.memoryWritten(address, length);
+        }
+    }
+
+    @Override
+    void readWritable(int address, byte[] out, int offset, int length) {
+        dynamicMemory.get(address, out, offset, length);
+    }
+
+    @Override
+    void writeWritable(int address, byte[] in, int offset, int length) {
+        dynamicMemory.put(address, in, offset, length);
+    }
+
+    @Override
+    byte[] writableArray() {
+        return null;
+    }
+}
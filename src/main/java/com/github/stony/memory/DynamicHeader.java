@@ -0,0 +1,138 @@
+package com.github.stony.memory;
+
+/**
+ * Header fields which may change while the story runs: flags 1, flags 2 and the screen size.
+ * <p>
+ * Reads always go to memory, so changes made by the story are seen immediately. Values set by the interpreter are
+ * remembered, because restoring or restarting a story overwrites the header with the saved one: {@link #reapply(int)}
+ * writes them back afterwards.
+ */
+public final class DynamicHeader {
+    private static final short FLAGS_1_ADDRESS = 0x01;
+    private static final short FLAGS_2_ADDRESS = 0x10;
+    private static final short SCREEN_HEIGHT_LINES_ADDRESS = 0x20;
+    private static final short SCREEN_WIDTH_CHARACTERS_ADDRESS = 0x21;
+    private static final short SCREEN_WIDTH_UNITS_ADDRESS = 0x22;
+    private static final short SCREEN_HEIGHT_UNITS_ADDRESS = 0x24;
+
+    /**
+     * Bits of flags 2 which the interpreter keeps across restore and restart: transcripting and forced fixed pitch.
+     */
+    private static final int FLAGS_2_PRESERVED_BITS = 0x03;
+
+    private final Memory memory;
+    private final int versionNumber;
+
+    /* Values set by the interpreter, -1 when never set */
+    private int flags1 = -1;
+    private int screenHeightLines = -1;
+    private int screenWidthCharacters = -1;
+
+    /**
+     * Constructs a view of the dynamic header fields.
+     *
+     * @param memory memory holding the header.
+     * @param header fixed header of the same memory.
+     */
+    public DynamicHeader(Memory memory, Header header) {
+        this.memory = memory;
+        this.versionNumber = header.getVersionNumber();
+    }
+
+    public int getFlags1() {
+        return memory.readByte(FLAGS_1_ADDRESS);
+    }
+
+    /**
+     * Sets flags 1, which tell the story what the interpreter supports.
+     * @param flags1 new flags 1 value.
+     */
+    public void setFlags1(int flags1) {
+        this.flags1 = flags1 & 0xff;
+        memory.writeByte(FLAGS_1_ADDRESS, flags1);
+    }
+
+    public int getFlags2() {
+        return memory.readWord(FLAGS_2_ADDRESS);
+    }
+
+    /**
+     * Sets flags 2. The story sets the transcripting and fixed pitch bits, the interpreter clears the bits of the
+     * features it doesn't support.
+     * @param flags2 new flags 2 value.
+     */
+    public void setFlags2(int flags2) {
+        memory.writeWord(FLAGS_2_ADDRESS, flags2);
+    }
+
+    /**
+     * Returns whether the story asked for a transcript (flags 2, bit 0).
+     * @return true if transcripting is on.
+     */
+    public boolean isTranscripting() {
+        return (getFlags2() & 0x01) != 0;
+    }
+
+    /**
+     * Returns the screen height in lines. Supported on version 4 and above.
+     * @return the screen height, 255 meaning infinite.
+     */
+    public int getScreenHeightLines() {
+        checkScreenSize();
+        return memory.readByte(SCREEN_HEIGHT_LINES_ADDRESS);
+    }
+
+    /**
+     * Returns the screen width in characters. Supported on version 4 and above.
+     * @return the screen width.
+     */
+    public int getScreenWidthCharacters() {
+        checkScreenSize();
+        return memory.readByte(SCREEN_WIDTH_CHARACTERS_ADDRESS);
+    }
+
+    /**
+     * Sets the screen size. Supported on version 4 and above. From version 5, the size in units is set too, with one
+     * unit per character.
+     *
+     * @param heightLines height in lines, 255 for infinite.
+     * @param widthCharacters width in characters.
+     */
+    public void setScreenSize(int heightLines, int widthCharacters) {
+        checkScreenSize();
+        this.screenHeightLines = heightLines & 0xff;
+        this.screenWidthCharacters = widthCharacters & 0xff;
+        writeScreenSize();
+    }
+
+    /**
+     * Writes the values set by the interpreter back to memory, keeping the story's transcripting and fixed pitch bits
+     * of flags 2. Called after the dynamic memory has been replaced (restore, restart, undo).
+     *
+     * @param previousFlags2 flags 2 before the dynamic memory was replaced.
+     */
+    public void reapply(int previousFlags2) {
+        if (flags1 >= 0) {
+            memory.writeByte(FLAGS_1_ADDRESS, flags1);
+        }
+        setFlags2((getFlags2() & ~FLAGS_2_PRESERVED_BITS) | (previousFlags2 & FLAGS_2_PRESERVED_BITS));
+        if (screenHeightLines >= 0) {
+            writeScreenSize();
+        }
+    }
+
+    private void writeScreenSize() {
+        memory.writeByte(SCREEN_HEIGHT_LINES_ADDRESS, screenHeightLines);
+        memory.writeByte(SCREEN_WIDTH_CHARACTERS_ADDRESS, screenWidthCharacters);
+        if (versionNumber >= 5) {
+            memory.writeWord(SCREEN_WIDTH_UNITS_ADDRESS, screenWidthCharacters);
+            memory.writeWord(SCREEN_HEIGHT_UNITS_ADDRESS, screenHeightLines);
+        }
+    }
+
+    private void checkScreenSize() {
+        if (versionNumber < 4) {
+            throw new UnsupportedAccessException(4);
+        }
+    }
+}
@@ -1,14 +1,12 @@
 package com.github.stony.memory;
 
 /**
- * Utility class to access the header (first 64 bytes) information.
+ * Fixed header (first 64 bytes) information.
+ * <p>
+ * The fields are read once, when the header is constructed, and never change afterwards: a story can't legally modify
+ * them. Fields which may change at runtime (flags, screen size) are accessed through {@link DynamicHeader}.
  */
 public final class Header {
-    /**
-     * The memory from which the first 64 bytes are accessed.
-     */
-    private final Memory memory;
-
     private static final short VERSION_ADDRESS = 0x0;
     private static final short HIGH_MEMORY_BASE_ADDRESS = 0x4;
     private static final short PROGRAM_COUNTER_INITIAL_VALUE_ADDRESS = 0x6;
@@ -16,24 +14,69 @@ public final class Header {
     private static final short OBJECT_TABLE_LOCATION_ADDRESS = 0xa;
     private static final short GLOBAL_VARIABLES_TABLE_LOCATION_ADDRESS = 0xc;
     private static final short STATIC_MEMORY_BASE_ADDRESS = 0xe;
+    private static final short ABBREVIATIONS_TABLE_ADDRESS = 0x18;
     private static final short FILE_LENGTH_ADDRESS = 0x1a;
     private static final short ROUTINES_OFFSET_ADDRESS = 0x28;
     private static final short STATIC_STRINGS_OFFSET_ADDRESS = 0x2a;
+    private static final short ALPHABET_TABLE_ADDRESS = 0x34;
+
+    private final byte versionNumber;
+    private final int highMemoryBaseAddress;
+    private final int programCounterInitialValue;
+    private final int dictionaryAddress;
+    private final int objectTableAddress;
+    private final int globalVariablesTableAddress;
+    private final int staticMemoryBaseAddress;
+    private final int abbreviationsTableAddress;
+    private final int alphabetTableAddress;
+    private final int routinesOffset;
+    private final int staticStringsOffset;
+    private final int fileLength;
 
     /**
-     * Constructs a Header from a Memory instance.
+     * Constructs a Header from a Memory instance, reading every fixed field.
      * @param memory memory to be read from.
      */
     public Header(Memory memory) {
-        this.memory = memory;
+        versionNumber = (byte) memory.readByte(VERSION_ADDRESS);
+        highMemoryBaseAddress = memory.readWord(HIGH_MEMORY_BASE_ADDRESS);
+        programCounterInitialValue = memory.readWord(PROGRAM_COUNTER_INITIAL_VALUE_ADDRESS);
+        dictionaryAddress = memory.readWord(DICTIONARY_LOCATION_ADDRESS);
+        objectTableAddress = memory.readWord(OBJECT_TABLE_LOCATION_ADDRESS);
+        globalVariablesTableAddress = memory.readWord(GLOBAL_VARIABLES_TABLE_LOCATION_ADDRESS);
+        staticMemoryBaseAddress = memory.readWord(STATIC_MEMORY_BASE_ADDRESS);
+        abbreviationsTableAddress = versionNumber >= 2 ? memory.readWord(ABBREVIATIONS_TABLE_ADDRESS) : 0;
+        alphabetTableAddress = versionNumber >= 5 ? memory.readWord(ALPHABET_TABLE_ADDRESS) : 0;
+
+        if (versionNumber >= 6) {
+            routinesOffset = memory.readWord(ROUTINES_OFFSET_ADDRESS);
+            staticStringsOffset = memory.readWord(STATIC_STRINGS_OFFSET_ADDRESS);
+        } else {
+            routinesOffset = 0;
+            staticStringsOffset = 0;
+        }
+
+        if (versionNumber >= 3) {
+            final int multiplier;
+            if (versionNumber <= 3) {
+                multiplier = 2;
+            } else if (versionNumber == 4 || versionNumber == 5) {
+                multiplier = 4;
+            } else {
+                multiplier = 8;
+            }
+            fileLength = multiplier * memory.readWord(FILE_LENGTH_ADDRESS);
+        } else {
+            fileLength = -1;
+        }
     }
 
     /**
-     * Returns the file version number (1 to 6).
+     * Returns the file version number (1 to 8).
      * @return the file version number.
      */
     public byte getVersionNumber() {
-        return (byte) memory.readByte(VERSION_ADDRESS);
+        return versionNumber;
     }
 
     /**
@@ -43,7 +86,7 @@ public final class Header {
      * @return the high memory based address.
      */
     public int getHighMemoryBaseAddress() {
-        return memory.readWord(HIGH_MEMORY_BASE_ADDRESS);
+        return highMemoryBaseAddress;
     }
 
     /**
@@ -53,23 +96,45 @@ public final class Header {
      * @return the program counter initial value.
      */
     public int getProgramCounterInitialValue() {
-        return memory.readWord(PROGRAM_COUNTER_INITIAL_VALUE_ADDRESS);
+        return programCounterInitialValue;
     }
 
     public int getDictionaryAddress() {
-        return memory.readWord(DICTIONARY_LOCATION_ADDRESS);
+        return dictionaryAddress;
     }
 
     public int getObjectTableAddress() {
-        return memory.readWord(OBJECT_TABLE_LOCATION_ADDRESS);
+        return objectTableAddress;
     }
 
     public int getGlobalVariablesTableAddress() {
-        return memory.readWord(GLOBAL_VARIABLES_TABLE_LOCATION_ADDRESS);
+        return globalVariablesTableAddress;
     }
 
     public int getStaticMemoryBaseAddress() {
-        return memory.readWord(STATIC_MEMORY_BASE_ADDRESS);
+        return staticMemoryBaseAddress;
+    }
+
+    /**
+     * Returns the abbreviations table address. Supported on version 2 and above.
+     * @return the abbreviations table address.
+     */
+    public int getAbbreviationsTableAddress() {
+        if (versionNumber < 2) {
+            throw new UnsupportedAccessException(2);
+        }
+        return abbreviationsTableAddress;
+    }
+
+    /**
+     * Returns the address of the custom alphabet table. Supported on version 5 and above.
+     * @return the alphabet table address, 0 for the default alphabets.
+     */
+    public int getAlphabetTableAddress() {
+        if (versionNumber < 5) {
+            throw new UnsupportedAccessException(5);
+        }
+        return alphabetTableAddress;
     }
 
     /**
@@ -79,10 +144,10 @@ public final class Header {
      * @return the routines offset, divided by 8.
      */
     public int getRoutinesOffset() {
-        if (getVersionNumber() < 6) {
+        if (versionNumber < 6) {
             throw new UnsupportedAccessException(6);
         }
-        return memory.readWord(ROUTINES_OFFSET_ADDRESS);
+        return routinesOffset;
     }
 
     /**
@@ -92,10 +157,10 @@ public final class Header {
      * @return the static strings offset, divided by 8.
      */
     public int getStaticStringsOffset() {
-        if (getVersionNumber() < 6) {
+        if (versionNumber < 6) {
             throw new UnsupportedAccessException(6);
         }
-        return memory.readWord(STATIC_STRINGS_OFFSET_ADDRESS);
+        return staticStringsOffset;
     }
 
     /**
@@ -103,19 +168,9 @@ public final class Header {
      * @return the file length of the story.
      */
     public int getFileLength() {
-        if (getVersionNumber() < 3) {
+        if (versionNumber < 3) {
             throw new UnsupportedAccessException(3);
         }
-
-        final int multiplier;
-        if (getVersionNumber() <= 3) {
-            multiplier = 2;
-        } else if (getVersionNumber() == 4 || getVersionNumber() == 5) {
-            multiplier = 4;
-        } else {
-            multiplier = 8;
-        }
-
-        return multiplier * memory.readWord(FILE_LENGTH_ADDRESS);
+        return fileLength;
     }
 }
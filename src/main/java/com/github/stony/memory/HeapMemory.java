@@ -0,0 +1,90 @@
+package com.github.stony.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A memory whose writable part is held in a byte array on the heap. Subclasses read static and high memory from where
+ * the story lives.
+ */
+abstract class HeapMemory extends AbstractMemory {
+    /**
+     * Big-endian view of a byte array as words: a word is read or written with a single access rather than two bytes
+     * put together, at any address.
+     */
+    static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Holds the writable memory, in bytes. Words should be encoded in big endian.
+     * Unless it holds the whole memory, it holds the dynamic memory plus the first static byte, so that a word read at
+     * the last dynamic address doesn't cross memories.
+     */
+    final byte[] rawMemory;
+
+    /**
+     * Constructs a memory.
+     *
+     * @param rawMemory array holding the writable memory.
+     * @param dynamicSize addresses below it are read from the array.
+     * @param writableSize addresses at or above it can't be written.
+     * @param initialMemory initial state of the writable memory, null if unknown.
+     */
+    HeapMemory(byte[] rawMemory, int dynamicSize, int writableSize, byte[] initialMemory) {
+        super(dynamicSize, writableSize, initialMemory);
+        this.rawMemory = rawMemory;
+    }
+
+    @Override
+    public void writeByte(int address, int byteValue) {
+        if (address >= writableSize) {
+            throw new RuntimeException("Write to read-only memory at address " + address);
+        }
+        rawMemory[address] = (byte) byteValue; // no lower bound checking at the moment
+        dirtyPages[address >>> PAGE_SHIFT] = 1;
+        if (address >= watchedAddress) {
+            writeListener.memoryWritten(address, 1);
+        }
+    }
+
+    @Override
+    public void writeWord(int address, int word) {
+        if (address + 1 >= writableSize) {
+            throw new RuntimeException("Write to read-only memory at address " + address);
+        }
+        WORDS.set(rawMemory, address, (short) word);
+        dirtyPages[address >>> PAGE_SHIFT] = 1;
+        dirtyPages[(address + 1) >>> PAGE_SHIFT] = 1;
+        if (address + 1 >= watchedAddress) {
+            writeListener.memoryWritten(address, 2);
+        }
+    }
+
+    @Override
+    public void writeBytes(int address, ByteBuffer in, int length) {
+        if (address + length > writableSize) {
+            throw new RuntimeException("Write to read-only memory at address " + (address + length - 1));
+        }
+        in.get(rawMemory, address, length);
+        markDirty(address, length);
+        if (address + length > watchedAddress) {
+            writeListener.memoryWritten(address, length);
+        }
+    }
+
+    @Override
+    void readWritable(int address, byte[] out, int offset, int length) {
+        System.arraycopy(rawMemory, address, out, offset, length);
+    }
+
+    @Override
+    void writeWritable(int address, byte[] in, int offset, int length) {
+        System.arraycopy(in, offset, rawMemory, address, length);
+    }
+
+    @Override
+    byte[] writableArray() {
+        return rawMemory;
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.stony.memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A memory whose static and high memory are read from a buffer, usually a story file mapped read-only by
+ * {@link StoryImage#map(java.nio.file.Path)}: only the dynamic memory is copied onto the heap, the operating system
+ * pages the rest in as it's read and shares it between processes.
+ */
+public final class MappedMemory extends HeapMemory {
+    /**
+     * The whole story, big endian. Read from dynamicSize to the end.
+     */
+    private final ByteBuffer image;
+
+    /**
+     * Constructs a memory backed by a story buffer. The dynamic memory (below dynamicSize) is copied, the rest is read
+     * directly from the buffer and can't be written.
+     *
+     * @param image story, from index 0; it must not be modified afterwards.
+     * @param dynamicSize size of the dynamic memory (the static memory base address).
+     */
+    public MappedMemory(ByteBuffer image, int dynamicSize) {
+        this(image, initialState(image, dynamicSize), dynamicSize);
+    }
+
+    /**
+     * Constructs a memory backed by a story buffer, sharing the initial state of the dynamic memory with other
+     * memories of the same story.
+     *
+     * @param image story, from index 0.
+     * @param initialMemory initial dynamic memory, see {@link #initialState(ByteBuffer, int)}.
+     * @param dynamicSize size of the dynamic memory.
+     */
+    MappedMemory(ByteBuffer image, byte[] initialMemory, int dynamicSize) {
+        super(initialMemory.clone(), dynamicSize, dynamicSize, initialMemory);
+        this.image = image.duplicate().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Copies the initial state of the dynamic memory, plus the first static byte, from a story buffer.
+     *
+     * @param image story, from index 0.
+     * @param dynamicSize size of the dynamic memory.
+     * @return the bytes.
+     */
+    static byte[] initialState(ByteBuffer image, int dynamicSize) {
+        final byte[] bytes = new byte[Math.min(checkDynamicSize(dynamicSize, image.limit()) + 1, image.limit())];
+        image.get(0, bytes);
+        return bytes;
+    }
+
+    @Override
+    public int readByte(int address) {
+        return (address < dynamicSize ? rawMemory[address] : image.get(address)) & 0xff;
+    }
+
+    @Override
+    public int readSignedByte(int address) {
+        return address < dynamicSize ? rawMemory[address] : image.get(address);
+    }
+
+    @Override
+    public int readWord(int address) {
+        if (address < dynamicSize) {
+            return ((short) WORDS.get(rawMemory, address)) & 0xffff;
+        }
+        return image.getShort(address) & 0xffff;
+    }
+
+    @Override
+    public int readSignedWord(int address) {
+        if (address < dynamicSize) {
+            return (short) WORDS.get(rawMemory, address);
+        }
+        return image.getShort(address);
+    }
+
+    @Override
+    public int getSize() {
+        return image.limit();
+    }
+
+    @Override
+    public void readBytes(int address, ByteBuffer out, int length) {
+        if (address + length <= dynamicSize) {
+            out.put(rawMemory, address, length);
+        } else if (address >= dynamicSize) {
+            out.put(image.slice(address, length));
+        } else {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) readByte(address + i));
+            }
+        }
+    }
+}
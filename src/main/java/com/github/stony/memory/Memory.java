@@ -1,89 +1,173 @@
 package com.github.stony.memory;
 
+import java.nio.ByteBuffer;
+
 /**
  * Z files have three "kinds" of memory: static (which can not be read by the application), dynamic (which can be
  * accessed normally by the application) and high memory.
  * <p>
  * Default read mode is unsigned (readByte and readWord). Signed options are available (readSignedByte and readSignedWord).
  * Writes are sign agnostic.
+ * <p>
+ * {@link ArrayMemory} holds the memory in a byte array, either the whole story or, backed by a shared image, the
+ * dynamic memory only. {@link MappedMemory} reads static and high memory from a memory-mapped story file, see
+ * {@link StoryImage#map(java.nio.file.Path)}.
  */
-public final class Memory {
+public interface Memory {
     /**
-     * Holds the raw memory, in bytes. Words should be encoded in big endian.
+     * Size of the pages tracked for snapshots, see {@link #snapshot()}.
      */
-    private byte[] rawMemory;
-
-    /**
-     * Constructs a memory with a capacity of 512kb.
-     */
-    public Memory() {
-        rawMemory = new byte[512 * 1024];
-    }
-
-    /**
-     * Constructs the memory utilizing a pre-existing byte array.
-     * @param raw byte array to be used as the basis for this memory.
-     */
-    public Memory(byte[] raw) {
-        rawMemory = raw;
-    }
+    int PAGE_SIZE = 256;
 
     /**
      * Writes a byte to the specified address.
      * @param address address.
      * @param byteValue byte.
      */
-    public void writeByte(int address, int byteValue) {
-        rawMemory[address] = (byte) byteValue; // no bounds checking at the moment
-    }
+    void writeByte(int address, int byteValue);
 
     /**
      * Writes a word to the specified address.
      * @param address address.
      * @param word word.
      */
-    public void writeWord(int address, int word) {
-        rawMemory[address] = (byte) ((word >> 8) & 0xff);
-        rawMemory[address + 1] = (byte) (word & 0xff);
-    }
+    void writeWord(int address, int word);
 
     /**
      * Reads an unsigned byte from the specified address.
      * @param address byte's address.
      * @return the unsigned byte present at the address.
      */
-    public int readByte(int address) {
-        return ((int) rawMemory[address]) & 0xff;
-    }
+    int readByte(int address);
 
     /**
      * Reads a signed byte from the specified address.
      * @param address byte's address.
      * @return the signed byte present at the address.
      */
-    public int readSignedByte(int address) {
-        return rawMemory[address];
-    }
+    int readSignedByte(int address);
 
     /**
      * Reads an unsigned word from the specified address.
      * @param address word's address.
      * @return the unsigned word present at the address.
      */
-    public int readWord(int address) {
-        final int unsignedFirstByte = ((int) rawMemory[address]) & 0xff;
-        final int unsignedSecondByte = ((int) rawMemory[address + 1]) & 0xff;
-        return (unsignedFirstByte << 8) | unsignedSecondByte;
-    }
+    int readWord(int address);
 
     /**
      * Reads a signed word from the specified address.
      * @param address word's address.
      * @return the signed word present at the address.
      */
-    public int readSignedWord(int address) {
-        final int signedFirstByte = (int) rawMemory[address];
-        final int unsignedSecondByte = ((int) rawMemory[address + 1]) & 0xff;
-        return (signedFirstByte << 8) | unsignedSecondByte;
+    int readSignedWord(int address);
+
+    /**
+     * Returns the memory size in bytes.
+     * @return the memory size.
+     */
+    int getSize();
+
+    /**
+     * Returns the size of the memory which can be written. The whole memory, unless backed by a shared image.
+     * @return the writable size.
+     */
+    int getWritableSize();
+
+    /**
+     * Copies the first bytes of the memory as its initial state, see {@link #writeChanges(int, byte[], int)}. Must be
+     * called before the memory is written. A memory backed by a shared image already knows its initial state.
+     *
+     * @param size number of bytes to keep, usually the dynamic memory size.
+     */
+    void keepInitialState(int size);
+
+    /**
+     * Writes the changes of the first bytes of the memory since its initial state, in the compressed format of Quetzal
+     * save files: the bytes are XORed with their initial value, and each run of zeros becomes a zero followed by the
+     * run length minus one (up to 256 zeros per run). Trailing zeros are omitted.
+     *
+     * @param length number of bytes to compare, usually the dynamic memory size.
+     * @param out array receiving the changes; it must have at least {@link #maxChangesLength(int)} bytes from the
+     *            offset.
+     * @param offset index of the first byte written.
+     * @return the index following the last byte written.
+     */
+    int writeChanges(int length, byte[] out, int offset);
+
+    /**
+     * Returns the maximum number of bytes written by {@link #writeChanges(int, byte[], int)}: isolated unchanged bytes
+     * take two bytes each.
+     *
+     * @param length number of bytes compared.
+     * @return the maximum length of the changes.
+     */
+    static int maxChangesLength(int length) {
+        return length + (length + 1) / 2;
     }
+
+    /**
+     * Replaces the first bytes of the memory by their initial state plus the changes written by
+     * {@link #writeChanges(int, byte[], int)}. The changes are checked before the memory is modified: invalid changes
+     * leave the memory untouched.
+     *
+     * @param changes array holding the changes.
+     * @param offset index of the first byte of the changes.
+     * @param changesLength length of the changes.
+     * @param length number of bytes to replace, usually the dynamic memory size.
+     * @throws IllegalArgumentException when the changes are invalid or longer than the length.
+     */
+    void readChanges(byte[] changes, int offset, int changesLength, int length);
+
+    /**
+     * Copies bytes to a buffer.
+     *
+     * @param address first address.
+     * @param out buffer receiving the bytes.
+     * @param length number of bytes.
+     */
+    void readBytes(int address, ByteBuffer out, int length);
+
+    /**
+     * Copies bytes from a buffer. Writes in the watched range are reported as a single write.
+     *
+     * @param address first address.
+     * @param in buffer holding the bytes, read from the position.
+     * @param length number of bytes.
+     */
+    void writeBytes(int address, ByteBuffer in, int length);
+
+    /**
+     * Takes a snapshot of the writable memory. The pages written since the previous snapshot taken or restored are
+     * copied, the others are shared with it: the first snapshot copies the whole writable memory, the next ones cost
+     * in proportion to the pages written in between.
+     *
+     * @return the snapshot.
+     */
+    MemorySnapshot snapshot();
+
+    /**
+     * Restores the writable memory from a snapshot of this memory or of another memory of the same story. Only the
+     * pages which differ from the current state are copied: pages written since the last snapshot taken or restored,
+     * and pages not shared between that snapshot and the restored one. Restored pages in the watched range are
+     * reported to the write listener.
+     *
+     * @param snapshot snapshot to restore, which becomes the base of the next snapshot.
+     * @throws IllegalArgumentException when the snapshot doesn't match the size of the memory.
+     */
+    void restore(MemorySnapshot snapshot);
+
+    /**
+     * Returns the number of pages written since the last snapshot taken or restored.
+     * @return the dirty page count.
+     */
+    int getDirtyPageCount();
+
+    /**
+     * Sets the listener notified of writes at or above an address. Writes below the address cost no notification.
+     * There's a single listener, setting a new one replaces the previous.
+     *
+     * @param fromAddress lowest watched address.
+     * @param listener listener to be notified, null to stop watching.
+     */
+    void setWriteListener(int fromAddress, WriteListener listener);
 }
@@ -0,0 +1,19 @@
+package com.github.stony.memory;
+
+/**
+ * Where the dynamic memory of a session is held, see {@link StoryImage#newMemory(MemoryBackend)}. Static and high
+ * memory are always read from the story image.
+ */
+public enum MemoryBackend {
+    /**
+     * A byte array on the heap: {@link ArrayMemory}, or {@link MappedMemory} for a mapped image. The fastest to
+     * create.
+     */
+    HEAP,
+
+    /**
+     * A direct buffer, off the heap: {@link DirectMemory}. Keeps the dynamic memory of many sessions out of the
+     * garbage collected heap.
+     */
+    OFF_HEAP
+}
@@ -0,0 +1,63 @@
+package com.github.stony.memory;
+
+/**
+ * The writable memory at a point in time, taken by {@link Memory#snapshot()}. Immutable.
+ * <p>
+ * The memory is held in pages of {@link Memory#PAGE_SIZE} bytes. Pages not written between two snapshots are shared by
+ * both, so a snapshot only costs its array of page references plus the pages written since the previous snapshot.
+ */
+public final class MemorySnapshot {
+    /* Heap taken by a page: the bytes and the array header */
+    private static final int PAGE_RETAINED_SIZE = Memory.PAGE_SIZE + 16;
+
+    final byte[][] pages;
+    private final int copiedPageCount;
+
+    MemorySnapshot(byte[][] pages, int copiedPageCount) {
+        this.pages = pages;
+        this.copiedPageCount = copiedPageCount;
+    }
+
+    /**
+     * Returns the number of pages.
+     * @return the page count, covering the writable memory.
+     */
+    public int getPageCount() {
+        return pages.length;
+    }
+
+    /**
+     * Returns the number of pages copied when the snapshot was taken, the others being shared with the previous
+     * snapshot.
+     * @return the number of pages owned by this snapshot.
+     */
+    public int getCopiedPageCount() {
+        return copiedPageCount;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the pages shared with another snapshot.
+     *
+     * @param other snapshot of the same memory.
+     * @return the size in bytes of the pages both snapshots hold.
+     */
+    public long getSharedSize(MemorySnapshot other) {
+        final int pageCount = Math.min(pages.length, other.pages.length);
+        int shared = 0;
+        for (int page = 0; page < pageCount; page++) {
+            if (pages[page] == other.pages[page]) {
+                shared++;
+            }
+        }
+        return (long) shared * PAGE_RETAINED_SIZE;
+    }
+
+    /**
+     * Returns an estimate of the heap used by the snapshot: its pages, whether shared or not, and the array of page
+     * references.
+     * @return the size in bytes.
+     */
+    public long getSize() {
+        return (long) pages.length * (PAGE_RETAINED_SIZE + 4) + 16;
+    }
+}
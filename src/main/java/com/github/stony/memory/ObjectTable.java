@@ -0,0 +1,373 @@
+package com.github.stony.memory;
+
+import java.util.Arrays;
+
+/**
+ * Accessor for the object tree: attributes, parent, sibling and child relations, and properties.
+ * <p>
+ * The layout differences between versions 1 to 3 (255 objects, 32 attributes, 9 bytes entries) and versions 4 and
+ * above (65535 objects, 48 attributes, 14 bytes entries) are resolved once, when constructed, into offsets and sizes, so
+ * accessing an object costs no version test.
+ * <p>
+ * Properties are indexed per object on first access: the address of each property's data, by property number, so that
+ * finding a property doesn't walk the property table. An index is rebuilt when the object's property table pointer
+ * changes, and every index is dropped by {@link #invalidate(int, int)} when a write reaches the indexed property tables.
+ * Property values don't affect the index, so put_prop and the tree operations don't invalidate anything.
+ * <p>
+ * The accessor belongs to a single interpreter and is not thread safe.
+ */
+public final class ObjectTable {
+    private final Memory memory;
+    private final int objectTableAddress;
+    private final int maxObject;
+    private final int propertyCount;
+
+    /* Object entries: address of "object 0", entry size and relation offsets */
+    private final int entriesBaseAddress;
+    private final int entrySize;
+    private final int parentOffset;
+    private final int siblingOffset;
+    private final int childOffset;
+    private final int propertiesOffset;
+
+    /* Relations are bytes up to version 3, words afterwards: reading a word and shifting works for both */
+    private final boolean wideRelations;
+    private final int relationShift;
+
+    /* Property headers: one byte up to version 3, one or two bytes afterwards */
+    private final boolean wideProperties;
+    private final int propertyNumberMask;
+
+    /* Property indexes by object: property data addresses by number (0 when absent), valid while the property table
+     * address and the generation match */
+    private int[][] propertyIndexes = new int[0][];
+    private int[] indexedTableAddresses = new int[0];
+    private int[] indexGenerations = new int[0];
+    private int generation = 1;
+
+    /* Range of memory covered by the indexed property tables */
+    private int indexedStart = Integer.MAX_VALUE;
+    private int indexedEnd;
+
+    /**
+     * Constructs the accessor of a story's object table.
+     *
+     * @param memory memory holding the table.
+     * @param header header of the same memory.
+     */
+    public ObjectTable(Memory memory, Header header) {
+        this.memory = memory;
+        this.objectTableAddress = header.getObjectTableAddress();
+        if (header.getVersionNumber() <= 3) {
+            this.maxObject = 0xff;
+            this.propertyCount = 31;
+            this.entrySize = 9;
+            this.parentOffset = 4;
+            this.siblingOffset = 5;
+            this.childOffset = 6;
+            this.propertiesOffset = 7;
+            this.wideRelations = false;
+            this.relationShift = 8;
+            this.wideProperties = false;
+            this.propertyNumberMask = 0x1f;
+        } else {
+            this.maxObject = 0xffff;
+            this.propertyCount = 63;
+            this.entrySize = 14;
+            this.parentOffset = 6;
+            this.siblingOffset = 8;
+            this.childOffset = 10;
+            this.propertiesOffset = 12;
+            this.wideRelations = true;
+            this.relationShift = 0;
+            this.wideProperties = true;
+            this.propertyNumberMask = 0x3f;
+        }
+        /* objects are numbered from 1: the entries start right after the property defaults */
+        this.entriesBaseAddress = objectTableAddress + 2 * propertyCount - entrySize;
+    }
+
+    public int getParent(int object) {
+        return readRelation(object, parentOffset);
+    }
+
+    public int getSibling(int object) {
+        return readRelation(object, siblingOffset);
+    }
+
+    public int getChild(int object) {
+        return readRelation(object, childOffset);
+    }
+
+    /**
+     * Tests an attribute.
+     *
+     * @param object object number.
+     * @param attribute attribute number, from 0.
+     * @return true if the attribute is set.
+     */
+    public boolean hasAttribute(int object, int attribute) {
+        final int address = entryAddress(object) + (attribute >> 3);
+        return (memory.readByte(address) & (0x80 >> (attribute & 0x07))) != 0;
+    }
+
+    /**
+     * Sets or clears an attribute.
+     *
+     * @param object object number.
+     * @param attribute attribute number, from 0.
+     * @param value true to set the attribute, false to clear it.
+     */
+    public void setAttribute(int object, int attribute, boolean value) {
+        final int address = entryAddress(object) + (attribute >> 3);
+        final int mask = 0x80 >> (attribute & 0x07);
+        final int flags = memory.readByte(address);
+        memory.writeByte(address, value ? flags | mask : flags & ~mask);
+    }
+
+    /**
+     * Detaches an object from its parent. Its children move with it.
+     *
+     * @param object object number.
+     */
+    public void remove(int object) {
+        final int parent = getParent(object);
+        if (parent == 0) {
+            return;
+        }
+        final int sibling = getSibling(object);
+        int previous = getChild(parent);
+        if (previous == object) {
+            writeRelation(parent, childOffset, sibling);
+        } else {
+            while (previous != 0) {
+                final int next = getSibling(previous);
+                if (next == object) {
+                    writeRelation(previous, siblingOffset, sibling);
+                    break;
+                }
+                previous = next;
+            }
+        }
+        writeRelation(object, parentOffset, 0);
+        writeRelation(object, siblingOffset, 0);
+    }
+
+    /**
+     * Moves an object to become the first child of the destination.
+     *
+     * @param object object number.
+     * @param destination destination object number.
+     */
+    public void insert(int object, int destination) {
+        remove(object);
+        writeRelation(object, parentOffset, destination);
+        writeRelation(object, siblingOffset, getChild(destination));
+        writeRelation(destination, childOffset, object);
+    }
+
+    /**
+     * Returns the address of the object's short name, a Z-encoded string.
+     *
+     * @param object object number.
+     * @return the address of the short name, 0 if the name is empty.
+     */
+    public int getShortNameAddress(int object) {
+        final int tableAddress = propertyTableAddress(object);
+        return memory.readByte(tableAddress) == 0 ? 0 : tableAddress + 1;
+    }
+
+    /**
+     * Returns a property's value: the property's data if it is one or two bytes long, the default value if the object
+     * doesn't have the property.
+     *
+     * @param object object number.
+     * @param property property number.
+     * @return the property value.
+     * @throws RuntimeException when the property is longer than 2 bytes.
+     */
+    public int getProperty(int object, int property) {
+        final int address = getPropertyAddress(object, property);
+        if (address == 0) {
+            return memory.readWord(objectTableAddress + 2 * (property - 1));
+        }
+        switch (getPropertyLength(address)) {
+            case 1:
+                return memory.readByte(address);
+            case 2:
+                return memory.readWord(address);
+            default:
+                throw new RuntimeException("Property " + property + " of object " + object + " is longer than 2 bytes.");
+        }
+    }
+
+    /**
+     * Writes a property's value.
+     *
+     * @param object object number.
+     * @param property property number.
+     * @param value new value, truncated to a byte for one byte long properties.
+     * @throws RuntimeException when the object doesn't have the property, or when it is longer than 2 bytes.
+     */
+    public void putProperty(int object, int property, int value) {
+        final int address = getPropertyAddress(object, property);
+        if (address == 0) {
+            throw new RuntimeException("Object " + object + " doesn't have property " + property + ".");
+        }
+        switch (getPropertyLength(address)) {
+            case 1:
+                memory.writeByte(address, value);
+                break;
+            case 2:
+                memory.writeWord(address, value);
+                break;
+            default:
+                throw new RuntimeException("Property " + property + " of object " + object + " is longer than 2 bytes.");
+        }
+    }
+
+    /**
+     * Returns the address of a property's data.
+     *
+     * @param object object number.
+     * @param property property number.
+     * @return the address of the data, 0 if the object doesn't have the property.
+     */
+    public int getPropertyAddress(int object, int property) {
+        if (object == 0 || property <= 0 || property > propertyCount) {
+            return 0;
+        }
+        return propertyIndex(object)[property];
+    }
+
+    /**
+     * Returns the length of a property's data, from the data address.
+     *
+     * @param address address of the data, as returned by {@link #getPropertyAddress(int, int)}.
+     * @return the length in bytes, 0 for the address 0.
+     */
+    public int getPropertyLength(int address) {
+        if (address == 0) {
+            return 0;
+        }
+        final int size = memory.readByte(address - 1);
+        if (!wideProperties) {
+            return (size >> 5) + 1;
+        } else if ((size & 0x80) != 0) {
+            final int length = size & 0x3f;
+            return length == 0 ? 64 : length;
+        } else {
+            return (size & 0x40) == 0 ? 1 : 2;
+        }
+    }
+
+    /**
+     * Returns the property following another in the object's property table. Properties are listed in descending
+     * order.
+     *
+     * @param object object number.
+     * @param property property number, 0 for the first property.
+     * @return the next property number, 0 after the last property.
+     * @throws RuntimeException when the object doesn't have the property.
+     */
+    public int getNextProperty(int object, int property) {
+        final int headerAddress;
+        if (property == 0) {
+            final int tableAddress = propertyTableAddress(object);
+            headerAddress = tableAddress + 1 + 2 * memory.readByte(tableAddress);
+        } else {
+            final int address = getPropertyAddress(object, property);
+            if (address == 0) {
+                throw new RuntimeException("Object " + object + " doesn't have property " + property + ".");
+            }
+            headerAddress = address + getPropertyLength(address);
+        }
+        return memory.readByte(headerAddress) & propertyNumberMask;
+    }
+
+    /**
+     * Drops the property indexes if a written range overlaps the indexed property tables. To be called when memory is
+     * written other than through this accessor.
+     *
+     * @param address first written address.
+     * @param length number of written bytes.
+     */
+    public void invalidate(int address, int length) {
+        if (address < indexedEnd && address + length > indexedStart) {
+            generation++;
+            indexedStart = Integer.MAX_VALUE;
+            indexedEnd = 0;
+        }
+    }
+
+    private int entryAddress(int object) {
+        if (object <= 0 || object > maxObject) {
+            throw new RuntimeException("Invalid object: " + object);
+        }
+        return entriesBaseAddress + object * entrySize;
+    }
+
+    private int readRelation(int object, int offset) {
+        if (object == 0) {
+            return 0;
+        }
+        return memory.readWord(entryAddress(object) + offset) >>> relationShift;
+    }
+
+    private void writeRelation(int object, int offset, int value) {
+        final int address = entryAddress(object) + offset;
+        if (wideRelations) {
+            memory.writeWord(address, value);
+        } else {
+            memory.writeByte(address, value);
+        }
+    }
+
+    private int propertyTableAddress(int object) {
+        return memory.readWord(entryAddress(object) + propertiesOffset);
+    }
+
+    /**
+     * Returns the property index of an object, building it if missing or stale.
+     *
+     * @param object object number, not 0.
+     * @return property data addresses by property number.
+     */
+    private int[] propertyIndex(int object) {
+        final int tableAddress = propertyTableAddress(object);
+        if (object < propertyIndexes.length && indexGenerations[object] == generation
+                && indexedTableAddresses[object] == tableAddress) {
+            return propertyIndexes[object];
+        }
+
+        if (object >= propertyIndexes.length) {
+            final int length = Math.min(Math.max(object + 1, propertyIndexes.length * 2), maxObject + 1);
+            propertyIndexes = Arrays.copyOf(propertyIndexes, length);
+            indexedTableAddresses = Arrays.copyOf(indexedTableAddresses, length);
+            indexGenerations = Arrays.copyOf(indexGenerations, length);
+        }
+        int[] index = propertyIndexes[object];
+        if (index == null) {
+            index = new int[propertyCount + 1];
+            propertyIndexes[object] = index;
+        } else {
+            Arrays.fill(index, 0);
+        }
+
+        int address = tableAddress + 1 + 2 * memory.readByte(tableAddress);
+        for (int size = memory.readByte(address); size != 0; size = memory.readByte(address)) {
+            final int headerLength = wideProperties && (size & 0x80) != 0 ? 2 : 1;
+            final int dataAddress = address + headerLength;
+            final int property = size & propertyNumberMask;
+            if (index[property] == 0) {
+                index[property] = dataAddress;
+            }
+            address = dataAddress + getPropertyLength(dataAddress);
+        }
+        indexedStart = Math.min(indexedStart, tableAddress);
+        indexedEnd = Math.max(indexedEnd, address + 1);
+        indexedTableAddresses[object] = tableAddress;
+        indexGenerations[object] = generation;
+        return index;
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.stony.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A story file loaded once and shared, read-only, by any number of interpreters.
+ * <p>
+ * Each interpreter gets a {@link Memory} from {@link #newMemory()} holding a private copy of the dynamic memory only.
+ * Static and high memory are read from the shared image, so a session costs the size of the dynamic memory rather
+ * than the size of the story.
+ * <p>
+ * The image is either a heap copy of the story, see {@link #StoryImage(byte[])}, or the story file mapped read-only,
+ * see {@link #map(Path)}: then only the dynamic memory is read onto the heap, the rest of the file is paged in by the
+ * operating system as the story reads it.
+ */
+public final class StoryImage {
+    /* Exactly one of fileData and mappedData is set */
+    private final byte[] fileData;
+    private final ByteBuffer mappedData;
+
+    /* Initial dynamic memory of a mapped image, copied for each memory */
+    private final byte[] initialMemory;
+
+    private final Header header;
+    private final Dictionary dictionary;
+
+    /**
+     * Constructs a story image from the story file data. The data is copied, later changes to the array have no effect.
+     *
+     * @param fileData story file data.
+     */
+    public StoryImage(byte[] fileData) {
+        this(fileData.clone(), null);
+    }
+
+    private StoryImage(byte[] fileData, ByteBuffer mappedData) {
+        this.fileData = fileData;
+        this.mappedData = mappedData;
+        /* the header and dictionary are read from a read-only view of the whole story */
+        final Memory memory = fileData != null ? new ArrayMemory(fileData) : new MappedMemory(mappedData, 0);
+        this.header = new Header(memory);
+        if (header.getStaticMemoryBaseAddress() > memory.getSize()) {
+            throw new IllegalArgumentException("Static memory base address is beyond the end of the story file.");
+        }
+        this.initialMemory = mappedData != null
+                ? MappedMemory.initialState(mappedData, header.getStaticMemoryBaseAddress()) : null;
+        this.dictionary = dictionary(memory, header);
+    }
+
+    /**
+     * Maps a story file read-only. The file can be closed, moved or deleted afterwards, but must not be modified. The
+     * mapping is released when the image and every memory created from it are garbage collected.
+     *
+     * @param path story file.
+     * @return the story image.
+     * @throws IOException when the file can't be opened or mapped.
+     */
+    public static StoryImage map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return map(channel, 0, channel.size());
+        }
+    }
+
+    /**
+     * Maps a story read-only from a region of a file, for instance the story chunk of a Blorb bundle.
+     *
+     * @param channel file channel, open for reading; it can be closed afterwards.
+     * @param position position of the story in the file.
+     * @param size size of the story, in bytes.
+     * @return the story image.
+     * @throws IOException when the region can't be mapped.
+     */
+    public static StoryImage map(FileChannel channel, long position, long size) throws IOException {
+        return new StoryImage(null, channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+    }
+
+    /**
+     * Returns the header, shared by every memory created from this image.
+     * @return the header.
+     */
+    public Header getHeader() {
+        return header;
+    }
+
+    /**
+     * Returns the index of the story's dictionary, built once and shared by every interpreter created from this image.
+     * @return the dictionary, or null if the story has none.
+     */
+    public Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Builds the index of a story's dictionary.
+     *
+     * @param memory story memory.
+     * @param header story header.
+     * @return the dictionary, or null if the story has none.
+     */
+    public static Dictionary dictionary(Memory memory, Header header) {
+        final int address = header.getDictionaryAddress();
+        return address == 0 ? null : new Dictionary(memory, address, header.getVersionNumber());
+    }
+
+    /**
+     * Returns the size of the dynamic memory, the part copied for each memory.
+     * @return the dynamic memory size, in bytes.
+     */
+    public int getDynamicMemorySize() {
+        return header.getStaticMemoryBaseAddress();
+    }
+
+    /**
+     * Returns the story size.
+     * @return the story size, in bytes.
+     */
+    public int getSize() {
+        return fileData != null ? fileData.length : mappedData.limit();
+    }
+
+    /**
+     * Tells whether the story is read from a mapped file rather than from the heap.
+     * @return true if the image was created by {@link #map(Path)}.
+     */
+    public boolean isMapped() {
+        return mappedData != null;
+    }
+
+    /**
+     * Creates a memory for a new session: a private copy of the dynamic memory, in its initial state, on the heap,
+     * backed by this image for static and high memory.
+     *
+     * @return the new memory.
+     */
+    public Memory newMemory() {
+        return newMemory(MemoryBackend.HEAP);
+    }
+
+    /**
+     * Creates a memory for a new session: a private copy of the dynamic memory, in its initial state, held by a
+     * backend, backed by this image for static and high memory.
+     *
+     * @param backend where the dynamic memory is held.
+     * @return the new memory.
+     */
+    public Memory newMemory(MemoryBackend backend) {
+        switch (backend) {
+            case HEAP:
+                if (mappedData != null) {
+                    return new MappedMemory(mappedData, initialMemory, getDynamicMemorySize());
+                }
+                return new ArrayMemory(fileData, getDynamicMemorySize());
+            case OFF_HEAP:
+                if (mappedData != null) {
+                    return new DirectMemory(mappedData, initialMemory, getDynamicMemorySize());
+                }
+                return new DirectMemory(ByteBuffer.wrap(fileData), fileData, getDynamicMemorySize());
+            default:
+                throw new IllegalArgumentException("Unknown memory backend: " + backend);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.stony.memory;
+
+/**
+ * Notified when memory at or above a watched address is written.
+ *
+ * @see Memory#setWriteListener(int, WriteListener)
+ */
+public interface WriteListener {
+    /**
+     * Called after memory has been written.
+     *
+     * @param address first written address.
+     * @param length number of written bytes.
+     */
+    void memoryWritten(int address, int length);
+}
@@ -0,0 +1,273 @@
+package com.github.stony.output;
+
+import com.github.stony.memory.DynamicHeader;
+import com.github.stony.memory.Memory;
+
+import java.io.OutputStream;
+
+/**
+ * The Z-Machine output streams:
+ * <ol>
+ *   <li>screen, the caller's output stream;</li>
+ *   <li>transcript, controlled by the story through flags 2 and written to an optional stream;</li>
+ *   <li>memory, a table in dynamic memory. While selected, no other stream receives output;</li>
+ *   <li>command script, receiving the player's input lines, written to an optional stream.</li>
+ * </ol>
+ * Characters are ZSCII, converted to UTF-8 for the screen and transcript streams. Those are buffered, and only written
+ * when the buffer is full or on {@link #flush()}: the interpreter flushes when the story waits for input, quits or
+ * fails. Printing never allocates.
+ */
+public final class Output {
+    public static final int SCREEN = 1;
+    public static final int TRANSCRIPT = 2;
+    public static final int MEMORY = 3;
+    public static final int COMMAND_SCRIPT = 4;
+
+    /**
+     * Maximum nesting of memory streams.
+     */
+    public static final int MAX_MEMORY_STREAMS = 16;
+
+    private static final int ZSCII_NEWLINE = 13;
+
+    /* Default translation of ZSCII 155 to 223 */
+    private static final String DEFAULT_EXTRA_CHARACTERS =
+            "\u00e4\u00f6\u00fc\u00c4\u00d6\u00dc\u00df\u00bb\u00ab\u00eb\u00ef\u00ff"
+            + "\u00cb\u00cf\u00e1\u00e9\u00ed\u00f3\u00fa\u00fd\u00c1\u00c9\u00cd\u00d3"
+            + "\u00da\u00dd\u00e0\u00e8\u00ec\u00f2\u00f9\u00c0\u00c8\u00cc\u00d2\u00d9"
+            + "\u00e2\u00ea\u00ee\u00f4\u00fb\u00c2\u00ca\u00ce\u00d4\u00db\u00e5\u00c5"
+            + "\u00f8\u00d8\u00e3\u00f1\u00f5\u00c3\u00d1\u00d5\u00e6\u00c6\u00e7\u00c7"
+            + "\u00fe\u00f0\u00de\u00d0\u00a3\u0153\u0152\u00a1\u00bf";
+
+    private final Memory memory;
+    private final DynamicHeader dynamicHeader;
+    private final OutputBuffer screen;
+    private OutputBuffer transcript;
+    private OutputBuffer commandScript;
+    private boolean screenSelected = true;
+    private boolean commandScriptSelected;
+
+    /* Memory streams: table addresses and character counts, innermost last */
+    private final int[] memoryTables = new int[MAX_MEMORY_STREAMS];
+    private final int[] memoryLengths = new int[MAX_MEMORY_STREAMS];
+    private int memoryDepth;
+
+    /* Digits of the number being printed, least significant first */
+    private final byte[] digits = new byte[10];
+
+    /**
+     * Constructs the output streams. Only the screen is selected.
+     *
+     * @param memory memory holding the memory stream tables.
+     * @param dynamicHeader header holding the transcript flag.
+     * @param screenStream stream receiving the screen output.
+     */
+    public Output(Memory memory, DynamicHeader dynamicHeader, OutputStream screenStream) {
+        this.memory = memory;
+        this.dynamicHeader = dynamicHeader;
+        this.screen = new OutputBuffer(screenStream);
+    }
+
+    /**
+     * Sets the stream receiving the transcript, while the story has transcripting on.
+     * @param transcriptStream transcript stream, null to discard the transcript.
+     */
+    public void setTranscriptStream(OutputStream transcriptStream) {
+        flush(transcript);
+        transcript = transcriptStream == null ? null : new OutputBuffer(transcriptStream);
+    }
+
+    /**
+     * Sets the stream receiving the player's input, while the command script stream is selected.
+     * @param commandScriptStream command script stream, null to discard the input.
+     */
+    public void setCommandScriptStream(OutputStream commandScriptStream) {
+        flush(commandScript);
+        commandScript = commandScriptStream == null ? null : new OutputBuffer(commandScriptStream);
+    }
+
+    /**
+     * Prints a ZSCII character to the selected streams. 13 is a line break, 0 prints nothing.
+     *
+     * @param zscii ZSCII character.
+     */
+    public void print(int zscii) {
+        if (memoryDepth > 0) {
+            final int index = memoryDepth - 1;
+            memory.writeByte(memoryTables[index] + 2 + memoryLengths[index]++, zscii);
+            return;
+        }
+        if (zscii == 0) {
+            return;
+        }
+        final char c = toUnicode(zscii);
+        if (screenSelected) {
+            screen.put(c);
+        }
+        if (transcript != null && dynamicHeader.isTranscripting()) {
+            transcript.put(c);
+        }
+    }
+
+    /**
+     * Prints a line break.
+     */
+    public void newLine() {
+        print(ZSCII_NEWLINE);
+    }
+
+    /**
+     * Prints a signed number in decimal.
+     *
+     * @param number number to be printed.
+     */
+    public void printNumber(int number) {
+        if (number < 0) {
+            print('-');
+        }
+        /* not negated: remainders keep the sign of the number, so that Integer.MIN_VALUE works too */
+        int count = 0;
+        int value = number;
+        do {
+            digits[count++] = (byte) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            print(digits[--count]);
+        }
+    }
+
+    /**
+     * Writes a line of player input to the command script stream, if selected.
+     *
+     * @param line input line, without the line break.
+     */
+    public void printInput(String line) {
+        if (commandScriptSelected && commandScript != null) {
+            for (int i = 0; i < line.length(); i++) {
+                commandScript.put(line.charAt(i));
+            }
+            commandScript.put('\n');
+        }
+    }
+
+    /**
+     * Selects an output stream. The memory stream is selected with {@link #selectMemory(int)}.
+     *
+     * @param stream stream number, 1, 2 or 4.
+     */
+    public void select(int stream) {
+        switch (stream) {
+            case SCREEN:
+                screenSelected = true;
+                break;
+            case TRANSCRIPT:
+                dynamicHeader.setFlags2(dynamicHeader.getFlags2() | 0x01);
+                break;
+            case COMMAND_SCRIPT:
+                commandScriptSelected = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid output stream: " + stream);
+        }
+    }
+
+    /**
+     * Selects the memory stream. Output goes to the table until it is deselected, the count of characters being
+     * written to its first word then. Memory streams nest: selecting again saves the current table.
+     *
+     * @param tableAddress address of the table.
+     * @throws RuntimeException when more than {@link #MAX_MEMORY_STREAMS} memory streams are selected.
+     */
+    public void selectMemory(int tableAddress) {
+        if (memoryDepth == MAX_MEMORY_STREAMS) {
+            throw new RuntimeException("Too many nested memory streams: the limit is " + MAX_MEMORY_STREAMS + ".");
+        }
+        memoryTables[memoryDepth] = tableAddress;
+        memoryLengths[memoryDepth] = 0;
+        memoryDepth++;
+    }
+
+    /**
+     * Deselects an output stream. Deselecting the memory stream ends the innermost table.
+     *
+     * @param stream stream number, 1 to 4.
+     */
+    public void deselect(int stream) {
+        switch (stream) {
+            case SCREEN:
+                screenSelected = false;
+                break;
+            case TRANSCRIPT:
+                dynamicHeader.setFlags2(dynamicHeader.getFlags2() & ~0x01);
+                flush(transcript);
+                break;
+            case MEMORY:
+                if (memoryDepth > 0) {
+                    memoryDepth--;
+                    memory.writeWord(memoryTables[memoryDepth], memoryLengths[memoryDepth]);
+                }
+                break;
+            case COMMAND_SCRIPT:
+                commandScriptSelected = false;
+                flush(commandScript);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid output stream: " + stream);
+        }
+    }
+
+    /**
+     * Returns whether an output stream is selected.
+     *
+     * @param stream stream number, 1 to 4.
+     * @return true if selected.
+     */
+    public boolean isSelected(int stream) {
+        switch (stream) {
+            case SCREEN:
+                return screenSelected;
+            case TRANSCRIPT:
+                return dynamicHeader.isTranscripting();
+            case MEMORY:
+                return memoryDepth > 0;
+            case COMMAND_SCRIPT:
+                return commandScriptSelected;
+            default:
+                throw new IllegalArgumentException("Invalid output stream: " + stream);
+        }
+    }
+
+    /**
+     * Writes the buffered output of the screen, transcript and command script streams and flushes them.
+     */
+    public void flush() {
+        screen.flush();
+        flush(transcript);
+        flush(commandScript);
+    }
+
+    private static void flush(OutputBuffer buffer) {
+        if (buffer != null) {
+            buffer.flush();
+        }
+    }
+
+    /**
+     * Converts an output ZSCII character to Unicode.
+     *
+     * @param zscii ZSCII character.
+     * @return the Unicode character, '?' when the character can't be printed.
+     */
+    static char toUnicode(int zscii) {
+        if (zscii >= 32 && zscii <= 126) {
+            return (char) zscii;
+        } else if (zscii == ZSCII_NEWLINE) {
+            return '\n';
+        } else if (zscii >= 155 && zscii < 155 + DEFAULT_EXTRA_CHARACTERS.length()) {
+            return DEFAULT_EXTRA_CHARACTERS.charAt(zscii - 155);
+        } else {
+            return '?';
+        }
+    }
+}
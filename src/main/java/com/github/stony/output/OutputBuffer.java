@@ -0,0 +1,91 @@
+package com.github.stony.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Byte buffer in front of an output stream, encoding characters to UTF-8. The stream is only written when the buffer is
+ * full or flushed, and printing never allocates.
+ */
+final class OutputBuffer {
+    static final int DEFAULT_CAPACITY = 8192;
+
+    private final OutputStream outputStream;
+    private final byte[] buffer;
+    private int size;
+
+    OutputBuffer(OutputStream outputStream) {
+        this(outputStream, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a buffer.
+     *
+     * @param outputStream stream receiving the bytes.
+     * @param capacity buffer size in bytes, at least 3 (one UTF-8 encoded character).
+     */
+    OutputBuffer(OutputStream outputStream, int capacity) {
+        if (capacity < 3) {
+            throw new IllegalArgumentException("Invalid output buffer capacity: " + capacity);
+        }
+        this.outputStream = outputStream;
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Appends a character, encoded in UTF-8.
+     *
+     * @param c character from the basic multilingual plane.
+     */
+    void put(char c) {
+        if (size > buffer.length - 3) {
+            drain();
+        }
+        if (c < 0x80) {
+            buffer[size++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[size++] = (byte) (0xc0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        } else {
+            buffer[size++] = (byte) (0xe0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            buffer[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+    }
+
+    /**
+     * Returns the number of bytes waiting to be written.
+     * @return the buffered byte count.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Writes the buffered bytes and flushes the stream.
+     */
+    void flush() {
+        drain();
+        try {
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("Error while writing to output stream.", e);
+        }
+    }
+
+    /**
+     * Writes the buffered bytes, without flushing the stream.
+     */
+    private void drain() {
+        if (size == 0) {
+            return;
+        }
+        try {
+            outputStream.write(buffer, 0, size);
+        } catch (IOException e) {
+            throw new RuntimeException("Error while writing to output stream.", e);
+        } finally {
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.stony.text;
+
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+
+import java.util.Arrays;
+
+/**
+ * The three alphabets of Z-characters 6 to 31: the default ones for the story's version, or the custom alphabet table
+ * from version 5.
+ */
+final class Alphabets {
+    static final int ZSCII_NEWLINE = 13;
+
+    private static final String ALPHABET_0 = "abcdefghijklmnopqrstuvwxyz";
+    private static final String ALPHABET_1 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    /* Z-character 6 of alphabet 2 is the ZSCII escape, never looked up. From version 2, Z-character 7 is a new line */
+    private static final String ALPHABET_2_V1 = " 0123456789.,!?_#'\"/\\<-:()";
+    private static final String ALPHABET_2 = " \r0123456789.,!?_#'\"/\\-:()";
+
+    /* ZSCII of Z-characters 6 to 31, alphabet 0, then 1, then 2 */
+    private final char[] characters = new char[3 * 26];
+
+    /* alphabet * 32 + Z-character of each ZSCII character up to 255, -1 when it must be escaped */
+    private final int[] zCharacters = new int[256];
+
+    Alphabets(Memory memory, Header header) {
+        final int version = header.getVersionNumber();
+        final int alphabetTableAddress = version >= 5 ? header.getAlphabetTableAddress() : 0;
+        if (alphabetTableAddress != 0) {
+            for (int i = 0; i < characters.length; i++) {
+                characters[i] = (char) memory.readByte(alphabetTableAddress + i);
+            }
+            characters[2 * 26 + 1] = ZSCII_NEWLINE; /* a custom alphabet can't change the new line */
+        } else {
+            final String alphabet2 = version == 1 ? ALPHABET_2_V1 : ALPHABET_2;
+            (ALPHABET_0 + ALPHABET_1 + alphabet2).getChars(0, characters.length, characters, 0);
+        }
+
+        Arrays.fill(zCharacters, -1);
+        /* backwards, so that a character found in several alphabets gets the lowest one; never the escape */
+        for (int i = characters.length - 1; i >= 0; i--) {
+            if (i != 2 * 26 && characters[i] < zCharacters.length) {
+                zCharacters[characters[i]] = (i / 26) * 32 + i % 26 + 6;
+            }
+        }
+    }
+
+    /**
+     * Returns the ZSCII character of a Z-character.
+     *
+     * @param alphabet alphabet, 0 to 2.
+     * @param z Z-character, 7 to 31 (6 also in alphabets 0 and 1).
+     * @return the ZSCII character.
+     */
+    char get(int alphabet, int z) {
+        return characters[alphabet * 26 + z - 6];
+    }
+
+    /**
+     * Finds a ZSCII character in the alphabets.
+     *
+     * @param zscii ZSCII character.
+     * @return alphabet * 32 + Z-character, or -1 if the character is in no alphabet.
+     */
+    int find(int zscii) {
+        return zscii < zCharacters.length ? zCharacters[zscii] : -1;
+    }
+}
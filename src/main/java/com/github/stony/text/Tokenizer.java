@@ -0,0 +1,185 @@
+package com.github.stony.text;
+
+import com.github.stony.memory.Dictionary;
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+
+/**
+ * Splits the text buffer of sread, aread and tokenise into words, looks them up in a dictionary and writes the parse
+ * buffer. Words are encoded and written straight to memory: tokenizing never allocates, except to index a dictionary
+ * for the first time.
+ * <p>
+ * The story's dictionary is indexed once, when the story is loaded. Other dictionaries passed to tokenise are indexed on
+ * first use; the indexes of dictionaries in static memory are kept, those in dynamic memory are rebuilt on every call
+ * since the story may have changed them.
+ * <p>
+ * The tokenizer belongs to a single interpreter and is not thread safe.
+ */
+public final class Tokenizer {
+    /**
+     * Maximum number of cached indexes of dictionaries other than the story's.
+     */
+    public static final int MAX_CACHED_DICTIONARIES = 8;
+
+    private final Memory memory;
+    private final int version;
+    private final int staticMemoryBaseAddress;
+    private final Alphabets alphabets;
+    private final Dictionary storyDictionary;
+
+    /* Indexes of other dictionaries in static memory, replaced round-robin */
+    private final Dictionary[] dictionaries = new Dictionary[MAX_CACHED_DICTIONARIES];
+    private int nextDictionary;
+
+    /* Z-characters of the word being encoded: 6 or 9, plus the longest overflow of a single character (escape) */
+    private final int[] zCharacters = new int[9 + 3];
+
+    /**
+     * Constructs a tokenizer.
+     *
+     * @param memory memory holding the text and parse buffers.
+     * @param header header of the same memory.
+     * @param storyDictionary index of the story's dictionary, null if the story has none.
+     */
+    public Tokenizer(Memory memory, Header header, Dictionary storyDictionary) {
+        this.memory = memory;
+        this.version = header.getVersionNumber();
+        this.staticMemoryBaseAddress = header.getStaticMemoryBaseAddress();
+        this.alphabets = new Alphabets(memory, header);
+        this.storyDictionary = storyDictionary;
+    }
+
+    /**
+     * Tokenizes a text buffer into a parse buffer.
+     * <p>
+     * Each word gets a 4 bytes block in the parse buffer: address of its dictionary entry (0 if not found), length
+     * and position in the text buffer.
+     *
+     * @param textBufferAddress text buffer, as filled by sread or aread.
+     * @param parseBufferAddress parse buffer, whose first byte holds the maximum number of words.
+     * @param dictionaryAddress dictionary to look the words up in, 0 for the story's dictionary.
+     * @param skipUnknownWords true to leave the blocks of words not in the dictionary untouched.
+     */
+    public void tokenize(int textBufferAddress, int parseBufferAddress, int dictionaryAddress,
+                         boolean skipUnknownWords) {
+        final Dictionary dictionary = dictionary(dictionaryAddress);
+        final int start;
+        final int end;
+        if (version <= 4) {
+            start = textBufferAddress + 1;
+            int address = start;
+            while (memory.readByte(address) != 0) {
+                address++;
+            }
+            end = address;
+        } else {
+            start = textBufferAddress + 2;
+            end = start + memory.readByte(textBufferAddress + 1);
+        }
+
+        final int maxWords = memory.readByte(parseBufferAddress);
+        int wordCount = 0;
+        int address = start;
+        while (address < end && wordCount < maxWords) {
+            final int c = memory.readByte(address);
+            if (c == ' ') {
+                address++;
+                continue;
+            }
+            int wordEnd = address + 1;
+            if (!dictionary.isSeparator(c)) {
+                while (wordEnd < end) {
+                    final int next = memory.readByte(wordEnd);
+                    if (next == ' ' || dictionary.isSeparator(next)) {
+                        break;
+                    }
+                    wordEnd++;
+                }
+            }
+
+            final int entryAddress = dictionary.lookup(encode(address, wordEnd - address, dictionary.getKeyLength()));
+            if (entryAddress != 0 || !skipUnknownWords) {
+                final int block = parseBufferAddress + 2 + 4 * wordCount;
+                memory.writeWord(block, entryAddress);
+                memory.writeByte(block + 2, wordEnd - address);
+                memory.writeByte(block + 3, address - textBufferAddress);
+            }
+            wordCount++;
+            address = wordEnd;
+        }
+        memory.writeByte(parseBufferAddress + 1, wordCount);
+    }
+
+    /**
+     * Encodes a word the way dictionary entries are: truncated to 6 or 9 Z-characters, padded with 5s.
+     *
+     * @param address address of the word's first ZSCII character.
+     * @param length length of the word.
+     * @param keyLength encoded length in bytes, 4 or 6.
+     * @return the encoded text as a big-endian number.
+     */
+    long encode(int address, int length, int keyLength) {
+        final int zCharacterCount = keyLength / 2 * 3;
+        int count = 0;
+        for (int i = 0; i < length && count < zCharacterCount; i++) {
+            final int zscii = memory.readByte(address + i);
+            final int found = alphabets.find(zscii);
+            if (found < 0) {
+                zCharacters[count++] = shift(2);
+                zCharacters[count++] = 6;
+                zCharacters[count++] = zscii >> 5;
+                zCharacters[count++] = zscii & 0x1f;
+            } else {
+                final int alphabet = found >> 5;
+                if (alphabet != 0) {
+                    zCharacters[count++] = shift(alphabet);
+                }
+                zCharacters[count++] = found & 0x1f;
+            }
+        }
+        while (count < zCharacterCount) {
+            zCharacters[count++] = 5;
+        }
+
+        long key = 0;
+        for (int i = 0; i < zCharacterCount; i += 3) {
+            int word = (zCharacters[i] << 10) | (zCharacters[i + 1] << 5) | zCharacters[i + 2];
+            if (i + 3 == zCharacterCount) {
+                word |= 0x8000;
+            }
+            key = (key << 16) | word;
+        }
+        return key;
+    }
+
+    /**
+     * Returns the Z-character shifting to an alphabet for the next character.
+     *
+     * @param alphabet alphabet 1 or 2.
+     * @return the shift Z-character.
+     */
+    private int shift(int alphabet) {
+        return version <= 2 ? alphabet + 1 : alphabet + 3;
+    }
+
+    private Dictionary dictionary(int dictionaryAddress) {
+        if (dictionaryAddress == 0 || storyDictionary != null && dictionaryAddress == storyDictionary.getAddress()) {
+            if (storyDictionary == null) {
+                throw new RuntimeException("The story has no dictionary.");
+            }
+            return storyDictionary;
+        }
+        if (dictionaryAddress < staticMemoryBaseAddress) {
+            return new Dictionary(memory, dictionaryAddress, version);
+        }
+        for (Dictionary dictionary : dictionaries) {
+            if (dictionary != null && dictionary.getAddress() == dictionaryAddress) {
+                return dictionary;
+            }
+        }
+        final Dictionary dictionary = new Dictionary(memory, dictionaryAddress, version);
+        dictionaries[nextDictionary] = dictionary;
+        nextDictionary = (nextDictionary + 1) % dictionaries.length;
+        return dictionary;
+    }
+}
@@ -0,0 +1,258 @@
+package com.github.stony.text;
+
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+import com.github.stony.output.Output;
+
+import java.util.Arrays;
+
+/**
+ * Decodes Z-encoded strings (three 5 bits Z-characters per word) to ZSCII.
+ * <p>
+ * Strings in static and high memory can't change, so their decoded ZSCII is kept in a bounded cache keyed by address.
+ * The cache is direct-mapped: a string replaces whatever string had the same slot, and looking up never allocates.
+ * Expanded abbreviations are cached too. Strings in dynamic memory are decoded every time.
+ * <p>
+ * The decoder belongs to a single interpreter and is not thread safe.
+ */
+public final class ZStringDecoder {
+    /**
+     * Default number of cached strings.
+     */
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private static final int ABBREVIATION_COUNT = 96;
+
+    /* Decoding states, for the Z-characters following an abbreviation or an escape */
+    private static final int CHARACTER = 0;
+    private static final int ABBREVIATION = 1;
+    private static final int ESCAPE_HIGH = 2;
+    private static final int ESCAPE_LOW = 3;
+
+    private final Memory memory;
+    private final int version;
+    private final int abbreviationsTableAddress;
+    private final int staticMemoryBaseAddress;
+    private final Alphabets alphabets;
+
+    /* String cache: address (-1 for empty slots), decoded ZSCII and encoded length in bytes */
+    private final int[] cachedAddresses;
+    private final char[][] cachedStrings;
+    private final int[] cachedLengths;
+    private final int cacheShift;
+    private final char[][] abbreviations = new char[ABBREVIATION_COUNT][];
+
+    private long hits;
+    private long misses;
+    private long abbreviationHits;
+    private long abbreviationMisses;
+
+    /* Decoded ZSCII of strings which aren't cached */
+    private char[] scratch = new char[256];
+    private int scratchSize;
+
+    /**
+     * Constructs a decoder with the default cache size.
+     *
+     * @param memory memory holding the strings.
+     * @param header header of the same memory.
+     */
+    public ZStringDecoder(Memory memory, Header header) {
+        this(memory, header, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Constructs a decoder.
+     *
+     * @param memory memory holding the strings.
+     * @param header header of the same memory.
+     * @param cacheSize maximum number of cached strings, a power of two (at least 2).
+     */
+    public ZStringDecoder(Memory memory, Header header, int cacheSize) {
+        if (cacheSize < 2 || Integer.bitCount(cacheSize) != 1) {
+            throw new IllegalArgumentException("Cache size must be a power of two, at least 2: " + cacheSize);
+        }
+        this.memory = memory;
+        this.version = header.getVersionNumber();
+        this.abbreviationsTableAddress = version >= 2 ? header.getAbbreviationsTableAddress() : 0;
+        this.staticMemoryBaseAddress = header.getStaticMemoryBaseAddress();
+        this.cachedAddresses = new int[cacheSize];
+        this.cachedStrings = new char[cacheSize][];
+        this.cachedLengths = new int[cacheSize];
+        this.cacheShift = 32 - Integer.numberOfTrailingZeros(cacheSize);
+        Arrays.fill(cachedAddresses, -1);
+        this.alphabets = new Alphabets(memory, header);
+    }
+
+    /**
+     * Prints a string.
+     *
+     * @param address byte address of the string.
+     * @param output output receiving the ZSCII characters.
+     * @return the length of the encoded string in bytes.
+     */
+    public int print(int address, Output output) {
+        final char[] text;
+        final int size;
+        final int length;
+        if (address >= staticMemoryBaseAddress) {
+            final int slot = (address * 0x9e3779b9) >>> cacheShift;
+            if (cachedAddresses[slot] == address) {
+                hits++;
+            } else {
+                misses++;
+                scratchSize = 0;
+                cachedLengths[slot] = decode(address, true);
+                cachedStrings[slot] = Arrays.copyOf(scratch, scratchSize);
+                cachedAddresses[slot] = address;
+            }
+            text = cachedStrings[slot];
+            size = text.length;
+            length = cachedLengths[slot];
+        } else {
+            scratchSize = 0;
+            length = decode(address, true);
+            text = scratch;
+            size = scratchSize;
+        }
+
+        for (int i = 0; i < size; i++) {
+            output.print(text[i]);
+        }
+        return length;
+    }
+
+    /**
+     * Decodes a string to a Java string, bypassing the cache. Characters are ZSCII, 13 being a new line.
+     *
+     * @param address byte address of the string.
+     * @return the decoded string.
+     */
+    public String decode(int address) {
+        scratchSize = 0;
+        decode(address, true);
+        return new String(scratch, 0, scratchSize);
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getAbbreviationHits() {
+        return abbreviationHits;
+    }
+
+    public long getAbbreviationMisses() {
+        return abbreviationMisses;
+    }
+
+    /**
+     * Decodes a string, appending its ZSCII characters to the scratch buffer.
+     *
+     * @param address byte address of the string.
+     * @param abbreviationsAllowed false when decoding an abbreviation, which can't contain abbreviations.
+     * @return the length of the encoded string in bytes.
+     */
+    private int decode(int address, boolean abbreviationsAllowed) {
+        int state = CHARACTER;
+        int abbreviationSet = 0;
+        int escapeHigh = 0;
+        int lockedAlphabet = 0;
+        int alphabet = 0;
+        int offset = 0;
+        int word;
+        do {
+            word = memory.readWord(address + offset);
+            offset += 2;
+            for (int shift = 10; shift >= 0; shift -= 5) {
+                final int z = (word >> shift) & 0x1f;
+                switch (state) {
+                    case ABBREVIATION:
+                        appendAbbreviation(32 * (abbreviationSet - 1) + z);
+                        state = CHARACTER;
+                        continue;
+                    case ESCAPE_HIGH:
+                        escapeHigh = z;
+                        state = ESCAPE_LOW;
+                        continue;
+                    case ESCAPE_LOW:
+                        append((char) ((escapeHigh << 5) | z));
+                        state = CHARACTER;
+                        continue;
+                    default:
+                        break;
+                }
+
+                if (z == 0) {
+                    append(' ');
+                    alphabet = lockedAlphabet;
+                } else if (isAbbreviation(z)) {
+                    if (!abbreviationsAllowed) {
+                        throw new RuntimeException("Abbreviation inside an abbreviation at address " + address + ".");
+                    }
+                    abbreviationSet = z;
+                    state = ABBREVIATION;
+                    alphabet = lockedAlphabet;
+                } else if (z == 1) {
+                    append((char) Alphabets.ZSCII_NEWLINE); /* version 1 */
+                } else if (z <= 5) {
+                    if (version >= 3) {
+                        alphabet = z - 3; /* 4: alphabet 1, 5: alphabet 2, for the next character */
+                    } else if (z <= 3) {
+                        alphabet = (lockedAlphabet + z - 1) % 3; /* 2: next alphabet, 3: previous alphabet */
+                    } else {
+                        lockedAlphabet = (lockedAlphabet + z - 3) % 3;
+                        alphabet = lockedAlphabet;
+                    }
+                } else {
+                    if (alphabet == 2 && z == 6) {
+                        state = ESCAPE_HIGH;
+                    } else {
+                        append(alphabets.get(alphabet, z));
+                    }
+                    alphabet = lockedAlphabet;
+                }
+            }
+        } while ((word & 0x8000) == 0);
+        return offset;
+    }
+
+    private boolean isAbbreviation(int z) {
+        return version >= 3 ? z <= 3 : version == 2 && z == 1;
+    }
+
+    /**
+     * Appends an abbreviation, decoding it on first use.
+     *
+     * @param index abbreviation number (0 to 95).
+     */
+    private void appendAbbreviation(int index) {
+        final char[] abbreviation = abbreviations[index];
+        if (abbreviation != null) {
+            abbreviationHits++;
+            for (char c : abbreviation) {
+                append(c);
+            }
+            return;
+        }
+
+        abbreviationMisses++;
+        final int address = 2 * memory.readWord(abbreviationsTableAddress + 2 * index); /* word address */
+        final int start = scratchSize;
+        decode(address, false);
+        if (address >= staticMemoryBaseAddress) {
+            abbreviations[index] = Arrays.copyOfRange(scratch, start, scratchSize);
+        }
+    }
+
+    private void append(char zscii) {
+        if (scratchSize == scratch.length) {
+            scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        }
+        scratch[scratchSize++] = zscii;
+    }
+}
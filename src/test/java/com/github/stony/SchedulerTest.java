@@ -0,0 +1,77 @@
+package com.github.stony;
+
+import com.github.stony.interpreter.ExecutionStatus;
+import com.github.stony.interpreter.Interpreter;
+import com.github.stony.memory.StoryImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SchedulerTest {
+    private static Interpreter interpreter(StoryImage storyImage) {
+        return new Interpreter(storyImage, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void runawayStoriesShouldNotStarveOthers() throws Exception {
+        final StoryImage spin = SessionHostTest.storyImage("/stories/run/spin.z3");
+        final StoryImage fib = SessionHostTest.storyImage("/stories/call/fib.z3");
+        final Scheduler scheduler = new Scheduler(2, 1000, 0);
+        final ConcurrentMap<Interpreter, ExecutionStatus> statuses = new ConcurrentHashMap<>();
+        final int sessionCount = 50;
+        final CountDownLatch finished = new CountDownLatch(sessionCount);
+        final Scheduler.Listener listener = new Scheduler.Listener() {
+            @Override
+            public void stopped(Interpreter interpreter, ExecutionStatus status) {
+                statuses.put(interpreter, status);
+                finished.countDown();
+            }
+        };
+
+        /* more runaway stories than worker threads */
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit(interpreter(spin), listener);
+        }
+        for (int i = 0; i < sessionCount; i++) {
+            scheduler.submit(interpreter(fib), listener);
+        }
+
+        Assert.assertTrue(finished.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(sessionCount, statuses.size());
+        for (Interpreter interpreter : statuses.keySet()) {
+            Assert.assertEquals(ExecutionStatus.FINISHED, statuses.get(interpreter));
+            Assert.assertEquals("6765", interpreter.getOutputStream().toString());
+        }
+        Assert.assertEquals(4, scheduler.getScheduledCount());
+
+        scheduler.shutdown();
+        Assert.assertTrue(scheduler.awaitTermination(30, TimeUnit.SECONDS));
+        Assert.assertEquals(0, scheduler.getScheduledCount());
+    }
+
+    @Test
+    public void failingStoriesShouldBeReported() throws Exception {
+        final Scheduler scheduler = new Scheduler(1);
+        final Interpreter interpreter = interpreter(SessionHostTest.storyImage("/stories/run/error.z3"));
+        final CountDownLatch stopped = new CountDownLatch(1);
+        final ExecutionStatus[] status = new ExecutionStatus[1];
+        scheduler.submit(interpreter, new Scheduler.Listener() {
+            @Override
+            public void stopped(Interpreter interpreter, ExecutionStatus executionStatus) {
+                status[0] = executionStatus;
+                stopped.countDown();
+            }
+        });
+
+        Assert.assertTrue(stopped.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(ExecutionStatus.ERROR, status[0]);
+        Assert.assertNotNull(interpreter.getError());
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.stony;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SessionExecutorTest {
+    private static final int SESSION_COUNT = 10_000;
+
+    /**
+     * Input stream fed by the test, one line at a time. Reading blocks until a line is available.
+     */
+    private static final class ScriptedInputStream extends InputStream {
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> lines = new LinkedBlockingQueue<>();
+        private final AtomicInteger waiting;
+        private byte[] line = new byte[0];
+        private int position;
+
+        ScriptedInputStream(AtomicInteger waiting) {
+            this.waiting = waiting;
+        }
+
+        void send(String text) {
+            lines.add(text.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void end() {
+            lines.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (line == END) {
+                return -1;
+            }
+            if (position == line.length) {
+                waiting.incrementAndGet();
+                try {
+                    line = lines.take();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                } finally {
+                    waiting.decrementAndGet();
+                }
+                position = 0;
+                if (line == END) {
+                    return -1;
+                }
+            }
+            final int count = Math.min(len, line.length - position);
+            System.arraycopy(line, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+
+    private static void awaitWaiting(AtomicInteger waiting, int count) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (waiting.get() < count) {
+            Assert.assertTrue("Sessions waiting for input: " + waiting.get(), System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void manyBlockedSessionsShouldRunOnVirtualThreads() throws Exception {
+        final byte[] fileData = SessionHostTest.readResource("/stories/input/read.z3");
+        final AtomicInteger waiting = new AtomicInteger();
+        final List<ScriptedInputStream> inputs = new ArrayList<>();
+        final List<ByteArrayOutputStream> outputs = new ArrayList<>();
+        final List<Future<Void>> futures = new ArrayList<>();
+
+        try (SessionExecutor executor = new SessionExecutor()) {
+            for (int i = 0; i < SESSION_COUNT; i++) {
+                final Stony stony = new Stony(fileData.clone()); /* Stony runs in the array it is given */
+                final ScriptedInputStream input = new ScriptedInputStream(waiting);
+                final ByteArrayOutputStream output = new ByteArrayOutputStream();
+                stony.setInputStream(input);
+                stony.setOutputStream(output);
+                inputs.add(input);
+                outputs.add(output);
+                futures.add(executor.submit(stony));
+            }
+
+            /* every session is blocked on its first read at the same time */
+            awaitWaiting(waiting, SESSION_COUNT);
+            Assert.assertEquals(SESSION_COUNT, executor.getActiveCount());
+            for (ScriptedInputStream input : inputs) {
+                input.send("look\n");
+            }
+            awaitWaiting(waiting, SESSION_COUNT);
+            for (ScriptedInputStream input : inputs) {
+                input.send("inventory\n");
+                input.end();
+            }
+        }
+
+        for (int i = 0; i < SESSION_COUNT; i++) {
+            futures.get(i).get();
+            Assert.assertEquals("1\n2\n3", outputs.get(i).toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void sessionsShouldEndWithTheirInputStream() throws Exception {
+        final AtomicInteger waiting = new AtomicInteger();
+        final ScriptedInputStream input = new ScriptedInputStream(waiting);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Stony stony = new Stony(SessionHostTest.readResource("/stories/input/read.z3"));
+        stony.setInputStream(input);
+        stony.setOutputStream(output);
+
+        final Future<Void> future;
+        try (SessionExecutor executor = new SessionExecutor()) {
+            future = executor.submit(stony);
+            input.end();
+        }
+        future.get();
+        Assert.assertEquals("1\n", output.toString(StandardCharsets.UTF_8));
+    }
+}
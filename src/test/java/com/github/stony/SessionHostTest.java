@@ -0,0 +1,92 @@
+package com.github.stony;
+
+import com.github.stony.memory.MemoryBackend;
+import com.github.stony.memory.StoryImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.*;
+
+public class SessionHostTest {
+    static StoryImage storyImage(String filePath) throws IOException {
+        return new StoryImage(readResource(filePath));
+    }
+
+    static byte[] readResource(String filePath) throws IOException {
+        final InputStream inputStream = SessionHostTest.class.getResourceAsStream(filePath);
+        if (inputStream == null) {
+            throw new FileNotFoundException("Invalid file path: " + filePath);
+        }
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void sessionsShouldNotShareDynamicMemory() throws Exception {
+        final SessionHost host = new SessionHost(storyImage("/stories/variable/store.z3"));
+        final ByteArrayOutputStream firstOutput = new ByteArrayOutputStream();
+        final ByteArrayOutputStream secondOutput = new ByteArrayOutputStream();
+        final long first = host.create(new ByteArrayInputStream(new byte[0]), firstOutput);
+        final long second = host.create(new ByteArrayInputStream(new byte[0]), secondOutput);
+
+        /* the story changes its global variable, the second session must still start from 10 */
+        host.run(first);
+        host.run(second);
+
+        Assert.assertEquals("10\n100\n-15000", firstOutput.toString("UTF-8"));
+        Assert.assertEquals("10\n100\n-15000", secondOutput.toString("UTF-8"));
+    }
+
+    @Test
+    public void offHeapSessionsShouldNotShareDynamicMemory() throws Exception {
+        final SessionHost host = new SessionHost(storyImage("/stories/variable/store.z3"), MemoryBackend.OFF_HEAP);
+        final ByteArrayOutputStream firstOutput = new ByteArrayOutputStream();
+        final ByteArrayOutputStream secondOutput = new ByteArrayOutputStream();
+        final long first = host.create(new ByteArrayInputStream(new byte[0]), firstOutput);
+        final long second = host.create(new ByteArrayInputStream(new byte[0]), secondOutput);
+        host.run(first);
+        host.run(second);
+
+        Assert.assertEquals("10\n100\n-15000", firstOutput.toString("UTF-8"));
+        Assert.assertEquals("10\n100\n-15000", secondOutput.toString("UTF-8"));
+    }
+
+    @Test
+    public void disposedSessionsShouldBeRemoved() throws Exception {
+        final SessionHost host = new SessionHost(storyImage("/stories/call/fib.z3"));
+        final long session = host.create(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        Assert.assertEquals(1, host.getSessionCount());
+        Assert.assertTrue(host.dispose(session));
+        Assert.assertFalse(host.dispose(session));
+        Assert.assertEquals(0, host.getSessionCount());
+    }
+
+    @Test
+    public void undoLevelsShouldBeCountedInTheHostBudget() throws Exception {
+        final SessionHost host = new SessionHost(storyImage("/stories/save/undo.z5"));
+        final long first = host.create(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        final long second = host.create(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        host.run(first, 9); /* two undo levels */
+        host.run(second, 9);
+        Assert.assertEquals(host.get(first).getUndoSize() + host.get(second).getUndoSize(),
+                host.getUndoBudget().getUsedBytes());
+
+        host.dispose(first);
+        host.dispose(second);
+        Assert.assertEquals(0, host.getUndoBudget().getUsedBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownSessionsShouldThrowException() throws Exception {
+        new SessionHost(storyImage("/stories/call/fib.z3")).run(42);
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.stony;
+
+import com.github.stony.interpreter.ExecutionStatus;
+import com.github.stony.interpreter.InputRequest;
+import com.github.stony.memory.StoryImage;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class StonyTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void runShouldReadInputFromTheInputStream() throws Exception {
+        final Stony stony = new Stony(SessionHostTest.readResource("/stories/input/read.z3"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        stony.setInputStream(new ByteArrayInputStream("look\ninventory\n".getBytes("UTF-8")));
+        stony.setOutputStream(outputStream);
+        stony.run();
+        Assert.assertEquals("1\n2\n3", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void runShouldStopWhenTheInputStreamEnds() throws Exception {
+        final Stony stony = new Stony(SessionHostTest.readResource("/stories/input/read.z3"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        stony.setInputStream(new ByteArrayInputStream("look\n".getBytes("UTF-8")));
+        stony.setOutputStream(outputStream);
+        stony.run();
+        Assert.assertEquals("1\n2\n", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void startAndResumeShouldNotUseTheInputStream() throws Exception {
+        final Stony stony = new Stony(SessionHostTest.readResource("/stories/input/aread.z5"));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        stony.setInputStream(new ByteArrayInputStream(new byte[0]));
+        stony.setOutputStream(outputStream);
+
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, stony.start());
+        Assert.assertEquals(InputRequest.Type.LINE, stony.getInputRequest().getType());
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, stony.resume("look"));
+        Assert.assertEquals(InputRequest.Type.CHARACTER, stony.getInputRequest().getType());
+        Assert.assertEquals(ExecutionStatus.FINISHED, stony.resume(""));
+        Assert.assertEquals("13\n13", outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void mappedStoryShouldRunLikeTheLoadedOne() throws Exception {
+        final Path file = folder.newFile("read.z3").toPath();
+        Files.write(file, SessionHostTest.readResource("/stories/input/read.z3"));
+        final Stony stony = new Stony(StoryImage.map(file));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        stony.setInputStream(new ByteArrayInputStream("look\ninventory\n".getBytes("UTF-8")));
+        stony.setOutputStream(outputStream);
+        stony.run();
+        Assert.assertEquals("1\n2\n3", outputStream.toString("UTF-8"));
+    }
+}
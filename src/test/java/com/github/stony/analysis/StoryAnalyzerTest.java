@@ -0,0 +1,181 @@
+package com.github.stony.analysis;
+
+import com.github.stony.interpreter.ExecutionStatus;
+import com.github.stony.interpreter.InstructionDecoder;
+import com.github.stony.interpreter.Interpreter;
+import com.github.stony.memory.StoryImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+public class StoryAnalyzerTest {
+    private static byte[] read(String filePath) throws IOException {
+        final InputStream inputStream = StoryAnalyzerTest.class.getResourceAsStream(filePath);
+        Assert.assertNotNull(filePath, inputStream);
+        try {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, read);
+            }
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static StoryAnalysis analyze(String filePath) throws IOException {
+        return new StoryAnalyzer(new StoryImage(read(filePath))).analyze();
+    }
+
+    @Test
+    public void recursiveRoutinesShouldBeFoundOnce() throws Exception {
+        final StoryAnalysis analysis = analyze("/stories/call/fib.z3");
+        Assert.assertEquals(2, analysis.getRoutines().size());
+
+        final Routine main = analysis.getMainRoutine();
+        Assert.assertTrue(main.isMain());
+        Assert.assertEquals(1, main.getCallees().length);
+        Assert.assertEquals(3, main.getInstructions().size()); /* call, print_num, quit */
+
+        final Routine fib = analysis.getRoutine(main.getCallees()[0]);
+        Assert.assertFalse(fib.isMain());
+        Assert.assertEquals(2, fib.getLocalCount());
+        Assert.assertArrayEquals(new int[] { fib.getAddress() }, fib.getCallees());
+        Assert.assertArrayEquals(new int[] { main.getAddress(), fib.getAddress() },
+                analysis.getCallers(fib.getAddress()));
+        Assert.assertTrue(fib.isComplete());
+        Assert.assertFalse(fib.hasLoops());
+        Assert.assertFalse(fib.hasIndirectCalls());
+
+        /* jl, then ret N, then the recursion */
+        Assert.assertEquals(3, fib.getBasicBlocks().size());
+        final BasicBlock test = fib.getBasicBlocks().get(0);
+        Assert.assertArrayEquals(new int[] { fib.getBasicBlocks().get(1).getStartAddress(),
+                fib.getBasicBlocks().get(2).getStartAddress() }, test.getSuccessors());
+        Assert.assertEquals(0, fib.getBasicBlocks().get(1).getSuccessors().length);
+        Assert.assertEquals(0, fib.getBasicBlocks().get(2).getSuccessors().length);
+        Assert.assertEquals(8, fib.getInstructions().size());
+    }
+
+    @Test
+    public void loopsAndCallersShouldBeFound() throws Exception {
+        final StoryAnalysis analysis = analyze("/stories/compiler/routines.z3");
+        /* main, SUM, PLOOP, PRINTLOOP, STACKY and MATH */
+        Assert.assertEquals(6, analysis.getRoutines().size());
+
+        int loops = 0;
+        for (Routine routine : analysis.getRoutines()) {
+            Assert.assertTrue(routine.isComplete());
+            if (routine.hasLoops()) {
+                loops++;
+            }
+        }
+        /* main, SUM, PLOOP, and MATH which branches back to ZERO */
+        Assert.assertEquals(4, loops);
+
+        /* MATH has five call sites, SUM and PLOOP one */
+        final int[] hot = analysis.getHotRoutines(3);
+        Assert.assertEquals(3, hot.length);
+        for (int address : hot) {
+            Assert.assertTrue(analysis.getRoutine(address).hasLoops());
+        }
+        Assert.assertEquals(3, analysis.getRoutine(hot[0]).getLocalCount());
+        Assert.assertArrayEquals(new int[] { analysis.getMainRoutine().getAddress() }, analysis.getCallers(hot[0]));
+    }
+
+    @Test
+    public void version5CallsShouldBeFound() throws Exception {
+        final StoryAnalysis analysis = analyze("/stories/call/calls.z5");
+        Assert.assertTrue(analysis.getRoutines().size() > 1);
+        for (Routine routine : analysis.getRoutines()) {
+            Assert.assertFalse(routine.getInstructions().isEmpty());
+            for (int callee : routine.getCallees()) {
+                Assert.assertNotNull(analysis.getRoutine(callee));
+            }
+        }
+    }
+
+    @Test
+    public void histogramShouldCountEveryInstruction() throws Exception {
+        final StoryAnalysis analysis = analyze("/stories/call/fib.z3");
+        final Map<String, Integer> histogram = analysis.getOperationHistogram();
+        int total = 0;
+        int previous = Integer.MAX_VALUE;
+        for (int count : histogram.values()) {
+            Assert.assertTrue(count <= previous);
+            previous = count;
+            total += count;
+        }
+        Assert.assertEquals(analysis.getInstructionCount(), total);
+        Assert.assertEquals(11, total);
+        /* call FIB in main and twice in FIB */
+        Assert.assertEquals(3, analysis.getOperationCount(InstructionDecoder.VAR | 0x00));
+        Assert.assertEquals(Integer.valueOf(3), histogram.get(InstructionDecoder.operationName(InstructionDecoder.VAR)));
+        Assert.assertEquals(11, analysis.getInstructionAddresses().length);
+    }
+
+    @Test
+    public void disassemblyShouldShowOperandsStoresAndBranches() throws Exception {
+        final StoryAnalysis analysis = analyze("/stories/call/fib.z3");
+        final StringBuilder builder = new StringBuilder();
+        analysis.disassemble(builder);
+        final String text = builder.toString();
+        Assert.assertTrue(text, text.contains("main "));
+        Assert.assertTrue(text, text.contains("(2 locals, 8 instructions, 3 blocks)"));
+
+        final Routine fib = analysis.getRoutine(analysis.getMainRoutine().getCallees()[0]);
+        /* jl N 2 \RECURSE branches on false */
+        final Instruction jl = fib.getInstructions().get(0);
+        Assert.assertEquals(String.format("%05x: %s L00 #2 ?~%05x", jl.getAddress(), jl.getName(), jl.getTarget()),
+                jl.toString());
+        final Instruction sub = fib.getInstructions().get(2);
+        Assert.assertTrue(sub.toString(), sub.toString().endsWith("L00 #1 -> L01"));
+        final Instruction call = analysis.getMainRoutine().getInstructions().get(0);
+        Assert.assertEquals(fib.getAddress(), call.getCallTarget());
+        Assert.assertTrue(call.toString(), call.toString().endsWith("#14 -> sp"));
+    }
+
+    @Test
+    public void extraRootsShouldBeAnalyzed() throws Exception {
+        final StoryImage storyImage = new StoryImage(read("/stories/call/fib.z3"));
+        final StoryAnalysis found = new StoryAnalyzer(storyImage).analyze();
+        final int fib = found.getMainRoutine().getCallees()[0];
+
+        /* a routine past the end of the story is kept, empty and incomplete */
+        final StoryAnalysis analysis = new StoryAnalyzer(storyImage).analyze(new ForkJoinPool(2),
+                new int[] { fib, storyImage.getSize() + 2 });
+        Assert.assertEquals(3, analysis.getRoutines().size());
+        final Routine invalid = analysis.getRoutine(storyImage.getSize() + 2);
+        Assert.assertTrue(invalid.getInstructions().isEmpty());
+        Assert.assertFalse(invalid.isComplete());
+        Assert.assertArrayEquals(new int[] { fib }, analysis.getHotRoutines(10));
+    }
+
+    @Test
+    public void precompiledRoutinesShouldProduceSameOutput() throws Exception {
+        final byte[] fileData = read("/stories/compiler/routines.z3");
+        final StoryAnalysis analysis = new StoryAnalyzer(new StoryImage(fileData)).analyze();
+        final Interpreter interpreter = new Interpreter(fileData, new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+        interpreter.setCompilerEnabled(true);
+        interpreter.setInstructionCacheEnabled(true);
+
+        final int[] hot = analysis.getHotRoutines(Integer.MAX_VALUE);
+        Assert.assertEquals(5, hot.length);
+        /* PRINTLOOP starts with a call, the others compile */
+        Assert.assertEquals(4, interpreter.precompile(hot));
+        Assert.assertEquals(4, interpreter.getCompiledRoutineCount());
+        Assert.assertEquals(analysis.getInstructionCount(), interpreter.warmUp(analysis.getInstructionAddresses()));
+
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(Integer.MAX_VALUE));
+        Assert.assertEquals("55 55 55 55 55 123123123 15 6 100 0 -4 0 -1", interpreter.getOutputStream().toString());
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.stony.interpreter;
+
+import org.junit.Test;
+
+public class BranchTest extends InterpreterTest {
+    @Test
+    public void jump() throws Exception {
+        assertOutputEquals("/stories/branch/jump.z3", "1\n2\n3\n4\n5\n6");
+    }
+
+    @Test
+    public void loop() throws Exception {
+        assertOutputEquals("/stories/branch/loop.z3", "465");
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.EmptyStackException;
+
+public class CallTest extends InterpreterTest {
+    @Test
+    public void recursion() throws Exception {
+        assertOutputEquals("/stories/call/fib.z3", "6765");
+    }
+
+    @Test
+    public void returns() throws Exception {
+        assertOutputEquals("/stories/call/returns.z3", "1\n0\n7\n1\n0\n0\n12\n3\n10");
+    }
+
+    @Test
+    public void callVariants() throws Exception {
+        assertOutputEquals("/stories/call/calls.z5", "0\n5\n9\n28\n0\n0\n0");
+    }
+
+    @Test
+    public void framesShouldBeDiscardedOnReturn() throws Exception {
+        final Interpreter interpreter = new Interpreter(readFileData("/stories/call/fib.z3"), System.in,
+                new ByteArrayOutputStream());
+        while (!interpreter.isFinished()) {
+            interpreter.executeInstruction();
+        }
+
+        Assert.assertEquals(0, interpreter.callStack.getDepth());
+        Assert.assertEquals(0, interpreter.stack.size());
+    }
+
+    @Test
+    public void routinesAboveTheFirst64kShouldBeCalledThroughVariables() throws Exception {
+        /* g0 holds the packed address 0x8100, the routine 0x10200 returns 42 */
+        final byte[] fileData = emptyStory(3, 0x12000, 0x100);
+        fileData[0x40] = (byte) 0x81;
+        final byte[] main = {
+                (byte) 0xe0, (byte) 0xbf, 0x10, 0x00, /* call_vs g0 -> sp */
+                (byte) 0xe6, (byte) 0xbf, 0x00, /* print_num sp */
+                (byte) 0xba /* quit */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+        fileData[0x10201] = (byte) 0x9b; /* ret #42 */
+        fileData[0x10202] = 42;
+
+        final Interpreter interpreter = new Interpreter(fileData, System.in, new ByteArrayOutputStream());
+        assertOutputEquals(interpreter, "42");
+    }
+
+    @Test
+    public void variablesShouldHoldUnsignedWords() throws Exception {
+        final byte[] fileData = emptyStory(3, 0x2000, 0x100);
+        final Interpreter interpreter = new Interpreter(fileData, System.in, new ByteArrayOutputStream());
+        interpreter.storeVariable(0x10, -1);
+        interpreter.storeVariable(0x00, 0x18000);
+        Assert.assertEquals(0xffff, interpreter.loadVariable(0x10));
+        Assert.assertEquals(0x8000, interpreter.loadVariable(0x00));
+    }
+
+    @Test
+    public void popShouldNotReachTheCallersStack() throws Exception {
+        /* main pushes 5 and calls 0x1100, which pops with its own stack empty */
+        final byte[] fileData = emptyStory(3, 0x2000, 0x100);
+        final byte[] main = {
+                (byte) 0xe8, 0x7f, 0x05, /* push #5 */
+                (byte) 0xe0, 0x3f, 0x08, (byte) 0x80, 0x00, /* call_vs #0880 -> sp */
+                (byte) 0xba /* quit */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+        fileData[0x1101] = (byte) 0xb9; /* pop */
+        fileData[0x1102] = (byte) 0xb0; /* rtrue */
+
+        for (boolean compiled : new boolean[] { false, true }) {
+            final Interpreter interpreter = new Interpreter(fileData.clone(), System.in, new ByteArrayOutputStream());
+            if (compiled) {
+                interpreter.setCompilationThreshold(1);
+                interpreter.setCompilerEnabled(true);
+            }
+            interpreter.executeInstruction();
+            try {
+                interpreter.executeInstruction();
+                if (!compiled) {
+                    interpreter.executeInstruction();
+                }
+                Assert.fail("pop should have thrown an exception");
+            } catch (EmptyStackException e) {
+                Assert.assertEquals(1, interpreter.stack.size());
+            }
+        }
+    }
+
+    @Test
+    public void routinesWithMoreThan15LocalsShouldBeRejected() {
+        final byte[] fileData = emptyStory(3, 0x2000, 0x100);
+        final byte[] main = {
+                (byte) 0xe0, 0x3f, 0x08, (byte) 0x80, 0x00, /* call_vs #0880 -> sp */
+                (byte) 0xba /* quit */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+        fileData[0x1100] = 16;
+
+        final Interpreter interpreter = new Interpreter(fileData, System.in, new ByteArrayOutputStream());
+        Assert.assertEquals(ExecutionStatus.ERROR, interpreter.run(10));
+        Assert.assertEquals("Invalid routine at 4352: 16 local variables.", interpreter.getError().getMessage());
+        Assert.assertEquals(0, interpreter.callStack.getDepth()); /* still in main */
+        Assert.assertEquals(0x1000, interpreter.pc);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void returningFromMainRoutineShouldThrowException() {
+        new CallStack().leave();
+    }
+}
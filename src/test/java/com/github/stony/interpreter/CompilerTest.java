@@ -0,0 +1,115 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class CompilerTest extends InterpreterTest {
+    private static final String OUTPUT = "55 55 55 55 55 123123123 15 6 100 0 -4 0 -1";
+
+    private Interpreter interpreter(boolean compiled) throws Exception {
+        return interpreter(compiled, readFileData("/stories/compiler/routines.z3"));
+    }
+
+    private Interpreter interpreter(boolean compiled, byte[] fileData) {
+        final Interpreter interpreter = new Interpreter(fileData, new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+        if (compiled) {
+            interpreter.setCompilationThreshold(2);
+            interpreter.setCompilerEnabled(true);
+        }
+        return interpreter;
+    }
+
+    @Test
+    public void compiledRoutinesShouldProduceSameOutput() throws Exception {
+        final Interpreter interpreted = interpreter(false);
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreted.run(Integer.MAX_VALUE));
+        Assert.assertEquals(OUTPUT, interpreted.getOutputStream().toString());
+
+        final Interpreter compiled = interpreter(true);
+        Assert.assertEquals(ExecutionStatus.FINISHED, compiled.run(Integer.MAX_VALUE));
+        Assert.assertEquals(OUTPUT, compiled.getOutputStream().toString());
+        /* SUM, PLOOP, STACKY and MATH; PRINTLOOP starts with a call */
+        Assert.assertEquals(4, compiled.getCompiledRoutineCount());
+    }
+
+    @Test
+    public void compiledCodeShouldStopAtTheBudget() throws Exception {
+        /* compiled loops deoptimize at every backward jump, the interpreter enters them again on the next run */
+        final Interpreter interpreter = interpreter(true);
+        while (interpreter.run(1) == ExecutionStatus.BUDGET_EXHAUSTED) {
+            Assert.assertNull(interpreter.getError());
+        }
+        Assert.assertTrue(interpreter.isFinished());
+        Assert.assertEquals(OUTPUT, interpreter.getOutputStream().toString());
+    }
+
+    @Test
+    public void singleInstructionsShouldProduceSameOutput() throws Exception {
+        final Interpreter interpreter = interpreter(true);
+        interpreter.setInstructionCacheEnabled(true);
+        while (!interpreter.isFinished()) {
+            interpreter.executeInstruction();
+        }
+        Assert.assertEquals(OUTPUT, interpreter.getOutputStream().toString());
+    }
+
+    @Test
+    public void writesShouldDropCompiledRoutines() throws Exception {
+        final Interpreter interpreter = interpreter(true, allDynamic(readFileData("/stories/compiler/routines.z3")));
+        interpreter.setInstructionCacheEnabled(true);
+        interpreter.run(Integer.MAX_VALUE);
+        Assert.assertEquals(4, interpreter.getCompiledRoutineCount());
+
+        /* rewriting the code with the same bytes still counts as self-modification */
+        for (int address = interpreter.header.getHighMemoryBaseAddress(); address < interpreter.memory.getSize();
+             address++) {
+            interpreter.memory.writeByte(address, interpreter.memory.readByte(address));
+        }
+        Assert.assertEquals(0, interpreter.getCompiledRoutineCount());
+    }
+
+    @Test
+    public void exceptionsShouldDeoptimizeToTheFailingInstruction() throws Exception {
+        /* main calls 0x1100, whose loop decrements L01 from 10 and divides by it until it reaches 0 */
+        final byte[] fileData = emptyStory(3, 0x2000, 0x100);
+        final byte[] main = {
+                (byte) 0xe0, 0x3f, 0x08, (byte) 0x80, 0x00, /* call_vs #0880 -> sp */
+                (byte) 0xba /* quit */
+        };
+        final byte[] routine = {
+                0x02, 0x00, 0x0a, 0x00, 0x00, /* L01 = 10, L02 = 0 */
+                0x55, 0x01, 0x01, 0x01, /* sub L01 #1 -> L01 */
+                0x37, 0x64, 0x01, 0x02, /* div #100 L01 -> L02 */
+                (byte) 0x8c, (byte) 0xff, (byte) 0xf7 /* jump sub */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+        System.arraycopy(routine, 0, fileData, 0x1100, routine.length);
+
+        for (boolean compiled : new boolean[] { false, true }) {
+            final Interpreter interpreter = interpreter(compiled, fileData.clone());
+            interpreter.setCompilationThreshold(1);
+            Assert.assertEquals(ExecutionStatus.ERROR, interpreter.run(Integer.MAX_VALUE));
+            Assert.assertEquals("Division by zero when executing div instruction.",
+                    interpreter.getError().getMessage());
+            Assert.assertEquals(compiled ? 1 : 0, interpreter.getCompiledRoutineCount());
+            Assert.assertEquals(0x1109, interpreter.pc);
+            Assert.assertEquals(0, interpreter.callStack.getLocal(1));
+            Assert.assertEquals(100, interpreter.callStack.getLocal(2));
+            /* call, 9 loops and the last sub */
+            Assert.assertEquals(29, interpreter.getInstructionCount());
+        }
+    }
+
+    @Test
+    public void routinesShouldOnlyBeCompiledPastTheThreshold() throws Exception {
+        final Interpreter interpreter = interpreter(true);
+        interpreter.setCompilationThreshold(6);
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(Integer.MAX_VALUE));
+        Assert.assertEquals(OUTPUT, interpreter.getOutputStream().toString());
+        Assert.assertEquals(0, interpreter.getCompiledRoutineCount()); /* no routine is called 6 times */
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DispatchTableTest {
+    @Test
+    public void longFormShouldEncodeOperandTypesInOpcodeByte() {
+        final DispatchTable table = DispatchTable.forVersion(3);
+        Assert.assertEquals(DispatchTable.TWO_OP | Opcodes.ADD, table.operations[0x14]);
+        Assert.assertEquals(0x5f, table.operandTypes[0x14]); /* small, small */
+        Assert.assertEquals(0x6f, table.operandTypes[0x34]); /* small, variable */
+        Assert.assertEquals(0x9f, table.operandTypes[0x54]); /* variable, small */
+        Assert.assertEquals(0xaf, table.operandTypes[0x74]); /* variable, variable */
+    }
+
+    @Test
+    public void shortFormShouldDistinguishZeroAndOneOperand() {
+        final DispatchTable table = DispatchTable.forVersion(3);
+        Assert.assertEquals(DispatchTable.ONE_OP | Opcodes.JZ, table.operations[0x80]);
+        Assert.assertEquals(0x3f, table.operandTypes[0x80]);
+        Assert.assertEquals(DispatchTable.ZERO_OP | Opcodes.QUIT, table.operations[0xba]);
+        Assert.assertEquals(0xff, table.operandTypes[0xba]);
+    }
+
+    @Test
+    public void variableFormShouldReadOperandTypes() {
+        final DispatchTable table = DispatchTable.forVersion(3);
+        Assert.assertEquals(DispatchTable.TWO_OP | Opcodes.ADD, table.operations[0xd4]);
+        Assert.assertEquals(DispatchTable.VAR | Opcodes.PRINT_NUM, table.operations[0xe6]);
+        Assert.assertEquals(DispatchTable.READ_TYPES, table.operandTypes[0xe6]);
+    }
+
+    @Test
+    public void extendedFormShouldOnlyExistFromVersionFive() {
+        Assert.assertEquals(DispatchTable.ZERO_OP | Opcodes.EXTENDED, DispatchTable.forVersion(4).operations[0xbe]);
+        Assert.assertEquals(DispatchTable.READ_EXTENDED, DispatchTable.forVersion(5).operations[0xbe]);
+        Assert.assertEquals(DispatchTable.EXT | Opcodes.SAVE_UNDO, DispatchTable.extendedOperation(Opcodes.SAVE_UNDO));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void unknownVersionShouldThrowException() {
+        DispatchTable.forVersion(9);
+    }
+}
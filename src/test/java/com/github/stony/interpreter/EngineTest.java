@@ -0,0 +1,44 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.ArrayMemory;
+import com.github.stony.memory.Header;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class EngineTest {
+    private static Header header(int version) {
+        final byte[] fileData = new byte[0x100];
+        fileData[0] = (byte) version;
+        fileData[0x0e] = (byte) 0x80;
+        return new Header(new ArrayMemory(fileData));
+    }
+
+    @Test
+    public void specializedEnginesShouldBehaveLikeTheGenericEngine() {
+        for (int version = 1; version <= 8; version++) {
+            final Header header = header(version);
+            final Engine specialized = Engine.forHeader(header);
+            final Engine generic = Engine.generic(header);
+            final DispatchTable expected = DispatchTable.forVersion(version);
+            final DispatchTable actual = specialized.getDispatchTable();
+            Assert.assertArrayEquals(expected.operandTypes, actual.operandTypes);
+            Assert.assertArrayEquals(expected.operations, actual.operations);
+            Assert.assertTrue(Arrays.equals(expected.stores, actual.stores));
+            Assert.assertTrue(Arrays.equals(expected.branches, actual.branches));
+            for (int packedAddress : new int[]{0, 1, 0x1234, 0xffff}) {
+                Assert.assertEquals(generic.unpackRoutineAddress(packedAddress),
+                        specialized.unpackRoutineAddress(packedAddress));
+                Assert.assertEquals(generic.unpackStringAddress(packedAddress),
+                        specialized.unpackStringAddress(packedAddress));
+            }
+        }
+    }
+
+    @Test
+    public void versionsWithoutSpecializedEngineShouldUseTheGenericEngine() {
+        Assert.assertNotSame(Engine.forHeader(header(4)), Engine.forHeader(header(4)));
+        Assert.assertSame(Engine.forHeader(header(1)), Engine.forHeader(header(3)));
+    }
+}
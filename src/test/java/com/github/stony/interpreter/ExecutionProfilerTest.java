@@ -0,0 +1,92 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class ExecutionProfilerTest extends InterpreterTest {
+    private static final int CALL = DispatchTable.VAR | Opcodes.CALL;
+
+    private Interpreter interpreter(String fileName, ExecutionProfiler profiler) throws Exception {
+        final Interpreter interpreter = new Interpreter(readFileData(fileName),
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        interpreter.setProfiler(profiler);
+        return interpreter;
+    }
+
+    @Test
+    public void profilerShouldCountOperationsAndRoutines() throws Exception {
+        final ExecutionProfiler profiler = new ExecutionProfiler(1);
+        final Interpreter interpreter = interpreter("/stories/call/fib.z3", profiler);
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(Integer.MAX_VALUE));
+        Assert.assertEquals("6765", interpreter.getOutputStream().toString());
+
+        final ProfileSnapshot snapshot = profiler.snapshot(5);
+        long calls = 0;
+        for (ProfileSnapshot.OperationStats operation : snapshot.getOperations()) {
+            Assert.assertEquals(operation.getCount(), operation.getSampleCount());
+            Assert.assertTrue(operation.getEstimatedNanos() >= 0);
+            if (operation.getName().equals("VAR:0x00")) {
+                calls = operation.getCount();
+            }
+        }
+        /* fib(20) calls FIB 2 * fib(21) - 1 times */
+        Assert.assertEquals(21891, calls);
+        Assert.assertEquals(1, snapshot.getHotRoutines().size());
+        Assert.assertEquals(21891, snapshot.getHotRoutines().get(0).getCount());
+        Assert.assertEquals(5, snapshot.getHotInstructions().size());
+        Assert.assertTrue(snapshot.getHotInstructions().get(0).getCount() >= 21891);
+    }
+
+    @Test
+    public void profilerShouldCountEveryExecutedInstruction() throws Exception {
+        final ExecutionProfiler profiler = new ExecutionProfiler();
+        final Interpreter interpreter = interpreter("/stories/run/spin.z3", profiler);
+        interpreter.setInstructionCacheEnabled(true);
+        interpreter.setFusionSet(FusionSet.defaults());
+        Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, interpreter.run(1000));
+        interpreter.executeInstruction();
+
+        final ProfileSnapshot snapshot = profiler.snapshot(10);
+        Assert.assertEquals(1001, snapshot.getInstructionCount());
+        long instructions = 0;
+        for (ProfileSnapshot.AddressCount instruction : snapshot.getHotInstructions()) {
+            instructions += instruction.getCount();
+        }
+        Assert.assertEquals(1001, instructions);
+    }
+
+    @Test
+    public void resetShouldForgetTheProfile() throws Exception {
+        final ExecutionProfiler profiler = new ExecutionProfiler();
+        interpreter("/stories/call/fib.z3", profiler).run(Integer.MAX_VALUE);
+        profiler.reset();
+
+        final ProfileSnapshot snapshot = profiler.snapshot(10);
+        Assert.assertEquals(0, snapshot.getInstructionCount());
+        Assert.assertTrue(snapshot.getOperations().isEmpty());
+        Assert.assertTrue(snapshot.getHotRoutines().isEmpty());
+    }
+
+    @Test
+    public void profilerShouldWorkWithTheOperationProfile() throws Exception {
+        final ExecutionProfiler profiler = new ExecutionProfiler();
+        final OperationProfile profile = new OperationProfile();
+        final Interpreter interpreter = interpreter("/stories/call/fib.z3", profiler);
+        interpreter.setOperationProfile(profile);
+        interpreter.run(Integer.MAX_VALUE);
+
+        for (ProfileSnapshot.OperationStats operation : profiler.snapshot(0).getOperations()) {
+            if (operation.getName().equals("VAR:0x00")) {
+                Assert.assertEquals(profile.getCount(CALL), operation.getCount());
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleIntervalShouldBePositive() {
+        new ExecutionProfiler(0);
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class FusionTest extends InterpreterTest {
+    private static final int PUSH = DispatchTable.VAR | Opcodes.PUSH;
+    private static final int ADD = DispatchTable.TWO_OP | Opcodes.ADD;
+    private static final int STORE = DispatchTable.TWO_OP | Opcodes.STORE;
+    private static final int INC_CHK = DispatchTable.TWO_OP | Opcodes.INC_CHK;
+    private static final int JUMP = DispatchTable.ONE_OP | Opcodes.JUMP;
+
+    private Interpreter interpreter() throws Exception {
+        final Interpreter interpreter = new Interpreter(readFileData("/stories/fusion/patterns.z3"),
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        interpreter.setInstructionCacheEnabled(true);
+        return interpreter;
+    }
+
+    @Test
+    public void fusedInstructionsShouldProduceSameOutput() throws Exception {
+        final Interpreter interpreter = interpreter();
+        interpreter.setFusionSet(FusionSet.defaults());
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(Integer.MAX_VALUE));
+        Assert.assertEquals("10 1 0", interpreter.getOutputStream().toString());
+    }
+
+    @Test
+    public void fusedInstructionsShouldCountAgainstTheBudget() throws Exception {
+        final Interpreter fused = interpreter();
+        fused.setFusionSet(FusionSet.defaults());
+        final Interpreter unfused = interpreter();
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, fused.run(2));
+            Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, unfused.run(2));
+            Assert.assertEquals(unfused.pc, fused.pc);
+        }
+    }
+
+    @Test
+    public void failuresInsideFusedGroupsShouldCountTheCompletedInstructions() throws Exception {
+        /* je and rtrue are fused, rtrue fails in the main routine */
+        final byte[] fileData = emptyStory(3, 0x2000, 0x100);
+        final byte[] main = {
+                0x14, 0x01, 0x02, 0x00, /* add #1 #2 -> sp */
+                0x14, 0x03, 0x04, 0x00, /* add #3 #4 -> sp */
+                0x01, 0x01, 0x02, (byte) 0xc2, /* je #1 #2 ?+2, falls through */
+                (byte) 0xb0 /* rtrue */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+
+        for (boolean fused : new boolean[] { false, true }) {
+            final Interpreter interpreter = new Interpreter(fileData.clone(), new ByteArrayInputStream(new byte[0]),
+                    new ByteArrayOutputStream());
+            interpreter.setInstructionCacheEnabled(true);
+            if (fused) {
+                interpreter.setFusionSet(FusionSet.defaults());
+            }
+            Assert.assertEquals(ExecutionStatus.ERROR, interpreter.run(Integer.MAX_VALUE));
+            Assert.assertEquals("Can't return from the main routine.", interpreter.getError().getMessage());
+            Assert.assertEquals(0x100c, interpreter.pc);
+            Assert.assertEquals(3, interpreter.getInstructionCount());
+        }
+    }
+
+    @Test
+    public void profileShouldCountSequencesWhichFallThrough() throws Exception {
+        final Interpreter interpreter = interpreter();
+        final OperationProfile profile = new OperationProfile();
+        interpreter.setOperationProfile(profile);
+        interpreter.run(Integer.MAX_VALUE);
+
+        Assert.assertEquals(10, profile.getCount(PUSH));
+        Assert.assertEquals(10, profile.getPairCount(PUSH, ADD));
+        Assert.assertEquals(10, profile.getTripleCount(PUSH, ADD, STORE));
+        Assert.assertEquals(9, profile.getPairCount(INC_CHK, JUMP)); /* the last inc_chk jumps */
+        Assert.assertEquals(0, profile.getPairCount(JUMP, PUSH)); /* jump doesn't fall through */
+
+        /* push add, add store and store inc_chk are the only pairs executed 10 times */
+        final FusionSet fusionSet = FusionSet.fromProfile(profile, 3, 0);
+        Assert.assertEquals(3, fusionSet.size());
+        Assert.assertTrue(fusionSet.contains(PUSH, ADD));
+        Assert.assertTrue(fusionSet.contains(ADD, STORE));
+        Assert.assertTrue(profile.describe(3).contains("VAR:0x08 2OP:0x14 10\n"));
+    }
+}
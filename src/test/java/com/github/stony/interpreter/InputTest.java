@@ -0,0 +1,140 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+public class InputTest extends InterpreterTest {
+    private Interpreter interpreter(String filePath) throws Exception {
+        return new Interpreter(readFileData(filePath), new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+    }
+
+    private static String text(Interpreter interpreter, int address) {
+        final StringBuilder text = new StringBuilder();
+        for (int c = interpreter.memory.readByte(address); c != 0; c = interpreter.memory.readByte(++address)) {
+            text.append((char) c);
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void sreadShouldSuspendUntilResumed() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/input/read.z3");
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        Assert.assertEquals("1\n", interpreter.getOutputStream().toString());
+
+        final InputRequest request = interpreter.getInputRequest();
+        Assert.assertEquals(InputRequest.Type.LINE, request.getType());
+        Assert.assertEquals(10, request.getMaxLength());
+        Assert.assertNotEquals(0, request.getParseBufferAddress());
+
+        interpreter.resume("Hello World!");
+        Assert.assertFalse(interpreter.isAwaitingInput());
+        Assert.assertEquals("hello worl", text(interpreter, request.getTextBufferAddress() + 1));
+        /* the dictionary is empty: both words are unknown */
+        final int parse = request.getParseBufferAddress();
+        Assert.assertEquals(2, interpreter.memory.readByte(parse + 1));
+        Assert.assertEquals(0, interpreter.memory.readWord(parse + 2));
+        Assert.assertEquals(5, interpreter.memory.readByte(parse + 4));
+        Assert.assertEquals(1, interpreter.memory.readByte(parse + 5));
+        Assert.assertEquals(4, interpreter.memory.readByte(parse + 8));
+        Assert.assertEquals(7, interpreter.memory.readByte(parse + 9));
+
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        interpreter.resume("");
+        Assert.assertEquals("", text(interpreter, request.getTextBufferAddress() + 1));
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(1000));
+        Assert.assertEquals("1\n2\n3", interpreter.getOutputStream().toString());
+    }
+
+    @Test
+    public void areadAndReadCharShouldStoreTheCharacter() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/input/aread.z5");
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        final int address = interpreter.getInputRequest().getTextBufferAddress();
+        Assert.assertEquals(10, interpreter.getInputRequest().getMaxLength());
+        Assert.assertEquals(0, interpreter.getInputRequest().getParseBufferAddress());
+
+        interpreter.resume("OK");
+        Assert.assertEquals(2, interpreter.memory.readByte(address + 1));
+        Assert.assertEquals("ok", text(interpreter, address + 2));
+
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        Assert.assertEquals(InputRequest.Type.CHARACTER, interpreter.getInputRequest().getType());
+        interpreter.resume("A");
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(1000));
+        Assert.assertEquals("13\n97", interpreter.getOutputStream().toString());
+    }
+
+    @Test
+    public void buffersAbove32kShouldBeReadFromVariables() throws Exception {
+        /* sread g0 g1, with the text buffer at 0x8100 and the parse buffer at 0x8200 */
+        final byte[] fileData = emptyStory(3, 0xa000, 0x9000);
+        fileData[0x40] = (byte) 0x81;
+        fileData[0x42] = (byte) 0x82;
+        fileData[0x8100] = 20;
+        fileData[0x8200] = 4;
+        final byte[] main = {
+                (byte) 0xe4, (byte) 0xaf, 0x10, 0x11, /* sread g0 g1 */
+                (byte) 0xba /* quit */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+
+        final Interpreter interpreter = new Interpreter(fileData, new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        Assert.assertEquals(0x8100, interpreter.getInputRequest().getTextBufferAddress());
+        Assert.assertEquals(0x8200, interpreter.getInputRequest().getParseBufferAddress());
+
+        interpreter.resume("open door");
+        Assert.assertEquals("open door", text(interpreter, 0x8101));
+        Assert.assertEquals(2, interpreter.memory.readByte(0x8201));
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(1000));
+    }
+
+    /* A version 5 story whose text buffer at 0x8100 holds "open door", with an empty parse buffer at 0x8200 */
+    private static byte[] tokeniseStory() {
+        final byte[] fileData = emptyStory(5, 0xa000, 0x9000);
+        fileData[0x40] = (byte) 0x81;
+        fileData[0x42] = (byte) 0x82;
+        final byte[] text = "open door".getBytes(StandardCharsets.US_ASCII);
+        fileData[0x8100] = 20;
+        fileData[0x8101] = (byte) text.length;
+        System.arraycopy(text, 0, fileData, 0x8102, text.length);
+        fileData[0x8200] = 4;
+        return fileData;
+    }
+
+    @Test
+    public void tokeniseShouldReadBuffersAbove32kFromVariables() throws Exception {
+        final byte[] fileData = tokeniseStory();
+        final byte[] main = {
+                (byte) 0xfb, (byte) 0xaf, 0x10, 0x11, /* tokenise g0 g1 */
+                (byte) 0xba /* quit */
+        };
+        System.arraycopy(main, 0, fileData, 0x1000, main.length);
+        final Interpreter interpreter = new Interpreter(fileData, new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(1000));
+        Assert.assertEquals(2, interpreter.memory.readByte(0x8201));
+        Assert.assertEquals(4, interpreter.memory.readByte(0x8208)); /* "door" */
+        Assert.assertEquals(7, interpreter.memory.readByte(0x8209));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void executeInstructionShouldThrowExceptionWhileWaitingForInput() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/input/read.z3");
+        interpreter.run(1000);
+        interpreter.executeInstruction();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void resumeShouldThrowExceptionWhenNotWaitingForInput() throws Exception {
+        interpreter("/stories/input/read.z3").resume("look");
+    }
+}
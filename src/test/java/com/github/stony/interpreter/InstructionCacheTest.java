@@ -0,0 +1,59 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class InstructionCacheTest extends InterpreterTest {
+    @Test
+    public void cachedStoryShouldProduceSameOutput() throws Exception {
+        final Interpreter interpreter = new Interpreter(readFileData("/stories/branch/loop.z3"),
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        interpreter.setInstructionCacheEnabled(true);
+        assertOutputEquals(interpreter, "465");
+    }
+
+    @Test
+    public void writeShouldDropOverlappingInstructions() throws Exception {
+        final Interpreter interpreter = new Interpreter(allDynamic(readFileData("/stories/branch/loop.z3")), System.in,
+                System.out);
+        final int start = interpreter.pc;
+        final InstructionCache cache = new InstructionCache(interpreter.memory,
+                DispatchTable.forVersion(3), interpreter.header.getHighMemoryBaseAddress());
+
+        final DecodedInstruction add = cache.get(start);
+        final DecodedInstruction mod = cache.get(start + add.length);
+        Assert.assertTrue(cache.contains(start));
+        Assert.assertTrue(cache.contains(start + add.length));
+
+        /* last byte of add (its store variable) */
+        interpreter.memory.writeByte(start + add.length - 1, 0x12);
+        Assert.assertFalse(cache.contains(start));
+        Assert.assertTrue(cache.contains(start + add.length));
+        Assert.assertEquals(0x12, cache.get(start).store);
+
+        interpreter.memory.writeWord(start + add.length + mod.length - 2, 0);
+        Assert.assertFalse(cache.contains(start + add.length));
+    }
+
+    @Test
+    public void changingTheEngineShouldDropDecodedInstructions() throws Exception {
+        final Interpreter interpreter = new Interpreter(readFileData("/stories/compiler/routines.z3"),
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        interpreter.setInstructionCacheEnabled(true);
+        interpreter.setCompilationThreshold(2);
+        interpreter.setCompilerEnabled(true);
+        final int start = interpreter.pc;
+        interpreter.run(500);
+        Assert.assertTrue(interpreter.instructionCache.contains(start));
+        Assert.assertTrue(interpreter.getCompiledRoutineCount() > 0);
+
+        interpreter.setSpecializedEngineEnabled(false);
+        Assert.assertFalse(interpreter.instructionCache.contains(start));
+        Assert.assertEquals(0, interpreter.getCompiledRoutineCount());
+        Assert.assertTrue(interpreter.isCompilerEnabled());
+        assertOutputEquals(interpreter, "55 55 55 55 55 123123123 15 6 100 0 -4 0 -1");
+    }
+}
@@ -56,6 +56,42 @@ class InterpreterTest {
         Assert.assertEquals(output, ((ByteArrayOutputStream) outputStream).toString("UTF-8"));
     }
 
+    /**
+     * Returns a story without code: a header with the global variables at 0x40, an empty dictionary at 0x300 and the
+     * initial program counter at 0x1000, where the test writes its instructions.
+     *
+     * @param version version number.
+     * @param size story size.
+     * @param staticMemoryBase static memory base address, the size of the dynamic memory.
+     * @return the story file data.
+     */
+    protected static byte[] emptyStory(int version, int size, int staticMemoryBase) {
+        final byte[] fileData = new byte[size];
+        fileData[0x00] = (byte) version;
+        fileData[0x04] = 0x10; /* high memory base 0x1000 */
+        fileData[0x06] = 0x10; /* initial program counter 0x1000 */
+        fileData[0x08] = 0x03; /* dictionary 0x300 */
+        fileData[0x0a] = 0x02; /* object table 0x200 */
+        fileData[0x0c] = 0x00;
+        fileData[0x0d] = 0x40; /* global variables 0x40 */
+        fileData[0x0e] = (byte) (staticMemoryBase >> 8);
+        fileData[0x0f] = (byte) staticMemoryBase;
+        fileData[0x301] = 7; /* no separators, 7 bytes entries, no entries */
+        return fileData;
+    }
+
+    /**
+     * Moves the static memory base of a story to its end, so that the whole story, code included, is writable.
+     *
+     * @param fileData story file data, modified.
+     * @return the story file data.
+     */
+    protected static byte[] allDynamic(byte[] fileData) {
+        fileData[0x0e] = (byte) (fileData.length >> 8);
+        fileData[0x0f] = (byte) fileData.length;
+        return fileData;
+    }
+
     /**
      * Returns the content of a resource file as a byte array.
      *
@@ -0,0 +1,13 @@
+package com.github.stony.interpreter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+public class ObjectTest extends InterpreterTest {
+    @Test
+    public void objectOpcodesShouldWalkAndChangeTheTree() throws IOException, URISyntaxException {
+        assertOutputEquals("/stories/object/tree.z3", "lampbox\n002\n123\n100 7 42 500 255\n18 5 0 4 0");
+    }
+}
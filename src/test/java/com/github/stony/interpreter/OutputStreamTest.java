@@ -0,0 +1,23 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class OutputStreamTest extends InterpreterTest {
+    @Test
+    public void outputStreamShouldSelectAndDeselectStreams() throws Exception {
+        final Interpreter interpreter = new Interpreter(readFileData("/stories/output/streams.z3"),
+                new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        assertOutputEquals(interpreter, "2\n");
+
+        /* the table follows the only global variable */
+        final int table = interpreter.globalVariablesTableAddress + 2;
+        Assert.assertEquals(3, interpreter.memory.readWord(table));
+        Assert.assertEquals('-', interpreter.memory.readByte(table + 2));
+        Assert.assertEquals('4', interpreter.memory.readByte(table + 3));
+        Assert.assertEquals('2', interpreter.memory.readByte(table + 4));
+    }
+}
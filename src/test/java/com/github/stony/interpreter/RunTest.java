@@ -0,0 +1,50 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class RunTest extends InterpreterTest {
+    private Interpreter interpreter(String filePath) throws Exception {
+        return new Interpreter(readFileData(filePath), new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void runShouldStopWhenTheInstructionBudgetIsUsedUp() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/run/spin.z3");
+        final int pc = interpreter.pc;
+        Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, interpreter.run(1));
+        Assert.assertNotEquals(pc, interpreter.pc);
+        Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, interpreter.run(100000));
+        Assert.assertFalse(interpreter.isFinished());
+    }
+
+    @Test
+    public void runShouldStopWhenTheTimeBudgetIsUsedUp() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/run/spin.z3");
+        Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, interpreter.run(Integer.MAX_VALUE, 1000000));
+    }
+
+    @Test
+    public void runShouldStopWhenTheStoryFinishes() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/call/fib.z3");
+        while (interpreter.run(100) == ExecutionStatus.BUDGET_EXHAUSTED) {
+            Assert.assertFalse(interpreter.isFinished());
+        }
+        Assert.assertTrue(interpreter.isFinished());
+        Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(100));
+        Assert.assertEquals("6765", interpreter.getOutputStream().toString());
+    }
+
+    @Test
+    public void runShouldReportErrors() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/run/error.z3");
+        Assert.assertEquals(ExecutionStatus.ERROR, interpreter.run(100));
+        Assert.assertNotNull(interpreter.getError());
+        Assert.assertEquals(ExecutionStatus.ERROR, interpreter.run(100));
+        Assert.assertEquals("1\n", interpreter.getOutputStream().toString());
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.MemoryBackend;
+import com.github.stony.memory.StoryImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+public class SaveTest extends InterpreterTest {
+    /**
+     * Keeps the last saved file in memory. Restores it a limited number of times.
+     */
+    private static final class MemoryStorage implements SaveStorage {
+        private final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        private int restores;
+
+        MemoryStorage(int restores) {
+            this.restores = restores;
+        }
+
+        @Override
+        public WritableByteChannel openSave() {
+            file.reset();
+            return Channels.newChannel(file);
+        }
+
+        @Override
+        public ReadableByteChannel openRestore() {
+            if (restores == 0) {
+                return null;
+            }
+            restores--;
+            return Channels.newChannel(new ByteArrayInputStream(file.toByteArray()));
+        }
+    }
+
+    private Interpreter interpreter(String filePath) throws Exception {
+        return new Interpreter(readFileData(filePath), new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void restoreShouldResumeAfterSaveWithTheSavedState() throws Exception {
+        /* the count, the locals and both evaluation stacks come back as saved */
+        final Interpreter interpreter = interpreter("/stories/save/save.z3");
+        interpreter.setSaveStorage(new MemoryStorage(1));
+        assertOutputEquals(interpreter, "1 1 N17 7");
+    }
+
+    @Test
+    public void restoreShouldStoreTwoInTheSaveResult() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/save/save5.z5");
+        interpreter.setSaveStorage(new MemoryStorage(1));
+        assertOutputEquals(interpreter, "1 1 2 1 17 7");
+    }
+
+    @Test
+    public void offHeapMemoryShouldSaveAndRestore() throws Exception {
+        final Interpreter interpreter = new Interpreter(new StoryImage(readFileData("/stories/save/save5.z5")),
+                MemoryBackend.OFF_HEAP, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        interpreter.setSaveStorage(new MemoryStorage(1));
+        assertOutputEquals(interpreter, "1 1 2 1 17 7");
+    }
+
+    @Test
+    public void saveShouldFailWithoutStorage() throws Exception {
+        assertOutputEquals(interpreter("/stories/save/save.z3"), "F0 7");
+        assertOutputEquals(interpreter("/stories/save/save5.z5"), "F0 7");
+    }
+
+    @Test
+    public void hostShouldRestoreIntoAnotherInterpreter() throws Exception {
+        final byte[] story = readFileData("/stories/input/read.z3");
+        final Interpreter interpreter = interpreter("/stories/input/read.z3");
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        final ByteArrayOutputStream file = new ByteArrayOutputStream();
+        interpreter.save(Channels.newChannel(file));
+        interpreter.resume("first");
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        Assert.assertEquals("1\n2\n", interpreter.getOutputStream().toString());
+
+        /* a shared image knows its initial state too */
+        final Interpreter restored = new Interpreter(new StoryImage(story), new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+        restored.restore(Channels.newChannel(new ByteArrayInputStream(file.toByteArray())));
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, restored.run(1000));
+        restored.resume("second");
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, restored.run(1000));
+        Assert.assertEquals("2\n", restored.getOutputStream().toString());
+
+        /* the original goes back in time too */
+        interpreter.restore(ByteBuffer.wrap(file.toByteArray()));
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, interpreter.run(1000));
+    }
+
+    @Test
+    public void hostShouldRestoreFilesOfTheSaveInstruction() throws Exception {
+        /* the restored story finishes the save instruction, which succeeds (version 3) or returns 2 (version 5) */
+        final String[] stories = { "/stories/save/save.z3", "/stories/save/save5.z5" };
+        final String[] outputs = { "1 N17 7", "2 1 17 7" };
+        for (int i = 0; i < stories.length; i++) {
+            final Interpreter interpreter = interpreter(stories[i]);
+            final MemoryStorage storage = new MemoryStorage(0);
+            interpreter.setSaveStorage(storage);
+            Assert.assertEquals(ExecutionStatus.FINISHED, interpreter.run(1000));
+
+            final Interpreter restored = interpreter(stories[i]);
+            restored.restore(ByteBuffer.wrap(storage.file.toByteArray()));
+            assertOutputEquals(restored, outputs[i]);
+        }
+    }
+
+    @Test
+    public void restoreInstructionShouldResumeHostFiles() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/save/save.z3");
+        for (int i = 0; i < 4; i++) { /* in SAVER, before the count is incremented */
+            interpreter.executeInstruction();
+        }
+        final ByteBuffer saved = interpreter.save();
+        final byte[] file = new byte[saved.remaining()];
+        saved.get(file);
+
+        /* saves are discarded, the host file is restored once: it resumes at the increment, before save */
+        final Interpreter restored = interpreter("/stories/save/save.z3");
+        restored.setSaveStorage(new SaveStorage() {
+            private boolean restoredOnce;
+
+            @Override
+            public WritableByteChannel openSave() {
+                return Channels.newChannel(new ByteArrayOutputStream());
+            }
+
+            @Override
+            public ReadableByteChannel openRestore() {
+                if (restoredOnce) {
+                    return null;
+                }
+                restoredOnce = true;
+                return Channels.newChannel(new ByteArrayInputStream(file));
+            }
+        });
+        assertOutputEquals(restored, "1 1 N17 7");
+    }
+
+    @Test
+    public void savedFilesShouldRoundTrip() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/save/save5.z5");
+        for (int i = 0; i < 4; i++) { /* in SAVER, with locals and values on both stacks */
+            interpreter.executeInstruction();
+        }
+        final ByteBuffer saved = interpreter.save();
+        final byte[] file = new byte[saved.remaining()];
+        saved.get(file);
+
+        final Interpreter restored = interpreter("/stories/save/save5.z5");
+        restored.restore(ByteBuffer.wrap(file));
+        final ByteBuffer again = restored.save();
+        Assert.assertEquals(ByteBuffer.wrap(file), again);
+    }
+
+    @Test
+    public void restoreShouldRejectOtherStories() throws Exception {
+        final Interpreter other = interpreter("/stories/input/read.z3");
+        other.run(1000);
+        final Interpreter interpreter = interpreter("/stories/save/save.z3");
+        interpreter.executeInstruction();
+        final ByteBuffer before = interpreter.save();
+        final byte[] state = new byte[before.remaining()];
+        before.get(state);
+        try {
+            interpreter.restore(other.save());
+            Assert.fail("Restored a file saved by another story.");
+        } catch (IOException e) {
+            Assert.assertEquals(ByteBuffer.wrap(state), interpreter.save());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFilesShouldBeRejected() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/save/save.z3");
+        final ByteBuffer file = interpreter.save();
+        file.limit(file.limit() - 4);
+        interpreter.restore(file);
+    }
+}
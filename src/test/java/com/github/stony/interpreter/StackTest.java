@@ -0,0 +1,53 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.EmptyStackException;
+
+public class StackTest {
+    @Test
+    public void pushAndPopShouldBeLastInFirstOut() {
+        final Stack stack = new Stack();
+        for (int i = 0; i < 1000; i++) {
+            stack.push(i);
+        }
+        for (int i = 999; i >= 0; i--) {
+            Assert.assertEquals(i, stack.peek());
+            Assert.assertEquals(i, stack.pop());
+        }
+        Assert.assertEquals(0, stack.size());
+    }
+
+    @Test
+    public void replaceShouldOnlyChangeTopValue() {
+        final Stack stack = new Stack();
+        stack.push(1);
+        stack.push(2);
+        stack.replace(3);
+        Assert.assertEquals(2, stack.size());
+        Assert.assertEquals(3, stack.pop());
+        Assert.assertEquals(1, stack.pop());
+    }
+
+    @Test(expected = EmptyStackException.class)
+    public void peekShouldThrowExceptionWhenStackIsEmpty() {
+        new Stack().peek();
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void pushShouldThrowExceptionWhenLimitIsReached() {
+        final Stack stack = new Stack(300);
+        for (int i = 0; i <= 300; i++) {
+            stack.push(i);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitShouldNotBeLowerThanSize() {
+        final Stack stack = new Stack();
+        stack.push(1);
+        stack.push(2);
+        stack.setLimit(1);
+    }
+}
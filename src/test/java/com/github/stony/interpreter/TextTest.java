@@ -0,0 +1,33 @@
+package com.github.stony.interpreter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+public class TextTest extends InterpreterTest {
+    @Test
+    public void printOpcodesShouldDecodeStrings() throws IOException, URISyntaxException {
+        assertOutputEquals("/stories/text/print.z3", "Hello, the world!\nstatic, the world\nin dynamic memory\n"
+                + "Packed: [x] the world\nlamp!\n<the end>\n1");
+    }
+
+    /* g0 holds the packed address 0x8100 of "hi", at 0x10200 */
+    private static byte[] highStringStory() {
+        final byte[] fileData = emptyStory(3, 0x12000, 0x100);
+        fileData[0x40] = (byte) 0x81;
+        fileData[0x1000] = (byte) 0xad; /* print_paddr g0 */
+        fileData[0x1001] = 0x10;
+        fileData[0x1002] = (byte) 0xba; /* quit */
+        fileData[0x10200] = (byte) 0xb5; /* h i, end of string */
+        fileData[0x10201] = (byte) 0xc5;
+        return fileData;
+    }
+
+    @Test
+    public void stringsAboveTheFirst64kShouldBePrintedThroughVariables() throws IOException {
+        final Interpreter interpreter = new Interpreter(highStringStory(), System.in, new ByteArrayOutputStream());
+        assertOutputEquals(interpreter, "hi");
+    }
+}
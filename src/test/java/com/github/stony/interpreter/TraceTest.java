@@ -0,0 +1,148 @@
+package com.github.stony.interpreter;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class TraceTest extends InterpreterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Interpreter interpreter(String fileName) throws Exception {
+        return new Interpreter(readFileData(fileName), new ByteArrayInputStream(new byte[0]),
+                new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void replayShouldGiveTheRecordedInput() throws Exception {
+        final Path trace = folder.newFile().toPath();
+        final Interpreter recorded = interpreter("/stories/input/read.z3");
+        try (TraceRecorder recorder = TraceRecorder.create(trace, 0)) {
+            recorded.setTraceRecorder(recorder);
+            Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, recorded.run(1000));
+            recorded.resume("look");
+            Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, recorded.run(1000));
+            recorded.resume("inventory");
+            Assert.assertEquals(ExecutionStatus.FINISHED, recorded.run(1000));
+        }
+
+        final Interpreter replayed = interpreter("/stories/input/read.z3");
+        final TraceReplayer replayer = TraceReplayer.read(trace);
+        Assert.assertFalse(replayer.hasFailure());
+        Assert.assertEquals(ExecutionStatus.FINISHED, replayer.replay(replayed));
+        Assert.assertEquals(recorded.getOutputStream().toString(), replayed.getOutputStream().toString());
+        Assert.assertEquals(recorded.getInstructionCount(), replayed.getInstructionCount());
+    }
+
+    @Test
+    public void replayShouldStopBeforeTheFailingInstruction() throws Exception {
+        final Path trace = folder.newFile().toPath();
+        final Interpreter recorded = interpreter("/stories/run/error.z3");
+        final TraceRecorder recorder = TraceRecorder.create(trace, 0);
+        recorded.setTraceRecorder(recorder);
+        Assert.assertEquals(ExecutionStatus.ERROR, recorded.run(1000));
+        /* the failure is written at once, even if the recorder is never closed */
+
+        final TraceReplayer replayer = TraceReplayer.read(trace);
+        Assert.assertTrue(replayer.hasFailure());
+        Assert.assertEquals(recorded.getInstructionCount(), replayer.getFailureInstructionCount());
+        Assert.assertEquals(String.valueOf(recorded.getError()), replayer.getFailureMessage());
+
+        final Interpreter replayed = interpreter("/stories/run/error.z3");
+        Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, replayer.replay(replayed));
+        Assert.assertEquals(replayer.getFailureInstructionCount(), replayed.getInstructionCount());
+        try {
+            replayed.executeInstruction();
+            Assert.fail("The instruction should fail.");
+        } catch (RuntimeException e) {
+            Assert.assertEquals(replayer.getFailureMessage(), String.valueOf(e));
+        }
+        recorder.close();
+    }
+
+    @Test
+    public void checkpointsShouldMatchOnReplay() throws Exception {
+        final Path trace = folder.newFile().toPath();
+        final Interpreter recorded = interpreter("/stories/call/fib.z3");
+        try (TraceRecorder recorder = TraceRecorder.create(trace, 1000)) {
+            recorded.setTraceRecorder(recorder);
+            /* steps and runs, so that checkpoints are taken by both */
+            for (int i = 0; i < 1500; i++) {
+                recorded.executeInstruction();
+            }
+            Assert.assertEquals(ExecutionStatus.FINISHED, recorded.run(Integer.MAX_VALUE));
+        }
+
+        final Interpreter replayed = interpreter("/stories/call/fib.z3");
+        replayed.setInstructionCacheEnabled(true);
+        replayed.setFusionSet(FusionSet.defaults());
+        Assert.assertEquals(ExecutionStatus.FINISHED, TraceReplayer.read(trace).replay(replayed));
+        Assert.assertEquals("6765", replayed.getOutputStream().toString());
+    }
+
+    @Test
+    public void replayShouldDetectADifferentState() throws Exception {
+        final Path trace = folder.newFile().toPath();
+        final Interpreter recorded = interpreter("/stories/call/fib.z3");
+        try (TraceRecorder recorder = TraceRecorder.create(trace, 100)) {
+            recorded.setTraceRecorder(recorder);
+            recorded.run(Integer.MAX_VALUE);
+        }
+
+        final Interpreter replayed = interpreter("/stories/call/fib.z3");
+        /* the dynamic memory of the story is its header: change a byte which the story never reads */
+        replayed.memory.writeByte(0x3f, 1);
+        try {
+            TraceReplayer.read(trace).replay(replayed);
+            Assert.fail("The replay should diverge.");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("The replay diverged at instruction 100: the state differs.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void truncatedTraceShouldBeReadUpToItsLastEvent() throws Exception {
+        final Path trace = folder.newFile().toPath();
+        final Interpreter recorded = interpreter("/stories/input/read.z3");
+        try (TraceRecorder recorder = TraceRecorder.create(trace, 0)) {
+            recorded.setTraceRecorder(recorder);
+            recorded.run(1000);
+            recorded.resume("look");
+            recorded.run(1000);
+            recorded.resume("inventory");
+        }
+        final byte[] data = Files.readAllBytes(trace);
+
+        /* cut in the middle of the second input: the replay stops after the first one */
+        final Interpreter replayed = interpreter("/stories/input/read.z3");
+        final TraceReplayer replayer = new TraceReplayer(ByteBuffer.wrap(data, 0, data.length - 6));
+        Assert.assertEquals(ExecutionStatus.BUDGET_EXHAUSTED, replayer.replay(replayed));
+        Assert.assertEquals(ExecutionStatus.AWAITING_INPUT, replayed.run(1000));
+        Assert.assertEquals("1\n2\n", replayed.getOutputStream().toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void replayShouldRejectAnotherStory() throws Exception {
+        final Path trace = folder.newFile().toPath();
+        try (TraceRecorder recorder = TraceRecorder.create(trace, 0)) {
+            interpreter("/stories/call/fib.z3").setTraceRecorder(recorder);
+        }
+        TraceReplayer.read(trace).replay(interpreter("/stories/input/read.z3"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recordingShouldStartAtTheFirstInstruction() throws Exception {
+        final Interpreter interpreter = interpreter("/stories/call/fib.z3");
+        interpreter.executeInstruction();
+        try (TraceRecorder recorder = TraceRecorder.create(folder.newFile().toPath(), 0)) {
+            interpreter.setTraceRecorder(recorder);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.stony.interpreter;
+
+import com.github.stony.memory.ArrayMemory;
+import com.github.stony.memory.Memory;
+import com.github.stony.memory.MemoryBackend;
+import com.github.stony.memory.StoryImage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class UndoTest extends InterpreterTest {
+    private Interpreter interpreter() throws Exception {
+        return interpreter(readFileData("/stories/save/undo.z5"));
+    }
+
+    private static Interpreter interpreter(byte[] fileData) {
+        return new Interpreter(fileData, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+    }
+
+    private static UndoRing.Level level(Memory memory, int page) {
+        memory.writeByte(page * Memory.PAGE_SIZE, 1);
+        return new UndoRing.Level(memory.snapshot(), new int[0], new int[0], 0);
+    }
+
+    @Test
+    public void restoreUndoShouldGoBackLevelByLevel() throws Exception {
+        /* memory, locals and both evaluation stacks come back, then there is nothing left to undo */
+        final Interpreter interpreter = interpreter();
+        assertOutputEquals(interpreter, "1 1 2 2 4 4 9 2 1 0");
+        Assert.assertEquals(0, interpreter.getUndoLevelCount());
+        Assert.assertEquals(0, interpreter.getUndoSize());
+    }
+
+    @Test
+    public void offHeapMemoryShouldUndo() throws Exception {
+        final Interpreter interpreter = new Interpreter(new StoryImage(readFileData("/stories/save/undo.z5")),
+                MemoryBackend.OFF_HEAP, new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+        assertOutputEquals(interpreter, "1 1 2 2 4 4 9 2 1 0");
+    }
+
+    @Test
+    public void disabledUndoShouldBeReportedAsUnavailable() throws Exception {
+        final Interpreter interpreter = interpreter();
+        interpreter.setUndoDepth(0);
+        assertOutputEquals(interpreter, "-1 -1 F0 9 F");
+    }
+
+    @Test
+    public void levelsShouldBeCountedWithTheirOwnPagesOnly() throws Exception {
+        /* two pages of dynamic memory */
+        final Interpreter interpreter = interpreter(allDynamic(readFileData("/stories/save/undo.z5")));
+        interpreter.run(9); /* both levels saved */
+        Assert.assertEquals(2, interpreter.getUndoLevelCount());
+        /* the first level holds the whole memory, the second one the page written in between */
+        Assert.assertTrue(interpreter.getUndoLevelSize(1) > 2 * Memory.PAGE_SIZE);
+        Assert.assertTrue(interpreter.getUndoLevelSize(0) < 2 * Memory.PAGE_SIZE);
+        Assert.assertEquals(interpreter.getUndoLevelSize(0) + interpreter.getUndoLevelSize(1),
+                interpreter.getUndoSize());
+    }
+
+    @Test
+    public void levelsShouldOnlyHoldTheDynamicMemory() throws Exception {
+        final Interpreter interpreter = interpreter();
+        Assert.assertEquals(interpreter.header.getStaticMemoryBaseAddress(), interpreter.memory.getWritableSize());
+        interpreter.run(9);
+        /* a single page, static and high memory are left out */
+        Assert.assertTrue(interpreter.getUndoLevelSize(1) < 2 * Memory.PAGE_SIZE);
+    }
+
+    @Test
+    public void oldestLevelsShouldBeEvictedFirst() {
+        final Memory memory = new ArrayMemory(new byte[8 * Memory.PAGE_SIZE]);
+        final UndoRing ring = new UndoRing();
+        ring.setDepth(2);
+        final UndoRing.Level first = level(memory, 0);
+        final UndoRing.Level second = level(memory, 1);
+        final UndoRing.Level third = level(memory, 2);
+        Assert.assertTrue(ring.push(first));
+        Assert.assertTrue(ring.push(second));
+        final long secondSize = ring.getLevelSize(0);
+        Assert.assertTrue(ring.push(third));
+
+        /* the second level inherits the pages it shared with the first one */
+        Assert.assertEquals(2, ring.getCount());
+        Assert.assertEquals(secondSize + first.memory.getSharedSize(second.memory), ring.getLevelSize(1));
+        Assert.assertSame(third, ring.pop());
+        Assert.assertSame(second, ring.pop());
+        Assert.assertNull(ring.pop());
+        Assert.assertEquals(0, ring.getSize());
+    }
+
+    @Test
+    public void levelsShouldFitTheLimit() {
+        final Memory memory = new ArrayMemory(new byte[8 * Memory.PAGE_SIZE]);
+        final UndoRing ring = new UndoRing();
+        Assert.assertTrue(ring.push(level(memory, 0)));
+        final long firstSize = ring.getSize();
+        ring.setLimit(firstSize + 100);
+        Assert.assertTrue(ring.push(level(memory, 1)));
+        Assert.assertEquals(1, ring.getCount()); /* the first level was evicted */
+        Assert.assertTrue(ring.getSize() <= firstSize + 100);
+
+        ring.setLimit(10);
+        Assert.assertFalse(ring.push(level(memory, 2))); /* doesn't fit alone */
+        Assert.assertEquals(0, ring.getCount());
+        Assert.assertEquals(0, ring.getSize());
+    }
+
+    @Test
+    public void budgetShouldBeSharedByInterpreters() {
+        final UndoBudget budget = new UndoBudget(Long.MAX_VALUE);
+        final Memory firstMemory = new ArrayMemory(new byte[8 * Memory.PAGE_SIZE]);
+        final Memory secondMemory = new ArrayMemory(new byte[8 * Memory.PAGE_SIZE]);
+        final UndoRing first = new UndoRing();
+        final UndoRing second = new UndoRing();
+        first.setBudget(budget);
+        second.setBudget(budget);
+        Assert.assertTrue(first.push(level(firstMemory, 0)));
+        Assert.assertTrue(second.push(level(secondMemory, 0)));
+        Assert.assertEquals(first.getSize() + second.getSize(), budget.getUsedBytes());
+
+        /* the saving ring evicts its own levels, never the other ring's */
+        budget.setLimit(budget.getUsedBytes() + 100);
+        Assert.assertTrue(second.push(level(secondMemory, 1)));
+        Assert.assertEquals(1, first.getCount());
+        Assert.assertEquals(1, second.getCount());
+        Assert.assertTrue(budget.getUsedBytes() <= budget.getLimit());
+
+        first.clear();
+        second.setBudget(null);
+        Assert.assertEquals(0, budget.getUsedBytes());
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.stony.memory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class DirectMemoryTest {
+    private static byte[] image() {
+        final byte[] image = new byte[16];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i + 1);
+        }
+        return image;
+    }
+
+    private static Memory memory() {
+        return new DirectMemory(ByteBuffer.wrap(image()), 8);
+    }
+
+    @Test
+    public void readsShouldMatchTheArrayMemory() {
+        final Memory direct = memory();
+        final Memory array = new ArrayMemory(image(), 8);
+        direct.writeWord(6, 0xfedc);
+        array.writeWord(6, 0xfedc);
+        for (int address = 0; address < 15; address++) {
+            Assert.assertEquals(array.readByte(address), direct.readByte(address));
+            Assert.assertEquals(array.readSignedByte(address), direct.readSignedByte(address));
+            Assert.assertEquals(array.readWord(address), direct.readWord(address));
+            Assert.assertEquals(array.readSignedWord(address), direct.readSignedWord(address));
+        }
+        Assert.assertEquals(16, direct.getSize());
+        Assert.assertEquals(8, direct.getWritableSize());
+    }
+
+    @Test
+    public void memoriesOfAnImageShouldNotShareWrites() {
+        final byte[] image = image();
+        final Memory first = new DirectMemory(ByteBuffer.wrap(image), 8);
+        final Memory second = new DirectMemory(ByteBuffer.wrap(image), 8);
+        first.writeByte(1, 0x7f);
+        Assert.assertEquals(0x7f, first.readByte(1));
+        Assert.assertEquals(2, second.readByte(1));
+        Assert.assertEquals(2, image[1]);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void writesToStaticMemoryShouldThrowException() {
+        memory().writeByte(8, 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void wordWritesCrossingIntoStaticMemoryShouldThrowException() {
+        memory().writeWord(7, 0);
+    }
+
+    @Test
+    public void bytesShouldBeCopiedInBulk() {
+        final Memory memory = memory();
+        memory.writeBytes(2, ByteBuffer.wrap(new byte[] {0x11, 0x22, 0x33}), 3);
+        final ByteBuffer out = ByteBuffer.allocate(6);
+        memory.readBytes(4, out, 6); /* across the dynamic memory end */
+        Assert.assertArrayEquals(new byte[] {0x33, 6, 7, 8, 9, 10}, out.array());
+        Assert.assertEquals(1, memory.getDirtyPageCount());
+    }
+
+    @Test
+    public void changesShouldRestoreTheMemory() {
+        final Memory memory = memory();
+        memory.writeByte(2, 0x40);
+        memory.writeWord(5, 0x1234);
+        final byte[] changes = new byte[Memory.maxChangesLength(8)];
+        final int changesLength = memory.writeChanges(8, changes, 0);
+
+        final Memory other = memory();
+        other.readChanges(changes, 0, changesLength, 8);
+        for (int address = 0; address < 8; address++) {
+            Assert.assertEquals(memory.readByte(address), other.readByte(address));
+        }
+    }
+
+    @Test
+    public void snapshotsShouldMoveBetweenBackends() {
+        final Memory direct = memory();
+        direct.writeWord(2, 0xabcd);
+        final MemorySnapshot snapshot = direct.snapshot();
+        direct.writeByte(2, 0);
+        direct.restore(snapshot);
+        Assert.assertEquals(0xabcd, direct.readWord(2));
+
+        final Memory array = new ArrayMemory(image(), 8);
+        array.restore(snapshot);
+        Assert.assertEquals(0xabcd, array.readWord(2));
+    }
+
+    @Test
+    public void imagesShouldCreateMemoriesOfTheBackend() {
+        final byte[] story = new byte[1024];
+        story[0] = 3;
+        story[0xe] = 0x02; /* static memory base 0x200 */
+        final StoryImage image = new StoryImage(story);
+        Assert.assertTrue(image.newMemory(MemoryBackend.OFF_HEAP) instanceof DirectMemory);
+        Assert.assertTrue(image.newMemory(MemoryBackend.HEAP) instanceof ArrayMemory);
+        Assert.assertEquals(0x200, image.newMemory(MemoryBackend.OFF_HEAP).getWritableSize());
+    }
+}
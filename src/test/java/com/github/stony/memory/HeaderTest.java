@@ -0,0 +1,88 @@
+package com.github.stony.memory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HeaderTest {
+    /**
+     * Returns the memory of a story with the same header as the test stories.
+     */
+    private static Memory storyMemory(int version) {
+        final Memory memory = new ArrayMemory(new byte[512]);
+        memory.writeByte(0x00, version);
+        memory.writeWord(0x04, 0x46); /* high memory */
+        memory.writeWord(0x06, 0x47); /* initial pc */
+        memory.writeWord(0x08, 0x42); /* dictionary */
+        memory.writeWord(0x0a, 0x42); /* object table */
+        memory.writeWord(0x0c, 0x40); /* global variables */
+        memory.writeWord(0x0e, 0x42); /* static memory */
+        memory.writeWord(0x1a, 0x100); /* file length */
+        return memory;
+    }
+
+    @Test
+    public void fixedFieldsShouldBeRead() {
+        final Header header = new Header(storyMemory(3));
+        Assert.assertEquals(3, header.getVersionNumber());
+        Assert.assertEquals(0x46, header.getHighMemoryBaseAddress());
+        Assert.assertEquals(0x47, header.getProgramCounterInitialValue());
+        Assert.assertEquals(0x42, header.getDictionaryAddress());
+        Assert.assertEquals(0x40, header.getGlobalVariablesTableAddress());
+        Assert.assertEquals(0x200, header.getFileLength());
+        Assert.assertEquals(0x400, new Header(storyMemory(5)).getFileLength());
+        Assert.assertEquals(0x800, new Header(storyMemory(8)).getFileLength());
+    }
+
+    @Test
+    public void fixedFieldsShouldNotChangeWithMemory() {
+        final Memory memory = storyMemory(3);
+        final Header header = new Header(memory);
+        memory.writeWord(0x0c, 0x1234);
+        Assert.assertEquals(0x40, header.getGlobalVariablesTableAddress());
+    }
+
+    @Test(expected = UnsupportedAccessException.class)
+    public void routinesOffsetShouldNotBeSupportedBeforeVersionSix() {
+        new Header(storyMemory(5)).getRoutinesOffset();
+    }
+
+    @Test
+    public void dynamicFieldsShouldFollowMemory() {
+        final Memory memory = storyMemory(5);
+        final DynamicHeader dynamicHeader = new DynamicHeader(memory, new Header(memory));
+        memory.writeWord(0x10, 0x01);
+        Assert.assertTrue(dynamicHeader.isTranscripting());
+
+        dynamicHeader.setScreenSize(25, 80);
+        Assert.assertEquals(25, dynamicHeader.getScreenHeightLines());
+        Assert.assertEquals(80, memory.readWord(0x22));
+    }
+
+    @Test
+    public void reapplyShouldRestoreInterpreterValues() {
+        final Memory memory = storyMemory(5);
+        final DynamicHeader dynamicHeader = new DynamicHeader(memory, new Header(memory));
+        dynamicHeader.setFlags1(0x1c);
+        dynamicHeader.setScreenSize(25, 80);
+        memory.writeWord(0x10, 0x01);
+
+        /* the dynamic memory is replaced, as a restore would */
+        final int flags2 = dynamicHeader.getFlags2();
+        for (int address = 0; address < 0x40; address++) {
+            if (address != 0x00) {
+                memory.writeByte(address, 0);
+            }
+        }
+        dynamicHeader.reapply(flags2);
+
+        Assert.assertEquals(0x1c, dynamicHeader.getFlags1());
+        Assert.assertTrue(dynamicHeader.isTranscripting());
+        Assert.assertEquals(80, dynamicHeader.getScreenWidthCharacters());
+    }
+
+    @Test(expected = UnsupportedAccessException.class)
+    public void screenSizeShouldNotBeSupportedBeforeVersionFour() {
+        final Memory memory = storyMemory(3);
+        new DynamicHeader(memory, new Header(memory)).getScreenHeightLines();
+    }
+}
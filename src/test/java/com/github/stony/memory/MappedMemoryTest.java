@@ -0,0 +1,115 @@
+package com.github.stony.memory;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MappedMemoryTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] image() {
+        final byte[] image = new byte[16];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i + 1);
+        }
+        return image;
+    }
+
+    /* A version 3 story of 1 kb: 512 bytes of dynamic memory, then static memory filled with 0xa5 */
+    private static byte[] story() {
+        final byte[] story = new byte[1024];
+        story[0] = 3;
+        story[0xe] = 0x02; /* static memory base 0x200 */
+        story[0x4] = 0x03; /* high memory base 0x300 */
+        for (int i = 0x200; i < story.length; i++) {
+            story[i] = (byte) 0xa5;
+        }
+        return story;
+    }
+
+    @Test
+    public void readsShouldMatchTheArrayMemory() {
+        final Memory mapped = new MappedMemory(ByteBuffer.wrap(image()).asReadOnlyBuffer(), 8);
+        final Memory array = new ArrayMemory(image(), 8);
+        for (int address = 0; address < 15; address++) {
+            Assert.assertEquals(array.readByte(address), mapped.readByte(address));
+            Assert.assertEquals(array.readWord(address), mapped.readWord(address));
+        }
+        Assert.assertEquals(16, mapped.getSize());
+        Assert.assertEquals(8, mapped.getWritableSize());
+    }
+
+    @Test
+    public void signedReadsShouldBeSignExtended() {
+        final ByteBuffer image = ByteBuffer.wrap(new byte[] {(byte) 0xff, (byte) 0xfe, (byte) 0x80, 0x01});
+        final Memory memory = new MappedMemory(image, 2);
+        Assert.assertEquals(-2, memory.readSignedWord(0));
+        Assert.assertEquals(-32767, memory.readSignedWord(2));
+        Assert.assertEquals(-128, memory.readSignedByte(2));
+        Assert.assertEquals(0xfe80, memory.readWord(1));
+    }
+
+    @Test
+    public void wordsShouldBeReadAcrossTheDynamicMemoryEnd() {
+        final Memory memory = new MappedMemory(ByteBuffer.wrap(image()), 8);
+        memory.writeByte(7, 0xaa);
+        Assert.assertEquals(0xaa09, memory.readWord(7));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void writesToStaticMemoryShouldThrowException() {
+        new MappedMemory(ByteBuffer.wrap(image()), 8).writeWord(7, 0);
+    }
+
+    @Test
+    public void changesShouldBeComputedAgainstTheImage() {
+        final Memory memory = new MappedMemory(ByteBuffer.wrap(image()), 8);
+        memory.writeByte(2, 3 ^ 0x10);
+        final byte[] changes = new byte[Memory.maxChangesLength(8)];
+        Assert.assertEquals(3, memory.writeChanges(8, changes, 0));
+        memory.writeByte(2, 0);
+        memory.readChanges(changes, 0, 3, 8);
+        Assert.assertEquals(3 ^ 0x10, memory.readByte(2));
+    }
+
+    @Test
+    public void mappedStoryShouldOnlyCopyTheDynamicMemory() throws Exception {
+        final Path file = folder.newFile("story.z3").toPath();
+        Files.write(file, story());
+        final StoryImage image = StoryImage.map(file);
+        Assert.assertTrue(image.isMapped());
+        Assert.assertEquals(1024, image.getSize());
+        Assert.assertEquals(0x200, image.getDynamicMemorySize());
+
+        final Memory first = image.newMemory();
+        final Memory second = image.newMemory();
+        first.writeByte(0x40, 1);
+        Assert.assertEquals(0, second.readByte(0x40));
+        Assert.assertEquals(0xa5a5, first.readWord(0x300));
+        Assert.assertEquals(0x200, first.getWritableSize());
+    }
+
+    @Test
+    public void storyShouldBeMappedFromARegionOfAFile() throws Exception {
+        /* a story inside a bundle, such as the story chunk of a Blorb file */
+        final Path file = folder.newFile("bundle").toPath();
+        final byte[] bundle = new byte[100 + 1024 + 20];
+        System.arraycopy(story(), 0, bundle, 100, 1024);
+        Files.write(file, bundle);
+        final StoryImage image;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            image = StoryImage.map(channel, 100, 1024);
+        }
+        Assert.assertEquals(3, image.getHeader().getVersionNumber());
+        Assert.assertEquals(0x300, image.getHeader().getHighMemoryBaseAddress());
+        Assert.assertEquals(0xa5, image.newMemory().readByte(1023));
+    }
+}
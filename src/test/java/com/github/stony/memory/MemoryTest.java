@@ -0,0 +1,182 @@
+package com.github.stony.memory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class MemoryTest {
+    private static byte[] image() {
+        final byte[] image = new byte[16];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i + 1);
+        }
+        return image;
+    }
+
+    @Test
+    public void wordsShouldBeBigEndian() {
+        final Memory memory = new ArrayMemory(new byte[4]);
+        memory.writeWord(0, 0xfffe);
+        Assert.assertEquals(0xff, memory.readByte(0));
+        Assert.assertEquals(0xfffe, memory.readWord(0));
+        Assert.assertEquals(-2, memory.readSignedWord(0));
+        Assert.assertEquals(-1, memory.readSignedByte(0));
+    }
+
+    @Test
+    public void sharedImageShouldNotSeeDynamicWrites() {
+        final byte[] image = image();
+        final Memory first = new ArrayMemory(image, 8);
+        final Memory second = new ArrayMemory(image, 8);
+
+        first.writeWord(2, 0x1234);
+        Assert.assertEquals(0x1234, first.readWord(2));
+        Assert.assertEquals(0x0304, second.readWord(2));
+        Assert.assertEquals(3, image[2]);
+    }
+
+    @Test
+    public void wordsShouldBeReadAcrossTheDynamicMemoryEnd() {
+        final Memory memory = new ArrayMemory(image(), 8);
+        memory.writeByte(7, 0xaa);
+        Assert.assertEquals(0xaa09, memory.readWord(7));
+        Assert.assertEquals(0x090a, memory.readWord(8));
+        Assert.assertEquals(16, memory.getSize());
+        Assert.assertEquals(8, memory.getWritableSize());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void writesToStaticMemoryShouldThrowException() {
+        new ArrayMemory(image(), 8).writeByte(8, 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void wordWritesCrossingIntoStaticMemoryShouldThrowException() {
+        new ArrayMemory(image(), 8).writeWord(7, 0);
+    }
+
+    @Test
+    public void inPlaceMemoryShouldOnlyWriteTheDynamicMemory() {
+        final byte[] story = new byte[4 * Memory.PAGE_SIZE];
+        story[0x0f] = 0x40; /* static memory base */
+        final Memory memory = ArrayMemory.inPlace(story);
+        Assert.assertEquals(0x40, memory.getWritableSize());
+        Assert.assertEquals(story.length, memory.getSize());
+
+        memory.writeWord(0x3e, 0x1234);
+        Assert.assertEquals(0x12, story[0x3e]);
+        try {
+            memory.writeByte(0x40, 0);
+            Assert.fail();
+        } catch (RuntimeException e) {
+            Assert.assertEquals(0, story[0x40]);
+        }
+    }
+
+    @Test
+    public void changesShouldBeRunLengthEncoded() {
+        final Memory memory = new ArrayMemory(new byte[1024]);
+        memory.keepInitialState(1000);
+        memory.writeByte(0, 0x01);
+        memory.writeByte(300, 0xff);
+        final byte[] changes = new byte[Memory.maxChangesLength(1000) + 1];
+        Assert.assertEquals(7, memory.writeChanges(1000, changes, 1));
+        /* 299 unchanged bytes take two runs, trailing ones are omitted */
+        Assert.assertArrayEquals(new byte[] {0, 0x01, 0, (byte) 255, 0, 42, (byte) 0xff},
+                Arrays.copyOf(changes, 7));
+    }
+
+    @Test
+    public void changesShouldRestoreTheMemory() {
+        final byte[] image = new byte[4096];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) (i * 7);
+        }
+        final Memory memory = new ArrayMemory(image, 2048);
+        for (int address = 0; address < 2048; address += 5) {
+            memory.writeByte(address, address / 3);
+        }
+        final byte[] changes = new byte[Memory.maxChangesLength(2048)];
+        final int changesLength = memory.writeChanges(2048, changes, 0);
+        final byte[] saved = new byte[2048];
+        memory.readBytes(0, ByteBuffer.wrap(saved), 2048);
+
+        for (int address = 1; address < 2048; address += 3) {
+            memory.writeByte(address, 0x55);
+        }
+        memory.readChanges(changes, 0, changesLength, 2048);
+        final byte[] restored = new byte[2048];
+        memory.readBytes(0, ByteBuffer.wrap(restored), 2048);
+        Assert.assertArrayEquals(saved, restored);
+    }
+
+    @Test
+    public void invalidChangesShouldLeaveTheMemoryUntouched() {
+        final Memory memory = new ArrayMemory(image(), 8);
+        memory.writeByte(0, 0x10);
+        try {
+            memory.readChanges(new byte[] {0x01, 0, 7}, 0, 3, 8); /* 9 bytes */
+            Assert.fail("Accepted changes longer than the memory.");
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(0x10, memory.readByte(0));
+        }
+    }
+
+    @Test
+    public void snapshotsShouldShareCleanPages() {
+        final Memory memory = new ArrayMemory(new byte[4 * Memory.PAGE_SIZE + 10]);
+        final MemorySnapshot first = memory.snapshot();
+        Assert.assertEquals(5, first.getPageCount());
+        Assert.assertEquals(5, first.getCopiedPageCount());
+
+        memory.writeWord(Memory.PAGE_SIZE - 1, 0x1234); /* across two pages */
+        memory.writeByte(4 * Memory.PAGE_SIZE + 9, 0x56);
+        Assert.assertEquals(3, memory.getDirtyPageCount());
+        final MemorySnapshot second = memory.snapshot();
+        Assert.assertEquals(3, second.getCopiedPageCount());
+        Assert.assertEquals(0, memory.getDirtyPageCount());
+        Assert.assertEquals(0, memory.snapshot().getCopiedPageCount());
+    }
+
+    @Test
+    public void restoreShouldBringBackTheSnapshot() {
+        final Memory memory = new ArrayMemory(image(), 8);
+        final MemorySnapshot initial = memory.snapshot();
+        memory.writeWord(2, 0xabcd);
+        final MemorySnapshot written = memory.snapshot();
+        memory.writeByte(7, 0);
+
+        memory.restore(initial);
+        Assert.assertEquals(0x0304, memory.readWord(2));
+        Assert.assertEquals(8, memory.readByte(7));
+        memory.restore(written);
+        Assert.assertEquals(0xabcd, memory.readWord(2));
+        Assert.assertEquals(8, memory.readByte(7));
+
+        /* a snapshot moves to another memory of the same story */
+        final Memory other = new ArrayMemory(image(), 8);
+        other.restore(written);
+        Assert.assertEquals(0xabcd, other.readWord(2));
+    }
+
+    @Test
+    public void restoredPagesShouldBeReportedToTheListener() {
+        final Memory memory = new ArrayMemory(new byte[2 * Memory.PAGE_SIZE]);
+        final MemorySnapshot snapshot = memory.snapshot();
+        memory.writeByte(Memory.PAGE_SIZE + 1, 1);
+        final int[] written = new int[2];
+        memory.setWriteListener(Memory.PAGE_SIZE, (address, length) -> {
+            written[0] = address;
+            written[1] = length;
+        });
+        memory.restore(snapshot);
+        Assert.assertArrayEquals(new int[] {Memory.PAGE_SIZE, Memory.PAGE_SIZE}, written);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void snapshotsOfOtherSizesShouldBeRejected() {
+        new ArrayMemory(new byte[16]).restore(new ArrayMemory(new byte[1024]).snapshot());
+    }
+}
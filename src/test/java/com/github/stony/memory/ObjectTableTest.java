@@ -0,0 +1,64 @@
+package com.github.stony.memory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ObjectTableTest {
+    private static final int OBJECT_TABLE = 0x40;
+    private static final int PROPERTIES = 0x100;
+
+    /**
+     * Returns a version 5 story with a single object, whose property table has an empty name, a 2 bytes property 40
+     * and a 10 bytes property 33 (two bytes size).
+     */
+    private static Memory memory() {
+        final byte[] fileData = new byte[0x200];
+        fileData[0] = 5;
+        fileData[0x0a] = (byte) (OBJECT_TABLE >> 8);
+        fileData[0x0b] = (byte) OBJECT_TABLE;
+        fileData[0x0e] = 0x01;
+        fileData[0x0f] = (byte) 0x80;
+        final Memory memory = new ArrayMemory(fileData);
+        final int entry = OBJECT_TABLE + 63 * 2;
+        memory.writeWord(entry + 12, PROPERTIES);
+        memory.writeByte(PROPERTIES, 0);
+        memory.writeByte(PROPERTIES + 1, 0x40 | 40);
+        memory.writeWord(PROPERTIES + 2, 0x1234);
+        memory.writeByte(PROPERTIES + 4, 0x80 | 33);
+        memory.writeByte(PROPERTIES + 5, 0x80 | 10);
+        memory.writeByte(PROPERTIES + 16, 0);
+        return memory;
+    }
+
+    @Test
+    public void propertiesShouldBeFoundInVersion4AndAbove() {
+        final Memory memory = memory();
+        final ObjectTable objectTable = new ObjectTable(memory, new Header(memory));
+        Assert.assertEquals(0x1234, objectTable.getProperty(1, 40));
+        Assert.assertEquals(PROPERTIES + 6, objectTable.getPropertyAddress(1, 33));
+        Assert.assertEquals(10, objectTable.getPropertyLength(PROPERTIES + 6));
+        Assert.assertEquals(33, objectTable.getNextProperty(1, 40));
+        Assert.assertEquals(0, objectTable.getNextProperty(1, 33));
+        Assert.assertEquals(0, objectTable.getShortNameAddress(1));
+    }
+
+    @Test
+    public void indexShouldFollowChangesToThePropertyTable() {
+        final Memory memory = memory();
+        final ObjectTable objectTable = new ObjectTable(memory, new Header(memory));
+        Assert.assertEquals(PROPERTIES + 2, objectTable.getPropertyAddress(1, 40));
+
+        /* renumbered without notification: the index is stale */
+        memory.writeByte(PROPERTIES + 1, 0x40 | 41);
+        Assert.assertEquals(PROPERTIES + 2, objectTable.getPropertyAddress(1, 40));
+        objectTable.invalidate(PROPERTIES + 1, 1);
+        Assert.assertEquals(0, objectTable.getPropertyAddress(1, 40));
+        Assert.assertEquals(PROPERTIES + 2, objectTable.getPropertyAddress(1, 41));
+
+        /* a new property table pointer is noticed without invalidation */
+        memory.writeWord(OBJECT_TABLE + 63 * 2 + 12, PROPERTIES + 3);
+        memory.writeByte(PROPERTIES + 3, 0);
+        Assert.assertEquals(PROPERTIES + 6, objectTable.getPropertyAddress(1, 33));
+        Assert.assertEquals(0, objectTable.getPropertyAddress(1, 41));
+    }
+}
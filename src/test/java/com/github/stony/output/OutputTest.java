@@ -0,0 +1,156 @@
+package com.github.stony.output;
+
+import com.github.stony.memory.ArrayMemory;
+import com.github.stony.memory.DynamicHeader;
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+
+public class OutputTest {
+    private static final int TABLE = 0x100;
+
+    /**
+     * Counts the write calls, to check that output is buffered.
+     */
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+        int writes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            writes++;
+            super.write(b);
+        }
+    }
+
+    private Memory memory;
+    private DynamicHeader dynamicHeader;
+    private CountingOutputStream screen;
+    private Output output;
+
+    @Before
+    public void setUp() {
+        final byte[] fileData = new byte[0x200];
+        fileData[0] = 3;
+        fileData[0x0e] = 0x02; /* static memory at 0x200 */
+        memory = new ArrayMemory(fileData);
+        dynamicHeader = new DynamicHeader(memory, new Header(memory));
+        screen = new CountingOutputStream();
+        output = new Output(memory, dynamicHeader, screen);
+    }
+
+    private static String text(OutputStream outputStream) throws Exception {
+        return ((ByteArrayOutputStream) outputStream).toString("UTF-8");
+    }
+
+    @Test
+    public void outputShouldBeWrittenOnFlush() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            output.printNumber(i);
+            output.newLine();
+        }
+        Assert.assertEquals(0, screen.writes);
+        output.flush();
+        Assert.assertEquals(1, screen.writes);
+        Assert.assertTrue(text(screen).endsWith("998\n999\n"));
+    }
+
+    @Test
+    public void fullBuffersShouldBeWritten() {
+        for (int i = 0; i < OutputBuffer.DEFAULT_CAPACITY; i++) {
+            output.print('a');
+        }
+        Assert.assertEquals(1, screen.writes);
+    }
+
+    @Test
+    public void numbersShouldBePrintedInDecimal() throws Exception {
+        output.printNumber(0);
+        output.print(' ');
+        output.printNumber(-32768);
+        output.print(' ');
+        output.printNumber(32767);
+        output.print(' ');
+        output.printNumber(Integer.MIN_VALUE);
+        output.flush();
+        Assert.assertEquals("0 -32768 32767 -2147483648", text(screen));
+    }
+
+    @Test
+    public void extraCharactersShouldBeEncodedInUtf8() throws Exception {
+        output.print(155);
+        output.print(223);
+        output.print(1);
+        output.print(0);
+        output.flush();
+        Assert.assertEquals("\u00e4\u00bf?", text(screen));
+    }
+
+    @Test
+    public void memoryStreamsShouldNest() throws Exception {
+        output.print('a');
+        output.selectMemory(TABLE);
+        output.print('b');
+        output.selectMemory(TABLE + 0x10);
+        output.printNumber(12);
+        output.deselect(Output.MEMORY);
+        output.print('c');
+        output.deselect(Output.MEMORY);
+        output.print('d');
+        output.flush();
+
+        Assert.assertEquals("ad", text(screen));
+        Assert.assertEquals(2, memory.readWord(TABLE));
+        Assert.assertEquals('b', memory.readByte(TABLE + 2));
+        Assert.assertEquals('c', memory.readByte(TABLE + 3));
+        Assert.assertEquals(2, memory.readWord(TABLE + 0x10));
+        Assert.assertEquals('1', memory.readByte(TABLE + 0x12));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void tooManyMemoryStreamsShouldThrowException() {
+        for (int i = 0; i <= Output.MAX_MEMORY_STREAMS; i++) {
+            output.selectMemory(TABLE);
+        }
+    }
+
+    @Test
+    public void transcriptShouldFollowFlags2() throws Exception {
+        final ByteArrayOutputStream transcript = new ByteArrayOutputStream();
+        output.setTranscriptStream(transcript);
+        output.print('a');
+        output.select(Output.TRANSCRIPT);
+        Assert.assertTrue(dynamicHeader.isTranscripting());
+        output.print('b');
+        /* the story may also set the bit itself */
+        dynamicHeader.setFlags2(0);
+        output.print('c');
+        output.flush();
+
+        Assert.assertEquals("abc", text(screen));
+        Assert.assertEquals("b", text(transcript));
+    }
+
+    @Test
+    public void commandScriptShouldReceiveInput() throws Exception {
+        final ByteArrayOutputStream commandScript = new ByteArrayOutputStream();
+        output.setCommandScriptStream(commandScript);
+        output.printInput("north");
+        output.select(Output.COMMAND_SCRIPT);
+        output.printInput("look");
+        output.deselect(Output.COMMAND_SCRIPT);
+
+        Assert.assertEquals("look\n", text(commandScript));
+        Assert.assertEquals("", text(screen));
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.stony.text;
+
+import com.github.stony.memory.ArrayMemory;
+import com.github.stony.memory.Dictionary;
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenizerTest {
+    private static final int TEXT = 0x40;
+    private static final int PARSE = 0x80;
+    private static final int STATIC_BASE = 0x100;
+    private static final int DICTIONARY = 0x200;
+    private static final int ENTRY_LENGTH = 7;
+
+    /**
+     * Returns a version 3 story whose dictionary, in static memory, has '.' and ',' as separators and the given
+     * lowercase words as entries.
+     */
+    private static Memory memory(String... words) {
+        final byte[] fileData = new byte[0x400];
+        fileData[0] = 3;
+        fileData[0x08] = (byte) (DICTIONARY >> 8);
+        fileData[0x0e] = (byte) (STATIC_BASE >> 8);
+        final Memory memory = new ArrayMemory(fileData);
+        writeDictionary(memory, DICTIONARY, words);
+        return memory;
+    }
+
+    private static void writeDictionary(Memory memory, int address, String... words) {
+        memory.writeByte(address, 2);
+        memory.writeByte(address + 1, '.');
+        memory.writeByte(address + 2, ',');
+        memory.writeByte(address + 3, ENTRY_LENGTH);
+        memory.writeWord(address + 4, words.length);
+        for (int i = 0; i < words.length; i++) {
+            final int entry = entry(address, i);
+            final int[] z = {5, 5, 5, 5, 5, 5};
+            for (int j = 0; j < Math.min(words[i].length(), 6); j++) {
+                z[j] = words[i].charAt(j) - 'a' + 6;
+            }
+            memory.writeWord(entry, (z[0] << 10) | (z[1] << 5) | z[2]);
+            memory.writeWord(entry + 2, 0x8000 | (z[3] << 10) | (z[4] << 5) | z[5]);
+        }
+    }
+
+    private static int entry(int dictionaryAddress, int index) {
+        return dictionaryAddress + 6 + index * ENTRY_LENGTH;
+    }
+
+    private static Tokenizer tokenizer(Memory memory) {
+        final Header header = new Header(memory);
+        return new Tokenizer(memory, header, new Dictionary(memory, header.getDictionaryAddress(), 3));
+    }
+
+    private static void writeText(Memory memory, String text, int maxWords) {
+        for (int i = 0; i < text.length(); i++) {
+            memory.writeByte(TEXT + 1 + i, text.charAt(i));
+        }
+        memory.writeByte(TEXT + 1 + text.length(), 0);
+        memory.writeByte(PARSE, maxWords);
+    }
+
+    private static void assertBlock(Memory memory, int word, int entryAddress, int length, int position) {
+        final int block = PARSE + 2 + 4 * word;
+        Assert.assertEquals(entryAddress, memory.readWord(block));
+        Assert.assertEquals(length, memory.readByte(block + 2));
+        Assert.assertEquals(position, memory.readByte(block + 3));
+    }
+
+    @Test
+    public void dictionaryShouldFindEveryEntry() {
+        final Memory memory = memory("lamp", "lantern", "take");
+        final Dictionary dictionary = new Dictionary(memory, DICTIONARY, 3);
+        Assert.assertEquals(3, dictionary.getEntryCount());
+        Assert.assertEquals(4, dictionary.getKeyLength());
+        Assert.assertTrue(dictionary.isSeparator(','));
+        Assert.assertFalse(dictionary.isSeparator(' '));
+
+        final Tokenizer tokenizer = tokenizer(memory);
+        writeText(memory, "take", 1);
+        Assert.assertEquals(entry(DICTIONARY, 2), dictionary.lookup(tokenizer.encode(TEXT + 1, 4, 4)));
+        writeText(memory, "lamps", 1);
+        Assert.assertEquals(0, dictionary.lookup(tokenizer.encode(TEXT + 1, 5, 4)));
+    }
+
+    @Test
+    public void wordsShouldBeSplitOnSpacesAndSeparators() {
+        final Memory memory = memory("lamp", "lantern", "take");
+        writeText(memory, " take lamp,lantern", 10);
+        tokenizer(memory).tokenize(TEXT, PARSE, 0, false);
+
+        Assert.assertEquals(4, memory.readByte(PARSE + 1));
+        assertBlock(memory, 0, entry(DICTIONARY, 2), 4, 2);
+        assertBlock(memory, 1, entry(DICTIONARY, 0), 4, 7);
+        assertBlock(memory, 2, 0, 1, 11);
+        /* truncated to 6 Z-characters, like the entries */
+        assertBlock(memory, 3, entry(DICTIONARY, 1), 7, 12);
+    }
+
+    @Test
+    public void wordCountShouldBeLimitedByTheParseBuffer() {
+        final Memory memory = memory("lamp", "take");
+        writeText(memory, "take lamp lamp", 2);
+        tokenizer(memory).tokenize(TEXT, PARSE, 0, false);
+        Assert.assertEquals(2, memory.readByte(PARSE + 1));
+        Assert.assertEquals(0, memory.readWord(PARSE + 2 + 4 * 2));
+    }
+
+    @Test
+    public void unknownWordsShouldBeSkippedWhenFlagged() {
+        final Memory memory = memory("lamp");
+        writeText(memory, "xyzzy lamp", 2);
+        memory.writeWord(PARSE + 2, 0x1234);
+        tokenizer(memory).tokenize(TEXT, PARSE, 0, true);
+        Assert.assertEquals(2, memory.readByte(PARSE + 1));
+        Assert.assertEquals(0x1234, memory.readWord(PARSE + 2));
+        assertBlock(memory, 1, entry(DICTIONARY, 0), 4, 7);
+    }
+
+    @Test
+    public void customDictionariesShouldBeUsed() {
+        final Memory memory = memory("lamp");
+        final int custom = 0x300;
+        writeDictionary(memory, custom, "plugh", "xyzzy");
+        writeText(memory, "xyzzy lamp", 2);
+        final Tokenizer tokenizer = tokenizer(memory);
+        tokenizer.tokenize(TEXT, PARSE, custom, false);
+        assertBlock(memory, 0, entry(custom, 1), 5, 1);
+        assertBlock(memory, 1, 0, 4, 7);
+
+        /* dictionaries in dynamic memory may change between calls */
+        final int dynamic = 0xa0;
+        writeDictionary(memory, dynamic, "plugh");
+        tokenizer.tokenize(TEXT, PARSE, dynamic, false);
+        assertBlock(memory, 0, 0, 5, 1);
+        writeDictionary(memory, dynamic, "xyzzy");
+        tokenizer.tokenize(TEXT, PARSE, dynamic, false);
+        assertBlock(memory, 0, entry(dynamic, 0), 5, 1);
+    }
+
+    @Test
+    public void charactersOutsideTheAlphabetsShouldBeEscaped() {
+        /* '@' isn't in alphabet 2: shift, escape and two halves fill the first word */
+        final Memory memory = memory();
+        writeText(memory, "@", 1);
+        final long key = tokenizer(memory).encode(TEXT + 1, 1, 4);
+        Assert.assertEquals(((long) ((5 << 10) | (6 << 5) | 2) << 16) | (0x8000 | (0 << 10) | (5 << 5) | 5), key);
+    }
+}
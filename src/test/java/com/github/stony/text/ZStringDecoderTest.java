@@ -0,0 +1,94 @@
+package com.github.stony.text;
+
+import com.github.stony.memory.ArrayMemory;
+import com.github.stony.memory.DynamicHeader;
+import com.github.stony.memory.Header;
+import com.github.stony.memory.Memory;
+import com.github.stony.output.Output;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+public class ZStringDecoderTest {
+    private static final int STATIC_BASE = 0x100;
+
+    /**
+     * Returns a story with the given words at the static memory base and at 0x80, in dynamic memory.
+     */
+    private static Memory memory(int version, int... words) {
+        final byte[] fileData = new byte[0x200];
+        fileData[0] = (byte) version;
+        fileData[0x0e] = (byte) (STATIC_BASE >> 8);
+        final Memory memory = new ArrayMemory(fileData);
+        for (int i = 0; i < words.length; i++) {
+            memory.writeWord(STATIC_BASE + 2 * i, words[i]);
+            memory.writeWord(0x80 + 2 * i, words[i]);
+        }
+        return memory;
+    }
+
+    private static int word(int z1, int z2, int z3, boolean last) {
+        return (last ? 0x8000 : 0) | (z1 << 10) | (z2 << 5) | z3;
+    }
+
+    @Test
+    public void shiftLocksShouldBeSupportedUpToVersion2() {
+        /* lock alphabet 1, "AB", lock back to alphabet 0, "c", then a trailing shift lock which prints nothing */
+        final Memory memory = memory(2, word(4, 6, 7, false), word(5, 8, 5, true));
+        Assert.assertEquals("ABc", new ZStringDecoder(memory, new Header(memory)).decode(STATIC_BASE));
+    }
+
+    @Test
+    public void zCharacter1ShouldBeANewLineInVersion1() {
+        final Memory memory = memory(1, word(6, 1, 7, true));
+        Assert.assertEquals("a\rb", new ZStringDecoder(memory, new Header(memory)).decode(STATIC_BASE));
+    }
+
+    @Test
+    public void escapesShouldProduceZscii() {
+        /* shift to alphabet 2, escape, '@' (64) as two 5 bits halves */
+        final Memory memory = memory(3, word(5, 6, 2, false), word(0, 5, 5, true));
+        Assert.assertEquals("@", new ZStringDecoder(memory, new Header(memory)).decode(STATIC_BASE));
+    }
+
+    @Test
+    public void staticStringsShouldBeCached() throws Exception {
+        final Memory memory = memory(3, word(13, 10, 17, false), word(17, 20, 5, true));
+        final ZStringDecoder decoder = new ZStringDecoder(memory, new Header(memory));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final Output output = new Output(memory, new DynamicHeader(memory, new Header(memory)), outputStream);
+
+        Assert.assertEquals(4, decoder.print(STATIC_BASE, output));
+        Assert.assertEquals(4, decoder.print(STATIC_BASE, output));
+        Assert.assertEquals(4, decoder.print(0x80, output));
+        output.flush();
+
+        Assert.assertEquals("hellohellohello", outputStream.toString("UTF-8"));
+        Assert.assertEquals(1, decoder.getHits());
+        Assert.assertEquals(1, decoder.getMisses());
+    }
+
+    @Test
+    public void staticStringsShouldBeReadOnce() throws Exception {
+        final Memory memory = memory(3, word(13, 10, 17, false), word(17, 20, 5, true));
+        final ZStringDecoder decoder = new ZStringDecoder(memory, new Header(memory));
+        final Output output = new Output(memory, new DynamicHeader(memory, new Header(memory)),
+                new ByteArrayOutputStream());
+        decoder.print(STATIC_BASE, output);
+
+        /* only possible with the writable Memory(byte[]): shows that the cache is used */
+        memory.writeWord(STATIC_BASE, word(6, 6, 6, true));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        final Output secondOutput = new Output(memory, new DynamicHeader(memory, new Header(memory)), outputStream);
+        decoder.print(STATIC_BASE, secondOutput);
+        secondOutput.flush();
+        Assert.assertEquals("hello", outputStream.toString("UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cacheSizeShouldBeAPowerOfTwo() {
+        final Memory memory = memory(3);
+        new ZStringDecoder(memory, new Header(memory), 100);
+    }
+}